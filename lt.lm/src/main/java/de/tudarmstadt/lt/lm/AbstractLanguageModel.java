@@ -46,6 +46,13 @@ public abstract class AbstractLanguageModel<W> {
 		return p;
 	}
 
+	public double[] getNgramLogProbabilities(List<W>[] ngram_sequence) {
+		double[] p = new double[ngram_sequence.length];
+		for (int i = 0; i < ngram_sequence.length; i++)
+			p[i] = getNgramLogProbability(ngram_sequence[i]);
+		return p;
+	}
+
 	public abstract double getNgramLogProbability(int[] ngram);
 
 	/**
@@ -62,7 +69,10 @@ public abstract class AbstractLanguageModel<W> {
 	
 
 	public boolean ngramContainsOOV(List<W> ngram){
-		return ngramContainsOOV(getNgramAsIds(ngram));
+		for(W word : ngram)
+			if(isUnkownWord(word))
+				return true;
+		return false;
 	}
 
 	public boolean ngramContainsOOV(int[] ngram){
@@ -73,7 +83,7 @@ public abstract class AbstractLanguageModel<W> {
 	}
 	
 	public boolean ngramEndsWithOOV(List<W> ngram){
-		return ngramEndsWithOOV(getNgramAsIds(ngram));
+		return isUnkownWord(ngram.get(ngram.size() - 1));
 	}
 	
 	public boolean ngramEndsWithOOV(int[] ngram){
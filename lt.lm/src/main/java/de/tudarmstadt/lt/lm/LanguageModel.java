@@ -40,6 +40,8 @@ public interface LanguageModel<W> {
 
 	public double getSequenceLogProbability(List<W>[] ngram_sequence) throws Exception;
 
+	public double[] getNgramLogProbabilities(List<W>[] ngram_sequence) throws Exception;
+
 	public double getNgramLogProbability(int[] ngram) throws Exception;
 
 	/**
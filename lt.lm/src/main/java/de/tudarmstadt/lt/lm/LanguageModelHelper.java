@@ -19,6 +19,7 @@ import org.slf4j.LoggerFactory;
 import de.tudarmstadt.lt.lm.app.GenerateNgramIndex;
 import de.tudarmstadt.lt.lm.berkeleylm.BerkeleyLM;
 import de.tudarmstadt.lt.lm.berkeleylm.KneserNeyLmReaderCallbackWrapper;
+import de.tudarmstadt.lt.lm.berkeleylm.StreamingArpaReader;
 import de.tudarmstadt.lt.lm.berkeleylm.TextReader;
 import de.tudarmstadt.lt.lm.lucenebased.CountingStringLM;
 import de.tudarmstadt.lt.lm.lucenebased.KneserNeyLM;
@@ -30,7 +31,6 @@ import edu.berkeley.nlp.lm.ArrayEncodedProbBackoffLm;
 import edu.berkeley.nlp.lm.ConfigOptions;
 import edu.berkeley.nlp.lm.StringWordIndexer;
 import edu.berkeley.nlp.lm.WordIndexer;
-import edu.berkeley.nlp.lm.io.ArpaLmReader;
 import edu.berkeley.nlp.lm.io.KneserNeyFileWritingLmReaderCallback;
 import edu.berkeley.nlp.lm.io.LmReaders;
 
@@ -196,7 +196,7 @@ public class LanguageModelHelper {
 		indexer = new StringWordIndexer();
 		ConfigOptions opts = new ConfigOptions();
 		opts.unknownWordLogProb = kneserNeyUnkLog10Prob;
-		ArrayEncodedProbBackoffLm<String> lm = LmReaders.readArrayEncodedLmFromArpa(new ArpaLmReader<String>(arpa_file.getAbsolutePath(), indexer, Integer.MAX_VALUE), Properties.useCompressedBerkelyLM(), indexer, opts);
+		ArrayEncodedProbBackoffLm<String> lm = LmReaders.readArrayEncodedLmFromArpa(new StreamingArpaReader<String>(arpa_file, indexer, Integer.MAX_VALUE), Properties.useCompressedBerkelyLM(), indexer, opts);
 		LOG.info("Finished reading language model from '{}'.", arpa_file);
 		BerkeleyLM<String> blm = new BerkeleyLM<String>(lm);
 
@@ -204,6 +204,16 @@ public class LanguageModelHelper {
 		return blm;
 	}
 
+	/**
+	 * Stream the ARPA file into BerkeleyLM's array encoded representation and write it as BerkeleyLM binary, which loads
+	 * faster than the ARPA file. Only the encoded language model is held in memory, not the ARPA text.
+	 */
+	public static void convertArpaToBinary(File arpa_file, File binary_file, float kneserNeyUnkLog10Prob){
+		BerkeleyLM<String> blm = (BerkeleyLM<String>)readFromArpa(arpa_file, kneserNeyUnkLog10Prob);
+		LOG.info("Writing language model to binary file '{}'.", binary_file.getAbsolutePath());
+		saveAsBinary(blm, binary_file);
+	}
+
 	public static LanguageModel<String> createBerkelyLmFromTxtFilesInDirectory(AbstractStringProvider stringProvider, File srcdir, int order, float kneserNeyUnkLog10Prob, double discount, int mincount, boolean overwrite) {
 		String arpa_file_name = srcdir.getName() + "." + order + ".arpa.gz";
 		File arpa_file = new File(srcdir, arpa_file_name);
@@ -0,0 +1,82 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.app;
+
+import java.io.File;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStore;
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStoreWriter;
+import de.tudarmstadt.lt.utilities.cli.CliUtils;
+import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
+
+/**
+ * Convert the lucene ngram index of an index directory into a binary count store, which is then used by {@link de.tudarmstadt.lt.lm.lucenebased.CountingStringLM}.
+ *
+ * @author Steffen Remus
+ */
+public class ConvertNgramIndex implements Runnable {
+
+	private final static String USAGE_HEADER = "Options:";
+
+	private static final Logger LOG = LoggerFactory.getLogger(ConvertNgramIndex.class);
+
+	public static void main(String[] args) {
+		new ConvertNgramIndex(args).run();
+	}
+
+	@SuppressWarnings("static-access")
+	public ConvertNgramIndex(String[] args) {
+		Options opts = new Options();
+
+		opts.addOption(new Option("?", "help", false, "display this message"));
+		opts.addOption(OptionBuilder.withLongOpt("index").withArgName("dir").hasArg().isRequired().withDescription("Specify the index directory that contains the 'ngram' index, e.g. <dir>/.lmindex.").create("i"));
+		opts.addOption(OptionBuilder.withLongOpt("out").withArgName("dir").hasArg().withDescription(String.format("Specify the output directory (default: '<index>/%s').", BinaryCountStore.DIRECTORY)).create("o"));
+
+		try {
+			CommandLine cmd = new ExtendedGnuParser(true).parse(opts, args);
+			if (cmd.hasOption("help"))
+				CliUtils.print_usage_quit(System.err, getClass().getSimpleName(), opts, USAGE_HEADER, null, 0);
+
+			_index_dir = new File(cmd.getOptionValue("index"));
+			_out_dir = new File(cmd.getOptionValue("out", new File(_index_dir, BinaryCountStore.DIRECTORY).getPath()));
+
+		} catch (Exception e) {
+			LOG.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+			CliUtils.print_usage_quit(System.err, getClass().getSimpleName(), opts, USAGE_HEADER, String.format("%s: %s%n", e.getClass().getSimpleName(), e.getMessage()), 1);
+		}
+	}
+
+	File _index_dir;
+	File _out_dir;
+
+	@Override
+	public void run() {
+		try {
+			BinaryCountStoreWriter.convert(_index_dir, _out_dir);
+		} catch (Exception e) {
+			LOG.error("Could not convert ngram index '{}'.", _index_dir.getAbsolutePath(), e);
+			System.exit(1);
+		}
+	}
+
+}
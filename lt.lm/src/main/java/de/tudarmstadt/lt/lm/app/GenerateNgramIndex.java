@@ -15,23 +15,30 @@
  */
 package de.tudarmstadt.lt.lm.app;
 
-import static de.tudarmstadt.lt.utilities.ProcessUtils.run_process;
-
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.LineIterator;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
@@ -39,6 +46,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexWriter;
@@ -50,12 +58,17 @@ import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStore;
+import de.tudarmstadt.lt.lm.lucenebased.CountingStringLM;
+import de.tudarmstadt.lt.lm.lucenebased.MappedVocabulary;
+import de.tudarmstadt.lt.lm.lucenebased.NgramCounter;
 import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
 import de.tudarmstadt.lt.lm.service.LtSegProvider;
 import de.tudarmstadt.lt.lm.util.Properties;
-import de.tudarmstadt.lt.utilities.ArrayUtils;
 import de.tudarmstadt.lt.utilities.cli.CliUtils;
 import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
+import de.tudarmstadt.lt.utilities.collections.BloomFilter;
+import de.tudarmstadt.lt.utilities.io.BlockGzipInputStream;
 
 /**
  *
@@ -66,8 +79,6 @@ public class GenerateNgramIndex implements Runnable {
 	private static Logger LOG = LoggerFactory.getLogger(GenerateNgramIndex.class);
 	private final static String USAGE_HEADER = "Options:";
 
-	private static File py_src = new File(Properties.pythonBinariesDirectory());
-	
 	public static void main(String[] args) throws IOException {
 		new GenerateNgramIndex(args).run();
 	}
@@ -143,7 +154,7 @@ public class GenerateNgramIndex implements Runnable {
 	boolean _overwrite;
 	int _mincount;
 	
-	File _ngram_file;
+	File[] _ngram_files;
 	
 	String _provider_type_;
 	AbstractStringProvider _provider;
@@ -161,20 +172,30 @@ public class GenerateNgramIndex implements Runnable {
 	public void run() {
 		if(!_index_dir.exists())
 			_index_dir.mkdir();
-		_ngram_file = new File(_index_dir, "ngram.raw.txt.gz");
-		if(_overwrite && _ngram_file.exists())
-			_ngram_file.delete();
+		File ngram_file = new File(_index_dir, "ngram.raw.txt.gz");
+		final int num_shards = Properties.numWorkerThreads();
+		_ngram_files = Ngrams.getShardFiles(ngram_file.getAbsolutePath(), num_shards);
+		if(!_overwrite && ngram_file.exists()) // unsharded ngram file of a previous run
+			_ngram_files = new File[]{ ngram_file };
 		
-		if(!_ngram_file.exists()){
+		boolean complete = true;
+		for(File f : _ngram_files)
+			complete &= f.exists();
+		if(_overwrite || !complete){
+			ngram_file.delete();
+			for(File f : _ngram_files)
+				f.delete();
 			new Ngrams(){{
 
 				_provider_type = _provider_type_;
 				_prvdr = _provider;
 				_file = _file_;
-				_out = _ngram_file.getAbsolutePath();
+				_out = ngram_file.getAbsolutePath();
 				_order_from = _order_from_;
 				_order_to = _order_to_;
 				_accross_sentences = _accross_sentences_;
+				_num_threads = num_shards;
+				_num_shards = num_shards;
 
 			}}.run();
 		}
@@ -223,93 +244,25 @@ public class GenerateNgramIndex implements Runnable {
 		return _index_dir;
 	}
 
-	public void count_ngrams(){
-		String sort_extra_param = "";
-		if(Properties.additionalSortParam() != null && !Properties.additionalSortParam().isEmpty()){
-			sort_extra_param = Properties.additionalSortParam();
-			sort_extra_param = sort_extra_param.replace("${indexdir}", _index_dir.getAbsolutePath());
-			LOG.info("Sort extra parameter = '{}'", sort_extra_param);
-		}
-		LOG.info("Current directory: '{}'", new File("").getAbsolutePath());
-		
-		String command = null;
-		LOG.info(String.format("Counting ngrams."));
+	/**
+	 * Count ngrams and compute the vocabulary, N_follow, N_precede and N_follower_precede in a single pass over the ngram file (see {@link NgramCounter}).
+	 */
+	public void count_ngrams() throws IOException {
 		File ngram_count_file = new File(_index_dir,"ngram.counts.txt.gz");
-		if(ngram_count_file.exists() && !_overwrite)
-			LOG.info("File '{}' already exists.", ngram_count_file);
-		else{
-			command = String.format("(export LC_ALL=C; cat %s | gzip -c -d | python mr_ngram_count.py -m | sort %s | python mr_ngram_count.py -r %d | gzip -c > %s)",
-					_ngram_file.getAbsolutePath(),
-					sort_extra_param,
-					_mincount,
-					ngram_count_file.getAbsolutePath());
-			run_process(command, py_src, true);
-		}
-
-		LOG.info(String.format("Extracting vocabulary."));
 		File ngram_vocabulary = new File(_index_dir,"ngram.vocabulary.txt.gz");
-		if(ngram_vocabulary.exists() && !_overwrite)
-			LOG.info("File '{}' already exists.", ngram_vocabulary.getAbsolutePath());
-		else{
-			command = String.format("(export LC_ALL=C; cat %s | gzip -c -d | python mr_ngram_vocab.py -m | sort %s | python mr_ngram_vocab.py -r | gzip -c > %s)",
-					ngram_count_file.getAbsolutePath(),
-					sort_extra_param,
-					ngram_vocabulary.getAbsolutePath());
-			run_process(command, py_src, true);
-		}
-
-		LOG.info(String.format("Counting N_follow = N(w,x)."));
-		File words_following_ngram_count_file = new File(_index_dir,"ngram.counts.nfollow.txt.gz");
-		if(words_following_ngram_count_file.exists() && !_overwrite)
-			LOG.info("File '{}' already exists.", words_following_ngram_count_file.getAbsolutePath());
-		else{
-			command = String.format("(export LC_ALL=C; cat %s | gzip -c -d | python mr_ngram_nfollow.py -m | sort -k1,1 -t$'\t' %s | python mr_ngram_nfollow.py -r | gzip -c > %s)", // just sort is ok too
-					ngram_count_file.getAbsolutePath(),
-					sort_extra_param,
-					words_following_ngram_count_file.getAbsolutePath());
-			run_process(command, py_src, true);
-		}
-
-		LOG.info(String.format("Counting N_precede = N(x,w)."));
-		File words_preceding_ngram_count_file = new File(_index_dir, "ngram.counts.nprecede.txt.gz");
-		if(words_preceding_ngram_count_file.exists() && !_overwrite)
-			LOG.info("File '{}' already exists.", words_preceding_ngram_count_file.getAbsolutePath());
-		else{
-			command = String.format("(export LC_ALL=C; cat %s | gzip -c -d | python mr_ngram_nprecede.py -m | sort -k1,1 -t$'\t' %s | python mr_ngram_nprecede.py -r | gzip -c > %s)", //-k1,1 -k2,2 -t $'\t'
-					ngram_count_file.getAbsolutePath(),
-					sort_extra_param,
-					words_preceding_ngram_count_file.getAbsolutePath());
-			run_process(command, py_src, true);
-		}
-		
-		LOG.info(String.format("Counting N_follower_precede = N(x,ngram,x)."));
-		File follower_preceding_count_file = new File(_index_dir, "ngram.counts.nfollowerprecede.txt.gz");
-		if(follower_preceding_count_file.exists() && !_overwrite)
-			LOG.info("File '{}' already exists.", follower_preceding_count_file.getAbsolutePath());
-		else{
-			command = String.format("(export LC_ALL=C; cat %s | gzip -c -d | python mr_ngram_nfollowerprecede.py -m | sort -k1,1 -t$'\t' %s | python mr_ngram_nfollowerprecede.py -r | gzip -c > %s)", //-k1,1 -k2,2 -t $'\t'
-					ngram_count_file.getAbsolutePath(),
-					sort_extra_param,
-					follower_preceding_count_file.getAbsolutePath());
-			run_process(command, py_src, true);
-		}
-
-		LOG.info(String.format("Joining ngram counts."));
 		File ngram_joined_counts_file = new File(_index_dir, "ngram.counts.joined.txt.gz");
-		if(ngram_joined_counts_file.exists() && !_overwrite)
-			LOG.info("File '{}' already exists.", ngram_joined_counts_file.getAbsolutePath());
-		else{
-			command = String.format("(export LC_ALL=C; join -a1 -e '' -1 1 -2 1 -t $'\t' <(cat %s | gzip -c -d) <(cat %s | gzip -c -d) | join -a1 -e '' -1 1 -2 1 -t $'\t' - <(cat %s | gzip -c -d) | join -a1 -e '' -1 1 -2 1 -t $'\t' - <(cat %s | gzip -c -d) | gzip -c > %s)",
-					ngram_count_file.getAbsolutePath(),
-					words_preceding_ngram_count_file.getAbsolutePath(),
-					words_following_ngram_count_file.getAbsolutePath(),
-					follower_preceding_count_file.getAbsolutePath(),
-					ngram_joined_counts_file.getAbsolutePath());
-			run_process(command, new File("."), true);
+		if(ngram_count_file.exists() && ngram_vocabulary.exists() && ngram_joined_counts_file.exists() && !_overwrite){
+			LOG.info("Files '{}', '{}' and '{}' already exist.", ngram_count_file.getAbsolutePath(), ngram_vocabulary.getAbsolutePath(), ngram_joined_counts_file.getAbsolutePath());
+			return;
 		}
-
+		new NgramCounter(_mincount).count(Arrays.asList(_ngram_files), ngram_count_file, ngram_vocabulary, ngram_joined_counts_file);
 	}
 
+	/**
+	 * Lines of the joined counts file are read and decompressed by the calling thread and added in batches by
+	 * {@link Properties#numWorkerThreads()} threads, each with its own reusable document. With {@link Properties#indexShards()}
+	 * every thread writes an independent shard, which are merged into the ngram index at the end.
+	 */
 	public void create_ngram_index(File ngram_joined_counts_file) throws IOException{
 		File index_dir = new File(_index_dir, "ngram");
 		if(index_dir.exists()){
@@ -322,181 +275,282 @@ public class GenerateNgramIndex implements Runnable {
 				return;
 		}
 		index_dir.mkdirs();
+		// a binary count store converted from a previous index is stale now
+		FileUtils.deleteQuietly(new File(_index_dir, BinaryCountStore.DIRECTORY));
 
-		Analyzer analyzer = new KeywordAnalyzer();
-		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_9, analyzer);
-		iwc.setOpenMode(OpenMode.CREATE);
+		final int num_threads = Properties.numWorkerThreads();
+		final boolean shards = Properties.indexShards() && num_threads > 1;
+		double ram_buffer_mb = -1;
 		// use 80 percent of the available total memory
 		double total_mem_mb = (double)Runtime.getRuntime().maxMemory() / 1e6;
 		double percentage_ram_buffer = Properties.ramBufferPercentage();
 		if(percentage_ram_buffer > 0){
-			double percentage_ram_buffer_mb = total_mem_mb * percentage_ram_buffer;
-			LOG.info(String.format("Setting ram buffer size to %.2f MB (%.2f%% from %.2f MB)", percentage_ram_buffer_mb, percentage_ram_buffer * 100, total_mem_mb));
-			iwc.setRAMBufferSizeMB(percentage_ram_buffer_mb);
+			ram_buffer_mb = total_mem_mb * percentage_ram_buffer;
+			LOG.info(String.format("Setting ram buffer size to %.2f MB (%.2f%% from %.2f MB)", ram_buffer_mb, percentage_ram_buffer * 100, total_mem_mb));
+		}
+		final IndexWriter writer_ngram = new IndexWriter(new MMapDirectory(index_dir), newIndexWriterConfig(ram_buffer_mb));
+		final double shard_ram_buffer_mb = ram_buffer_mb / num_threads;
+
+		final List<NgramDocument> documents = Collections.synchronizedList(new ArrayList<NgramDocument>());
+		final AtomicInteger shard_ids = new AtomicInteger();
+		boolean success = false;
+		try{
+			LOG.info("Adding ngrams to index using {} threads{}.", num_threads, shards ? " and one shard per thread" : "");
+			final ThreadLocal<NgramDocument> thread_document = ThreadLocal.withInitial(() -> {
+				IndexWriter writer = writer_ngram;
+				if(shards){
+					try {
+						writer = new IndexWriter(new MMapDirectory(new File(_index_dir, "ngram.shard" + shard_ids.getAndIncrement())), newIndexWriterConfig(shard_ram_buffer_mb));
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+				NgramDocument d = new NgramDocument(writer);
+				documents.add(d);
+				return d;
+			});
+
+			ExecutorService executor = Executors.newFixedThreadPool(num_threads);
+			final Semaphore batches = new Semaphore(2 * num_threads);
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			final AtomicLong num_added = new AtomicLong();
+			final long begin = System.currentTimeMillis();
+			InputStream in = BlockGzipInputStream.open(ngram_joined_counts_file, Properties.decompressionThreads());
+			try(BufferedReader r = new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16)){
+				long c = 0;
+				List<String> batch = new ArrayList<String>(INDEX_BATCH_SIZE);
+				for(String line; ; batch.add(line)){
+					line = r.readLine();
+					if(line == null || batch.size() >= INDEX_BATCH_SIZE){
+						final List<String> batch_ = batch;
+						final long first_line = c - batch.size() + 1;
+						batches.acquire();
+						futures.add(executor.submit(() -> {
+							try{
+								NgramDocument d = thread_document.get();
+								for(int i = 0; i < batch_.size(); i++)
+									d.add(batch_.get(i), first_line + i, ngram_joined_counts_file);
+								long added = num_added.addAndGet(batch_.size());
+								if(added / INDEX_PROGRESS_INTERVAL != (added - batch_.size()) / INDEX_PROGRESS_INTERVAL)
+									LOG.info(String.format("Added %,d ngrams (%,.0f ngrams/s).", added, added * 1000d / Math.max(1, System.currentTimeMillis() - begin)));
+							}finally{
+								batches.release();
+							}
+							return null;
+						}));
+						if(line == null)
+							break;
+						batch = new ArrayList<String>(INDEX_BATCH_SIZE);
+					}
+					c++;
+				}
+				for(Future<?> f : futures)
+					f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException)
+					throw (IOException)e.getCause();
+				if(e.getCause() instanceof UncheckedIOException)
+					throw ((UncheckedIOException)e.getCause()).getCause();
+				throw new IOException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+			LOG.info(String.format("Added %,d ngrams in %d s (%,.0f ngrams/s).", num_added.get(), (System.currentTimeMillis() - begin) / 1000, num_added.get() * 1000d / Math.max(1, System.currentTimeMillis() - begin)));
+
+			if(shards){
+				List<Directory> shard_dirs = new ArrayList<Directory>();
+				for(NgramDocument d : documents){
+					d._writer.commit();
+					shard_dirs.add(d._writer.getDirectory());
+					d._writer.close();
+				}
+				LOG.info("Merging {} shards into '{}'.", shard_dirs.size(), index_dir.getAbsolutePath());
+				writer_ngram.addIndexes(shard_dirs.toArray(new Directory[shard_dirs.size()]));
+			}
+			writer_ngram.forceMergeDeletes();
+			writer_ngram.commit();
+			writer_ngram.close();
+			success = true;
+		}finally{
+			if(!success){
+				// release the write locks, committed shards are merged only on success
+				for(NgramDocument d : documents)
+					rollbackQuietly(d._writer);
+				rollbackQuietly(writer_ngram);
+			}
+			for(int i = 0; i < shard_ids.get(); i++)
+				FileUtils.deleteQuietly(new File(_index_dir, "ngram.shard" + i));
 		}
-		
-		Directory directory = new MMapDirectory(index_dir);
-		IndexWriter writer_ngram = new IndexWriter(directory, iwc);
 
-		InputStream in = new FileInputStream(ngram_joined_counts_file);
-		if(ngram_joined_counts_file.getName().endsWith(".gz"))
-			in = new GZIPInputStream(in);
-		LineIterator iter = new LineIterator(new BufferedReader(new InputStreamReader(in,"UTF-8")));
-		
-		Document doc = new Document();
-		Field f_ngram = new StringField("ngram", "", Store.YES); doc.add(f_ngram);
-		Field f_n = new IntField("cardinality", 0, Store.YES); doc.add(f_n);
-		Field f_word = new StringField("word", "", Store.YES); doc.add(f_word);
-		Field f_hist = new StringField("history", "", Store.YES); doc.add(f_hist);
-		Field f_lower = new StringField("lower", "", Store.YES); doc.add(f_lower);
-		Field f_count = new StoredField("num", 0L); doc.add(f_count);
-		
-		Field[] f_follow = new Field[4];
-		f_follow[0] = new StoredField("nf_s", 0L); doc.add(f_follow[0]);
-		f_follow[1] = new StoredField("nf_N1", 0L); doc.add(f_follow[1]);
-		f_follow[2] = new StoredField("nf_N2", 0L); doc.add(f_follow[2]);
-		f_follow[3] = new StoredField("nf_N3", 0L); doc.add(f_follow[3]);
-		Field[] f_precede = new Field[4];
-		f_precede[0] = new StoredField("np_s", 0L); doc.add(f_precede[0]);
-		f_precede[1] = new StoredField("np_N1", 0L); doc.add(f_precede[1]);
-		f_precede[2] = new StoredField("np_N2", 0L); doc.add(f_precede[2]);
-		f_precede[3] = new StoredField("np_N3", 0L); doc.add(f_precede[3]);
-		Field[] f_followerprecede = new Field[4];
-		f_followerprecede[0] = new StoredField("nfp_s", 0L); doc.add(f_followerprecede[0]);
-		f_followerprecede[1] = new StoredField("nfp_N1", 0L); doc.add(f_followerprecede[1]);
-		f_followerprecede[2] = new StoredField("nfp_N2", 0L); doc.add(f_followerprecede[2]);
-		f_followerprecede[3] = new StoredField("nfp_N3", 0L); doc.add(f_followerprecede[3]);
-		
-		Long[][] N = new Long[][]{{0L,0L,0L,0L,0L,0L}};
-		Long[] S = new Long[] { 0L };
-		long c = 0;
-		while(iter.hasNext()){
-			if(++c % 100000 == 0)
-				LOG.info("Adding {}'th ngram.", c);
-			String line = iter.next();
+		long[][] N = new long[1][6];
+		long[] S = new long[1];
+		for(NgramDocument d : documents){
+			if(d._N.length > N.length){
+				N = Arrays.copyOf(N, d._N.length);
+				S = Arrays.copyOf(S, d._S.length);
+				for(int n = 0; n < N.length; n++)
+					if(N[n] == null)
+						N[n] = new long[6];
+			}
+			for(int n = 0; n < d._N.length; n++){
+				for(int i = 0; i < 6; i++)
+					N[n][i] += d._N[n][i];
+				S[n] += d._S[n];
+			}
+		}
+		StringBuilder b = new StringBuilder(String.format("#%n# Number of times where an ngram occurred: %n#  at_least_once, exactly_once, exactly_twice, exactly_three_times, exactly_four_times, five_times_or_more.%n#%nmax_n=%d%nmax_c=6%n", N.length-1));
+		for(int n = 1; n < N.length; n++)
+			b.append(String.format("n%d=%s%n", n, StringUtils.join(ArrayUtils.toObject(N[n]),',')));
+		for(int n = 1; n < S.length; n++)
+			b.append(String.format("s%d=%d%n", n, S[n]));
+		FileUtils.writeStringToFile(new File(_index_dir, "__sum_ngrams__"), b.toString());
+	
+	}
+
+	static void rollbackQuietly(IndexWriter writer) {
+		try {
+			writer.rollback();
+		} catch (IOException e) {
+			LOG.warn("Could not close index writer of '{}'.", writer.getDirectory(), e);
+		}
+	}
+
+	static final int INDEX_BATCH_SIZE = 10000;
+
+	static final long INDEX_PROGRESS_INTERVAL = 100000;
+
+	static IndexWriterConfig newIndexWriterConfig(double ram_buffer_mb) {
+		IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_4_9, new KeywordAnalyzer());
+		iwc.setOpenMode(OpenMode.CREATE);
+		if(ram_buffer_mb > 0)
+			iwc.setRAMBufferSizeMB(ram_buffer_mb);
+		return iwc;
+	}
+
+	/**
+	 * Reusable ngram document of one indexing thread and the number of ngrams per order and count (see '__sum_ngrams__')
+	 * of the ngrams it added.
+	 */
+	static class NgramDocument {
+
+		final IndexWriter _writer;
+		final Document _doc = new Document();
+		final Field _f_ngram = new StringField("ngram", "", Store.YES);
+		final Field _f_n = new IntField("cardinality", 0, Store.YES);
+		final Field _f_word = new StringField("word", "", Store.YES);
+		final Field _f_hist = new StringField("history", "", Store.YES);
+		final Field _f_lower = new StringField("lower", "", Store.YES);
+		final Field _f_count = new StoredField("num", 0L);
+		final Field[] _f_follow = new Field[4];
+		final Field[] _f_precede = new Field[4];
+		final Field[] _f_followerprecede = new Field[4];
+		// count columns for lookups without loading stored documents
+		final Field _f_count_dv = new NumericDocValuesField("num", 0L);
+		final Field[] _f_follow_dv = new Field[4];
+		final Field[] _f_precede_dv = new Field[4];
+		final Field[] _f_followerprecede_dv = new Field[4];
+
+		long[][] _N = new long[1][6];
+		long[] _S = new long[1];
+
+		NgramDocument(IndexWriter writer) {
+			_writer = writer;
+			_doc.add(_f_ngram);
+			_doc.add(_f_n);
+			_doc.add(_f_word);
+			_doc.add(_f_hist);
+			_doc.add(_f_lower);
+			_doc.add(_f_count);
+			String[] suffixes = new String[]{ "_s", "_N1", "_N2", "_N3" };
+			for(int j = 0; j < 4; j++){ _f_follow[j] = new StoredField("nf" + suffixes[j], 0L); _doc.add(_f_follow[j]); }
+			for(int j = 0; j < 4; j++){ _f_precede[j] = new StoredField("np" + suffixes[j], 0L); _doc.add(_f_precede[j]); }
+			for(int j = 0; j < 4; j++){ _f_followerprecede[j] = new StoredField("nfp" + suffixes[j], 0L); _doc.add(_f_followerprecede[j]); }
+			_doc.add(_f_count_dv);
+			for(int j = 1; j < 4; j++){
+				_f_follow_dv[j] = new NumericDocValuesField("nf_N" + j, 0L); _doc.add(_f_follow_dv[j]);
+				_f_precede_dv[j] = new NumericDocValuesField("np_N" + j, 0L); _doc.add(_f_precede_dv[j]);
+				_f_followerprecede_dv[j] = new NumericDocValuesField("nfp_N" + j, 0L); _doc.add(_f_followerprecede_dv[j]);
+			}
+		}
+
+		/**
+		 * parse a line of the joined counts file and add it to the index, malformed lines are logged and skipped
+		 */
+		void add(String line, long c, File ngram_joined_counts_file) throws IOException {
 			try{
 				String[] splits = de.tudarmstadt.lt.utilities.StringUtils.rtrim(line).split("\t");
 				String ngram_str = splits[0];
 				if(de.tudarmstadt.lt.utilities.StringUtils.trim(ngram_str).isEmpty()){
 					LOG.warn("Ngram is empty, skipping line {}: '{}' (file '{}').", c, line, ngram_joined_counts_file);
-					continue;
+					return;
 				}
-					
+
 				List<String> ngram = Arrays.asList(ngram_str.split(" "));
 				long num = Long.parseLong(splits[1]);
 				int n = ngram.size();
 
-				f_ngram.setStringValue(ngram_str);
-				f_n.setIntValue(n);
-				f_word.setStringValue(ngram.get(ngram.size()-1));
-				f_hist.setStringValue(StringUtils.join(ngram.subList(0, ngram.size()-1), " "));
-				f_lower.setStringValue(StringUtils.join(ngram.subList(1, ngram.size()), " "));
-				f_count.setLongValue(num);
-				
-				for(int j = 0; j < f_follow.length; j++){
-					f_follow[j].setLongValue(0L);
-					f_precede[j].setLongValue(0L);
-					f_followerprecede[j].setLongValue(0L);
-				}
-				
-				if(splits.length > 2 && !splits[2].isEmpty()){
-					// precede or follow or followerprecede
-					String[] splits_ = splits[2].split(":");
-					String type = splits_[0];
-					String[] count_values = splits_[1].split(",");
-					if(count_values.length > 0){
-						if("n_f".equals(type))
-							f_follow[0].setLongValue(Long.parseLong(count_values[0]));
-						else if("n_p".equals(type))
-							f_precede[0].setLongValue(Long.parseLong(count_values[0]));
-						else if("n_fp".equals(type))
-							f_followerprecede[0].setLongValue(Long.parseLong(count_values[0]));
-					}
-					for(int i = 1; i < count_values.length; i++){
-						if("n_f".equals(type))
-							f_follow[i].setLongValue(Long.parseLong(count_values[i]));
-						else if("n_p".equals(type))
-							f_precede[i].setLongValue(Long.parseLong(count_values[i]));
-						else if("n_fp".equals(type))
-							f_followerprecede[i].setLongValue(Long.parseLong(count_values[i]));
-					}
+				_f_ngram.setStringValue(ngram_str);
+				_f_n.setIntValue(n);
+				_f_word.setStringValue(ngram.get(ngram.size()-1));
+				_f_hist.setStringValue(StringUtils.join(ngram.subList(0, ngram.size()-1), " "));
+				_f_lower.setStringValue(StringUtils.join(ngram.subList(1, ngram.size()), " "));
+				_f_count.setLongValue(num);
+
+				for(int j = 0; j < _f_follow.length; j++){
+					_f_follow[j].setLongValue(0L);
+					_f_precede[j].setLongValue(0L);
+					_f_followerprecede[j].setLongValue(0L);
 				}
-				if(splits.length > 3 && !splits[3].isEmpty()){
-					// should be follow or followerprecede
-					String[] splits_ = splits[3].split(":");
+
+				// columns 2 to 4 hold the precede, follow and followerprecede counts
+				for(int k = 2; k < splits.length && k <= 4; k++){
+					if(splits[k].isEmpty())
+						continue;
+					String[] splits_ = splits[k].split(":");
 					String type = splits_[0];
 					String[] count_values = splits_[1].split(",");
-					if(count_values.length > 0){
-						if("n_f".equals(type))
-							f_follow[0].setLongValue(Long.parseLong(count_values[0]));
-						else if("n_p".equals(type))
-							f_precede[0].setLongValue(Long.parseLong(count_values[0]));
-						else if("n_fp".equals(type))
-							f_followerprecede[0].setLongValue(Long.parseLong(count_values[0]));
-					}
-					for(int i = 1; i < count_values.length; i++){
-						if("n_f".equals(type))
-							f_follow[i].setLongValue(Long.parseLong(count_values[i]));
-						else if("n_p".equals(type))
-							f_precede[i].setLongValue(Long.parseLong(count_values[i]));
-						else if("n_fp".equals(type))
-							f_followerprecede[i].setLongValue(Long.parseLong(count_values[i]));
-					}
+					Field[] f = "n_f".equals(type) ? _f_follow : "n_p".equals(type) ? _f_precede : "n_fp".equals(type) ? _f_followerprecede : null;
+					if(f == null)
+						continue;
+					for(int i = 0; i < count_values.length; i++)
+						f[i].setLongValue(Long.parseLong(count_values[i]));
 				}
-				if(splits.length > 4 && !splits[4].isEmpty()){
-					// should be followerprecede
-					String[] splits_ = splits[4].split(":");
-					String type = splits_[0];
-					String[] count_values = splits_[1].split(",");
-					if(count_values.length > 0){
-						if("n_f".equals(type))
-							f_follow[0].setLongValue(Long.parseLong(count_values[0]));
-						else if("n_p".equals(type))
-							f_precede[0].setLongValue(Long.parseLong(count_values[0]));
-						else if("n_fp".equals(type))
-							f_followerprecede[0].setLongValue(Long.parseLong(count_values[0]));
-					}
-					for(int i = 1; i < count_values.length; i++){
-						if("n_f".equals(type))
-							f_follow[i].setLongValue(Long.parseLong(count_values[i]));
-						else if("n_p".equals(type))
-							f_precede[i].setLongValue(Long.parseLong(count_values[i]));
-						else if("n_fp".equals(type))
-							f_followerprecede[i].setLongValue(Long.parseLong(count_values[i]));
-					}
+
+				_f_count_dv.setLongValue(num);
+				for(int j = 1; j < 4; j++){
+					_f_follow_dv[j].setLongValue(_f_follow[j].numericValue().longValue());
+					_f_precede_dv[j].setLongValue(_f_precede[j].numericValue().longValue());
+					_f_followerprecede_dv[j].setLongValue(_f_followerprecede[j].numericValue().longValue());
 				}
 
-				writer_ngram.addDocument(doc);
-				
-				while(N.length <= n){
-					N = ArrayUtils.getConcatinatedArray(N, new Long[][]{{0L,0L,0L,0L,0L,0L}});
-					S = ArrayUtils.getConcatinatedArray(S, new Long[]{ 0L });
+				_writer.addDocument(_doc);
+
+				if(_N.length <= n){
+					int length = _N.length;
+					_N = Arrays.copyOf(_N, n + 1);
+					_S = Arrays.copyOf(_S, n + 1);
+					for(int i = length; i <= n; i++)
+						_N[i] = new long[6];
 				}
-				
-				if(num == 1L) 		N[n][1]++;
-				else if(num == 2L) 	N[n][2]++;
-				else if(num == 3L)	N[n][3]++;
-				else if(num == 4L)	N[n][4]++;
-				else 				N[n][5]++;
-				N[n][0]++;
-				S[n] += num;
 
+				if(num == 1L) 		_N[n][1]++;
+				else if(num == 2L) 	_N[n][2]++;
+				else if(num == 3L)	_N[n][3]++;
+				else if(num == 4L)	_N[n][4]++;
+				else 				_N[n][5]++;
+				_N[n][0]++;
+				_S[n] += num;
+
+			}catch(IOException e){
+				throw e;
 			}catch(Exception e){
 				LOG.error("Could not process line '{}' in file '{}:{}', malformed line.", line, ngram_joined_counts_file, c, e);
 			}
 		}
 
-		writer_ngram.forceMergeDeletes();
-		writer_ngram.commit();
-		writer_ngram.close();
-		
-		StringBuilder b = new StringBuilder(String.format("#%n# Number of times where an ngram occurred: %n#  at_least_once, exactly_once, exactly_twice, exactly_three_times, exactly_four_times, five_times_or_more.%n#%nmax_n=%d%nmax_c=6%n", N.length-1));
-		for(int n = 1; n < N.length; n++)
-			b.append(String.format("n%d=%s%n", n, StringUtils.join(N[n],',')));
-		for(int n = 1; n < S.length; n++)
-			b.append(String.format("s%d=%d%n", n, S[n]));
-		FileUtils.writeStringToFile(new File(_index_dir, "__sum_ngrams__"), b.toString());
-	
 	}
 
 	public void create_vocabulary_index(File vocabulary_file) throws IOException{
@@ -507,8 +561,11 @@ public class GenerateNgramIndex implements Runnable {
 				LOG.info("Overwriting index '{}',", index_dir);
 				index_dir.delete();
 			}
-			else
+			else{
+				if(!MappedVocabulary.exists(_index_dir) || (Properties.oovFilterFalsePositiveRate() > 0 && !new File(_index_dir, CountingStringLM.OOV_FILTER_FILE).exists()))
+					create_mapped_vocabulary(vocabulary_file);
 				return;
+			}
 		}
 		index_dir.mkdirs();
 		Analyzer analyzer = new KeywordAnalyzer();
@@ -518,9 +575,7 @@ public class GenerateNgramIndex implements Runnable {
 		Directory directory = new MMapDirectory(index_dir);
 		IndexWriter writer_vocab = new IndexWriter(directory, iwc);
 
-		InputStream in = new FileInputStream(vocabulary_file);
-		if(vocabulary_file.getName().endsWith(".gz"))
-			in = new GZIPInputStream(in);
+		InputStream in = BlockGzipInputStream.open(vocabulary_file, Properties.decompressionThreads());
 		LineIterator iter = new LineIterator(new BufferedReader(new InputStreamReader(in,"UTF-8")));
 		Document doc = new Document();
 		Field f_word = new StringField("word", "", Field.Store.YES); doc.add(f_word);
@@ -541,6 +596,35 @@ public class GenerateNgramIndex implements Runnable {
 		writer_vocab.forceMergeDeletes();
 		writer_vocab.commit();
 		writer_vocab.close();
+
+		create_mapped_vocabulary(vocabulary_file);
+	}
+
+	/**
+	 * Write the words of the vocabulary file as {@link MappedVocabulary} and as bloom filter for filtering
+	 * out of vocabulary words (see {@link Properties#oovFilterFalsePositiveRate()}) into the index directory.
+	 */
+	public void create_mapped_vocabulary(File vocabulary_file) throws IOException{
+		InputStream in = BlockGzipInputStream.open(vocabulary_file, Properties.decompressionThreads());
+		List<String> words = new ArrayList<String>();
+		try(BufferedReader r = new BufferedReader(new InputStreamReader(in,"UTF-8"))){
+			for(String line; (line = r.readLine()) != null;)
+				words.add(line.trim());
+		}
+		LOG.info("Writing memory mapped vocabulary of {} words to '{}'.", words.size(), _index_dir.getAbsolutePath());
+		MappedVocabulary.write(words, _index_dir);
+
+		File oov_filter_file = new File(_index_dir, CountingStringLM.OOV_FILTER_FILE);
+		double false_positive_rate = Properties.oovFilterFalsePositiveRate();
+		if(false_positive_rate <= 0){
+			FileUtils.deleteQuietly(oov_filter_file);
+			return;
+		}
+		BloomFilter oov_filter = new BloomFilter(words.size(), false_positive_rate);
+		for(String word : words)
+			oov_filter.add(word);
+		oov_filter.write(oov_filter_file);
+		LOG.info("Wrote vocabulary bloom filter {} to '{}'.", oov_filter, oov_filter_file.getAbsolutePath());
 	}
 
 }
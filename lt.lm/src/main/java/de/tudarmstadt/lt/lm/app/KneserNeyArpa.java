@@ -0,0 +1,89 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.app;
+
+import java.io.File;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.lm.lucenebased.KneserNeyArpaWriter;
+import de.tudarmstadt.lt.lm.lucenebased.KneserNeyLM;
+import de.tudarmstadt.lt.utilities.cli.CliUtils;
+import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
+
+/**
+ * Precompute the Kneser-Ney probabilities and backoff weights of an ngram index and write them as an ARPA file,
+ * which can be served by {@link de.tudarmstadt.lt.lm.berkeleylm.BerkeleyLM}.
+ *
+ * @author Steffen Remus
+ */
+public class KneserNeyArpa implements Runnable {
+
+	private final static String USAGE_HEADER = "Options:";
+
+	private static final Logger LOG = LoggerFactory.getLogger(KneserNeyArpa.class);
+
+	public static void main(String[] args) {
+		new KneserNeyArpa(args).run();
+	}
+
+	@SuppressWarnings("static-access")
+	public KneserNeyArpa(String[] args) {
+		Options opts = new Options();
+
+		opts.addOption(new Option("?", "help", false, "display this message"));
+		opts.addOption(OptionBuilder.withLongOpt("index").withArgName("dir").hasArg().isRequired().withDescription("Specify the index directory that contains the 'ngram' index, e.g. <dir>/.lmindex.").create("i"));
+		opts.addOption(OptionBuilder.withLongOpt("order").withArgName("n").hasArg().withDescription("Specify the order of the language model (default: 5).").create("n"));
+		opts.addOption(OptionBuilder.withLongOpt("discount").withArgName("d").hasArg().withDescription("Specify the discount, a value outside [0,1] estimates the discounts from the counts (default: -1).").create("d"));
+		opts.addOption(OptionBuilder.withLongOpt("out").withArgName("file").hasArg().withDescription("Specify the output file, a name ending in '.gz' is compressed (default: '<index>/kn.<order>.arpa.gz').").create("o"));
+
+		try {
+			CommandLine cmd = new ExtendedGnuParser(true).parse(opts, args);
+			if (cmd.hasOption("help"))
+				CliUtils.print_usage_quit(System.err, getClass().getSimpleName(), opts, USAGE_HEADER, null, 0);
+
+			_index_dir = new File(cmd.getOptionValue("index"));
+			_order = Integer.parseInt(cmd.getOptionValue("order", "5"));
+			_discount = Double.parseDouble(cmd.getOptionValue("discount", "-1"));
+			_out_file = new File(cmd.getOptionValue("out", new File(_index_dir, String.format("kn.%d.arpa.gz", _order)).getPath()));
+
+		} catch (Exception e) {
+			LOG.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+			CliUtils.print_usage_quit(System.err, getClass().getSimpleName(), opts, USAGE_HEADER, String.format("%s: %s%n", e.getClass().getSimpleName(), e.getMessage()), 1);
+		}
+	}
+
+	File _index_dir;
+	int _order;
+	double _discount;
+	File _out_file;
+
+	@Override
+	public void run() {
+		try {
+			KneserNeyArpaWriter.write(new KneserNeyLM(_order, _index_dir, _discount), _out_file);
+		} catch (Exception e) {
+			LOG.error("Could not write Kneser-Ney table of ngram index '{}'.", _index_dir.getAbsolutePath(), e);
+			System.exit(1);
+		}
+	}
+
+}
@@ -25,6 +25,7 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
@@ -37,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.lt.lm.perplexity.ModelPerplexity;
+import de.tudarmstadt.lt.lm.perplexity.PerplexityResult;
 import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
 import de.tudarmstadt.lt.lm.service.StringProviderMXBean;
 import de.tudarmstadt.lt.utilities.cli.CliUtils;
@@ -71,6 +73,7 @@ public class LineProbPerp implements Runnable {
 		opts.addOption(OptionBuilder.withLongOpt("out").withArgName("name").hasArg().withDescription("Specify the output file. Specify '-' to use stdout. (default: '-').").create("o"));
 		opts.addOption(OptionBuilder.withLongOpt("name").withArgName("identifier").isRequired().hasArg().withDescription("Specify the name of the language model provider that you want to connect to.").create("i"));
 		opts.addOption(OptionBuilder.withLongOpt("runparallel").withDescription("Specify if processing should happen in parallel.").create("p"));
+		opts.addOption(OptionBuilder.withLongOpt("batchsize").withArgName("num-lines").hasArg().withDescription("Specify the number of lines that are sent to the language model server at once, lines of a batch are processed in parallel by the server. Specify 0 to process line by line. Cannot be combined with [ -p ] (default: 1000, 0 with [ -p ]).").create("b"));
 
 		try {
 			CommandLine cmd = new ExtendedGnuParser(true).parse(opts, args);
@@ -83,6 +86,9 @@ public class LineProbPerp implements Runnable {
 			_out = cmd.getOptionValue("out", "-");
 			_name = cmd.getOptionValue("name");
 			_parallel = cmd.hasOption("runparallel");
+			if(_parallel && cmd.hasOption("batchsize"))
+				throw new IllegalArgumentException("Options '--runparallel' and '--batchsize' cannot be combined, batches are already processed in parallel by the server.");
+			_batchsize = Integer.parseInt(cmd.getOptionValue("batchsize", _parallel ? "0" : "1000"));
 
 		} catch (Exception e) {
 			LOG.error("{}: {}- {}", _rmi_string, e.getClass().getSimpleName(), e.getMessage());
@@ -92,6 +98,7 @@ public class LineProbPerp implements Runnable {
 	}
 
 	boolean _parallel;
+	int _batchsize;
 	String _rmi_string;
 	int _rmiport;
 	String _file;
@@ -164,6 +171,8 @@ public class LineProbPerp implements Runnable {
 	void run(Reader r) {
 		if(_parallel)
 			runParallel(r);
+		else if(_batchsize > 0)
+			runBatched(r);
 		else
 			runSequential(r);
 	}
@@ -185,6 +194,37 @@ public class LineProbPerp implements Runnable {
 		
 	}
 
+	void runBatched(Reader r) {
+		List<String> batch = new ArrayList<String>(_batchsize);
+		long l = 0;
+		for(LineIterator liter = new LineIterator(r); liter.hasNext(); ){
+			batch.add(liter.next());
+			if(batch.size() < _batchsize && liter.hasNext())
+				continue;
+			l += batch.size();
+			LOG.info("{}: processing lines {}-{}.", _rmi_string, l - batch.size() + 1, l);
+			processBatch(batch);
+			batch.clear();
+		}
+	}
+
+	void processBatch(List<String> lines) {
+		PerplexityResult[] results;
+		try {
+			results = _lm_prvdr.getPerplexities(lines);
+		} catch (Exception e) {
+			// process the lines one by one, such that the output stays aligned with the input
+			LOG.error("{}: Could not process batch of {} lines, processing the lines one by one.", _rmi_string, lines.size(), e);
+			for(String line : lines)
+				processLine(line, _perp, _perp_oov);
+			return;
+		}
+		for(int i = 0; i < results.length; i++){
+			PerplexityResult r = results[i];
+			println(getOutputLine(lines.get(i), r.getNumNgrams(), r.getNumOov(), r.getLog10Prob(), r.getPerplexity(), r.getLog10ProbWithoutOov(), r.getPerplexityWithoutOov()));
+		}
+	}
+
 	void processLine(String line, ModelPerplexity<String> perp, ModelPerplexity<String> perp_oov) {
 		
 		if(line.trim().isEmpty()){
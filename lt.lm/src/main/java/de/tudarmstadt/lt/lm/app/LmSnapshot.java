@@ -0,0 +1,379 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.lm.LanguageModel;
+import de.tudarmstadt.lt.lm.LanguageModelHelper;
+import de.tudarmstadt.lt.lm.berkeleylm.BerkeleyLM;
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStore;
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStoreWriter;
+import de.tudarmstadt.lt.lm.lucenebased.CountingStringLM;
+import de.tudarmstadt.lt.lm.lucenebased.KneserNeyLM;
+import de.tudarmstadt.lt.lm.lucenebased.KneserNeyLMRecursive;
+
+/**
+ * Versioned snapshot of a language model that was loaded by {@link StartLM}, such that a restart opens the snapshot instead of
+ * re-creating the model. BerkeleyLM models are saved in BerkeleyLM's binary format (instead of re-parsing the ARPA file),
+ * lucene based models are converted into a memory mapped {@link BinaryCountStore} in {@code <dir>/.lmsnapshot/<type>.<order>.index},
+ * together with a copy of the counts of counts and ngram sums, from which the discounts are estimated. The store is only
+ * opened by {@link #load()}, the index directory itself is left unchanged.
+ *
+ * The manifest {@code <dir>/.lmsnapshot/<type>.<order>.properties} holds the format version, the model parameters,
+ * the values of the properties that affect scoring, the sizes and modification times of the snapshot files and of the
+ * files they were created from (the lucene index, or the ARPA file or else the '.txt' files of a BerkeleyLM), and a
+ * CRC32 checksum of the snapshot files. A snapshot is only loaded if the parameters, properties, sizes and
+ * modification times match. The checksum is computed when the snapshot is written
+ * and only verified on request, see {@link #verify()} and the property <code>lt.lm.verifySnapshot</code>.
+ *
+ * @author Steffen Remus
+ */
+public class LmSnapshot {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LmSnapshot.class);
+
+	public static final int VERSION = 1;
+
+	public static final String DIRECTORY = ".lmsnapshot";
+
+	/** the files besides the ngram counts that a lucene based language model reads from its index directory */
+	static final String[] INDEX_FILES = new String[]{ "__sum_ngrams__", CountingStringLM.OOV_FILTER_FILE };
+
+	private final File _src_dir;
+	private final File _snapshot_dir;
+	private final String _type;
+	private final int _order;
+	private final int _mincount;
+	private final double _discount;
+
+	public LmSnapshot(File src_dir, String type, int order, int mincount, double discount) {
+		_src_dir = src_dir;
+		_snapshot_dir = new File(src_dir, DIRECTORY);
+		_type = type;
+		_order = order;
+		_mincount = mincount;
+		_discount = discount;
+	}
+
+	File getManifestFile() {
+		return new File(_snapshot_dir, String.format("%s.%d.properties", _type, _order));
+	}
+
+	File getBerkeleyLmFile() {
+		return new File(_snapshot_dir, String.format("%s.%d.blm", _type, _order));
+	}
+
+	/**
+	 * @return the ARPA file that a BerkeleyLM is read from, see {@link LanguageModelHelper#createBerkelyLmFromTxtFilesInDirectory}
+	 */
+	File getArpaFile() {
+		return new File(_src_dir, String.format("%s.%d.arpa.gz", _src_dir.getName(), _order));
+	}
+
+	File getIndexDir() {
+		return new File(_src_dir, ".lmindex");
+	}
+
+	/**
+	 * @return the index directory of the snapshot, which contains the binary count store and copies of the {@link #INDEX_FILES}
+	 */
+	File getStoreDir() {
+		return new File(_snapshot_dir, String.format("%s.%d.index", _type, _order));
+	}
+
+	boolean isBerkeleyLM() {
+		return BerkeleyLM.class.getSimpleName().equals(_type);
+	}
+
+	/**
+	 * @return the lucene based language model class of the type or null if the type is not lucene based
+	 */
+	Class<? extends CountingStringLM> getLuceneLmType() {
+		if(KneserNeyLMRecursive.class.getSimpleName().equals(_type))
+			return KneserNeyLM.class; // see StartLM#getLanguageModelInstance
+		try {
+			Class<?> lmtype = Class.forName(String.format("%s.%s", CountingStringLM.class.getPackage().getName(), _type));
+			if(CountingStringLM.class.isAssignableFrom(lmtype))
+				return lmtype.asSubclass(CountingStringLM.class);
+		} catch (ClassNotFoundException e) { /* not lucene based */ }
+		return null;
+	}
+
+	/**
+	 * @return true if snapshots are supported for the language model type and the current properties
+	 */
+	public boolean isSupported() {
+		if(isBerkeleyLM())
+			return true;
+		// the snapshot of lucene based models is the binary count store, which must not be ignored
+		return getLuceneLmType() != null && !"lucene".equals(de.tudarmstadt.lt.lm.util.Properties.countStore());
+	}
+
+	/**
+	 * @return the properties that must match the manifest, i.e. the model parameters and the properties that affect scoring
+	 */
+	Properties getSettings() {
+		Properties p = new Properties();
+		p.setProperty("version", String.valueOf(VERSION));
+		p.setProperty("type", _type);
+		p.setProperty("order", String.valueOf(_order));
+		p.setProperty("mincount", String.valueOf(_mincount));
+		p.setProperty("discount", String.valueOf(_discount));
+		p.setProperty("lt.lm.knUnkLog10Prob", String.valueOf(de.tudarmstadt.lt.lm.util.Properties.knUnkLog10Prob()));
+		p.setProperty("lt.lm.insertSentenceTags", String.valueOf(de.tudarmstadt.lt.lm.util.Properties.insertSentenceTags()));
+		p.setProperty("lt.lm.handleBoundaries", String.valueOf(de.tudarmstadt.lt.lm.util.Properties.handleBoundaries()));
+		p.setProperty("lt.lm.knUniformBackoff", String.valueOf(de.tudarmstadt.lt.lm.util.Properties.knUniformBackoff()));
+		p.setProperty("lt.lm.knMaxbackoffrecursions", String.valueOf(de.tudarmstadt.lt.lm.util.Properties.knMaxbackoffrecursions()));
+		return p;
+	}
+
+	/**
+	 * @return the files of the snapshot in a fixed order
+	 */
+	List<File> getFiles() {
+		List<File> files = new ArrayList<File>();
+		if(isBerkeleyLM()){
+			files.add(getBerkeleyLmFile());
+			return files;
+		}
+		listFiles(new File(getStoreDir(), BinaryCountStore.DIRECTORY), files);
+		for(String name : INDEX_FILES){
+			File f = new File(getStoreDir(), name);
+			if(f.exists())
+				files.add(f);
+		}
+		return files;
+	}
+
+	/**
+	 * @return the files the snapshot was created from in a fixed order
+	 */
+	List<File> getSourceFiles() {
+		List<File> files = new ArrayList<File>();
+		if(isBerkeleyLM()){
+			// the ARPA file is created from the text files or provided, e.g. by SRILM
+			if(getArpaFile().exists())
+				files.add(getArpaFile());
+			else
+				files.addAll(FileUtils.listFiles(_src_dir, new String[]{ "txt" }, false));
+			Collections.sort(files);
+			return files;
+		}
+		listFiles(new File(getIndexDir(), "ngram"), files);
+		for(String name : INDEX_FILES){
+			File f = new File(getIndexDir(), name);
+			if(f.exists())
+				files.add(f);
+		}
+		return files;
+	}
+
+	private static void listFiles(File dir, List<File> files) {
+		File[] dir_files = dir.listFiles();
+		if(dir_files == null)
+			return;
+		Arrays.sort(dir_files);
+		files.addAll(Arrays.asList(dir_files));
+	}
+
+	static String checksum(List<File> files) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[1 << 20];
+		for(File f : files){
+			crc.update(f.getName().getBytes("UTF-8"));
+			try(InputStream in = new FileInputStream(f)){
+				for(int n; (n = in.read(buf)) > 0;)
+					crc.update(buf, 0, n);
+			}
+		}
+		return Long.toHexString(crc.getValue());
+	}
+
+	String getPath(File f) {
+		return _src_dir.toURI().relativize(f.toURI()).getPath();
+	}
+
+	/**
+	 * Store the number, paths, sizes and modification times of the files in the manifest.
+	 */
+	void putFileStats(Properties manifest, String prefix, List<File> files) {
+		manifest.setProperty(prefix + "s", String.valueOf(files.size()));
+		for(int i = 0; i < files.size(); i++){
+			File f = files.get(i);
+			manifest.setProperty(String.format("%s.%d", prefix, i), getPath(f));
+			manifest.setProperty(String.format("%s.%d.size", prefix, i), String.valueOf(f.length()));
+			manifest.setProperty(String.format("%s.%d.mtime", prefix, i), String.valueOf(f.lastModified()));
+		}
+	}
+
+	/**
+	 * @return the reason why the files do not match the manifest or null if they match
+	 */
+	String checkFileStats(Properties manifest, String prefix, List<File> files) {
+		if(!String.valueOf(files.size()).equals(manifest.getProperty(prefix + "s")))
+			return String.format("snapshot consists of %s %ss, but found %d", manifest.getProperty(prefix + "s"), prefix, files.size());
+		for(int i = 0; i < files.size(); i++){
+			File f = files.get(i);
+			if(!f.exists())
+				return String.format("'%s' does not exist", f.getAbsolutePath());
+			if(!getPath(f).equals(manifest.getProperty(String.format("%s.%d", prefix, i))))
+				return String.format("'%s' is not part of the snapshot", f.getAbsolutePath());
+			if(!String.valueOf(f.length()).equals(manifest.getProperty(String.format("%s.%d.size", prefix, i))))
+				return String.format("size of '%s' does not match the snapshot", f.getAbsolutePath());
+			if(!String.valueOf(f.lastModified()).equals(manifest.getProperty(String.format("%s.%d.mtime", prefix, i))))
+				return String.format("modification time of '%s' does not match the snapshot", f.getAbsolutePath());
+		}
+		return null;
+	}
+
+	/**
+	 * @param verify_checksum compute the checksum of all snapshot files, which reads them completely
+	 * @return the reason why the snapshot can not be loaded or null if it is valid
+	 */
+	String check(boolean verify_checksum) {
+		if(!isSupported())
+			return String.format("snapshots are not supported for type '%s' and count store '%s'", _type, de.tudarmstadt.lt.lm.util.Properties.countStore());
+		File manifest_file = getManifestFile();
+		if(!manifest_file.exists())
+			return String.format("'%s' does not exist", manifest_file.getAbsolutePath());
+		Properties manifest = new Properties();
+		try(InputStream in = new FileInputStream(manifest_file)){
+			manifest.load(in);
+		}catch(IOException e){
+			return String.format("could not read '%s' (%s)", manifest_file.getAbsolutePath(), e.getMessage());
+		}
+		Properties settings = getSettings();
+		for(String key : settings.stringPropertyNames())
+			if(!settings.getProperty(key).equals(manifest.getProperty(key)))
+				return String.format("%s=%s does not match the snapshot (%s)", key, settings.getProperty(key), manifest.getProperty(key));
+		List<File> files = getFiles();
+		String reason = checkFileStats(manifest, "file", files);
+		if(reason == null)
+			reason = checkFileStats(manifest, "source", getSourceFiles());
+		if(reason != null || !verify_checksum)
+			return reason;
+		try {
+			String checksum = checksum(files);
+			if(!checksum.equals(manifest.getProperty("checksum")))
+				return String.format("checksum %s does not match the snapshot (%s)", checksum, manifest.getProperty("checksum"));
+		} catch (IOException e) {
+			return String.format("could not compute checksum (%s)", e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the settings, sizes and modification times match the manifest
+	 */
+	public boolean isValid() {
+		return check(false) == null;
+	}
+
+	/**
+	 * @return true if the snapshot is valid and the checksum of its files matches the manifest
+	 */
+	public boolean verify() {
+		return check(true) == null;
+	}
+
+	/**
+	 * @return the language model from the snapshot or null if there is no valid snapshot
+	 */
+	public LanguageModel<String> load() throws Exception {
+		String reason = check(de.tudarmstadt.lt.lm.util.Properties.verifySnapshot());
+		if(reason != null){
+			LOG.info("Not loading snapshot: {}.", reason);
+			return null;
+		}
+		LOG.info("Loading snapshot '{}'.", getManifestFile().getAbsolutePath());
+		if(isBerkeleyLM())
+			return LanguageModelHelper.readFromBinary(getBerkeleyLmFile());
+		Class<? extends CountingStringLM> lmtype = getLuceneLmType();
+		try {
+			Constructor<? extends CountingStringLM> constructor = lmtype.getConstructor(int.class, File.class, double.class);
+			return constructor.newInstance(_order, getStoreDir(), _discount);
+		} catch (NoSuchMethodException e) {
+			return lmtype.getConstructor(int.class, File.class).newInstance(_order, getStoreDir());
+		}
+	}
+
+	/**
+	 * Write the snapshot of lm, which must have been created with the parameters of this snapshot.
+	 */
+	public void write(LanguageModel<String> lm) throws IOException {
+		if(!isSupported()){
+			LOG.info("Not writing snapshot, snapshots are not supported for type '{}' and count store '{}'.", _type, de.tudarmstadt.lt.lm.util.Properties.countStore());
+			return;
+		}
+		_snapshot_dir.mkdirs();
+		File manifest_file = getManifestFile();
+		manifest_file.delete();
+		if(isBerkeleyLM()){
+			LOG.info("Writing snapshot '{}'.", getBerkeleyLmFile().getAbsolutePath());
+			LanguageModelHelper.saveAsBinary((BerkeleyLM<String>)lm, getBerkeleyLmFile());
+		}else{
+			File store_dir = getStoreDir();
+			LOG.info("Writing snapshot '{}'.", store_dir.getAbsolutePath());
+			FileUtils.deleteDirectory(store_dir);
+			BinaryCountStoreWriter.convert(getIndexDir(), new File(store_dir, BinaryCountStore.DIRECTORY));
+			for(String name : INDEX_FILES){
+				File f = new File(getIndexDir(), name);
+				if(f.exists())
+					FileUtils.copyFileToDirectory(f, store_dir);
+			}
+		}
+
+		List<File> files = getFiles();
+		Properties manifest = getSettings();
+		putFileStats(manifest, "file", files);
+		putFileStats(manifest, "source", getSourceFiles());
+		manifest.setProperty("checksum", checksum(files));
+		try(OutputStream out = new FileOutputStream(manifest_file)){
+			manifest.store(out, String.format("%s snapshot of '%s', do not edit.", _type, _src_dir.getAbsolutePath()));
+		}
+		LOG.info("Wrote snapshot '{}' ({} files).", manifest_file.getAbsolutePath(), files.size());
+	}
+
+	/**
+	 * delete the manifest, i.e. invalidate the snapshot
+	 */
+	public void invalidate() {
+		getManifestFile().delete();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[%s]", getClass().getSimpleName(), getManifestFile().getAbsolutePath());
+	}
+
+}
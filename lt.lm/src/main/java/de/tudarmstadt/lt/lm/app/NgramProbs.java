@@ -32,7 +32,6 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
-import org.apache.commons.io.LineIterator;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +40,7 @@ import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
 import de.tudarmstadt.lt.lm.service.StringProviderMXBean;
 import de.tudarmstadt.lt.utilities.cli.CliUtils;
 import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
+import de.tudarmstadt.lt.utilities.io.ParallelLineEngine;
 
 /**
  *
@@ -71,6 +71,8 @@ public class NgramProbs implements Runnable {
 		opts.addOption(OptionBuilder.withLongOpt("file").withArgName("name").hasArg().withDescription("Specify the file or directory that contains '.txt' with one ngram per line. Specify '-' to pipe from stdin. (default: '-').").create("f"));
 		opts.addOption(OptionBuilder.withLongOpt("out").withArgName("name").hasArg().withDescription("Specify the output file. Specify '-' to use stdout. (default: '-').").create("o"));
 		opts.addOption(OptionBuilder.withLongOpt("name").withArgName("identifier").isRequired().hasArg().withDescription("Specify the name of the language model provider that you want to connect to.").create("i"));
+		opts.addOption(OptionBuilder.withLongOpt("threads").withArgName("num").hasArg().withDescription("Specify the number of threads that process lines in parallel (default: 1).").create("t"));
+		opts.addOption(OptionBuilder.withLongOpt("unordered").withDescription("Write the results in the order in which they are finished instead of the input order.").create());
 
 		try {
 			CommandLine cmd = new ExtendedGnuParser(true).parse(opts, args);
@@ -83,6 +85,8 @@ public class NgramProbs implements Runnable {
 			_out = cmd.getOptionValue("out", "-");
 			_name = cmd.getOptionValue("name");
 			_host = cmd.getOptionValue("host", "localhost");
+			_num_threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+			_ordered = !cmd.hasOption("unordered");
 
 		} catch (Exception e) {
 			LOG.error("{}: {}- {}", _rmi_string, e.getClass().getSimpleName(), e.getMessage());
@@ -97,6 +101,8 @@ public class NgramProbs implements Runnable {
 	String _out;
 	String _host;
 	String _name;
+	int _num_threads;
+	boolean _ordered;
 	PrintStream _pout;
 
 	double _min_prob = Double.MAX_VALUE;
@@ -170,68 +176,67 @@ public class NgramProbs implements Runnable {
 		
 	}
 
-	void run(Reader r) {
-		long l = 0;
-		for(LineIterator liter = new LineIterator(r); liter.hasNext(); ){
-			if(++l % 5000 == 0)
-				LOG.info("{}: processing line {}:{}.", _rmi_string, _file, l);
-
-			String line = liter.next();
-			if(line.trim().isEmpty())
-				continue;
-			
-			List<String> ngram = Arrays.asList(line.split(" "));
-			
-			if(ngram.isEmpty())
-				continue;
-			_num_ngrams++;
-			try{
-				if(_lm_prvdr.ngramContainsOOV(ngram)){
-					_oov_ngrams++;
-					if(_lm_prvdr.ngramEndsWithOOV(ngram)){
-						_oov_terms++;
-					}
-				}
+	static class NgramProb {
+		List<String> ngram;
+		double log10prob;
+		boolean contains_oov;
+		boolean ends_with_oov;
+		String output;
+	}
 
-				double log10prob = _lm_prvdr.getNgramLog10Probability(ngram);
-
-				write(String.format("%s\t%6.3e\t%s\t%s\t%s%n",
-						StringUtils.join(ngram, ' '),
-						Math.pow(10, log10prob),
-						_rmi_string,
-						_file,
-						StringUtils.join(_lm_prvdr.getNgramAsWords(_lm_prvdr.getNgramAsIds(ngram)), ' ')));
-				
-				if(log10prob > _max_prob){
-					_max_prob = log10prob;
-					_max_ngram = ngram;
-				}
-				if(log10prob < _min_prob){
-					_min_prob = log10prob;
-					_min_ngram = ngram;
-				}	
-			}catch(Exception e){
-				LOG.error("{}: Could not add ngram '{}' to perplexity.", _rmi_string, ngram);
-				continue;
-			}
+	void run(Reader r) throws IOException {
+		new ParallelLineEngine<NgramProb>(_num_threads, _ordered).process(r, this::getNgramProb, this::add);
+	}
+
+	/**
+	 * called by the worker threads
+	 */
+	NgramProb getNgramProb(String line, long l) throws Exception {
+		if(l % 5000 == 0)
+			LOG.info("{}: processing line {}:{}.", _rmi_string, _file, l);
+
+		if(line.trim().isEmpty())
+			return null;
+
+		NgramProb p = new NgramProb();
+		p.ngram = Arrays.asList(line.split(" "));
+		if(p.ngram.isEmpty())
+			return null;
+		try{
+			p.contains_oov = _lm_prvdr.ngramContainsOOV(p.ngram);
+			p.ends_with_oov = p.contains_oov && _lm_prvdr.ngramEndsWithOOV(p.ngram);
+			p.log10prob = _lm_prvdr.getNgramLog10Probability(p.ngram);
+			p.output = String.format("%s\t%6.3e\t%s\t%s\t%s%n",
+					StringUtils.join(p.ngram, ' '),
+					Math.pow(10, p.log10prob),
+					_rmi_string,
+					_file,
+					StringUtils.join(_lm_prvdr.getNgramAsWords(_lm_prvdr.getNgramAsIds(p.ngram)), ' '));
+		}catch(Exception e){
+			LOG.error("{}: Could not add ngram '{}' to perplexity.", _rmi_string, p.ngram);
+			return null;
 		}
+		return p;
 	}
-	
-	void write(String towrite){
-		if("-".equals(_out))
-			_pout.print(towrite);
-		else{
-			File lock = new File(_out + ".lock");
-			while(lock.exists())
-				try { Thread.sleep(1000); } catch (InterruptedException e) { }
-			try {
-				lock.createNewFile();
-			} catch (IOException e) {
-				LOG.warn("Could not create lock '{}'.", lock, e);
-			}
-			_pout.print(towrite);
-			lock.delete();
+
+	/**
+	 * called by the writer thread in input order (unless unordered)
+	 */
+	void add(NgramProb p) {
+		_num_ngrams++;
+		if(p.contains_oov)
+			_oov_ngrams++;
+		if(p.ends_with_oov)
+			_oov_terms++;
+		_pout.print(p.output);
+		if(p.log10prob > _max_prob){
+			_max_prob = p.log10prob;
+			_max_ngram = p.ngram;
+		}
+		if(p.log10prob < _min_prob){
+			_min_prob = p.log10prob;
+			_min_ngram = p.ngram;
 		}
 	}
-	
+
 }
@@ -15,16 +15,21 @@
  */
 package de.tudarmstadt.lt.lm.app;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
@@ -36,6 +41,7 @@ import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.lt.lm.AbstractLanguageModel;
 import de.tudarmstadt.lt.lm.DummyLM;
+import de.tudarmstadt.lt.lm.lucenebased.NgramCounter;
 import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
 import de.tudarmstadt.lt.lm.service.LMProviderUtils;
 import de.tudarmstadt.lt.lm.service.LtSegProvider;
@@ -43,9 +49,19 @@ import de.tudarmstadt.lt.lm.util.Properties;
 import de.tudarmstadt.lt.utilities.cli.CliUtils;
 import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
 import de.tudarmstadt.lt.utilities.collections.FixedSizeFifoLinkedList;
+import de.tudarmstadt.lt.utilities.io.BlockGzipInputStream;
+import de.tudarmstadt.lt.utilities.io.BlockGzipOutputStream;
 
 /**
- * TODO: parallelize, merge GenerateNgrams into this 
+ * Extracts ngrams from text files, one ngram per line.
+ * 
+ * With multiple threads or shards (see {@link #_num_threads} and {@link #_num_shards}), lines are read in blocks
+ * and processed by a work stealing pool; ngrams spanning sentences are processed per file. The string provider is shared
+ * by all threads, e.g. the LtSegProvider keeps a sentence splitter and tokenizer per thread.
+ * The output is then split into shards, an ngram always goes into the same shard (see {@link NgramCounter#shard(String, int)}), 
+ * such that the shards can be counted independently. The order of the ngrams is not preserved.
+ * 
+ * TODO: merge GenerateNgrams into this 
  * 
  * @author Steffen Remus
  */
@@ -71,6 +87,8 @@ public class Ngrams  implements Runnable{
 		opts.addOption(OptionBuilder.withLongOpt("file").withArgName("filename").hasArg().withDescription("specify the file to read from. Specify '-' to read from stdin. (default: '-')").create("f"));
 		opts.addOption(OptionBuilder.withLongOpt("out").withArgName("name").hasArg().withDescription("Specify the output file. Specify '-' to use stdout. (default: '-').").create("o"));
 		opts.addOption(OptionBuilder.withLongOpt("accross_sentences").hasOptionalArg().withArgName("{true|false}").withDescription("Generate Ngrams across sentence boundaries.").create("a"));
+		opts.addOption(OptionBuilder.withLongOpt("threads").withArgName("num").hasArg().withDescription("Specify the number of threads. Lines are processed in parallel blocks, files are processed in parallel when ngrams are generated across sentences (default: 1).").create("t"));
+		opts.addOption(OptionBuilder.withLongOpt("shards").withArgName("num").hasArg().withDescription("Specify the number of output files, every ngram is written to the shard of its hash value. The shard number is inserted into the output file name, e.g. 'out.txt.gz' -> 'out.shard-001.txt.gz' (default: 1).").create("s"));
 		
 		try {
 			CommandLine cmd = new ExtendedGnuParser(true).parse(opts, args);
@@ -82,6 +100,10 @@ public class Ngrams  implements Runnable{
 			_out = 						cmd.getOptionValue("out", "-");
 			_accross_sentences = 		cmd.hasOption("accross_sentences");
 			String order =				cmd.getOptionValue("cardinality","1-5");
+			_num_threads = 				Math.max(1, Integer.parseInt(cmd.getOptionValue("threads", "1")));
+			_num_shards = 				Math.max(1, Integer.parseInt(cmd.getOptionValue("shards", "1")));
+			if(_num_shards > 1 && "-".equals(_out.trim()))
+				throw new IllegalArgumentException("Shards cannot be written to stdout. Please provide an output file.");
 			if(_accross_sentences && cmd.getOptionValue("accross_sentences") != null)
 				_accross_sentences = Boolean.parseBoolean(cmd.getOptionValue("accross_sentences"));
 
@@ -105,6 +127,8 @@ public class Ngrams  implements Runnable{
 	int _order_from;
 	PrintStream _pout;
 	boolean _accross_sentences;
+	int _num_threads = 1;
+	int _num_shards = 1;
 	
 	boolean _insert_bos = Properties.insertSentenceTags() == 1 || Properties.insertSentenceTags() == 3;
 	boolean _insert_eos = Properties.insertSentenceTags() == 2 || Properties.insertSentenceTags() == 3;
@@ -114,6 +138,8 @@ public class Ngrams  implements Runnable{
 	List<String> _ngram;
 	long _num_ngrams;
 
+	static final int BLOCK_SIZE = 1000;
+
 	
 	/* (non-Javadoc)
 	 * @see java.lang.Runnable#run()
@@ -122,28 +148,26 @@ public class Ngrams  implements Runnable{
 	public void run() {
 		_num_ngrams = 0l;
 		_ngram = new FixedSizeFifoLinkedList<>(_order_to);
-		 
+
+		if(_num_threads > 1 || _num_shards > 1){
+			run_parallel();
+			return;
+		}
+
 		_pout = System.out;
 		if(!"-".equals(_out.trim())){
 			try {
 				if(_out.endsWith(".gz"))
-					_pout = new PrintStream(new GZIPOutputStream(new FileOutputStream(new File(_out))));
+					_pout = new PrintStream(new BlockGzipOutputStream(new FileOutputStream(new File(_out))), false, "UTF-8");
 				else
-					_pout = new PrintStream(new FileOutputStream(new File(_out), true));
+					_pout = new PrintStream(new FileOutputStream(new File(_out), true), false, "UTF-8");
 			} catch (IOException e) {
 				LOG.error("Could not open ouput file '{}' for writing.", _out, e);
 				System.exit(1);
 			}
 		}
 		
-		try{
-			if(_prvdr == null){
-				_prvdr = StartLM.getStringProviderInstance(_provider_type);
-				_prvdr.setLanguageModel(new DummyLM<>(_order_to));
-			}
-		}catch(Exception e){
-			LOG.error("Could not initialize Ngram generator. {}: {}", e.getClass(), e.getMessage(), e);
-		}
+		init_provider();
 		
 		if("-".equals(_file.trim())){
 			LOG.info("Processing text from stdin ('{}').", _file);
@@ -157,24 +181,20 @@ public class Ngrams  implements Runnable{
 			if(f_or_d.isFile()){
 				LOG.info("Processing file '{}'.", f_or_d.getAbsolutePath());
 				try{
-					run(new InputStreamReader(new FileInputStream(f_or_d), "UTF-8"), _file);
+					run(new InputStreamReader(BlockGzipInputStream.open(f_or_d, Properties.decompressionThreads()), "UTF-8"), _file);
 				}catch(Exception e){
 					LOG.error("Could not generate ngrams from file '{}'.", f_or_d.getAbsolutePath(), e);
 				}
 			}
 
 			if(f_or_d.isDirectory()){
-				File[] txt_files = f_or_d.listFiles(new FileFilter(){
-					@Override
-					public boolean accept(File f) {
-						return f.isFile() && f.getName().endsWith(".txt");
-					}});
+				File[] txt_files = list_txt_files(f_or_d);
 
 				for(int i = 0; i < txt_files.length; i++){
 					File f = txt_files[i];
 					LOG.info("Processing file '{}' ({}/{}).", f.getAbsolutePath(), i + 1, txt_files.length);
 					try{ 
-						run(new InputStreamReader(new FileInputStream(f), "UTF-8"), f.getAbsolutePath()); 
+						run(new InputStreamReader(BlockGzipInputStream.open(f, Properties.decompressionThreads()), "UTF-8"), f.getAbsolutePath()); 
 					}catch(Exception e){
 						LOG.error("Could not generate ngrams from file '{}'.", f.getAbsolutePath(), e);
 					}
@@ -187,6 +207,44 @@ public class Ngrams  implements Runnable{
 		
 	}
 	
+	private void init_provider(){
+		try{
+			if(_prvdr == null){
+				_prvdr = StartLM.getStringProviderInstance(_provider_type);
+				_prvdr.setLanguageModel(new DummyLM<>(_order_to));
+			}
+		}catch(Exception e){
+			LOG.error("Could not initialize Ngram generator. {}: {}", e.getClass(), e.getMessage(), e);
+		}
+	}
+
+	private static File[] list_txt_files(File dir){
+		return dir.listFiles(new FileFilter(){
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && (f.getName().endsWith(".txt") || f.getName().endsWith(".txt.gz"));
+			}});
+	}
+
+	/**
+	 * @return the output files for the given number of shards, the shard number is inserted before the file extension
+	 */
+	public static File[] getShardFiles(String out, int num_shards){
+		if(num_shards <= 1)
+			return new File[]{ new File(out) };
+		String ext = "";
+		for(String e : new String[]{ ".txt.gz", ".gz", ".txt" })
+			if(out.endsWith(e)){
+				ext = e;
+				break;
+			}
+		String stem = out.substring(0, out.length() - ext.length());
+		File[] files = new File[num_shards];
+		for(int i = 0; i < num_shards; i++)
+			files[i] = new File(String.format("%s.shard-%03d%s", stem, i, ext));
+		return files;
+	}
+
 	public void run(Reader r, String f){
 		if(!_accross_sentences)
 			run_within_sentences(r, f);
@@ -200,46 +258,64 @@ public class Ngrams  implements Runnable{
 		for(long lc = 0; liter.hasNext();){
 			if(++lc % 1000 == 0)
 				LOG.info("Processing line {}:{}", f, lc);
-			try{
-				String line = liter.next();
-				if(line.trim().isEmpty())
-					continue;
-				List<String> sentences = _prvdr.splitSentences(line);
-				if(sentences == null || sentences.isEmpty())
+			_num_ngrams += process_line_within_sentences(liter.next(), lc, f, _pout::println);
+			_pout.flush();
+		}
+	}
+
+	/**
+	 * @return the number of generated ngrams
+	 */
+	long process_line_within_sentences(String line, long lc, String f, Consumer<String> out) {
+		long num_ngrams = 0;
+		try{
+			if(line.trim().isEmpty())
+				return 0;
+			List<String> sentences = _prvdr.splitSentences(line);
+			if(sentences == null || sentences.isEmpty())
+				return 0;
+			for(String sentence : sentences){
+				if(sentence == null || sentence.trim().isEmpty())
 					continue;
-				for(String sentence : sentences){
-					if(sentence == null || sentence.trim().isEmpty())
+				for(int n = _order_from; n <= _order_to; n++){
+					List<String>[] ngrams = null;
+					try{
+						List<String> tokens = _prvdr.tokenizeSentence(sentence);
+						if(tokens == null || tokens.isEmpty())
+							continue;
+						ngrams = _prvdr.getNgramSequence(tokens, n);
+						if(ngrams == null || ngrams.length < 1)
+							continue;
+					}
+					catch(Exception e){
+						LOG.warn("Could not get ngram of cardinality {} from String '{}' in line '{}' from file '{}'.", n, StringUtils.abbreviate(line, 100), lc, f);
 						continue;
-					for(int n = _order_from; n <= _order_to; n++){
-						List<String>[] ngrams = null;
-						try{
-							List<String> tokens = _prvdr.tokenizeSentence(sentence);
-							if(tokens == null || tokens.isEmpty())
-								continue;
-							ngrams = _prvdr.getNgramSequence(tokens, n);
-							if(ngrams == null || ngrams.length < 1)
-								continue;
-						}
-						catch(Exception e){
-							LOG.warn("Could not get ngram of cardinality {} from String '{}' in line '{}' from file '{}'.", n, StringUtils.abbreviate(line, 100), lc, f);
+					}
+					for(List<String> ngram : ngrams){
+						if(ngram == null || ngram.isEmpty())
 							continue;
-						}
-						for(List<String> ngram : ngrams){
-							if(ngram == null || ngram.isEmpty())
-								continue;
-							_pout.println(StringUtils.join(ngram, " "));
-						}
-						_pout.flush();
-						_num_ngrams += ngrams.length;
+						out.accept(StringUtils.join(ngram, " "));
 					}
+					num_ngrams += ngrams.length;
 				}
-			}catch(Exception e){
-				LOG.warn("Could not process line '{}' in file '{}'.", lc, f);
 			}
+		}catch(Exception e){
+			LOG.warn("Could not process line '{}' in file '{}'.", lc, f);
 		}
+		return num_ngrams;
 	}
 
 	public void run_across_sentences(Reader r, String f) {
+		_num_ngrams += run_across_sentences(r, f, _ngram, _pout::println);
+		_pout.flush();
+	}
+
+	/**
+	 * @param window the last words, ngrams span over the lines and sentences of the reader
+	 * @return the number of processed words
+	 */
+	long run_across_sentences(Reader r, String f, List<String> window, Consumer<String> out) {
+		long num_words = 0;
 		LineIterator liter = new LineIterator(r);
 		for(long lc = 0; liter.hasNext();){
 			if(++lc % 1000 == 0)
@@ -267,17 +343,167 @@ public class Ngrams  implements Runnable{
 					for(String word : tokens){
 						if(word == null || word.trim().isEmpty())
 							continue;
-						_ngram.add(word);
-						for(int n = Math.max(_ngram.size()-_order_to,0); n <= Math.min(_ngram.size() - _order_from, _ngram.size()-1); n++)
-							_pout.println(StringUtils.join(_ngram.subList(n, _ngram.size()), " "));
-						_num_ngrams++;
+						window.add(word);
+						for(int n = Math.max(window.size()-_order_to,0); n <= Math.min(window.size() - _order_from, window.size()-1); n++)
+							out.accept(StringUtils.join(window.subList(n, window.size()), " "));
+						num_words++;
 					}
-					_pout.flush();
 				}
 			}catch(Exception e){
 				LOG.warn("Could not process line '{}' in file '{}'.", lc, f);
 			}
 		}
+		return num_words;
+	}
+
+	/**
+	 * Buffers the ngrams of one task per shard and appends them to the shared shard outputs at once.
+	 */
+	private class ShardedOutput implements Consumer<String> {
+
+		final PrintStream[] _shards;
+		final StringBuilder[] _buffers;
+
+		ShardedOutput(PrintStream[] shards) {
+			_shards = shards;
+			_buffers = new StringBuilder[shards.length];
+		}
+
+		@Override
+		public void accept(String ngram) {
+			int s = NgramCounter.shard(ngram, _shards.length);
+			if(_buffers[s] == null)
+				_buffers[s] = new StringBuilder(1 << 12);
+			_buffers[s].append(ngram).append('\n');
+			if(_buffers[s].length() >= 1 << 16)
+				flush(s);
+		}
+
+		void flush(int s) {
+			synchronized (_shards[s]) {
+				_shards[s].append(_buffers[s]);
+			}
+			_buffers[s].setLength(0);
+		}
+
+		void flush() {
+			for(int s = 0; s < _buffers.length; s++)
+				if(_buffers[s] != null && _buffers[s].length() > 0)
+					flush(s);
+		}
+
+	}
+
+	void run_parallel() {
+		PrintStream[] shards = new PrintStream[_num_shards];
+		if("-".equals(_out.trim()))
+			shards[0] = System.out;
+		else{
+			File[] shard_files = getShardFiles(_out, _num_shards);
+			try {
+				for(int i = 0; i < shards.length; i++){
+					if(shard_files[i].getName().endsWith(".gz"))
+						shards[i] = new PrintStream(new BlockGzipOutputStream(new FileOutputStream(shard_files[i])), false, "UTF-8");
+					else
+						shards[i] = new PrintStream(new BufferedOutputStream(new FileOutputStream(shard_files[i], true), 1 << 16), false, "UTF-8");
+				}
+			} catch (IOException e) {
+				LOG.error("Could not open ouput file '{}' for writing.", _out, e);
+				System.exit(1);
+			}
+		}
+
+		init_provider();
+		
+		List<File> files = new ArrayList<File>();
+		if(!"-".equals(_file.trim())){
+			File f_or_d = new File(_file);
+			if(!f_or_d.exists())
+				throw new Error(String.format("File or directory '%s' not found.", _file));
+			if(f_or_d.isFile())
+				files.add(f_or_d);
+			if(f_or_d.isDirectory())
+				for(File f : list_txt_files(f_or_d))
+					files.add(f);
+		}
+		
+		LOG.info("Processing {} with {} threads into {} shards.", files.isEmpty() ? "stdin" : files.size() + " files", _num_threads, _num_shards);
+		ForkJoinPool pool = new ForkJoinPool(_num_threads);
+		Semaphore pending = new Semaphore(4 * _num_threads); // bounds the number of line blocks in memory
+		LongAdder num_ngrams = new LongAdder();
+		try{
+			if(_accross_sentences){
+				for(File f : files){
+					pending.acquire();
+					pool.execute(() -> {
+						try(Reader r = new InputStreamReader(BlockGzipInputStream.open(f, Properties.decompressionThreads()), "UTF-8")){
+							ShardedOutput out = new ShardedOutput(shards);
+							num_ngrams.add(run_across_sentences(r, f.getAbsolutePath(), new FixedSizeFifoLinkedList<String>(_order_to), out));
+							out.flush();
+						}catch(Exception e){
+							LOG.error("Could not generate ngrams from file '{}'.", f.getAbsolutePath(), e);
+						}finally{
+							pending.release();
+						}
+					});
+				}
+				if(files.isEmpty()){
+					ShardedOutput out = new ShardedOutput(shards);
+					num_ngrams.add(run_across_sentences(new InputStreamReader(System.in, "UTF-8"), _file, _ngram, out));
+					out.flush();
+				}
+			}else{
+				if(files.isEmpty())
+					submit_blocks(new InputStreamReader(System.in, "UTF-8"), _file, pool, pending, shards, num_ngrams);
+				for(int i = 0; i < files.size(); i++){
+					File f = files.get(i);
+					LOG.info("Processing file '{}' ({}/{}).", f.getAbsolutePath(), i + 1, files.size());
+					try(Reader r = new InputStreamReader(BlockGzipInputStream.open(f, Properties.decompressionThreads()), "UTF-8")){
+						submit_blocks(r, f.getAbsolutePath(), pool, pending, shards, num_ngrams);
+					}catch(IOException e){
+						LOG.error("Could not generate ngrams from file '{}'.", f.getAbsolutePath(), e);
+					}
+				}
+			}
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}catch(InterruptedException | IOException e){
+			LOG.error("Could not generate ngrams from '{}'.", _file, e);
+			pool.shutdownNow();
+		}
+		
+		_num_ngrams = num_ngrams.sum();
+		LOG.info("Generated {} ngrams.", _num_ngrams);
+		for(PrintStream shard : shards)
+			if(shard == System.out)
+				shard.flush();
+			else
+				shard.close();
+	}
+
+	private void submit_blocks(Reader r, String f, ForkJoinPool pool, Semaphore pending, PrintStream[] shards, LongAdder num_ngrams) throws InterruptedException {
+		LineIterator liter = new LineIterator(r);
+		long lc = 0;
+		while(liter.hasNext()){
+			final long first_line = lc + 1;
+			final List<String> block = new ArrayList<String>(BLOCK_SIZE);
+			for(; block.size() < BLOCK_SIZE && liter.hasNext(); lc++)
+				block.add(liter.next());
+			LOG.debug("Processing lines {}:{}-{}", f, first_line, lc);
+			pending.acquire();
+			pool.execute(() -> {
+				try{
+					ShardedOutput out = new ShardedOutput(shards);
+					long n = 0;
+					for(int i = 0; i < block.size(); i++)
+						n += process_line_within_sentences(block.get(i), first_line + i, f, out);
+					out.flush();
+					num_ngrams.add(n);
+				}finally{
+					pending.release();
+				}
+			});
+		}
 	}
 
 }
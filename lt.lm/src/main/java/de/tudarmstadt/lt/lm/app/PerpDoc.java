@@ -17,7 +17,6 @@ package de.tudarmstadt.lt.lm.app;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -25,13 +24,13 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
-import org.apache.commons.io.LineIterator;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,8 +38,11 @@ import org.slf4j.LoggerFactory;
 import de.tudarmstadt.lt.lm.perplexity.ModelPerplexity;
 import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
 import de.tudarmstadt.lt.lm.service.StringProviderMXBean;
+import de.tudarmstadt.lt.lm.util.Properties;
 import de.tudarmstadt.lt.utilities.cli.CliUtils;
 import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
+import de.tudarmstadt.lt.utilities.io.BlockGzipInputStream;
+import de.tudarmstadt.lt.utilities.io.ParallelLineEngine;
 
 /**
  *
@@ -79,6 +81,7 @@ public class PerpDoc implements Runnable {
 		opts.addOption(OptionBuilder.withLongOpt("file").withArgName("name").hasArg().withDescription("Specify the file or directory that contains '.txt' files that are used as source for testing perplexity with the specified language model. Specify '-' to pipe from stdin. (default: '-').").create("f"));
 		opts.addOption(OptionBuilder.withLongOpt("out").withArgName("name").hasArg().withDescription("Specify the output file. Specify '-' to use stdout. (default: '-').").create("o"));
 		opts.addOption(OptionBuilder.withLongOpt("name").withArgName("identifier").isRequired().hasArg().withDescription("Specify the name of the language model provider that you want to connect to.").create("i"));
+		opts.addOption(OptionBuilder.withLongOpt("threads").withArgName("num").hasArg().withDescription("Specify the number of threads that process lines in parallel, documents are still evaluated in input order (default: 1).").create("t"));
 
 		try {
 			CommandLine cmd = new ExtendedGnuParser(true).parse(opts, args);
@@ -97,6 +100,7 @@ public class PerpDoc implements Runnable {
 			if(_no_oov && cmd.getOptionValue("noov") != null)
 				_no_oov = Boolean.parseBoolean(cmd.getOptionValue("noov"));
 			_oovreflm_name = cmd.getOptionValue("oovreflm");
+			_num_threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
 
 		} catch (Exception e) {
 			LOG.error("{}: {}- {}", _rmi_string, e.getClass().getSimpleName(), e.getMessage());
@@ -115,6 +119,7 @@ public class PerpDoc implements Runnable {
 	boolean _selftest;
 	boolean _quiet;
 	boolean _no_oov;
+	int _num_threads;
 	PrintStream _pout;
 
 	double _min_perp = Double.MAX_VALUE;
@@ -127,6 +132,9 @@ public class PerpDoc implements Runnable {
 	long _oov_ngrams = 0;
 	long _num_ngrams = 0;
 
+	String _docid = null;
+	String _ts = null;
+
 	/* (non-Javadoc)
 	 * @see java.lang.Runnable#run()
 	 */
@@ -171,136 +179,140 @@ public class PerpDoc implements Runnable {
 
 			if(f_or_d.isFile()){
 				LOG.info("{}: Processing file '{}'.", _rmi_string, f_or_d.getAbsolutePath());
-				try{run(new InputStreamReader(new FileInputStream(f_or_d), "UTF-8"));}catch(Exception e){LOG.error("{}: Could not compute perplexity from file '{}'.", _rmi_string, f_or_d.getAbsolutePath(), e);}
+				try{run(new InputStreamReader(BlockGzipInputStream.open(f_or_d, Properties.decompressionThreads()), "UTF-8"));}catch(Exception e){LOG.error("{}: Could not compute perplexity from file '{}'.", _rmi_string, f_or_d.getAbsolutePath(), e);}
 			}
 
 			if(f_or_d.isDirectory()){
 				File[] txt_files = f_or_d.listFiles(new FileFilter(){
 					@Override
 					public boolean accept(File f) {
-						return f.isFile() && f.getName().endsWith(".txt");
+						return f.isFile() && (f.getName().endsWith(".txt") || f.getName().endsWith(".txt.gz"));
 					}});
 
 				for(int i = 0; i < txt_files.length; i++){
 					File f = txt_files[i];
 					LOG.info("{}: Processing file '{}' ({}/{}).", _rmi_string, f.getAbsolutePath(), i + 1, txt_files.length);
-					try{ run(new InputStreamReader(new FileInputStream(f), "UTF-8")); }catch(Exception e){LOG.error("{}: Could not compute perplexity from file '{}'.", _rmi_string, f.getAbsolutePath(), e);}
+					try{ run(new InputStreamReader(BlockGzipInputStream.open(f, Properties.decompressionThreads()), "UTF-8")); }catch(Exception e){LOG.error("{}: Could not compute perplexity from file '{}'.", _rmi_string, f.getAbsolutePath(), e);}
 					
 				}
 			}
 		}
 	}
 
-	void run(Reader r) {
-		String docid = null;
+	/**
+	 * the log10 probabilities of the ngrams of a line of a document
+	 */
+	static class LineResult {
+		String docid;
+		String ts;
+		double[] log10probs = new double[0];
+		long num_ngrams;
+		long oov_terms;
+		long oov_ngrams;
+	}
+
+	void run(Reader r) throws IOException {
 		_perplexity_doc.reset();
 		_oov_ngrams = 0;
 		_oov_terms = 0;
 		_num_ngrams = 0;
-		long l = 0;
-		String ts = null;
-		String s = null;
-		for(LineIterator liter = new LineIterator(r); liter.hasNext(); ){
-			if(++l % 5000 == 0)
-				LOG.info("{}: processing line {}.", _rmi_string, l);
-
-			String line = liter.next();
-			if(line.trim().isEmpty())
-				continue;
-			// time <tab> sentence <tab> url
-			// url is document id 
-			String[] splits = line.split("\t");
-			if(splits.length < 3)
-				continue;
-			if(docid == null){
-				docid = splits[2];
-				ts = splits[0];
-			}
-			
-			if(!splits[2].equals(docid)){
-				double perplexity = _perplexity_doc.get();
-				if(perplexity > _max_perp)
-					_max_perp = perplexity;
-				if(perplexity < _min_perp)
-					_min_perp = perplexity;
-				String o = String.format("%s\t%s\t%s\tPerplexity: %6.3e \tMax: %6.3e \tMin: %6.3e \tngrams: %d \tOov-terms: %d \tOov-ngrams: %d", 
-						_rmi_string, ts, docid, perplexity, _max_perp, _min_perp, 
-						_num_ngrams, _oov_terms, _oov_ngrams);
-				LOG.info(o);
-				if(!_quiet)
-					write(String.format("%s%n", o));
-				else
-					write(String.format("%s\t%s\t%s\t%6.3e%n", _rmi_string, ts, docid, perplexity));
-				_perplexity_doc.reset();
-				docid = splits[2];
-				ts = splits[0];
-			}
-			
-			s = splits[1];
-			List<String>[] ngrams;
-			try {
-				ngrams = _lm_prvdr.getNgrams(s);
-				if(ngrams == null || ngrams.length == 0)
-					continue;
-			} catch (Exception e) {
-				LOG.error("{}: Could not get ngrams from line {}: '{}'.", _rmi_string, l, StringUtils.abbreviate(line, 100), e);
-				continue;
-			}
+		_docid = null;
+		_ts = null;
+		// a document consists of consecutive lines, hence lines are always aggregated in input order
+		new ParallelLineEngine<LineResult>(_num_threads, true).process(r, this::score, this::add);
+		if(_docid != null)
+			writeDocument();
+	}
 
-			for(List<String> ngram : ngrams){
-				if(ngram.isEmpty())
-					continue;
-				_num_ngrams++;
-				try{
-					if(_lm_prvdr_oovref.ngramContainsOOV(ngram)){
-						_oov_ngrams++;
-						if(_lm_prvdr_oovref.ngramEndsWithOOV(ngram)){
-							_oov_terms++;
-							if(_no_oov)
-								continue;
-						}
+	/**
+	 * called by the worker threads
+	 */
+	LineResult score(String line, long l) {
+		if(l % 5000 == 0)
+			LOG.info("{}: processing line {}.", _rmi_string, l);
+
+		if(line.trim().isEmpty())
+			return null;
+		// time <tab> sentence <tab> url
+		// url is document id 
+		String[] splits = line.split("\t");
+		if(splits.length < 3)
+			return null;
+		LineResult result = new LineResult();
+		result.ts = splits[0];
+		result.docid = splits[2];
+
+		String s = splits[1];
+		List<String>[] ngrams;
+		try {
+			ngrams = _lm_prvdr.getNgrams(s);
+			if(ngrams == null || ngrams.length == 0)
+				return result;
+		} catch (Exception e) {
+			LOG.error("{}: Could not get ngrams from line {}: '{}'.", _rmi_string, l, StringUtils.abbreviate(line, 100), e);
+			return result;
+		}
+
+		double[] log10probs = new double[ngrams.length];
+		int n = 0;
+		for(List<String> ngram : ngrams){
+			if(ngram.isEmpty())
+				continue;
+			result.num_ngrams++;
+			try{
+				if(_lm_prvdr_oovref.ngramContainsOOV(ngram)){
+					result.oov_ngrams++;
+					if(_lm_prvdr_oovref.ngramEndsWithOOV(ngram)){
+						result.oov_terms++;
+						if(_no_oov)
+							continue;
 					}
-					_perplexity_doc.addLog10Prob(ngram);
-				}catch(Exception e){
-					LOG.error("{}: Could not add ngram '{}' to perplexity.", _rmi_string, ngram);
-					continue;
 				}
+				log10probs[n++] = ModelPerplexity.calcLog10Prob(_lm_prvdr, ngram);
+			}catch(Exception e){
+				LOG.error("{}: Could not add ngram '{}' to perplexity.", _rmi_string, ngram);
+				continue;
 			}
 		}
-		
-		if(docid != null){
-			double perplexity = _perplexity_doc.get();
-			if(perplexity > _max_perp)
-				_max_perp = perplexity;
-			if(perplexity < _min_perp)
-				_min_perp = perplexity;
-			String o = String.format("%s\t%s\t%s\tPerplexity: %6.3e \tMax: %6.3e \tMin: %6.3e \tngrams: %d \tOov-terms: %d \tOov-ngrams: %d", 
-					_rmi_string, ts, docid, perplexity, _max_perp, _min_perp, 
-					_num_ngrams, _oov_terms, _oov_ngrams);
-			LOG.info(o);
-			if(!_quiet)
-				write(String.format("%s%n", o));
-			else
-				write(String.format("%s\t%s\t%s\t%6.3e%n", _rmi_string, ts, docid, _perplexity_doc.get()));
-		}
-		
+		result.log10probs = Arrays.copyOf(log10probs, n);
+		return result;
 	}
-	
-	void write(String towrite){
-		if("-".equals(_out))
-			_pout.print(towrite);
-		else{
-			File lock = new File(_out + ".lock");
-			while(lock.exists())
-				try { Thread.sleep(1000); } catch (InterruptedException e) { }
-			try {
-				lock.createNewFile();
-			} catch (IOException e) {
-				LOG.warn("Could not create lock '{}'.", lock, e);
-			}
-			_pout.print(towrite);
-			lock.delete();
+
+	/**
+	 * called by the writer thread in input order
+	 */
+	void add(LineResult result) {
+		if(_docid == null){
+			_docid = result.docid;
+			_ts = result.ts;
 		}
+		if(!result.docid.equals(_docid)){
+			writeDocument();
+			_perplexity_doc.reset();
+			_docid = result.docid;
+			_ts = result.ts;
+		}
+		_num_ngrams += result.num_ngrams;
+		_oov_ngrams += result.oov_ngrams;
+		_oov_terms += result.oov_terms;
+		for(double log10prob : result.log10probs)
+			_perplexity_doc.addLog10Prob(log10prob);
+	}
+
+	void writeDocument() {
+		double perplexity = _perplexity_doc.get();
+		if(perplexity > _max_perp)
+			_max_perp = perplexity;
+		if(perplexity < _min_perp)
+			_min_perp = perplexity;
+		String o = String.format("%s\t%s\t%s\tPerplexity: %6.3e \tMax: %6.3e \tMin: %6.3e \tngrams: %d \tOov-terms: %d \tOov-ngrams: %d", 
+				_rmi_string, _ts, _docid, perplexity, _max_perp, _min_perp, 
+				_num_ngrams, _oov_terms, _oov_ngrams);
+		LOG.info(o);
+		if(!_quiet)
+			_pout.print(String.format("%s%n", o));
+		else
+			_pout.print(String.format("%s\t%s\t%s\t%6.3e%n", _rmi_string, _ts, _docid, perplexity));
 	}
-	
+
 }
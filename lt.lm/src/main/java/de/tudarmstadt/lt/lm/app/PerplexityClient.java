@@ -25,6 +25,7 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -32,7 +33,6 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
-import org.apache.commons.io.LineIterator;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +42,7 @@ import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
 import de.tudarmstadt.lt.lm.service.StringProviderMXBean;
 import de.tudarmstadt.lt.utilities.cli.CliUtils;
 import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
+import de.tudarmstadt.lt.utilities.io.ParallelLineEngine;
 
 /**
  *
@@ -75,6 +76,8 @@ public class PerplexityClient implements Runnable {
 		opts.addOption(OptionBuilder.withLongOpt("file").withArgName("name").hasArg().withDescription("Specify the file or directory that contains '.txt' files that are used as source for testing perplexity with the specified language model. Specify '-' to pipe from stdin. (default: '-').").create("f"));
 		opts.addOption(OptionBuilder.withLongOpt("out").withArgName("name").hasArg().withDescription("Specify the output file. Specify '-' to use stdout. (default: '-').").create("o"));
 		opts.addOption(OptionBuilder.withLongOpt("id").withArgName("identifier").isRequired().hasArg().withDescription("Specify the name of the language model provider that you want to connect to.").create("i"));
+		opts.addOption(OptionBuilder.withLongOpt("threads").withArgName("num").hasArg().withDescription("Specify the number of threads that process lines in parallel (default: 1).").create("t"));
+		opts.addOption(OptionBuilder.withLongOpt("unordered").withDescription("Aggregate the results in the order in which they are finished instead of the input order.").create());
 		opts.addOption(OptionBuilder.withLongOpt("one_ngram_per_line").hasOptionalArg().withArgName("{true|false}").withDescription("Specify if the input file contains one ngram per line or sentences. (default: false)").create());
 
 		try {
@@ -101,6 +104,8 @@ public class PerplexityClient implements Runnable {
 			if(_one_ngram_per_line && cmd.getOptionValue("one_ngram_per_line") != null)
 				_one_ngram_per_line = Boolean.parseBoolean(cmd.getOptionValue("one_ngram_per_line"));
 			_oovreflm_name = cmd.getOptionValue("oovreflm");
+			_num_threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+			_ordered = !cmd.hasOption("unordered");
 
 		} catch (Exception e) {
 			LOG.error("{}: {}- {}", _rmi_string, e.getClass().getSimpleName(), e.getMessage());
@@ -121,6 +126,8 @@ public class PerplexityClient implements Runnable {
 	boolean _no_oov;
 	boolean _no_oov_reflm;
 	boolean _one_ngram_per_line;
+	int _num_threads;
+	boolean _ordered;
 	PrintStream _pout;
 
 	double _min_prob = Double.MAX_VALUE;
@@ -226,86 +233,107 @@ public class PerplexityClient implements Runnable {
 					_oovreflm_oov_terms));
 	}
 
+	/**
+	 * the scored ngrams of a line
+	 */
+	static class LineResult {
+		List<List<String>> ngrams = new ArrayList<List<String>>();
+		List<Double> log10probs = new ArrayList<Double>();
+		long num_ngrams;
+		long oov_terms;
+		long oov_ngrams;
+		long oovreflm_oov_terms;
+		long oovreflm_oov_ngrams;
+	}
+
+	void run(Reader r) throws IOException {
+		new ParallelLineEngine<LineResult>(_num_threads, _ordered).process(r, this::score, this::add);
+	}
+
+	/**
+	 * called by the worker threads
+	 */
 	@SuppressWarnings("unchecked")
-	void run(Reader r) {
-		long l = 0;
-		for(LineIterator liter = new LineIterator(r); liter.hasNext(); ){
-			if(++l % 5000 == 0)
-				LOG.info("{}: processing line {}.", _rmi_string, l);
-
-			String line = liter.next();
-			if(line.trim().isEmpty())
-				continue;
+	LineResult score(String line, long l) {
+		if(l % 5000 == 0)
+			LOG.info("{}: processing line {}.", _rmi_string, l);
 
-			List<String>[] ngrams;
-			try {
-				if(_one_ngram_per_line)
-					ngrams = new List[]{Arrays.asList(line.split(" "))};
-				else
-					ngrams = _lm_prvdr.getNgrams(line);
-				if(ngrams == null || ngrams.length == 0)
-					continue;
-			} catch (Exception e) {
-				LOG.error("{}: Could not get ngrams from line {}: '{}'.", _rmi_string, l, StringUtils.abbreviate(line, 100), e);
-				continue;
-			}
+		if(line.trim().isEmpty())
+			return null;
 
-			for(List<String> ngram : ngrams){
-				if(ngram.isEmpty())
-					continue;
-				_num_ngrams++;
-				try{
-					boolean oov = false;
-					if(_lm_prvdr.ngramContainsOOV(ngram)){
-						_oov_ngrams++;
-						if(_lm_prvdr.ngramEndsWithOOV(ngram)){
-							_oov_terms++;
-							oov = true;
-						}
-					}
+		List<String>[] ngrams;
+		try {
+			if(_one_ngram_per_line)
+				ngrams = new List[]{Arrays.asList(line.split(" "))};
+			else
+				ngrams = _lm_prvdr.getNgrams(line);
+			if(ngrams == null || ngrams.length == 0)
+				return null;
+		} catch (Exception e) {
+			LOG.error("{}: Could not get ngrams from line {}: '{}'.", _rmi_string, l, StringUtils.abbreviate(line, 100), e);
+			return null;
+		}
 
-					if(_lm_prvdr_oovref.ngramContainsOOV(ngram)){
-						_oovreflm_oov_ngrams++;
-						if(_lm_prvdr_oovref.ngramEndsWithOOV(ngram)){
-							_oovreflm_oov_terms++;
-							if(_no_oov_reflm || (_no_oov && oov))
-								continue;
-						}
-					}
-					
-					double log10prob = _perplexity_all.addLog10Prob(ngram);
-					_perplexity_file.addLog10Prob(ngram);
-					if(log10prob < _min_prob){
-						_min_prob = log10prob;
-						_min_ngram = ngram;
+		LineResult result = new LineResult();
+		for(List<String> ngram : ngrams){
+			if(ngram.isEmpty())
+				continue;
+			result.num_ngrams++;
+			try{
+				boolean oov = false;
+				if(_lm_prvdr.ngramContainsOOV(ngram)){
+					result.oov_ngrams++;
+					if(_lm_prvdr.ngramEndsWithOOV(ngram)){
+						result.oov_terms++;
+						oov = true;
 					}
-					if(log10prob > _max_prob){
-						_max_prob = log10prob;
-						_max_ngram = ngram;
+				}
+
+				if(_lm_prvdr_oovref.ngramContainsOOV(ngram)){
+					result.oovreflm_oov_ngrams++;
+					if(_lm_prvdr_oovref.ngramEndsWithOOV(ngram)){
+						result.oovreflm_oov_terms++;
+						if(_no_oov_reflm || (_no_oov && oov))
+							continue;
 					}
-				}catch(Exception e){
-					LOG.error("{}: Could not add ngram '{}' to perplexity.", _rmi_string, ngram);
-					continue;
 				}
+
+				result.log10probs.add(ModelPerplexity.calcLog10Prob(_lm_prvdr, ngram));
+				result.ngrams.add(ngram);
+			}catch(Exception e){
+				LOG.error("{}: Could not add ngram '{}' to perplexity.", _rmi_string, ngram);
+				continue;
 			}
 		}
+		return result;
 	}
-	
-	void write(String towrite){
-		if("-".equals(_out))
-			_pout.print(towrite);
-		else{
-			File lock = new File(_out + ".lock");
-			while(lock.exists())
-				try { Thread.sleep(1000); } catch (InterruptedException e) { }
-			try {
-				lock.createNewFile();
-			} catch (IOException e) {
-				LOG.warn("Could not create lock '{}'.", lock, e);
+
+	/**
+	 * called by the writer thread
+	 */
+	void add(LineResult result) {
+		_num_ngrams += result.num_ngrams;
+		_oov_ngrams += result.oov_ngrams;
+		_oov_terms += result.oov_terms;
+		_oovreflm_oov_ngrams += result.oovreflm_oov_ngrams;
+		_oovreflm_oov_terms += result.oovreflm_oov_terms;
+		for(int i = 0; i < result.ngrams.size(); i++){
+			double log10prob = result.log10probs.get(i);
+			_perplexity_all.addLog10Prob(log10prob);
+			_perplexity_file.addLog10Prob(log10prob);
+			if(log10prob < _min_prob){
+				_min_prob = log10prob;
+				_min_ngram = result.ngrams.get(i);
+			}
+			if(log10prob > _max_prob){
+				_max_prob = log10prob;
+				_max_ngram = result.ngrams.get(i);
 			}
-			_pout.print(towrite);
-			lock.delete();
 		}
 	}
-	
+
+	void write(String towrite){
+		_pout.print(towrite);
+	}
+
 }
@@ -17,7 +17,6 @@ package de.tudarmstadt.lt.lm.app;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -25,21 +24,24 @@ import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
-import org.apache.commons.io.LineIterator;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
 import de.tudarmstadt.lt.lm.service.StringProviderMXBean;
+import de.tudarmstadt.lt.lm.util.Properties;
 import de.tudarmstadt.lt.utilities.cli.CliUtils;
 import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
+import de.tudarmstadt.lt.utilities.io.BlockGzipInputStream;
+import de.tudarmstadt.lt.utilities.io.ParallelLineEngine;
 
 /**
  * Compute Perplexity based on a sentence model: 
@@ -78,6 +80,8 @@ public class SentPerp implements Runnable {
 		opts.addOption(OptionBuilder.withLongOpt("file").withArgName("name").hasArg().withDescription("Specify the file or directory that contains '.txt' files that are used as source for testing perplexity with the specified language model. Specify '-' to pipe from stdin. (default: '-').").create("f"));
 		opts.addOption(OptionBuilder.withLongOpt("out").withArgName("name").hasArg().withDescription("Specify the output file. Specify '-' to use stdout. (default: '-').").create("o"));
 		opts.addOption(OptionBuilder.withLongOpt("name").withArgName("identifier").isRequired().hasArg().withDescription("Specify the name of the language model provider that you want to connect to.").create("i"));
+		opts.addOption(OptionBuilder.withLongOpt("threads").withArgName("num").hasArg().withDescription("Specify the number of threads that process lines in parallel (default: 1).").create("t"));
+		opts.addOption(OptionBuilder.withLongOpt("unordered").withDescription("Aggregate the results in the order in which they are finished instead of the input order.").create());
 
 		try {
 			CommandLine cmd = new ExtendedGnuParser(true).parse(opts, args);
@@ -96,6 +100,8 @@ public class SentPerp implements Runnable {
 			if(_no_oov && cmd.getOptionValue("noov") != null)
 				_no_oov = Boolean.parseBoolean(cmd.getOptionValue("noov"));
 			_oovreflm_name = cmd.getOptionValue("oovreflm");
+			_num_threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+			_ordered = !cmd.hasOption("unordered");
 
 		} catch (Exception e) {
 			LOG.error("{}: {}- {}", _rmi_string, e.getClass().getSimpleName(), e.getMessage());
@@ -114,6 +120,8 @@ public class SentPerp implements Runnable {
 	boolean _selftest;
 	boolean _quiet;
 	boolean _no_oov;
+	int _num_threads;
+	boolean _ordered;
 	PrintStream _pout;
 
 	double _min_prob = Double.MAX_VALUE;
@@ -174,21 +182,21 @@ public class SentPerp implements Runnable {
 
 			if(f_or_d.isFile()){
 				LOG.info("{}: Processing file '{}'.", _rmi_string, f_or_d.getAbsolutePath());
-				try{run(new InputStreamReader(new FileInputStream(f_or_d), "UTF-8"));}catch(Exception e){LOG.error("{}: Could not compute perplexity from file '{}'.", _rmi_string, f_or_d.getAbsolutePath(), e);}
+				try{run(new InputStreamReader(BlockGzipInputStream.open(f_or_d, Properties.decompressionThreads()), "UTF-8"));}catch(Exception e){LOG.error("{}: Could not compute perplexity from file '{}'.", _rmi_string, f_or_d.getAbsolutePath(), e);}
 			}
 
 			if(f_or_d.isDirectory()){
 				File[] txt_files = f_or_d.listFiles(new FileFilter(){
 					@Override
 					public boolean accept(File f) {
-						return f.isFile() && f.getName().endsWith(".txt");
+						return f.isFile() && (f.getName().endsWith(".txt") || f.getName().endsWith(".txt.gz"));
 					}});
 
 				for(int i = 0; i < txt_files.length; i++){
 					File f = txt_files[i];
 					LOG.info("{}: Processing file '{}' ({}/{}).", _rmi_string, f.getAbsolutePath(), i + 1, txt_files.length);
 
-					try{ run(new InputStreamReader(new FileInputStream(f), "UTF-8")); }catch(Exception e){LOG.error("{}: Could not compute perplexity from file '{}'.", _rmi_string, f.getAbsolutePath(), e);}
+					try{ run(new InputStreamReader(BlockGzipInputStream.open(f, Properties.decompressionThreads()), "UTF-8")); }catch(Exception e){LOG.error("{}: Could not compute perplexity from file '{}'.", _rmi_string, f.getAbsolutePath(), e);}
 
 					double entropy = - _sum_log10_prob_sents / _num_sents;
 					_perplexity_all = Math.pow(10, entropy);
@@ -216,97 +224,122 @@ public class SentPerp implements Runnable {
 			write(String.format("%s\t%s\t%6.3e%n", _rmi_string, _file, _perplexity_all));
 	}
 
-	void run(Reader r) {
-		long l = 0;
-		for(LineIterator liter = new LineIterator(r); liter.hasNext(); ){
-			if(++l % 5000 == 0)
-				LOG.info("{}: processing line {}.", _rmi_string, l);
+	/**
+	 * the average log10 probabilities of the sentences of a line
+	 */
+	static class LineResult {
+		List<Double> p_log10_sents = new ArrayList<Double>();
+		long num_ngrams;
+		long oov_terms;
+		long oov_ngrams;
+		double min_prob = Double.MAX_VALUE;
+		double max_prob = -Double.MAX_VALUE;
+		List<String> min_ngram = null;
+		List<String> max_ngram = null;
+	}
 
-			String line = liter.next();
-			if(line.trim().isEmpty())
-				continue;
+	void run(Reader r) throws IOException {
+		new ParallelLineEngine<LineResult>(_num_threads, _ordered).process(r, this::score, this::add);
+	}
+
+	/**
+	 * called by the worker threads
+	 */
+	LineResult score(String line, long l) {
+		if(l % 5000 == 0)
+			LOG.info("{}: processing line {}.", _rmi_string, l);
+
+		if(line.trim().isEmpty())
+			return null;
 
-			List<String> sentences;
+		List<String> sentences;
+		try {
+			sentences = _lm_prvdr.splitSentences(line);
+		} catch (Exception e) {
+			LOG.error("{}: Could not split sentences from line {}: '{}'.", _rmi_string, l, StringUtils.abbreviate(line, 100), e);
+			return null;
+		}
+
+		LineResult result = new LineResult();
+		for(String sentence : sentences){
+			double p_log10_sent = 0d;
+			double num_words = 0d;
+			List<String> tokens;
+			List<String>[] ngrams;
 			try {
-				sentences = _lm_prvdr.splitSentences(line);
+				tokens = _lm_prvdr.tokenizeSentence(sentence);
+				if(tokens == null || tokens.isEmpty())
+					continue;
+				ngrams = _lm_prvdr.getNgramSequence(tokens);
+				if(ngrams == null || ngrams.length == 0)
+					continue;
 			} catch (Exception e) {
-				LOG.error("{}: Could not split sentences from line {}: '{}'.", _rmi_string, l, StringUtils.abbreviate(line, 100), e);
+				LOG.error("{}: Could not get ngrams from line {}: '{}'.", _rmi_string, l, StringUtils.abbreviate(line, 100), e);
 				continue;
 			}
 
-			for(String sentence : sentences){
-				double p_log10_sent = 0d;
-				double num_words = 0d;
-				List<String> tokens;
-				List<String>[] ngrams;
-				try {
-					tokens = _lm_prvdr.tokenizeSentence(sentence);
-					if(tokens == null || tokens.isEmpty())
-						continue;
-					ngrams = _lm_prvdr.getNgramSequence(tokens);
-					if(ngrams == null || ngrams.length == 0)
-						continue;
-				} catch (Exception e) {
-					LOG.error("{}: Could not get ngrams from line {}: '{}'.", _rmi_string, l, StringUtils.abbreviate(line, 100), e);
+			for(List<String> ngram : ngrams){
+				if(ngram.isEmpty())
 					continue;
-				}
-
-				for(List<String> ngram : ngrams){
-					if(ngram.isEmpty())
-						continue;
-					_num_ngrams++;
-					try{
-
-						if(_lm_prvdr_oovref.ngramContainsOOV(ngram)){
-							_oov_ngrams++;
-							if(_lm_prvdr_oovref.ngramEndsWithOOV(ngram)){
-								_oov_terms++;
-								if(_no_oov)
-									continue;
-							}
+				result.num_ngrams++;
+				try{
+
+					if(_lm_prvdr_oovref.ngramContainsOOV(ngram)){
+						result.oov_ngrams++;
+						if(_lm_prvdr_oovref.ngramEndsWithOOV(ngram)){
+							result.oov_terms++;
+							if(_no_oov)
+								continue;
 						}
+					}
 
-						double log10prob = _lm_prvdr.getNgramLog10Probability(ngram);
-						p_log10_sent += log10prob;
-						num_words++;
+					double log10prob = _lm_prvdr.getNgramLog10Probability(ngram);
+					p_log10_sent += log10prob;
+					num_words++;
 
-						if(log10prob < _min_prob){
-							_min_prob = log10prob;
-							_min_ngram = ngram;
-						}
-						if(log10prob > _max_prob){
-							_max_prob = log10prob;
-							_max_ngram = ngram;
-						}
-					}catch(Exception e){
-						LOG.error("{}: Could not add ngram '{}' to perplexity.", _rmi_string, ngram);
-						continue;
+					if(log10prob < result.min_prob){
+						result.min_prob = log10prob;
+						result.min_ngram = ngram;
 					}
-				}
-				if(num_words == 0)
+					if(log10prob > result.max_prob){
+						result.max_prob = log10prob;
+						result.max_ngram = ngram;
+					}
+				}catch(Exception e){
+					LOG.error("{}: Could not add ngram '{}' to perplexity.", _rmi_string, ngram);
 					continue;
-				p_log10_sent = p_log10_sent / num_words;// (double)tokens.size();
-				_num_sents++;
-				_sum_log10_prob_sents += p_log10_sent;
+				}
 			}
+			if(num_words == 0)
+				continue;
+			result.p_log10_sents.add(p_log10_sent / num_words);// (double)tokens.size();
 		}
+		return result;
 	}
 
-	void write(String towrite){
-		if("-".equals(_out))
-			_pout.print(towrite);
-		else{
-			File lock = new File(_out + ".lock");
-			while(lock.exists())
-				try { Thread.sleep(1000); } catch (InterruptedException e) { }
-			try {
-				lock.createNewFile();
-			} catch (IOException e) {
-				LOG.warn("Could not create lock '{}'.", lock, e);
-			}
-			_pout.print(towrite);
-			lock.delete();
+	/**
+	 * called by the writer thread
+	 */
+	void add(LineResult result) {
+		_num_ngrams += result.num_ngrams;
+		_oov_ngrams += result.oov_ngrams;
+		_oov_terms += result.oov_terms;
+		for(double p_log10_sent : result.p_log10_sents){
+			_num_sents++;
+			_sum_log10_prob_sents += p_log10_sent;
+		}
+		if(result.min_prob < _min_prob){
+			_min_prob = result.min_prob;
+			_min_ngram = result.min_ngram;
 		}
+		if(result.max_prob > _max_prob){
+			_max_prob = result.max_prob;
+			_max_ngram = result.max_ngram;
+		}
+	}
+
+	void write(String towrite){
+		_pout.print(towrite);
 	}
 
 }
@@ -47,10 +47,12 @@ import de.tudarmstadt.lt.lm.PseudoSymbol;
 import de.tudarmstadt.lt.lm.berkeleylm.BerkeleyLM;
 import de.tudarmstadt.lt.lm.lucenebased.CountingStringLM;
 import de.tudarmstadt.lt.lm.lucenebased.KneserNeyLMRecursive;
+import de.tudarmstadt.lt.lm.lucenebased.NgramCountsCache;
 import de.tudarmstadt.lt.lm.mapbased.CountingLM;
 import de.tudarmstadt.lt.lm.mapbased.LaplaceSmoothedLM;
 import de.tudarmstadt.lt.lm.perplexity.ModelPerplexity;
 import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
+import de.tudarmstadt.lt.lm.service.BinaryStringProviderServer;
 import de.tudarmstadt.lt.lm.service.BreakIteratorStringProvider;
 import de.tudarmstadt.lt.lm.service.LtSegProvider;
 import de.tudarmstadt.lt.lm.service.PreTokenizedStringProvider;
@@ -90,6 +92,7 @@ public class StartLM implements Runnable{
 		opts.addOption(OptionBuilder.withLongOpt("host").withArgName("hostname").hasArg().withDescription("specifies the hostname on which the rmi registry listens (default: localhost)").create("h"));
 		opts.addOption(OptionBuilder.withLongOpt("rmiport").withArgName("port-number").hasArg().withDescription(String.format("specifies the port on which rmi registry listens (default: %d)", Registry.REGISTRY_PORT)).create("rp"));
 		opts.addOption(OptionBuilder.withLongOpt("port").withArgName("port-number").hasArg().withDescription("specifies the port on which this service should populate (default: 0, which means a random port will be assigned)").create("p"));
+		opts.addOption(OptionBuilder.withLongOpt("binaryport").withArgName("port-number").hasArg().withDescription("specifies the port on which the service is additionally served with the compact binary protocol (default: -1, which means the binary protocol is disabled; 0 means a random port will be assigned)").create("bp"));
 		opts.addOption(OptionBuilder.withLongOpt("lmtype").withArgName("class").hasArg().withDescription("specify the instance of the language model that you want to use: {BerkeleyLM, CountingLM, LaplaceSmoothedLM, CountingStringLM, KneserNeyLM, (experimental: KneserNeyLMRecursive, PoptKneserNeyLMRecursive, ModifiedKNeserNeyLMRecursive)} (default: BerkeleyLM)").create("t"));
 		opts.addOption(OptionBuilder.withLongOpt("ptype").withArgName("class").hasArg().withDescription("specify the instance of the language model provider that you want to use: {LtSegProvider, BreakIteratorStringProvider, PreTokenizedStringProvider} (default: LtSegProvider)").create("pt"));
 		opts.addOption(OptionBuilder.withLongOpt("dir").withArgName("directory").isRequired().hasArg().withDescription("specify the directory that contains '.txt' files that are used as source for this language model").create("d"));
@@ -97,6 +100,7 @@ public class StartLM implements Runnable{
 		opts.addOption(OptionBuilder.withLongOpt("identifier").withArgName("name").hasArg().withDescription("specify a name/identifier for the language model. If no name is given, a random name will be generated.").create("i"));
 		opts.addOption(OptionBuilder.withLongOpt("overwrite").withDescription("Overwrite existing saved or temporary files.").create("w"));
 		opts.addOption(OptionBuilder.withLongOpt("discount").withArgName("Discount value in [0,1]").hasArg().withDescription("Uniform discount value for Lucene based Kneser-Ney LM.").create());
+		opts.addOption(OptionBuilder.withLongOpt("nosnapshot").withDescription(String.format("Do not load or write a snapshot of the language model in '<dir>/%s', which is used for fast restarts.", LmSnapshot.DIRECTORY)).create("ns"));
 		opts.addOption(OptionBuilder.withLongOpt("mincount").withArgName("int").hasArg().withDescription("(Only applicable for Lucene Based LMs) - Specify the number of times an ngram must occur to be considered in further calculations. Ngrams with counts below mincount are filtered. (default: 1).").create("m"));
 
 		try {
@@ -106,6 +110,7 @@ public class StartLM implements Runnable{
 
 			_rmiRegistryPort = Integer.parseInt(cmd.getOptionValue("rmiport", String.valueOf(Registry.REGISTRY_PORT)));
 			_port = Integer.parseInt(cmd.getOptionValue("port", "0"));
+			_binaryPort = Integer.parseInt(cmd.getOptionValue("binaryport", "-1"));
 			_srcdir = cmd.getOptionValue("dir");
 			_n = Integer.parseInt(cmd.getOptionValue("order", "5"));
 			_type_lm = cmd.getOptionValue("lmtype", BerkeleyLM.class.getSimpleName());
@@ -115,8 +120,10 @@ public class StartLM implements Runnable{
 			_overwrite = cmd.hasOption("overwrite");
 			_discount = Double.parseDouble(cmd.getOptionValue("discount", "-1"));
 			_mincount = Integer.parseInt(cmd.getOptionValue("mincount", "1"));
+			_snapshot = !cmd.hasOption("nosnapshot");
 			// String[] non_named_args = cmd.getArgs();
 			_providerJmxBeanName = new ObjectName("de.tudarmstadt.lt.lm:type=ProviderService");
+			_countsCacheJmxBeanName = new ObjectName("de.tudarmstadt.lt.lm:type=NgramCountsCache");
 
 		} catch (Exception e) {
 			LOG.error("{}: {}", e.getClass().getSimpleName(), e.getMessage());
@@ -127,6 +134,8 @@ public class StartLM implements Runnable{
 	Registry _registry;
 	int _rmiRegistryPort;
 	int _port;
+	int _binaryPort;
+	BinaryStringProviderServer _binaryServer;
 	String _srcdir;
 	int _n;
 	double _discount;
@@ -136,9 +145,11 @@ public class StartLM implements Runnable{
 	String _host;
 	boolean _overwrite;
 	int _mincount;
+	boolean _snapshot = true;
 	AbstractStringProvider _providerService;
 	MBeanServer _mbs;
 	ObjectName _providerJmxBeanName;
+	ObjectName _countsCacheJmxBeanName;
 	boolean _app_serves_rmi_registry = false;
 	Thread _shutdown_hook = new Thread(new Runnable() {
 		@Override
@@ -439,7 +450,21 @@ public class StartLM implements Runnable{
 			try {
 				LOG.info("Loading '{}' languagemodel from '{}'... ", _type_lm, srcdir.getAbsolutePath());
 				long begin_ms = System.currentTimeMillis();
-				LanguageModel<String> lm = getLanguageModelInstance(_type_lm, _providerService,  srcdir, _n, _mincount, _discount, _overwrite);
+				LmSnapshot snapshot = new LmSnapshot(srcdir, _type_lm, _n, _mincount, _discount);
+				LanguageModel<String> lm = null;
+				if(_snapshot && !_overwrite)
+					lm = snapshot.load();
+				if(lm == null){
+					lm = getLanguageModelInstance(_type_lm, _providerService,  srcdir, _n, _mincount, _discount, _overwrite);
+					if(_snapshot){
+						try {
+							snapshot.write(lm);
+						} catch (Exception e) {
+							snapshot.invalidate();
+							LOG.warn("Could not write snapshot {}. {}: {}", snapshot, e.getClass().getSimpleName(), e.getMessage());
+						}
+					}
+				}
 
 				_providerService.setLanguageModel(lm);
 
@@ -462,6 +487,12 @@ public class StartLM implements Runnable{
 			if(_mbs == null)
 				_mbs = ManagementFactory.getPlatformMBeanServer();
 			_mbs.registerMBean(_providerService, _providerJmxBeanName);
+			NgramCountsCache counts_cache = getCountsCache();
+			if(counts_cache != null)
+				_mbs.registerMBean(counts_cache, _countsCacheJmxBeanName);
+
+			if(_binaryPort >= 0)
+				_binaryServer = new BinaryStringProviderServer(_providerService, _host, _binaryPort);
 
 		} catch (Exception e) {
 			LOG.error("Could not start language model server. {}: {}", e.getClass(), e.getMessage());
@@ -480,13 +511,27 @@ public class StartLM implements Runnable{
 
 	void stopLM(){
 		try {
+			if(_binaryServer != null)
+				_binaryServer.close();
+			_binaryServer = null;
 			_registry.unbind(_name);
 			_mbs.unregisterMBean(_providerJmxBeanName);
+			if(_mbs.isRegistered(_countsCacheJmxBeanName))
+				_mbs.unregisterMBean(_countsCacheJmxBeanName);
 			LOG.info("Stopped LM.");
 			_providerService = null;
 		} catch (Exception e1) {/* handle silently */ }
 	}
 
+	NgramCountsCache getCountsCache(){
+		if(_providerService == null)
+			return null;
+		LanguageModel<String> lm = _providerService.getLanguageModel();
+		if(lm instanceof CountingStringLM)
+			return ((CountingStringLM)lm).getCountsCache();
+		return null;
+	}
+
 	void restartLM(){
 		if(_providerService != null)
 			stopLM();
@@ -507,11 +552,16 @@ public class StartLM implements Runnable{
 		System.out.format("%-50.50s %s %n", "RMI registry host:", _host );
 		System.out.format("%-50.50s %s %n", "RMI registry port:", _rmiRegistryPort );
 		System.out.format("%-50.50s %s %n", "LM port:",_port );
+		if(_binaryServer != null)
+			try { System.out.format("%-50.50s %s %n", "LM binary protocol port:", _binaryServer.getPort() ); } catch (Exception e) {/* */}
 		System.out.format("%-50.50s %s %n", "LM identifier:", _name );
 		System.out.format("%-50.50s %s %n", "LM order:", _n );
 		System.out.format("%-50.50s %s %n", "LM source Directory:", new File(_srcdir).getAbsolutePath() );
 		System.out.format("%-50.50s %s [%s] %n", "LM type:", _type_lm, _providerService.getLanguageModel().getClass().getSimpleName());
 		System.out.format("%-50.50s %s [%s] %n", "LM type:", _type_provider,  _providerService.getClass().getSimpleName() );
+		NgramCountsCache counts_cache = getCountsCache();
+		if(counts_cache != null)
+			System.out.format("%-50.50s %s %n", "Ngram counts cache:", counts_cache );
 		System.out.format("---%nLM specific properties:%n");
 		for(Entry<Object, Object> prop : Properties.get().entrySet())
 			if(prop.getKey().toString().startsWith("lt.lm"))
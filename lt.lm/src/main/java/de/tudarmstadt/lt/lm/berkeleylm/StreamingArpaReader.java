@@ -0,0 +1,359 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.berkeleylm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.berkeley.nlp.lm.WordIndexer;
+import edu.berkeley.nlp.lm.io.ArpaLmReader;
+import edu.berkeley.nlp.lm.io.ArpaLmReaderCallback;
+import edu.berkeley.nlp.lm.io.LmReader;
+import edu.berkeley.nlp.lm.values.ProbBackoffPair;
+
+/**
+ * Drop-in replacement for BerkeleyLM's {@link ArpaLmReader}, which streams the (gzipped) ARPA file through a byte buffer
+ * and parses probabilities, words and backoffs directly from the bytes, i.e. no line or word strings are created except
+ * once for every new word. Memory is bounded by the vocabulary and whatever the callback keeps, the progress is logged as
+ * the fraction of the file that was read.
+ *
+ * Callbacks get null instead of the line as string representation of the ngram.
+ *
+ * @author Steffen Remus
+ */
+public class StreamingArpaReader<W> implements LmReader<ProbBackoffPair, ArpaLmReaderCallback<ProbBackoffPair>> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StreamingArpaReader.class);
+
+	private static final int PROGRESS_INTERVAL = 1000000;
+
+	private final File _arpa_file;
+	private final WordIndexer<W> _word_indexer;
+	private final int _max_order;
+
+	// word bytes -> word index, open addressing over the bytes of the words in _arena
+	private byte[] _arena = new byte[1 << 16];
+	private int _arena_size;
+	private int[] _offsets;
+	private int[] _lengths;
+	private int[] _ids;
+	private int _mask;
+	private int _num_words;
+
+	public StreamingArpaReader(File arpa_file, WordIndexer<W> word_indexer, int max_order) {
+		_arpa_file = arpa_file;
+		_word_indexer = word_indexer;
+		_max_order = max_order;
+		allocate(1 << 12);
+	}
+
+	@Override
+	public void parse(ArpaLmReaderCallback<ProbBackoffPair> callback) {
+		LOG.info("Reading ARPA file '{}'.", _arpa_file.getAbsolutePath());
+		try(LineScanner in = new LineScanner(_arpa_file)){
+			callback.initWithLengths(parseHeader(in));
+			parseNgrams(in, callback);
+		}catch(IOException e){
+			throw new RuntimeException(String.format("Could not read ARPA file '%s'.", _arpa_file.getAbsolutePath()), e);
+		}
+		callback.cleanup();
+		_word_indexer.setStartSymbol(_word_indexer.getWord(_word_indexer.getOrAddIndexFromString(ArpaLmReader.START_SYMBOL)));
+		_word_indexer.setEndSymbol(_word_indexer.getWord(_word_indexer.getOrAddIndexFromString(ArpaLmReader.END_SYMBOL)));
+		_word_indexer.setUnkSymbol(_word_indexer.getWord(_word_indexer.getOrAddIndexFromString(ArpaLmReader.UNK_SYMBOL)));
+	}
+
+	List<Long> parseHeader(LineScanner in) throws IOException {
+		List<Long> num_ngrams = new ArrayList<Long>();
+		while(in.nextLine()){
+			String line = in.lineAsString();
+			if(line.startsWith("ngram ")){
+				long n = Long.parseLong(line.substring(line.indexOf('=') + 1).trim());
+				if(num_ngrams.size() < _max_order)
+					num_ngrams.add(n);
+			}
+			if(line.startsWith("\\1-grams:"))
+				return num_ngrams;
+		}
+		throw new IOException("Unexpected end of file, missing '\\1-grams:' section.");
+	}
+
+	void parseNgrams(LineScanner in, ArpaLmReaderCallback<ProbBackoffPair> callback) throws IOException {
+		int order = 1;
+		long num_ngrams = 0, num_lines = 0;
+		int[] ngram = new int[order];
+		callback.handleNgramOrderStarted(order);
+		while(in.nextLine()){
+			if(++num_lines % PROGRESS_INTERVAL == 0)
+				LOG.info(String.format("Read %,d lines (%.1f%%).", num_lines, in.progress() * 100));
+			byte[] b = in._buf;
+			int begin = in._begin, end = in._end;
+			if(begin == end)
+				continue;
+			if(b[begin] == '\\'){
+				if(end - begin >= 4 && b[begin + 1] == 'e' && b[begin + 2] == 'n' && b[begin + 3] == 'd')
+					break;
+				LOG.info("Read {} {}-grams.", num_ngrams, order);
+				callback.handleNgramOrderFinished(order);
+				if(++order > _max_order)
+					return;
+				ngram = new int[order];
+				num_ngrams = 0;
+				callback.handleNgramOrderStarted(order);
+				continue;
+			}
+			parseLine(b, begin, end, in._line_number, ngram, callback);
+			num_ngrams++;
+		}
+		LOG.info("Read {} {}-grams.", num_ngrams, order);
+		callback.handleNgramOrderFinished(order);
+	}
+
+	private void parseLine(byte[] b, int begin, int end, long line_number, int[] ngram, ArpaLmReaderCallback<ProbBackoffPair> callback) throws IOException {
+		int tab = indexOf(b, begin, end, (byte)'\t');
+		if(tab < 0)
+			throw new IOException(String.format("Bad ARPA line %d '%s'.", line_number, new String(b, begin, end - begin, StandardCharsets.UTF_8)));
+		float log_prob = parseFloat(b, begin, tab);
+		if(log_prob > 0)
+			throw new IOException(String.format("Bad ARPA line %d '%s', probability must not be greater than 1.", line_number, new String(b, begin, end - begin, StandardCharsets.UTF_8)));
+		int words_end = indexOf(b, tab + 1, end, (byte)'\t');
+		float backoff = 0f;
+		if(words_end >= 0){
+			if(words_end + 1 < end) // an empty backoff (trailing tab) counts as absent
+				backoff = parseFloat(b, words_end + 1, end);
+		}
+		else
+			words_end = end;
+		int k = 0;
+		for(int word_begin = tab + 1; word_begin <= words_end;){
+			if(k == ngram.length)
+				throw new IOException(String.format("Bad ARPA line %d '%s', expected a %d-gram but found more words.", line_number, new String(b, begin, end - begin, StandardCharsets.UTF_8), ngram.length));
+			int word_end = indexOf(b, word_begin, words_end, (byte)' ');
+			if(word_end < 0)
+				word_end = words_end;
+			ngram[k++] = wordIndex(b, word_begin, word_end);
+			word_begin = word_end + 1;
+		}
+		if(k != ngram.length)
+			throw new IOException(String.format("Bad ARPA line %d '%s', expected a %d-gram.", line_number, new String(b, begin, end - begin, StandardCharsets.UTF_8), ngram.length));
+		callback.call(ngram, 0, k, new ProbBackoffPair(log_prob, backoff), null);
+	}
+
+	private static int indexOf(byte[] b, int begin, int end, byte c) {
+		for(int i = begin; i < end; i++)
+			if(b[i] == c)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * parse [-]digits[.digits][(e|E)[-|+]digits], anything else (e.g. 'NaN', '-Infinity') is left to {@link Float#parseFloat(String)}
+	 */
+	static float parseFloat(byte[] b, int begin, int end) {
+		int i = begin;
+		boolean negative = i < end && b[i] == '-';
+		if(negative || (i < end && b[i] == '+'))
+			i++;
+		long mantissa = 0;
+		int exponent = 0, num_digits = 0;
+		for(; i < end && b[i] >= '0' && b[i] <= '9'; i++, num_digits++)
+			mantissa = mantissa * 10 + (b[i] - '0');
+		if(i < end && b[i] == '.')
+			for(i++; i < end && b[i] >= '0' && b[i] <= '9'; i++, num_digits++){
+				mantissa = mantissa * 10 + (b[i] - '0');
+				exponent--;
+			}
+		if(i < end && (b[i] == 'e' || b[i] == 'E')){
+			int j = i + 1;
+			boolean negative_exponent = j < end && b[j] == '-';
+			if(negative_exponent || (j < end && b[j] == '+'))
+				j++;
+			int e = 0;
+			for(; j < end && b[j] >= '0' && b[j] <= '9'; j++)
+				e = e * 10 + (b[j] - '0');
+			exponent += negative_exponent ? -e : e;
+			i = j;
+		}
+		if(i != end || num_digits == 0 || num_digits > 18)
+			return Float.parseFloat(new String(b, begin, end - begin, StandardCharsets.US_ASCII).trim());
+		double v = exponent < 0 ? mantissa / Math.pow(10, -exponent) : mantissa * Math.pow(10, exponent);
+		return (float)(negative ? -v : v);
+	}
+
+	private void allocate(int capacity) {
+		_offsets = new int[capacity];
+		_lengths = new int[capacity];
+		_ids = new int[capacity];
+		Arrays.fill(_ids, -1);
+		_mask = capacity - 1;
+	}
+
+	private static int hash(byte[] b, int begin, int end) {
+		int h = 0x811C9DC5;
+		for(int i = begin; i < end; i++)
+			h = (h ^ b[i]) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	private int find(byte[] b, int begin, int end) {
+		int length = end - begin;
+		for(int slot = hash(b, begin, end) & _mask;; slot = (slot + 1) & _mask){
+			if(_ids[slot] < 0)
+				return ~slot;
+			if(_lengths[slot] == length && equals(_offsets[slot], b, begin, end))
+				return slot;
+		}
+	}
+
+	private boolean equals(int offset, byte[] b, int begin, int end) {
+		for(int i = begin, j = offset; i < end; i++, j++)
+			if(_arena[j] != b[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the index of the word b[begin,end), words are only decoded and passed to the word indexer the first time they occur
+	 */
+	int wordIndex(byte[] b, int begin, int end) {
+		int slot = find(b, begin, end);
+		if(slot >= 0)
+			return _ids[slot];
+		int id = _word_indexer.getOrAddIndexFromString(new String(b, begin, end - begin, StandardCharsets.UTF_8));
+		if(_arena_size + (end - begin) > _arena.length)
+			_arena = Arrays.copyOf(_arena, Math.max(_arena.length << 1, _arena_size + (end - begin)));
+		System.arraycopy(b, begin, _arena, _arena_size, end - begin);
+		slot = ~slot;
+		_offsets[slot] = _arena_size;
+		_lengths[slot] = end - begin;
+		_ids[slot] = id;
+		_arena_size += end - begin;
+		if(++_num_words > _ids.length >> 1)
+			rehash();
+		return id;
+	}
+
+	private void rehash() {
+		int[] offsets = _offsets, lengths = _lengths, ids = _ids;
+		allocate(ids.length << 1);
+		for(int i = 0; i < ids.length; i++){
+			if(ids[i] < 0)
+				continue;
+			int slot = ~find(_arena, offsets[i], offsets[i] + lengths[i]);
+			_offsets[slot] = offsets[i];
+			_lengths[slot] = lengths[i];
+			_ids[slot] = ids[i];
+		}
+	}
+
+	/**
+	 * Splits a (gzipped) file into lines without decoding them, the current line is _buf[_begin,_end) without line terminator.
+	 */
+	static class LineScanner implements Closeable {
+
+		private final InputStream _in;
+		private final long _file_length;
+		private long _bytes_read;
+		byte[] _buf = new byte[1 << 16];
+		private int _limit;
+		private int _pos;
+		private boolean _eof;
+		int _begin;
+		int _end;
+		/** the number of the current line, starting at 1 */
+		long _line_number;
+
+		LineScanner(File f) throws IOException {
+			_file_length = f.length();
+			InputStream in = new FilterInputStream(new FileInputStream(f)) {
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if(n > 0)
+						_bytes_read += n;
+					return n;
+				}
+			};
+			_in = f.getName().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+		}
+
+		boolean nextLine() throws IOException {
+			for(int scan = _pos;;){
+				for(; scan < _limit; scan++){
+					if(_buf[scan] == '\n'){
+						_begin = _pos;
+						_end = scan > _pos && _buf[scan - 1] == '\r' ? scan - 1 : scan;
+						_pos = scan + 1;
+						_line_number++;
+						return true;
+					}
+				}
+				if(_eof){
+					if(_pos == _limit)
+						return false;
+					_begin = _pos;
+					_end = _limit;
+					_pos = _limit;
+					_line_number++;
+					return true;
+				}
+				// move the incomplete line to the front and fill the buffer
+				int remaining = _limit - _pos;
+				if(remaining == _buf.length)
+					_buf = Arrays.copyOf(_buf, _buf.length << 1);
+				else
+					System.arraycopy(_buf, _pos, _buf, 0, remaining);
+				_pos = 0;
+				_limit = remaining;
+				scan = remaining;
+				int n = _in.read(_buf, _limit, _buf.length - _limit);
+				if(n < 0)
+					_eof = true;
+				else
+					_limit += n;
+			}
+		}
+
+		String lineAsString() {
+			return new String(_buf, _begin, _end - _begin, StandardCharsets.UTF_8).trim();
+		}
+
+		/**
+		 * @return the fraction of the file that was read so far
+		 */
+		double progress() {
+			return _file_length > 0 ? (double)_bytes_read / _file_length : 0d;
+		}
+
+		@Override
+		public void close() throws IOException {
+			_in.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,336 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read only ngram count store as an alternative to the lucene index, see {@link BinaryCountStoreWriter} for creating it.
+ *
+ * The ngrams are stored as a sorted array trie: words are identified by their rank in the sorted vocabulary,
+ * the unigram with word id i is entry i of level 1, the entries of level n are sorted by the index of their
+ * history in level n-1 and then by word id. Every entry of level n-1 stores the index of its first child in level n,
+ * an ngram is thus resolved by a binary search per word within the children of its history.
+ * Word ids, child offsets and every count column are bit packed with the minimum number of bits and memory mapped.
+ *
+ * Directory layout:
+ * <pre>
+ * meta.properties           order, vocabulary size and number of entries per level
+ * vocab.offsets vocab.bytes sorted UTF-8 encoded words, see {@link MappedVocabulary}
+ * n{n}.words                word ids of level n &gt; 1
+ * n{n}.children             child offsets of level n &lt; order, number of entries + 1
+ * n{n}.{field}              count columns of level n, see {@link NgramCounts#FIELDS}
+ * </pre>
+ *
+ * @author Steffen Remus
+ */
+public class BinaryCountStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BinaryCountStore.class);
+
+	/** the name of the directory within an index directory */
+	public static final String DIRECTORY = "binary";
+	static final String META_FILE = "meta.properties";
+
+	private final int _order;
+	private final int _vocabulary_size;
+	private final long[] _num_entries;
+	private final MappedVocabulary _vocabulary;
+	private final PackedArray[] _words;
+	private final PackedArray[] _children;
+	private final PackedArray[][] _columns;
+
+	public static boolean exists(File index_dir) {
+		return new File(new File(index_dir, DIRECTORY), META_FILE).exists();
+	}
+
+	public BinaryCountStore(File dir) throws IOException {
+		Properties meta = new Properties();
+		try(InputStream in = new FileInputStream(new File(dir, META_FILE))){
+			meta.load(in);
+		}
+		_order = Integer.parseInt(meta.getProperty("order"));
+		_vocabulary_size = Integer.parseInt(meta.getProperty("vocabulary"));
+		_vocabulary = new MappedVocabulary(dir);
+		_num_entries = new long[_order + 1];
+		_words = new PackedArray[_order + 1];
+		_children = new PackedArray[_order + 1];
+		_columns = new PackedArray[_order + 1][NgramCounts.FIELDS.length];
+		for(int n = 1; n <= _order; n++){
+			_num_entries[n] = Long.parseLong(meta.getProperty("n" + n));
+			if(n > 1)
+				_words[n] = new PackedArray(new File(dir, String.format("n%d.words", n)));
+			if(n < _order)
+				_children[n] = new PackedArray(new File(dir, String.format("n%d.children", n)));
+			for(int j = 0; j < NgramCounts.FIELDS.length; j++)
+				_columns[n][j] = new PackedArray(new File(dir, String.format("n%d.%s", n, NgramCounts.FIELDS[j])));
+		}
+		LOG.info("Opened binary count store '{}': order={}, vocabulary={}.", dir.getAbsolutePath(), _order, _vocabulary_size);
+	}
+
+	public int getOrder() {
+		return _order;
+	}
+
+	public int getVocabularySize() {
+		return _vocabulary_size;
+	}
+
+	public long getNumEntries(int n) {
+		return n > 0 && n <= _order ? _num_entries[n] : 0L;
+	}
+
+	/**
+	 * @return the word id or -1 if the word is unknown
+	 */
+	public int wordId(String word) {
+		return _vocabulary.wordId(word);
+	}
+
+	/**
+	 * @return the word or null if the word id is out of range
+	 */
+	public String word(int id) {
+		return _vocabulary.word(id);
+	}
+
+	/**
+	 * @return the index of the ngram given by the word ids in the range [from, to) within its level or -1 if it does not exist
+	 */
+	public long index(int[] word_ids, int from, int to) {
+		if(from >= to || to - from > _order)
+			return -1L;
+		if(word_ids[from] < 0 || word_ids[from] >= _vocabulary_size)
+			return -1L;
+		long index = word_ids[from];
+		for(int i = from + 1, n = 2; i < to; i++, n++){
+			if(word_ids[i] < 0)
+				return -1L;
+			index = _words[n].binarySearch(_children[n - 1].get(index), _children[n - 1].get(index + 1), word_ids[i]);
+			if(index < 0)
+				return -1L;
+		}
+		return index;
+	}
+
+	/**
+	 * @return the count of the ngram given by the word ids in the range [from, to) or 0 if it does not exist
+	 */
+	public long quantity(int[] word_ids, int from, int to) {
+		long index = index(word_ids, from, to);
+		if(index < 0)
+			return 0L;
+		return _columns[to - from][NgramCounts.NUM].get(index);
+	}
+
+	/**
+	 * @return the counts of the space separated ngram or {@link NgramCounts#UNKNOWN} if it does not exist
+	 */
+	public NgramCounts counts(String ngram) {
+		int n = 1;
+		for(int i = ngram.indexOf(' '); i >= 0; i = ngram.indexOf(' ', i + 1))
+			n++;
+		if(n > _order)
+			return NgramCounts.UNKNOWN;
+		int[] word_ids = new int[n];
+		for(int i = 0, begin = 0; i < n; i++){
+			int end = ngram.indexOf(' ', begin);
+			if(end < 0)
+				end = ngram.length();
+			if((word_ids[i] = wordId(ngram.substring(begin, end))) < 0)
+				return NgramCounts.UNKNOWN;
+			begin = end + 1;
+		}
+		long index = index(word_ids, 0, n);
+		if(index < 0)
+			return NgramCounts.UNKNOWN;
+		long[] counts = new long[NgramCounts.FIELDS.length];
+		for(int j = 0; j < counts.length; j++)
+			counts[j] = _columns[n][j].get(index);
+		return new NgramCounts(ngram, counts);
+	}
+
+	/**
+	 * Iterate the word ids of all ngrams of cardinality n in the order of the trie.
+	 * The returned array is reused.
+	 */
+	public Iterator<int[]> ngramIds(final int n) {
+		return new Iterator<int[]>() {
+
+			final int[] _ids = new int[n];
+			final long[] _index = new long[n + 1]; // the current entry of level n and its histories in the lower levels
+			long _next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return _next < getNumEntries(n);
+			}
+
+			@Override
+			public int[] next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+				_index[n] = _next++;
+				// entries are sorted by their history, the histories only move forward
+				for(int k = n; k > 1; k--)
+					while(_children[k - 1].get(_index[k - 1] + 1) <= _index[k])
+						_index[k - 1]++;
+				_ids[0] = (int)_index[1];
+				for(int k = 2; k <= n; k++)
+					_ids[k - 1] = (int)_words[k].get(_index[k]);
+				return _ids;
+			}
+
+		};
+	}
+
+	/**
+	 * Read only array of non negative longs with a fixed number of bits, memory mapped in chunks of 1 GB.
+	 * File format: the number of values and the number of bits as little endian longs, the values as little endian longs
+	 * with the value i at bit i * bits, followed by 8 bytes of padding such that every value can be read with a single long read.
+	 */
+	static final class PackedArray {
+
+		static final int HEADER_BYTES = 16;
+		static final int CHUNK_BITS = 30;
+		static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+		static final int MAX_BITS = 57;
+
+		final long _size;
+		final int _bits;
+		final long _mask;
+		final ByteBuffer[] _chunks;
+
+		PackedArray(File f) throws IOException {
+			try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)){
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				while(header.hasRemaining() && channel.read(header, header.position()) >= 0);
+				header.flip();
+				_size = header.getLong();
+				_bits = (int)header.getLong();
+				_mask = _bits == 0 ? 0L : (1L << _bits) - 1;
+				long data_bytes = channel.size() - HEADER_BYTES;
+				_chunks = new ByteBuffer[(int)((data_bytes + CHUNK_MASK) >>> CHUNK_BITS)];
+				for(int i = 0; i < _chunks.length; i++){
+					long begin = HEADER_BYTES + ((long)i << CHUNK_BITS);
+					// chunks overlap by the padding, a long starting in a chunk can always be read from that chunk
+					_chunks[i] = channel.map(MapMode.READ_ONLY, begin, Math.min(CHUNK_MASK + 1 + 8, channel.size() - begin)).order(ByteOrder.LITTLE_ENDIAN);
+				}
+			}
+		}
+
+		long size() {
+			return _size;
+		}
+
+		long get(long i) {
+			if(_bits == 0)
+				return 0L;
+			long bit = i * _bits;
+			long pos = bit >>> 3;
+			return (_chunks[(int)(pos >>> CHUNK_BITS)].getLong((int)(pos & CHUNK_MASK)) >>> (bit & 7)) & _mask;
+		}
+
+		/**
+		 * @return the index of value in the sorted range [from, to) or -1 if it does not exist
+		 */
+		long binarySearch(long from, long to, long value) {
+			long lo = from, hi = to - 1;
+			while(lo <= hi){
+				long mid = (lo + hi) >>> 1;
+				long v = get(mid);
+				if(v < value)
+					lo = mid + 1;
+				else if(v > value)
+					hi = mid - 1;
+				else
+					return mid;
+			}
+			return -1L;
+		}
+
+		static int bitsFor(long max_value) {
+			return 64 - Long.numberOfLeadingZeros(max_value);
+		}
+
+	}
+
+	static final class PackedArrayWriter implements Closeable {
+
+		final File _file;
+		final DataOutputStream _out;
+		final long _size;
+		final int _bits;
+		long _count;
+		long _buffer;
+		int _buffered_bits;
+
+		PackedArrayWriter(File f, long size, int bits) throws IOException {
+			if(bits < 0 || bits > PackedArray.MAX_BITS)
+				throw new IllegalArgumentException(String.format("Cannot store values with %d bits in '%s', at most %d bits are supported.", bits, f, PackedArray.MAX_BITS));
+			_file = f;
+			_size = size;
+			_bits = bits;
+			_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+			_out.writeLong(Long.reverseBytes(size));
+			_out.writeLong(Long.reverseBytes(bits));
+		}
+
+		void add(long value) throws IOException {
+			assert value >= 0 && PackedArray.bitsFor(value) <= _bits : "Value does not fit into the number of bits.";
+			_count++;
+			if(_bits == 0)
+				return;
+			_buffer |= value << _buffered_bits;
+			_buffered_bits += _bits;
+			if(_buffered_bits >= 64){
+				_out.writeLong(Long.reverseBytes(_buffer));
+				_buffered_bits -= 64;
+				_buffer = _buffered_bits > 0 ? value >>> (_bits - _buffered_bits) : 0L;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(_buffered_bits > 0)
+				_out.writeLong(Long.reverseBytes(_buffer));
+			_out.writeLong(0L); // padding
+			_out.close();
+			if(_count != _size)
+				throw new IOException(String.format("Expected %d values in '%s' but got %d.", _size, _file, _count));
+		}
+
+	}
+
+}
@@ -0,0 +1,290 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStore.PackedArray;
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStore.PackedArrayWriter;
+
+/**
+ * Converts the lucene ngram index of an index directory into a {@link BinaryCountStore}.
+ *
+ * The ngram index is read once per ngram order, the ngrams of one order are held in memory (about 200 bytes per ngram)
+ * while the trie level is built, the sorted keys of all levels are kept (8 bytes per ngram) for resolving the histories.
+ * Ngrams whose history does not exist are skipped.
+ *
+ * @author Steffen Remus
+ */
+public class BinaryCountStoreWriter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BinaryCountStoreWriter.class);
+
+	private static final Set<String> COUNT_FIELDS = new HashSet<String>(Arrays.asList(NgramCounts.FIELDS));
+
+	private static final int WIDTH = NgramCounts.FIELDS.length;
+
+	/**
+	 * The maximum number of ngrams per order. The counts of an order are held in one array of WIDTH longs per ngram,
+	 * and the history index in the upper half of a key must stay below 2^31 so that the keys sort by history.
+	 */
+	static final int MAX_NGRAMS_PER_ORDER = (Integer.MAX_VALUE - 8) / WIDTH;
+
+	@FunctionalInterface
+	interface NgramConsumer {
+		void accept(String ngram, long[] counts) throws IOException;
+	}
+
+	/**
+	 * Convert the lucene ngram index in index_dir into a binary count store in index_dir/{@value BinaryCountStore#DIRECTORY}.
+	 */
+	public static File convert(File index_dir) throws IOException {
+		File out_dir = new File(index_dir, BinaryCountStore.DIRECTORY);
+		convert(index_dir, out_dir);
+		return out_dir;
+	}
+
+	public static void convert(File index_dir, File out_dir) throws IOException {
+		long begin = System.currentTimeMillis();
+		if(out_dir.exists())
+			FileUtils.deleteDirectory(out_dir);
+		out_dir.mkdirs();
+		try(IndexReader reader = DirectoryReader.open(MMapDirectory.open(new File(index_dir, "ngram")))){
+			boolean docvalues = IndexLookup.hasDocValues(reader);
+			LOG.info("Converting ngram index '{}' to binary count store '{}'.", index_dir.getAbsolutePath(), out_dir.getAbsolutePath());
+
+			// vocabulary and unigrams
+			final List<String> unigrams = new ArrayList<String>();
+			final int[] order = new int[1];
+			forEachNgram(reader, docvalues, (ngram, counts) -> {
+				int n = cardinality(ngram);
+				order[0] = Math.max(order[0], n);
+				if(n == 1)
+					unigrams.add(ngram);
+			});
+			checkSize(1, unigrams.size());
+			final List<String> words = MappedVocabulary.write(unigrams, out_dir);
+			final Map<String, Integer> word_ids = new HashMap<String, Integer>(words.size() * 2);
+			for(int i = 0; i < words.size(); i++)
+				word_ids.put(words.get(i), i);
+			LOG.info("Vocabulary size {}, order {}.", words.size(), order[0]);
+
+			Properties meta = new Properties();
+			meta.setProperty("order", String.valueOf(order[0]));
+			meta.setProperty("vocabulary", String.valueOf(words.size()));
+
+			// the sorted keys of every level, key = index of the history in the previous level << 32 | word id,
+			// both are below 2^31 (see checkSize), i.e. the keys are positive and sort by history first
+			long[][] keys = new long[order[0] + 1][];
+			keys[1] = new long[words.size()];
+			for(int i = 0; i < keys[1].length; i++)
+				keys[1][i] = i;
+			final long[] unigram_counts = new long[words.size() * WIDTH];
+			forEachNgram(reader, docvalues, (ngram, counts) -> {
+				if(cardinality(ngram) == 1)
+					System.arraycopy(counts, 0, unigram_counts, word_ids.get(ngram) * WIDTH, WIDTH);
+			});
+			writeColumns(out_dir, 1, unigram_counts, words.size());
+			meta.setProperty("n1", String.valueOf(words.size()));
+
+			for(int n = 2; n <= order[0]; n++){
+				final int n_ = n;
+				final long[][] keys_ = keys;
+				final LongList level_keys = new LongList();
+				final LongList level_counts = new LongList();
+				final long[] skipped = new long[1];
+				forEachNgram(reader, docvalues, (ngram, counts) -> {
+					if(cardinality(ngram) != n_)
+						return;
+					String[] tokens = ngram.split(" ", -1);
+					long history = 0;
+					int word = -1;
+					for(int i = 0; i < tokens.length && history >= 0; i++){
+						Integer id = word_ids.get(tokens[i]);
+						word = id == null ? -1 : id;
+						if(word < 0)
+							history = -1;
+						else if(i == 0)
+							history = word;
+						else if(i < tokens.length - 1)
+							history = Arrays.binarySearch(keys_[i + 1], history << 32 | word);
+					}
+					if(history < 0 || word < 0){
+						skipped[0]++;
+						return;
+					}
+					checkSize(n_, level_keys._size + 1);
+					level_keys.add(history << 32 | word);
+					for(long c : counts)
+						level_counts.add(c);
+				});
+				if(skipped[0] > 0)
+					LOG.warn("Skipped {} {}-grams with unknown words or histories.", skipped[0], n);
+
+				// sort the ngrams by key and move their counts along
+				long[] unsorted = level_keys.toArray();
+				long[] sorted = unsorted.clone();
+				Arrays.sort(sorted);
+				long[] counts = new long[sorted.length * WIDTH];
+				long[] unsorted_counts = level_counts.toArray();
+				for(int i = 0; i < unsorted.length; i++)
+					System.arraycopy(unsorted_counts, i * WIDTH, counts, Arrays.binarySearch(sorted, unsorted[i]) * WIDTH, WIDTH);
+				keys[n] = sorted;
+
+				writeLevel(out_dir, n, keys[n - 1].length, sorted, counts);
+				meta.setProperty("n" + n, String.valueOf(sorted.length));
+				LOG.info("Converted {} {}-grams.", sorted.length, n);
+			}
+
+			try(OutputStream out = new FileOutputStream(new File(out_dir, BinaryCountStore.META_FILE))){
+				meta.store(out, "binary ngram count store");
+			}
+		}
+		LOG.info("Converted ngram index in {} s.", (System.currentTimeMillis() - begin) / 1000);
+	}
+
+	static void checkSize(int n, long size) throws IOException {
+		if(size > MAX_NGRAMS_PER_ORDER)
+			throw new IOException(String.format("Too many %d-grams, the binary count store supports at most %d ngrams per order.", n, MAX_NGRAMS_PER_ORDER));
+	}
+
+	static int cardinality(String ngram) {
+		int n = 1;
+		for(int i = ngram.indexOf(' '); i >= 0; i = ngram.indexOf(' ', i + 1))
+			n++;
+		return n;
+	}
+
+	/**
+	 * Write the word ids and counts of level n and the child offsets of level n-1.
+	 */
+	private static void writeLevel(File out_dir, int n, int num_histories, long[] keys, long[] counts) throws IOException {
+		try(PackedArrayWriter children = new PackedArrayWriter(new File(out_dir, String.format("n%d.children", n - 1)), num_histories + 1L, PackedArray.bitsFor(keys.length))){
+			int i = 0;
+			for(long h = 0; h <= num_histories; h++){
+				while(i < keys.length && (keys[i] >>> 32) < h)
+					i++;
+				children.add(i);
+			}
+		}
+		long max_word = 0;
+		for(long key : keys)
+			max_word = Math.max(max_word, key & 0xFFFFFFFFL);
+		try(PackedArrayWriter words = new PackedArrayWriter(new File(out_dir, String.format("n%d.words", n)), keys.length, PackedArray.bitsFor(max_word))){
+			for(long key : keys)
+				words.add(key & 0xFFFFFFFFL);
+		}
+		writeColumns(out_dir, n, counts, keys.length);
+	}
+
+	private static void writeColumns(File out_dir, int n, long[] counts, int size) throws IOException {
+		for(int j = 0; j < WIDTH; j++){
+			long max = 0;
+			for(int i = 0; i < size; i++)
+				max = Math.max(max, counts[i * WIDTH + j]);
+			try(PackedArrayWriter column = new PackedArrayWriter(new File(out_dir, String.format("n%d.%s", n, NgramCounts.FIELDS[j])), size, PackedArray.bitsFor(max))){
+				for(int i = 0; i < size; i++)
+					column.add(counts[i * WIDTH + j]);
+			}
+		}
+	}
+
+	/**
+	 * Iterate the terms of the ngram field and read the counts from the doc values columns or the stored fields.
+	 */
+	static void forEachNgram(IndexReader reader, boolean docvalues, NgramConsumer consumer) throws IOException {
+		long[] counts = new long[WIDTH];
+		for(AtomicReaderContext context : reader.leaves()){
+			AtomicReader leaf = context.reader();
+			Terms terms = leaf.terms("ngram");
+			if(terms == null)
+				continue;
+			NumericDocValues[] columns = null;
+			if(docvalues){
+				columns = new NumericDocValues[WIDTH];
+				for(int j = 0; j < WIDTH; j++)
+					columns[j] = leaf.getNumericDocValues(NgramCounts.FIELDS[j]);
+			}
+			TermsEnum terms_enum = terms.iterator(null);
+			DocsEnum docs_enum = null;
+			for(BytesRef term; (term = terms_enum.next()) != null;){
+				docs_enum = terms_enum.docs(leaf.getLiveDocs(), docs_enum, DocsEnum.FLAG_NONE);
+				int doc = docs_enum.nextDoc();
+				if(doc == DocIdSetIterator.NO_MORE_DOCS)
+					continue;
+				if(docvalues){
+					for(int j = 0; j < WIDTH; j++)
+						counts[j] = columns[j].get(doc);
+				}else{
+					Arrays.fill(counts, 0L);
+					Document d = leaf.document(doc, COUNT_FIELDS);
+					for(int j = 0; j < WIDTH; j++){
+						IndexableField field = d.getField(NgramCounts.FIELDS[j]);
+						if(field != null)
+							counts[j] = field.numericValue().longValue();
+					}
+				}
+				consumer.accept(term.utf8ToString(), counts);
+			}
+		}
+	}
+
+	static final class LongList {
+
+		long[] _values = new long[1 << 10];
+		int _size;
+
+		void add(long value) {
+			if(_size == _values.length)
+				_values = Arrays.copyOf(_values, Math.max(_size + 1, (int)Math.min(Integer.MAX_VALUE - 8, 2L * _size)));
+			_values[_size++] = value;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(_values, _size);
+		}
+
+	}
+
+}
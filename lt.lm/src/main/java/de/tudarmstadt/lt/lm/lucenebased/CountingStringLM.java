@@ -24,25 +24,27 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.IteratorUtils;
 import org.apache.commons.collections.Transformer;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.MultiFields;
-import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,8 +52,11 @@ import de.tudarmstadt.lt.lm.AbstractLanguageModel;
 import de.tudarmstadt.lt.lm.LanguageModel;
 import de.tudarmstadt.lt.lm.PseudoSymbol;
 import de.tudarmstadt.lt.lm.service.LMProviderUtils;
+import de.tudarmstadt.lt.utilities.collections.BloomFilter;
 
 /**
+ * Language model on the counts of an ngram index directory. The counts are read from the lucene index or,
+ * if the index directory contains one, from a {@link BinaryCountStore} (see {@link de.tudarmstadt.lt.lm.util.Properties#countStore()}).
  *
  * @author Steffen Remus
  */
@@ -76,9 +81,25 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 
 	protected IndexReader _reader_ngram;
 	protected IndexSearcher _searcher_ngram;
+	protected IndexLookup _ngram_lookup;
 
 	protected IndexReader _reader_vocab;
 	protected IndexSearcher _searcher_vocab;
+	protected IndexLookup _vocab_lookup;
+	protected String[] _vocabulary; // word id -> word, word ids are the document ids of the vocabulary index
+	protected MappedVocabulary _mapped_vocabulary; // replaces _vocabulary if not null, word ids are the ranks of the words
+
+	protected BinaryCountStore _binary_store; // replaces the lucene indexes if not null
+
+	/** the name of the bloom filter file over the vocabulary within an index directory */
+	public static final String OOV_FILTER_FILE = "__vocabulary_bloomfilter__";
+	protected BloomFilter _oov_filter; // words not in the filter are definitely unknown
+
+	protected final ThreadLocal<SequenceCache> _sequence_cache = new ThreadLocal<SequenceCache>();
+	protected final int _sequence_cache_size = de.tudarmstadt.lt.lm.util.Properties.sequenceCacheSize();
+	protected final AtomicLong _sequence_cache_hits = new AtomicLong();
+	protected final AtomicLong _sequence_cache_misses = new AtomicLong();
+	protected NgramCountsCache _counts_cache;
 
 	protected double[][] _num_ngrams;
 	protected double[] _sum_ngrams;
@@ -92,19 +113,38 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 		try {
 			LOG.info("Loading index from or creating index in '{}'.", index_dir.getAbsolutePath());
 
-			File index_dir_vocab = new File(index_dir, "vocab");
-			File index_dir_ngram = new File(index_dir, "ngram");
-
 			_fixed = true;
-			Directory directory = MMapDirectory.open(index_dir_ngram);
-			//				directory = new RAMDirectory(directory, IOContext.DEFAULT);
-			_reader_ngram = DirectoryReader.open(directory);
-			_searcher_ngram = new IndexSearcher(_reader_ngram);
-
-			directory = MMapDirectory.open(index_dir_vocab);
-			//				directory = new RAMDirectory(directory, IOContext.DEFAULT);
-			_reader_vocab = DirectoryReader.open(directory);
-			_searcher_vocab = new IndexSearcher(_reader_vocab);
+			String count_store = de.tudarmstadt.lt.lm.util.Properties.countStore();
+			if("binary".equals(count_store) || ("auto".equals(count_store) && BinaryCountStore.exists(index_dir))){
+				_binary_store = new BinaryCountStore(new File(index_dir, BinaryCountStore.DIRECTORY));
+			}else{
+				File index_dir_vocab = new File(index_dir, "vocab");
+				File index_dir_ngram = new File(index_dir, "ngram");
+
+				Directory directory = MMapDirectory.open(index_dir_ngram);
+				//				directory = new RAMDirectory(directory, IOContext.DEFAULT);
+				_reader_ngram = DirectoryReader.open(directory);
+				_searcher_ngram = new IndexSearcher(_reader_ngram);
+				_ngram_lookup = new IndexLookup(_reader_ngram, "ngram", de.tudarmstadt.lt.lm.util.Properties.useDocValues());
+
+				directory = MMapDirectory.open(index_dir_vocab);
+				//				directory = new RAMDirectory(directory, IOContext.DEFAULT);
+				_reader_vocab = DirectoryReader.open(directory);
+				_searcher_vocab = new IndexSearcher(_reader_vocab);
+				_vocab_lookup = new IndexLookup(_reader_vocab, "word", false);
+				if(MappedVocabulary.exists(index_dir))
+					_mapped_vocabulary = new MappedVocabulary(index_dir);
+				else
+					loadVocabulary();
+			}
+			long cache_size = de.tudarmstadt.lt.lm.util.Properties.countCacheSize();
+			if(cache_size > 0)
+				_counts_cache = new NgramCountsCache(cache_size);
+			File oov_filter_file = new File(index_dir, OOV_FILTER_FILE);
+			if(de.tudarmstadt.lt.lm.util.Properties.oovFilterFalsePositiveRate() > 0 && oov_filter_file.exists()){
+				_oov_filter = BloomFilter.read(oov_filter_file);
+				LOG.info("Loaded OOV bloom filter {} from '{}'.", _oov_filter, oov_filter_file);
+			}
 
 			LOG.info("Computing number of ngram occurrences.");
 			File sumfile = new File(index_dir, "__sum_ngrams__");
@@ -148,16 +188,38 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 			}
 
 
-			LOG.info("Number of Ngrams {}.", _searcher_ngram.collectionStatistics("ngram").docCount());
+			if(_binary_store == null)
+				LOG.info("Number of Ngrams {}.", _searcher_ngram.collectionStatistics("ngram").docCount());
 			LOG.info("Number of Ngrams {}.", sum);
 
-			LOG.info("Vocabulary Size {}.", _searcher_vocab.collectionStatistics("word").docCount());
+			LOG.info("Vocabulary Size {}.", getVocabularySize());
 
 		} catch (IOException e) {
 			LOG.error("Could not open lucene index: Dir={}; Dir exists={}; ", index_dir, index_dir.exists() && index_dir.isDirectory(), e);
 		}
 	}
 
+	/**
+	 * Read the vocabulary into memory by iterating the terms of the vocabulary index, 
+	 * such that word ids can be resolved without loading stored documents.
+	 */
+	void loadVocabulary() throws IOException {
+		_vocabulary = new String[_reader_vocab.maxDoc()];
+		for(AtomicReaderContext leaf : _reader_vocab.leaves()){
+			Terms terms = leaf.reader().terms("word");
+			if(terms == null)
+				continue;
+			TermsEnum terms_enum = terms.iterator(null);
+			DocsEnum docs_enum = null;
+			for(BytesRef term; (term = terms_enum.next()) != null;){
+				String word = term.utf8ToString();
+				docs_enum = terms_enum.docs(leaf.reader().getLiveDocs(), docs_enum, DocsEnum.FLAG_NONE);
+				for(int doc; (doc = docs_enum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS;)
+					_vocabulary[leaf.docBase + doc] = word;
+			}
+		}
+	}
+
 	@Override
 	public int getOrder() {
 		return _order;
@@ -194,39 +256,91 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 		return "";
 	}
 
-	@Override
-	public String getWord(int wordId) {
+	/**
+	 * @return the number of words in the vocabulary
+	 */
+	public int getVocabularySize() {
+		if(_binary_store != null)
+			return _binary_store.getVocabularySize();
+		if(_mapped_vocabulary != null)
+			return _mapped_vocabulary.size();
 		try {
-			if(wordId < 0 || wordId > _searcher_vocab.getIndexReader().maxDoc())
-				return PseudoSymbol.UNKOWN_WORD.asString();
-			return _searcher_vocab.doc(wordId).get("word");
+			return (int)_searcher_vocab.collectionStatistics("word").docCount();
 		} catch (IOException e) {
-			LOG.error("Could not get word for id {}. Querying luceneindex failed. Max doc: {}.", wordId, _searcher_vocab.getIndexReader().maxDoc(), e);
-			return null;
+			LOG.error("Vocabulary luceneindex failed. Could not get number of documents (words).", e);
+			return 0;
+		}
+	}
+
+	@Override
+	public String getWord(int wordId) {
+		if(_binary_store != null){
+			String word = _binary_store.word(wordId);
+			return word == null ? PseudoSymbol.UNKOWN_WORD.asString() : word;
 		}
+		if(_mapped_vocabulary != null){
+			String word = _mapped_vocabulary.word(wordId);
+			return word == null ? PseudoSymbol.UNKOWN_WORD.asString() : word;
+		}
+		if(wordId < 0 || wordId >= _vocabulary.length || _vocabulary[wordId] == null)
+			return PseudoSymbol.UNKOWN_WORD.asString();
+		return _vocabulary[wordId];
 	}
 
 	@Override
 	public int getWordIndex(String word) {
 		if (word == null)
 			return -1;
-		Query query = new TermQuery(new Term("word", word));
+		if(_binary_store != null)
+			return _binary_store.wordId(word);
+		if(_mapped_vocabulary != null)
+			return _mapped_vocabulary.wordId(word);
 		try {
-			ScoreDoc[] hits = _searcher_vocab.search(query, null, 2).scoreDocs;
-			if(hits.length < 1)
-				return -1;
-			if(hits.length > 1)
-				LOG.warn("Found more than one entry for '{}', expected only one.", word);
-			return hits[0].doc;
+			return _vocab_lookup.docId(word);
 		} catch (IOException e) {
-			LOG.error("Could not get id for word {}. Querying luceneindex failed: {}.", word, query);
+			LOG.error("Could not get id for word {}. Querying luceneindex failed.", word, e);
 			return -1;
 		}
 	}
 
+	/**
+	 * Words that are not in the vocabulary bloom filter are unknown without looking them up.
+	 */
+	@Override
+	public boolean isUnkownWord(String word) {
+		if(word == null)
+			return true;
+		if(_oov_filter != null && !_oov_filter.mightContain(word))
+			return true;
+		return super.isUnkownWord(word);
+	}
+
+	/**
+	 * Maximum likelihood estimate computed directly on word ids, subclasses implementing 
+	 * a different estimate must override this method.
+	 */
 	@Override
 	public double getNgramLogProbability(int[] wordIds) {
-		return getNgramLogProbabilityFromIds(Arrays.asList(ArrayUtils.toObject(wordIds)));
+		// check length
+		assert wordIds.length <= _order : "Length of Ngram must be lower or equal to the order of the language model.";
+		if(wordIds.length < 1)
+			return Double.NEGATIVE_INFINITY;
+
+		// c(w_1 ... w_n)
+		long nominator = getQuantity(wordIds, 0, wordIds.length);
+		if (nominator == 0)
+			return Double.NEGATIVE_INFINITY;
+
+		// c(w_1) / N
+		if(wordIds.length == 1)
+			return Math.log10((double)nominator) - Math.log10(_num_ngrams[1][0]);
+
+		// c(w_1 ... w_n-1)
+		long denominator = getQuantity(wordIds, 0, wordIds.length - 1);
+		if(denominator == 0)
+			return Double.NEGATIVE_INFINITY;
+
+		return Math.log10((double)nominator) - Math.log10((double)denominator);
 	}
 
 	public double getNgramLogProbabilityFromIds(List<Integer> ngram) {
@@ -265,28 +379,47 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 			throw new IllegalAccessError("Ngram is null.");
 		if(ngram.isEmpty())
 			return 0L;
-		String ngram_str = StringUtils.join(ngram, ' ');
-		Term query_term = new Term("ngram", ngram_str);
-		Query query = new TermQuery(query_term);
-		try {
-			Document doc = null;
-			ScoreDoc[] hits = _searcher_ngram.search(query, 2).scoreDocs;
-			if(hits.length >= 1){
-				if(hits.length > 1)
-					LOG.warn("Found more than one entry for '{}', expected only one.", ngram_str);
-				doc = _searcher_ngram.doc(hits[0].doc);
-				return getQuantity(doc);
-			}
-		} catch (IOException e) {
-			LOG.error("Could not get ngram {}. Luceneindex failed.", ngram_str, e);
+		return getQuantity(StringUtils.join(ngram, ' '));
+	}
+
+	/**
+	 * Get the count of the ngram given by the word ids in the range [from, to).
+	 * 
+	 * @return the count or 0 if the ngram contains an unknown word or does not exist
+	 */
+	public long getQuantity(int[] wordIds, int from, int to) {
+		if(from >= to)
+			return 0L;
+		if(_binary_store != null)
+			return _binary_store.quantity(wordIds, from, to);
+		StringBuilder b = new StringBuilder();
+		for(int i = from; i < to; i++){
+			String word;
+			if(_mapped_vocabulary != null)
+				word = _mapped_vocabulary.word(wordIds[i]);
+			else
+				word = wordIds[i] < 0 || wordIds[i] >= _vocabulary.length ? null : _vocabulary[wordIds[i]];
+			if(word == null)
+				return 0L;
+			if(i > from)
+				b.append(' ');
+			b.append(word);
 		}
-		return 0L;
+		return getQuantity(b.toString());
+	}
+
+	long getQuantity(String ngram_str) {
+		return getNgramCounts(ngram_str).getNum();
 	}
 	
 	long getQuantity(Document ngram){
 		return getNgramCountFromDoc(ngram);
 	}
 
+	long getQuantity(NgramCounts ngram){
+		return ngram.getNum();
+	}
+
 	long getNgramCountFromDoc(Document ngram){
 		IndexableField field = ngram.getField("num");
 		return field.numericValue().longValue();
@@ -325,37 +458,143 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 			throw new IllegalAccessError("Ngram is null.");
 		if(ngram_str.isEmpty())
 			return _UNKOWN_NGRAM_LUCENE_DOCUMENT;
-		Query query = new TermQuery(new Term("ngram", ngram_str));
+		if(_binary_store != null){
+			NgramCounts counts = getNgramCounts(ngram_str);
+			return counts == NgramCounts.UNKNOWN ? _UNKOWN_NGRAM_LUCENE_DOCUMENT : toLuceneDoc(counts);
+		}
 		try {
-			Document doc = null;
-			ScoreDoc[] hits = _searcher_ngram.search(query, 2).scoreDocs;
-			if(hits.length >= 1){
-				if(hits.length > 1)
-					LOG.warn("Found more than one entry for '{}', expected only one.", ngram_str);
-				doc = _searcher_ngram.doc(hits[0].doc);
-				return doc;
-			}
+			int docid = _ngram_lookup.docId(ngram_str);
+			if(docid >= 0)
+				return _reader_ngram.document(docid);
 		} catch (IOException e) {
 			LOG.error("Could not get ngram {}. Luceneindex failed.", ngram_str, e);
 		}
 		return _UNKOWN_NGRAM_LUCENE_DOCUMENT;
 	}
 
+	/**
+	 * @return a document with the ngram, its cardinality and the count fields of {@link NgramCounts#FIELDS}, for count stores without lucene documents
+	 */
+	static Document toLuceneDoc(NgramCounts counts) {
+		String ngram = counts.getNgram();
+		Document doc = new Document();
+		doc.add(new StoredField("ngram", ngram));
+		doc.add(new StoredField("cardinality", StringUtils.countMatches(ngram, " ") + 1));
+		doc.add(new StoredField("num", counts.getNum()));
+		double[][] values = new double[][]{ counts.getNumFollow(), counts.getNumPrecede(), counts.getNumFollowerPrecede() };
+		String[] prefixes = new String[]{ "nf", "np", "nfp" };
+		for(int i = 0; i < prefixes.length; i++)
+			for(int j = 1; j < 4; j++)
+				doc.add(new StoredField(prefixes[i] + "_N" + j, (long)values[i][j]));
+		return doc;
+	}
+
+	public NgramCounts getNgramCounts(List<String> ngram) {
+		if (ngram == null)
+			throw new IllegalAccessError("Ngram is null.");
+		if(ngram.isEmpty())
+			return NgramCounts.UNKNOWN;
+		return getNgramCounts(StringUtils.join(ngram, ' '));
+	}
+
+	public NgramCounts getNgramCounts(String ngram_str) {
+		if (ngram_str == null)
+			throw new IllegalAccessError("Ngram is null.");
+		if(ngram_str.isEmpty())
+			return NgramCounts.UNKNOWN;
+		SequenceCache cache = _sequence_cache.get();
+		NgramCounts counts = null;
+		if(cache != null && (counts = cache.get(ngram_str)) != null)
+			return counts;
+		if(_counts_cache == null || (counts = _counts_cache.get(ngram_str)) == null){
+			try {
+				counts = _binary_store != null ? _binary_store.counts(ngram_str) : _ngram_lookup.counts(ngram_str);
+			} catch (IOException e) {
+				LOG.error("Could not get ngram {}. Luceneindex failed.", ngram_str, e);
+				return NgramCounts.UNKNOWN;
+			}
+			if(_counts_cache != null)
+				_counts_cache.put(ngram_str, counts);
+		}
+		if(cache != null)
+			cache.put(ngram_str, counts);
+		return counts;
+	}
+
+	/**
+	 * Start caching ngram count records for the current thread until {@link #endSequence()} is called. 
+	 * Calls may be nested, the cache is dropped when the outermost sequence ends.
+	 */
+	public void beginSequence() {
+		if(_sequence_cache_size <= 0)
+			return;
+		SequenceCache cache = _sequence_cache.get();
+		if(cache == null)
+			_sequence_cache.set(cache = new SequenceCache(_sequence_cache_size));
+		cache._depth++;
+	}
+
+	public void endSequence() {
+		SequenceCache cache = _sequence_cache.get();
+		if(cache == null || --cache._depth > 0)
+			return;
+		_sequence_cache.remove();
+		_sequence_cache_hits.addAndGet(cache._hits);
+		_sequence_cache_misses.addAndGet(cache._misses);
+		LOG.trace("Sequence cache: hits={}, misses={}, size={}.", cache._hits, cache._misses, cache.size());
+	}
+
+	public long getSequenceCacheHits() {
+		return _sequence_cache_hits.get();
+	}
+
+	public long getSequenceCacheMisses() {
+		return _sequence_cache_misses.get();
+	}
+
+	/**
+	 * @return the ngram counts cache which is shared by all threads or null if it is disabled
+	 */
+	public NgramCountsCache getCountsCache() {
+		return _counts_cache;
+	}
+
+	@Override
+	public double getSequenceLogProbability(List<String>[] ngram_sequence) {
+		beginSequence();
+		try {
+			return super.getSequenceLogProbability(ngram_sequence);
+		} finally {
+			endSequence();
+		}
+	}
+
+	@Override
+	public double[] getNgramLogProbabilities(List<String>[] ngram_sequence) {
+		beginSequence();
+		try {
+			return super.getNgramLogProbabilities(ngram_sequence);
+		} finally {
+			endSequence();
+		}
+	}
+
 	public Document getWordLuceneDoc(String word) {
 		if (word == null)
 			throw new IllegalAccessError("Word is null.");
 		if(de.tudarmstadt.lt.utilities.StringUtils.trim(word).isEmpty())
 			return _UNKOWN_WORD_LUCENE_DOCUMENT;
-		Query query = new TermQuery(new Term("word", word));
+		if(_binary_store != null){
+			if(_binary_store.wordId(word) < 0)
+				return _UNKOWN_WORD_LUCENE_DOCUMENT;
+			Document doc = new Document();
+			doc.add(new StoredField("word", word));
+			return doc;
+		}
 		try {
-			Document doc = null;
-			ScoreDoc[] hits = _searcher_vocab.search(query, 2).scoreDocs;
-			if(hits.length >= 1){
-				if(hits.length > 1)
-					LOG.warn("Found more than one entry for '{}', expected only one.", word);
-				doc = _searcher_vocab.doc(hits[0].doc);
-				return doc;
-			}
+			int docid = _vocab_lookup.docId(word);
+			if(docid >= 0)
+				return _reader_vocab.document(docid);
 		} catch (IOException e) {
 			LOG.error("Could not get word {}. Luceneindex failed.", word, e);
 		}
@@ -378,10 +617,33 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 
 	@Override
 	public Iterator<List<String>> getNgramIterator() {
-		return new NgramIterator();
+		return getNgramIterator(_order);
+	}
+
+	/**
+	 * @return an iterator over the ngrams of cardinality n
+	 */
+	@SuppressWarnings("unchecked")
+	public Iterator<List<String>> getNgramIterator(int n) {
+		if(_binary_store != null)
+			return IteratorUtils.transformedIterator(_binary_store.ngramIds(n), new Transformer() {
+				@Override
+				public Object transform(Object ids) {
+					return getNgramAsWords((int[])ids);
+				}
+			});
+		return new NgramIterator(n);
 	}
 	
+	@SuppressWarnings("unchecked")
 	public Iterator<String> getVocabularyIterator() {
+		if(_binary_store != null)
+			return IteratorUtils.transformedIterator(_binary_store.ngramIds(1), new Transformer() {
+				@Override
+				public Object transform(Object ids) {
+					return getWord(((int[])ids)[0]);
+				}
+			});
 		return new VocabularyIterator();
 	}
 
@@ -416,7 +678,7 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 	}
 
 	public int addNgram(List<String> ngram) throws IllegalAccessException {
-		throw new UnsupportedOperationException();
+		throw new IllegalAccessException("The counts are read from an index, which means no values can be added. Use GenerateNgramIndex to build a new index.");
 	}
 
 	public int addNgramAsIds(List<Integer> ngram) throws IllegalAccessException {
@@ -429,7 +691,10 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 	}
 
 	public Integer getOrAddWord(String word) throws IllegalAccessException {
-		throw new UnsupportedOperationException();
+		int index = getWordIndex(word);
+		if(index >= 0)
+			return index;
+		throw new IllegalAccessException(String.format("Word '%s' is not in the vocabulary and the counts are read from an index, which means no words can be added.", word));
 	}
 
 	private List<String> toWordList(List<Integer> ngramIds) {
@@ -452,6 +717,15 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 		Bits _liveDocs = MultiFields.getLiveDocs(CountingStringLM.this._reader_ngram);
 		int current_docid = -1;
 		List<String> current_ngram = null;
+		final int _n;
+
+		public NgramIterator() {
+			this(_order);
+		}
+
+		public NgramIterator(int n) {
+			_n = n;
+		}
 		
 		/* (non-Javadoc)
 		 * @see java.util.Iterator#hasNext()
@@ -467,7 +741,7 @@ public class CountingStringLM extends AbstractLanguageModel<String> implements L
 			        continue;
 			    try {
 					Document doc = CountingStringLM.this._reader_ngram.document(current_docid);
-					if(getCardinality(doc) != _order)
+					if(getCardinality(doc) != _n)
 						continue;
 					current_ngram = Arrays.asList(getNgramString(doc).split(" "));
 					break;
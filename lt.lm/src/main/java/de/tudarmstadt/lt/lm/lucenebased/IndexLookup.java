@@ -0,0 +1,171 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves terms of a single field by seeking the term dictionaries of the index segments directly.
+ * TermsEnum, DocsEnum and doc values instances are not thread safe, each thread gets its own set.
+ *
+ * Counts are read from the numeric doc values columns if they exist in every segment,
+ * otherwise from the stored fields (indexes that were created before the doc values columns were added).
+ *
+ * @author Steffen Remus
+ */
+class IndexLookup {
+
+	private static final Logger LOG = LoggerFactory.getLogger(IndexLookup.class);
+
+	private static final Set<String> COUNT_FIELDS = new HashSet<String>(Arrays.asList(NgramCounts.FIELDS));
+
+	private static class Leaf {
+		AtomicReader reader;
+		int docBase;
+		TermsEnum terms_enum;
+		DocsEnum docs_enum;
+		NumericDocValues[] columns;
+	}
+
+	private final IndexReader _reader;
+	private final String _field;
+	private final boolean _docvalues;
+	private final ThreadLocal<Leaf[]> _leaves;
+
+	IndexLookup(IndexReader reader, String field, boolean use_docvalues) {
+		_reader = reader;
+		_field = field;
+		_docvalues = use_docvalues && hasDocValues(reader);
+		if(use_docvalues && !_docvalues)
+			LOG.warn("Index has no doc values columns for the ngram counts, counts are read from stored fields. Recreate the index in order to use doc values.");
+		_leaves = ThreadLocal.withInitial(() -> {
+			try {
+				return createLeaves();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	static boolean hasDocValues(IndexReader reader) {
+		List<AtomicReaderContext> leaves = reader.leaves();
+		if(leaves.isEmpty())
+			return false;
+		for(AtomicReaderContext leaf : leaves){
+			for(String field : NgramCounts.FIELDS){
+				FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(field);
+				if(info == null || !info.hasDocValues())
+					return false;
+			}
+		}
+		return true;
+	}
+
+	boolean usesDocValues() {
+		return _docvalues;
+	}
+
+	private Leaf[] createLeaves() throws IOException {
+		List<AtomicReaderContext> contexts = _reader.leaves();
+		Leaf[] leaves = new Leaf[contexts.size()];
+		for(int i = 0; i < leaves.length; i++){
+			Leaf leaf = leaves[i] = new Leaf();
+			leaf.reader = contexts.get(i).reader();
+			leaf.docBase = contexts.get(i).docBase;
+			Terms terms = leaf.reader.terms(_field);
+			if(terms != null)
+				leaf.terms_enum = terms.iterator(null);
+			if(_docvalues){
+				leaf.columns = new NumericDocValues[NgramCounts.FIELDS.length];
+				for(int j = 0; j < leaf.columns.length; j++)
+					leaf.columns[j] = leaf.reader.getNumericDocValues(NgramCounts.FIELDS[j]);
+			}
+		}
+		return leaves;
+	}
+
+	/**
+	 * @return the index of the leaf containing the term, the segment local document id is in <code>leaf.docs_enum.docID()</code>; -1 if the term does not exist
+	 */
+	private int seek(Leaf[] leaves, BytesRef term) throws IOException {
+		for(int i = 0; i < leaves.length; i++){
+			Leaf leaf = leaves[i];
+			if(leaf.terms_enum == null || !leaf.terms_enum.seekExact(term))
+				continue;
+			leaf.docs_enum = leaf.terms_enum.docs(leaf.reader.getLiveDocs(), leaf.docs_enum, DocsEnum.FLAG_NONE);
+			if(leaf.docs_enum.nextDoc() == DocIdSetIterator.NO_MORE_DOCS)
+				continue;
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the global document id or -1 if the term does not exist
+	 */
+	int docId(String term) throws IOException {
+		Leaf[] leaves = _leaves.get();
+		int i = seek(leaves, new BytesRef(term));
+		if(i < 0)
+			return -1;
+		return leaves[i].docBase + leaves[i].docs_enum.docID();
+	}
+
+	/**
+	 * @return the counts of the ngram or {@link NgramCounts#UNKNOWN} if the ngram does not exist
+	 */
+	NgramCounts counts(String ngram) throws IOException {
+		Leaf[] leaves = _leaves.get();
+		int i = seek(leaves, new BytesRef(ngram));
+		if(i < 0)
+			return NgramCounts.UNKNOWN;
+		Leaf leaf = leaves[i];
+		int doc = leaf.docs_enum.docID();
+		long[] counts = new long[NgramCounts.FIELDS.length];
+		if(_docvalues){
+			for(int j = 0; j < counts.length; j++)
+				counts[j] = leaf.columns[j].get(doc);
+		}else{
+			Document d = leaf.reader.document(doc, COUNT_FIELDS);
+			for(int j = 0; j < counts.length; j++){
+				IndexableField field = d.getField(NgramCounts.FIELDS[j]);
+				if(field != null)
+					counts[j] = field.numericValue().longValue();
+			}
+		}
+		return new NgramCounts(ngram, counts);
+	}
+
+}
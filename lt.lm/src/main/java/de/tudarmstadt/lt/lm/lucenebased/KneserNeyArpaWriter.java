@@ -0,0 +1,176 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.lm.PseudoSymbol;
+
+/**
+ * Precompute the interpolated Kneser-Ney probabilities and backoff weights of all ngrams of a {@link KneserNeyLM} and write them
+ * as an ARPA file, which can then be loaded with {@link de.tudarmstadt.lt.lm.LanguageModelHelper#readFromArpa(File, float)},
+ * i.e. a query is a few array lookups instead of several index lookups per order.
+ *
+ * The ngrams of the highest order are discounted raw counts, lower order ngrams are discounted continuation counts with the
+ * discounts and count corrections of {@link KneserNeyLM#kn(List, double)}. As usual (e.g. KenLM) ngrams starting with
+ * {@code <s>} keep their discounted raw counts since they have no predecessors. The backoff weight of an ngram h is
+ * the interpolation weight D * nf(h) / c(h) (or / nfp(h) below the highest order), thus the table reproduces the model for
+ * seen ngrams, the model's shortcuts for unseen histories and its lower bound p(unk) are not expressible by backoff weights.
+ *
+ * @author Steffen Remus
+ */
+public class KneserNeyArpaWriter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(KneserNeyArpaWriter.class);
+
+	private final KneserNeyLM _lm;
+	private final int _order;
+
+	public KneserNeyArpaWriter(KneserNeyLM lm) {
+		_lm = lm;
+		_order = lm.getOrder();
+	}
+
+	public static void write(KneserNeyLM lm, File arpa_file) throws IOException {
+		new KneserNeyArpaWriter(lm).write(arpa_file);
+	}
+
+	public void write(File arpa_file) throws IOException {
+		LOG.info("Writing {}-gram Kneser-Ney table to '{}'.", _order, arpa_file.getAbsolutePath());
+		boolean add_unk = _lm.getWordIndex(PseudoSymbol.UNKOWN_WORD.asString()) < 0;
+		long[] num_ngrams = new long[_order + 1];
+		for(int k = 1; k <= _order; k++){
+			for(Iterator<List<String>> iter = _lm.getNgramIterator(k); iter.hasNext(); iter.next())
+				num_ngrams[k]++;
+			LOG.info("Number of {}-grams: {}.", k, num_ngrams[k]);
+		}
+		if(add_unk)
+			num_ngrams[1]++;
+
+		OutputStream out = new FileOutputStream(arpa_file);
+		if(arpa_file.getName().endsWith(".gz"))
+			out = new GZIPOutputStream(out, 1 << 16);
+		try(Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16)){
+			w.write("\n\\data\\\n");
+			for(int k = 1; k <= _order; k++)
+				w.write(String.format("ngram %d=%d%n", k, num_ngrams[k]));
+			for(int k = 1; k <= _order; k++){
+				w.write(String.format("%n\\%d-grams:%n", k));
+				if(k == 1 && add_unk)
+					writeEntry(w, log10(_lm._ud), PseudoSymbol.UNKOWN_WORD.asString(), _order > 1 ? 0d : Double.NaN);
+				for(Iterator<List<String>> iter = _lm.getNgramIterator(k); iter.hasNext();){
+					List<String> ngram = iter.next();
+					double backoff = k < _order ? log10(backoff(ngram)) : Double.NaN;
+					writeEntry(w, log10(probability(ngram)), StringUtils.join(ngram, ' '), backoff);
+				}
+			}
+			w.write("\n\\end\\\n");
+		}
+		LOG.info("Finished writing Kneser-Ney table to '{}'.", arpa_file.getAbsolutePath());
+	}
+
+	private static void writeEntry(Writer w, double log10_prob, String ngram, double log10_backoff) throws IOException {
+		w.write(Float.toString((float)log10_prob));
+		w.write('\t');
+		w.write(ngram);
+		if(!Double.isNaN(log10_backoff)){
+			w.write('\t');
+			w.write(Float.toString((float)log10_backoff));
+		}
+		w.write('\n');
+	}
+
+	/**
+	 * @return true if the entries of this ngram are computed from raw counts instead of continuation counts
+	 */
+	boolean isRaw(List<String> ngram) {
+		return ngram.size() >= _order || PseudoSymbol.SEQUENCE_START.asString().equals(ngram.get(0));
+	}
+
+	/**
+	 * @return the interpolated probability of the last word of ngram given the preceding words as it is stored in the table
+	 */
+	double probability(List<String> ngram) {
+		int n = ngram.size();
+		if(n == 1)
+			return unigramProbability(ngram);
+		double lower = probability(ngram.subList(1, n));
+		List<String> hist = ngram.subList(0, n - 1);
+		NgramCounts hist_c = _lm.getNgramCounts(hist);
+		double nom, denom;
+		if(isRaw(ngram)){
+			nom = _lm.getQuantity(_lm.getNgramCounts(ngram));
+			denom = _lm.getQuantity(hist_c);
+		}else{
+			nom = _lm.getNumPrecede(_lm.getNgramCounts(ngram))[0];
+			denom = continuationDenominator(hist_c);
+		}
+		if(denom == 0)
+			return lower;
+		double nfh = max(1, _lm.getNumFollow(hist_c)[0]);
+		// like KneserNeyLM, inconsistent counts (e.g. due to pruning) must not result in probabilities greater than 1
+		return min(1d, max(nom - _lm._D[n], 0) / denom + _lm._D[n] * nfh / denom * lower);
+	}
+
+	double unigramProbability(List<String> unigram) {
+		NgramCounts c = _lm.getNgramCounts(unigram);
+		double nom = _lm.getNumPrecede(c)[0];
+		if(nom == 0 || _lm._num_ngrams.length < 3 || _lm._num_ngrams[2][0] == 0){
+			nom = _lm.getQuantity(c);
+			if(nom == 0)
+				return 1d / _lm._num_ngrams[1][0];
+			return nom / _lm._sum_ngrams[1];
+		}
+		return nom / _lm._num_ngrams[2][0];
+	}
+
+	/**
+	 * @return the weight of the lower order distribution when hist is the history of the next higher order
+	 */
+	double backoff(List<String> hist) {
+		NgramCounts hist_c = _lm.getNgramCounts(hist);
+		int n = hist.size() + 1;
+		double denom = n >= _order || PseudoSymbol.SEQUENCE_START.asString().equals(hist.get(0)) ? _lm.getQuantity(hist_c) : continuationDenominator(hist_c);
+		if(denom == 0)
+			return 1d;
+		double nfh = max(1, _lm.getNumFollow(hist_c)[0]);
+		return _lm._D[n] * nfh / denom;
+	}
+
+	double continuationDenominator(NgramCounts hist_c) {
+		// same correction as in KneserNeyLM, nfp(h) must not be smaller than nf(h) or np(h)
+		return max(_lm.getNumFollow(hist_c)[0], max(_lm.getNumPrecede(hist_c)[0], _lm.getNumFollowerPrecede(hist_c)[0]));
+	}
+
+}
@@ -122,11 +122,7 @@ public class KneserNeyLM extends CountingStringLM {
 			}
 		}
 
-		try {
-			_V = _searcher_vocab.collectionStatistics("word").docCount();
-		} catch (IOException e) {
-			LOG.error("Vocabulary luceneindex failed. Could not get number of documents (words).", e);
-		}
+		_V = getVocabularySize();
 		
 		if(Float.isFinite(Properties.knUnkLog10Prob())){
 			_ud = pow(10, Properties.knUnkLog10Prob());
@@ -165,6 +161,11 @@ public class KneserNeyLM extends CountingStringLM {
  		return log10(getNgramProbability(ngram));
 	}
 
+	@Override
+	public double getNgramLogProbability(int[] wordIds) {
+		return getNgramLogProbability(getNgramAsWords(wordIds));
+	}
+
 	public double getNgramProbability(List<String> ngram) {
 		// check length
 		assert ngram.size() <= _order : "Length of Ngram must be lower or equal to the order of the language model.";
@@ -203,12 +204,12 @@ public class KneserNeyLM extends CountingStringLM {
 			return punk;
 
 		List<String> ngram_, hist_, hist__ = null;
-		Document ngram_d, hist_d, hist_d_ = null;
+		NgramCounts ngram_d, hist_d, hist_d_ = null;
 		double pkn, p, lw, lp = 0, nom, denom, nfh, nfh_ = 0, nph, nfph, ch = 0d;
 
 		// start with unigram probability
 		ngram_ = ngram.subList(n-1, n);
-		ngram_d = getNgramLuceneDoc(ngram_);
+		ngram_d = getNgramCounts(ngram_);
 		nom = getNumPrecede(ngram_d)[0];
 		denom = _num_ngrams[2][0];
 		LOG.trace(String.format("%50.50s np(%s)=%d / nfp([])=num_bigrams=%d", ngram_, ngram_, (long)nom, (long)denom));		
@@ -226,7 +227,7 @@ public class KneserNeyLM extends CountingStringLM {
 		// lower ngram probabilities
 		for(int i = 2; i < n && i < _order; i++){
 			hist_ = ngram.subList(n-i, n-1);
-			hist_d = getNgramLuceneDoc(hist_);
+			hist_d = getNgramCounts(hist_);
 			
 			nfph = getNumFollowerPrecede(hist_d)[0];
 			nfh = getNumFollow(hist_d)[0];
@@ -257,19 +258,19 @@ public class KneserNeyLM extends CountingStringLM {
 			
 			denom = log(denom);
 			ngram_ = ngram.subList(n-i, n);
-			ngram_d = getNgramLuceneDoc(ngram_);
+			ngram_d = getNgramCounts(ngram_);
 			nom = getNumPrecede(ngram_d)[0];
 			ch = getQuantity(hist_d);
 			
-			LOG.trace(String.format("%50.50s np(%s)=%d / nfp(%s)=%d", ngram_, getNgramString(ngram_d), (long)nom, getNgramString(hist_d), (long)nfph));
-			LOG.trace(String.format("%50.50s nf(%s)=%d", ngram_, getNgramString(hist_d), (long)nfh));
+			LOG.trace(String.format("%50.50s np(%s)=%d / nfp(%s)=%d", ngram_, ngram_d.getNgram(), (long)nom, hist_d.getNgram(), (long)nfph));
+			LOG.trace(String.format("%50.50s nf(%s)=%d", ngram_, hist_d.getNgram(), (long)nfh));
 			
 			if(nfh == 0){
 				// HACK: Usually, this never happens since the nfp count was larger than 0,
 				// but when using mincounts, sequences are disrupted and nfh counts may go wrong
 				// Since this happens usually only for infrequent ngrams, we reset the nfh count to 1
 				nfh = 1;
-				LOG.debug(String.format("%50.50s WARN reset nf(%s)=0->%d", ngram_, getNgramString(hist_d), (long)nfh));
+				LOG.debug(String.format("%50.50s WARN reset nf(%s)=0->%d", ngram_, hist_d.getNgram(), (long)nfh));
 			}
 			
 			lp = pkn;
@@ -291,7 +292,7 @@ public class KneserNeyLM extends CountingStringLM {
 		
 		
 		hist_ = ngram.subList(max(0, n-_order), n-1);
-		hist_d = getNgramLuceneDoc(hist_);
+		hist_d = getNgramCounts(hist_);
 		ch = getQuantity(hist_d);
 		
 		if(ch == 0){
@@ -299,7 +300,7 @@ public class KneserNeyLM extends CountingStringLM {
 			if(hist_d_ != null && (ch = getQuantity(hist_d_)) != 0 && lp != 0 && nfh_ != 0 && hist_d_ != null){
 				// use higher order probability of lower order ngram here
 				nom = getQuantity(ngram_d);
-				LOG.trace(String.format("%50.50s reset_pkn c(%s)=%d / c(%s)=%d", ngram_, getNgramString(ngram_d), (long)nom, getNgramString(hist_d_), (long)ch));
+				LOG.trace(String.format("%50.50s reset_pkn c(%s)=%d / c(%s)=%d", ngram_, ngram_d.getNgram(), (long)nom, hist_d_.getNgram(), (long)ch));
 				denom = log(ch);
 				nom = max(nom - _D[n], 0);
 				p = 0;
@@ -314,9 +315,9 @@ public class KneserNeyLM extends CountingStringLM {
 		}
 		
 		ngram_ = ngram.subList(max(0, n-_order), n);
-		ngram_d = getNgramLuceneDoc(ngram_); // catch the case when the ngram might be longer than the lm order
+		ngram_d = getNgramCounts(ngram_); // catch the case when the ngram might be longer than the lm order
 		nom = getQuantity(ngram_d);
-		LOG.trace(String.format("%50.50s c(%s)=%d / c(%s)=%d", ngram_, getNgramString(ngram_d), (long)nom, getNgramString(hist_d), (long)ch));
+		LOG.trace(String.format("%50.50s c(%s)=%d / c(%s)=%d", ngram_, ngram_d.getNgram(), (long)nom, hist_d.getNgram(), (long)ch));
 		denom = log(ch);
 		
 		nfh = getNumFollow(hist_d)[0];
@@ -326,9 +327,9 @@ public class KneserNeyLM extends CountingStringLM {
 			// thus leading to a history count but not necessarily to a follower count. 
 			// Since this happens usually only for infrequent ngrams, we reset the nfh count to 1
 			nfh = 1;
-			LOG.trace(String.format("%50.50s nf(%s)=0->%d", ngram_, getNgramString(hist_d), (long)nfh));
+			LOG.trace(String.format("%50.50s nf(%s)=0->%d", ngram_, hist_d.getNgram(), (long)nfh));
 		}else
-			LOG.trace(String.format("%50.50s nf(%s)=%d", ngram_, getNgramString(hist_d), (long)nfh));
+			LOG.trace(String.format("%50.50s nf(%s)=%d", ngram_, hist_d.getNgram(), (long)nfh));
 			
 		lp = pkn;
 		nom = max(nom - _D[n], 0);
@@ -343,8 +344,11 @@ public class KneserNeyLM extends CountingStringLM {
 	}
 
 	double[] getNumFollow(List<String> ngram){
-		Document d_ngram = getNgramLuceneDoc(ngram);
-		return getNumFollow(d_ngram);
+		return getNgramCounts(ngram).getNumFollow();
+	}
+
+	double[] getNumFollow(NgramCounts ngram){
+		return ngram.getNumFollow();
 	}
 
 	double[] getNumFollow(Document ngram){
@@ -363,8 +367,11 @@ public class KneserNeyLM extends CountingStringLM {
 	}
 
 	double[] getNumPrecede(List<String> ngram){
-		Document d_ngram = getNgramLuceneDoc(ngram);
-		return getNumPrecede(d_ngram);
+		return getNgramCounts(ngram).getNumPrecede();
+	}
+
+	double[] getNumPrecede(NgramCounts ngram){
+		return ngram.getNumPrecede();
 	}
 
 	double[] getNumPrecede(Document ngram){
@@ -383,8 +390,11 @@ public class KneserNeyLM extends CountingStringLM {
 	}
 
 	double[] getNumFollowerPrecede(List<String> ngram){
-		Document d_ngram = getNgramLuceneDoc(ngram);
-		return getNumFollowerPrecede(d_ngram);
+		return getNgramCounts(ngram).getNumFollowerPrecede();
+	}
+
+	double[] getNumFollowerPrecede(NgramCounts ngram){
+		return ngram.getNumFollowerPrecede();
 	}
 
 	double[] getNumFollowerPrecede(Document d_ngram){
@@ -0,0 +1,136 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStore.PackedArray;
+import de.tudarmstadt.lt.lm.lucenebased.BinaryCountStore.PackedArrayWriter;
+import de.tudarmstadt.lt.utilities.io.ExternalSort;
+
+/**
+ * Read only vocabulary of sorted UTF-8 encoded words in a memory mapped byte arena with an offset per word.
+ * The id of a word is its rank, i.e. words are resolved by binary search and ids by two offset lookups,
+ * without holding the words on the heap. Safe for concurrent use.
+ *
+ * Files: {@value #OFFSETS_FILE} (number of words + 1 offsets into the arena) and {@value #BYTES_FILE} (the arena).
+ *
+ * @author Steffen Remus
+ */
+public class MappedVocabulary {
+
+	static final String OFFSETS_FILE = "vocab.offsets";
+	static final String BYTES_FILE = "vocab.bytes";
+
+	private final int _size;
+	private final PackedArray _offsets;
+	private final PackedArray _bytes;
+
+	public static boolean exists(File dir) {
+		return new File(dir, OFFSETS_FILE).exists() && new File(dir, BYTES_FILE).exists();
+	}
+
+	public MappedVocabulary(File dir) throws IOException {
+		_offsets = new PackedArray(new File(dir, OFFSETS_FILE));
+		_bytes = new PackedArray(new File(dir, BYTES_FILE));
+		_size = (int)_offsets.size() - 1;
+	}
+
+	/**
+	 * Write the distinct words sorted by their UTF-8 bytes into dir.
+	 *
+	 * @return the written words, i.e. the word with id i is the i'th element
+	 */
+	public static List<String> write(Collection<String> words, File dir) throws IOException {
+		TreeSet<String> sorted = new TreeSet<String>(ExternalSort.CODEPOINT_ORDER);
+		sorted.addAll(words);
+		List<byte[]> bytes = new ArrayList<byte[]>(sorted.size());
+		long total = 0;
+		for(String word : sorted){
+			byte[] b = word.getBytes(StandardCharsets.UTF_8);
+			bytes.add(b);
+			total += b.length;
+		}
+		dir.mkdirs();
+		try(PackedArrayWriter offsets = new PackedArrayWriter(new File(dir, OFFSETS_FILE), sorted.size() + 1, PackedArray.bitsFor(total));
+			PackedArrayWriter data = new PackedArrayWriter(new File(dir, BYTES_FILE), total, 8)){
+			long offset = 0;
+			for(byte[] b : bytes){
+				offsets.add(offset);
+				for(byte c : b)
+					data.add(c & 0xFF);
+				offset += b.length;
+			}
+			offsets.add(offset);
+		}
+		return new ArrayList<String>(sorted);
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return the word id or -1 if the word is unknown
+	 */
+	public int wordId(String word) {
+		byte[] w = word.getBytes(StandardCharsets.UTF_8);
+		int lo = 0, hi = _size - 1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			int c = compare(mid, w);
+			if(c < 0)
+				lo = mid + 1;
+			else if(c > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	private int compare(int id, byte[] w) {
+		long begin = _offsets.get(id);
+		int len = (int)(_offsets.get(id + 1) - begin);
+		for(int i = 0, n = Math.min(len, w.length); i < n; i++){
+			int a = (int)_bytes.get(begin + i);
+			int b = w[i] & 0xFF;
+			if(a != b)
+				return a - b;
+		}
+		return len - w.length;
+	}
+
+	/**
+	 * @return the word or null if the word id is out of range
+	 */
+	public String word(int id) {
+		if(id < 0 || id >= _size)
+			return null;
+		long begin = _offsets.get(id);
+		byte[] w = new byte[(int)(_offsets.get(id + 1) - begin)];
+		for(int i = 0; i < w.length; i++)
+			w[i] = (byte)_bytes.get(begin + i);
+		return new String(w, StandardCharsets.UTF_8);
+	}
+
+}
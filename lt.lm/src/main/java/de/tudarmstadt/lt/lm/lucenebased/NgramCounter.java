@@ -0,0 +1,679 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.lm.util.Properties;
+import de.tudarmstadt.lt.utilities.StringUtils;
+import de.tudarmstadt.lt.utilities.collections.LoserTree;
+import de.tudarmstadt.lt.utilities.io.BlockGzipInputStream;
+import de.tudarmstadt.lt.utilities.io.BlockGzipOutputStream;
+import de.tudarmstadt.lt.utilities.io.ExternalSort;
+import de.tudarmstadt.lt.utilities.io.ExternalSort.RunWriter;
+
+/**
+ * Counts ngrams and computes the statistics needed for the ngram index, i.e. the ngram counts,
+ * the vocabulary and for every ngram N_precede = N(x,ngram), N_follow = N(ngram,x) and
+ * N_follower_precede = N(x,ngram,x). The output files are identical to those of the former
+ * <code>mr_ngram_*.py | sort | join</code> chain: lines are sorted by their UTF-8 bytes (LC_ALL=C) and
+ * a line of the joined file is <code>ngram \t count [\t n_p:s,N1,N2,N3+] [\t n_f:...] [\t n_fp:...]</code>.
+ *
+ * The ngram file is read once. Ngrams are hash partitioned and aggregated in memory by multiple threads, a partition
+ * is spilled to a sorted and front coded run file of {@link ExternalSort} if the memory budget is exceeded. Runs of a partition are merged and the
+ * derived statistics are aggregated the same way, using the same partitioning, such that the counts and the
+ * statistics of an ngram can be joined per partition. The partitions are finally merged into the sorted output files.
+ *
+ * @author Steffen Remus
+ */
+public class NgramCounter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NgramCounter.class);
+
+	static final int ENTRY_OVERHEAD_BYTES = 96;
+	static final int BATCH_SIZE = 10000;
+
+	/** offsets of the statistics in the aggregated values, each is followed by N1, N2 and N3+ */
+	static final int N_PRECEDE = 0, N_FOLLOW = 4, N_FOLLOWER_PRECEDE = 8;
+	static final String[] STATISTICS_NAMES = { "n_p", "n_f", "n_fp" };
+
+	/**
+	 * Compares strings by their code points, which is the same order as comparing their UTF-8 bytes.
+	 */
+	static final Comparator<String> CODEPOINT_ORDER = ExternalSort.CODEPOINT_ORDER;
+
+	private final int _mincount;
+	private final int _num_threads;
+	private final int _num_partitions;
+	private final long _memory_budget;
+	private final AtomicLong _memory_used = new AtomicLong();
+	private File _tmp_dir;
+
+	public NgramCounter(int mincount) {
+		this(mincount, Properties.numWorkerThreads(), (long)(Runtime.getRuntime().maxMemory() * Properties.countingMemoryPercentage()));
+	}
+
+	public NgramCounter(int mincount, int num_threads, long memory_budget_bytes) {
+		_mincount = mincount;
+		_num_threads = Math.max(1, num_threads);
+		_num_partitions = Math.max(4, 4 * _num_threads);
+		_memory_budget = Math.max(1 << 20, memory_budget_bytes);
+	}
+
+	/**
+	 * Count the ngrams of ngram_file (one ngram per line, optionally gzipped) and write
+	 * the counts, the vocabulary and the joined counts as gzipped files.
+	 */
+	public void count(File ngram_file, File counts_file, File vocabulary_file, File joined_counts_file) throws IOException {
+		count(Collections.singletonList(ngram_file), counts_file, vocabulary_file, joined_counts_file);
+	}
+
+	/**
+	 * Count the ngrams of all ngram_files, e.g. the shards written by {@link de.tudarmstadt.lt.lm.app.Ngrams}. 
+	 * The files are read in parallel.
+	 */
+	public void count(List<File> ngram_files, File counts_file, File vocabulary_file, File joined_counts_file) throws IOException {
+		_tmp_dir = Files.createTempDirectory(joined_counts_file.getAbsoluteFile().getParentFile().toPath(), "ngramcounter").toFile();
+		ExecutorService executor = Executors.newFixedThreadPool(_num_threads);
+		try {
+			long begin = System.currentTimeMillis();
+			LOG.info("Counting ngrams in {} using {} threads, {} partitions and {} MB memory.", ngram_files.size() == 1 ? "'" + ngram_files.get(0) + "'" : ngram_files.size() + " files", _num_threads, _num_partitions, _memory_budget >> 20);
+			Aggregator counts = new Aggregator("counts", 1);
+			long num_lines = readNgrams(ngram_files, counts, executor);
+			LOG.info("Read {} ngrams ({} spilled runs).", num_lines, counts.numRuns());
+
+			LOG.info("Computing vocabulary, N_follow, N_precede and N_follower_precede.");
+			Aggregator statistics = new Aggregator("statistics", 12);
+			Aggregator vocabulary = new Aggregator("vocabulary", 0);
+			File[] filtered_counts = new File[_num_partitions];
+			runPartitions(executor, p -> filtered_counts[p] = aggregateStatistics(counts, p, statistics, vocabulary));
+			LOG.info("Computed statistics ({} spilled runs).", statistics.numRuns() + vocabulary.numRuns());
+
+			LOG.info("Joining ngram counts.");
+			File[] joined = new File[_num_partitions];
+			runPartitions(executor, p -> joined[p] = join(filtered_counts[p], statistics, p));
+
+			LOG.info("Writing '{}', '{}' and '{}'.", counts_file, joined_counts_file, vocabulary_file);
+			Future<?> vocab_written = executor.submit(() -> { writeVocabulary(vocabulary, vocabulary_file); return null; });
+			long num_ngrams = writeCounts(joined, counts_file, joined_counts_file);
+			vocab_written.get();
+			LOG.info("Counted {} distinct ngrams with count >= {}. Took {} s.", num_ngrams, _mincount, (System.currentTimeMillis() - begin) / 1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			FileUtils.deleteQuietly(_tmp_dir);
+		}
+	}
+
+	@FunctionalInterface
+	interface PartitionTask {
+		void run(int partition) throws IOException;
+	}
+
+	private void runPartitions(ExecutorService executor, PartitionTask task) throws InterruptedException, ExecutionException {
+		List<Future<?>> futures = new ArrayList<Future<?>>(_num_partitions);
+		for(int p = 0; p < _num_partitions; p++){
+			final int partition = p;
+			futures.add(executor.submit(() -> { task.run(partition); return null; }));
+		}
+		for(Future<?> f : futures)
+			f.get();
+	}
+
+	/**
+	 * Read non empty lines in batches and count them in parallel, at most two batches per thread are in memory.
+	 * Multiple files are read by up to one reader thread per counting thread.
+	 */
+	private long readNgrams(List<File> ngram_files, final Aggregator counts, ExecutorService executor) throws IOException, InterruptedException, ExecutionException {
+		final Semaphore batches = new Semaphore(2 * _num_threads);
+		final List<Future<?>> futures = Collections.synchronizedList(new ArrayList<Future<?>>());
+		if(ngram_files.size() == 1){
+			long num_lines = readNgrams(ngram_files.get(0), counts, executor, batches, futures);
+			for(Future<?> f : futures)
+				f.get();
+			return num_lines;
+		}
+		// readers block on the batches semaphore and thus get their own threads
+		ExecutorService readers = Executors.newFixedThreadPool(Math.min(ngram_files.size(), _num_threads));
+		try{
+			List<Future<Long>> read = new ArrayList<Future<Long>>(ngram_files.size());
+			for(File ngram_file : ngram_files)
+				read.add(readers.submit(() -> readNgrams(ngram_file, counts, executor, batches, futures)));
+			long num_lines = 0;
+			for(Future<Long> f : read)
+				num_lines += f.get();
+			for(Future<?> f : futures)
+				f.get();
+			return num_lines;
+		}finally{
+			readers.shutdownNow();
+		}
+	}
+
+	private long readNgrams(File ngram_file, final Aggregator counts, ExecutorService executor, final Semaphore batches, final List<Future<?>> futures) throws IOException, InterruptedException {
+		InputStream in = BlockGzipInputStream.open(ngram_file, Properties.decompressionThreads());
+		long num_lines = 0;
+		try(BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)){
+			List<String> batch = new ArrayList<String>(BATCH_SIZE);
+			for(String line; (line = r.readLine()) != null;){
+				line = StringUtils.rtrim(line);
+				if(StringUtils.trim(line).isEmpty())
+					continue;
+				batch.add(line);
+				if(batch.size() >= BATCH_SIZE){
+					num_lines += batch.size();
+					submitBatch(batch, counts, executor, batches, futures);
+					batch = new ArrayList<String>(BATCH_SIZE);
+				}
+			}
+			num_lines += batch.size();
+			submitBatch(batch, counts, executor, batches, futures);
+		}
+		return num_lines;
+	}
+
+	private void submitBatch(final List<String> batch, final Aggregator counts, ExecutorService executor, final Semaphore batches, List<Future<?>> futures) throws InterruptedException {
+		batches.acquire();
+		futures.add(executor.submit(() -> {
+			try{
+				Combiner combiner = counts.newCombiner();
+				for(String ngram : batch)
+					combiner.add(ngram, 0, 1);
+				combiner.flush();
+			}finally{
+				batches.release();
+			}
+			return null;
+		}));
+	}
+
+	/**
+	 * Merge the counts of partition p, filter by mincount, store the result as run file and aggregate the statistics.
+	 */
+	private File aggregateStatistics(Aggregator counts, int p, Aggregator statistics, Aggregator vocabulary) throws IOException {
+		File filtered = new File(_tmp_dir, String.format("counts-%d.run", p));
+		Combiner stats_combiner = statistics.newCombiner();
+		Combiner vocab_combiner = vocabulary.newCombiner();
+		try(RunIterator iter = counts.iterator(p); RunWriter out = new RunWriter(filtered, 1)){
+			while(iter.next()){
+				long num = iter.values()[0];
+				if(num < _mincount)
+					continue;
+				String ngram = iter.key();
+				out.write(ngram, iter.values());
+
+				int first_space = ngram.indexOf(' ');
+				if(first_space < 0){
+					vocab_combiner.add(ngram);
+				}else{
+					int last_space = ngram.lastIndexOf(' ');
+					for(int b = 0, e; b <= ngram.length(); b = e + 1){
+						e = ngram.indexOf(' ', b);
+						if(e < 0)
+							e = ngram.length();
+						if(e > b)
+							vocab_combiner.add(ngram.substring(b, e));
+					}
+					addStatistic(stats_combiner, ngram.substring(first_space + 1), N_PRECEDE, num);
+					addStatistic(stats_combiner, ngram.substring(0, last_space), N_FOLLOW, num);
+					if(last_space > first_space)
+						addStatistic(stats_combiner, ngram.substring(first_space + 1, last_space), N_FOLLOWER_PRECEDE, num);
+				}
+				if(stats_combiner.size() >= BATCH_SIZE)
+					stats_combiner.flush();
+				if(vocab_combiner.size() >= BATCH_SIZE)
+					vocab_combiner.flush();
+			}
+		}
+		stats_combiner.flush();
+		vocab_combiner.flush();
+		return filtered;
+	}
+
+	private static void addStatistic(Combiner combiner, String key, int offset, long num) {
+		long[] values = combiner.get(key);
+		values[offset] += num;
+		values[offset + (num >= 3 ? 3 : (int)num)]++;
+	}
+
+	/**
+	 * Merge join the filtered counts with the statistics of partition p, both are sorted and use the same partitioning.
+	 */
+	private File join(File filtered_counts, Aggregator statistics, int p) throws IOException {
+		File joined = new File(_tmp_dir, String.format("joined-%d.run", p));
+		try(RunIterator counts = new RunReader(filtered_counts, 1); RunIterator stats = statistics.iterator(p); RunWriter out = new RunWriter(joined, 13)){
+			long[] values = new long[13];
+			boolean has_stats = stats.next();
+			while(counts.next()){
+				int c = -1;
+				while(has_stats && (c = CODEPOINT_ORDER.compare(stats.key(), counts.key())) < 0)
+					has_stats = stats.next();
+				values[0] = counts.values()[0];
+				if(has_stats && c == 0)
+					System.arraycopy(stats.values(), 0, values, 1, 12);
+				else
+					Arrays.fill(values, 1, 13, 0L);
+				out.write(counts.key(), values);
+			}
+		}
+		FileUtils.deleteQuietly(filtered_counts);
+		return joined;
+	}
+
+	private long writeCounts(File[] joined, File counts_file, File joined_counts_file) throws IOException {
+		List<RunIterator> runs = new ArrayList<RunIterator>(joined.length);
+		for(File f : joined)
+			runs.add(new RunReader(f, 13));
+		long n = 0;
+		try(RunIterator iter = new MergeIterator(runs, 13);
+				Writer counts_out = newGzipWriter(counts_file);
+				Writer joined_out = newGzipWriter(joined_counts_file)){
+			StringBuilder line = new StringBuilder();
+			while(iter.next()){
+				n++;
+				long[] values = iter.values();
+				line.setLength(0);
+				line.append(iter.key()).append('\t').append(values[0]).append('\n');
+				counts_out.append(line);
+				line.setLength(line.length() - 1);
+				for(int s = 0; s < STATISTICS_NAMES.length; s++){
+					int o = 1 + 4 * s;
+					if(values[o] == 0) // every ngram has a count > 0, i.e. the statistic is missing
+						continue;
+					line.append('\t').append(STATISTICS_NAMES[s]).append(':').append(values[o]).append(',').append(values[o + 1]).append(',').append(values[o + 2]).append(',').append(values[o + 3]);
+				}
+				joined_out.append(line.append('\n'));
+			}
+		}
+		return n;
+	}
+
+	private void writeVocabulary(Aggregator vocabulary, File vocabulary_file) throws IOException {
+		List<RunIterator> runs = new ArrayList<RunIterator>(_num_partitions);
+		for(int p = 0; p < _num_partitions; p++)
+			runs.add(vocabulary.iterator(p));
+		try(RunIterator iter = new MergeIterator(runs, 0); Writer out = newGzipWriter(vocabulary_file)){
+			while(iter.next())
+				out.append(iter.key()).append('\n');
+		}
+	}
+
+	private static Writer newGzipWriter(File f) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new BlockGzipOutputStream(new FileOutputStream(f)), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	int partition(String key) {
+		return shard(key, _num_partitions);
+	}
+
+	/**
+	 * @return the shard of an ngram, used for partitioning the counts and by {@link de.tudarmstadt.lt.lm.app.Ngrams} for sharding the ngram file
+	 */
+	public static int shard(String ngram, int num_shards) {
+		int h = ngram.hashCode();
+		h ^= (h >>> 16);
+		return (h & Integer.MAX_VALUE) % num_shards;
+	}
+
+	static long estimateBytes(String key, int width) {
+		return ENTRY_OVERHEAD_BYTES + 2L * key.length() + 8L * width;
+	}
+
+	/**
+	 * Sums up values of equal keys in memory, hash partitioned. A partition is written to a sorted run file if the
+	 * memory used by all aggregators of this counter exceeds the budget.
+	 */
+	class Aggregator {
+
+		final String _name;
+		final int _width;
+		final Partition[] _partitions = new Partition[_num_partitions];
+		final AtomicInteger _num_runs = new AtomicInteger();
+
+		class Partition {
+			Map<String, long[]> _map = new HashMap<String, long[]>();
+			long _bytes = 0;
+			final List<File> _runs = new ArrayList<File>();
+		}
+
+		Aggregator(String name, int width) {
+			_name = name;
+			_width = width;
+			for(int p = 0; p < _partitions.length; p++)
+				_partitions[p] = new Partition();
+		}
+
+		int numRuns() {
+			return _num_runs.get();
+		}
+
+		Combiner newCombiner() {
+			return new Combiner(this);
+		}
+
+		void add(int p, List<Entry<String, long[]>> entries) throws IOException {
+			Partition partition = _partitions[p];
+			synchronized (partition) {
+				long bytes = 0;
+				for(Entry<String, long[]> entry : entries){
+					long[] values = partition._map.get(entry.getKey());
+					if(values == null){
+						partition._map.put(entry.getKey(), entry.getValue());
+						bytes += estimateBytes(entry.getKey(), _width);
+					}else
+						for(int i = 0; i < _width; i++)
+							values[i] += entry.getValue()[i];
+				}
+				partition._bytes += bytes;
+				// spill only reasonably large partitions, such that the number of runs stays small
+				if(_memory_used.addAndGet(bytes) > _memory_budget && partition._bytes >= _memory_budget / (4 * _num_partitions))
+					spill(p, partition);
+			}
+		}
+
+		private void spill(int p, Partition partition) throws IOException {
+			File run = new File(_tmp_dir, String.format("%s-%d-%d.run", _name, p, partition._runs.size()));
+			try(RunWriter out = new RunWriter(run, _width)){
+				for(Entry<String, long[]> entry : sorted(partition._map))
+					out.write(entry.getKey(), entry.getValue());
+			}
+			partition._runs.add(run);
+			_num_runs.incrementAndGet();
+			_memory_used.addAndGet(-partition._bytes);
+			LOG.debug("Spilled {} entries ({} MB) of {} partition {}.", partition._map.size(), partition._bytes >> 20, _name, p);
+			partition._map = new HashMap<String, long[]>();
+			partition._bytes = 0;
+		}
+
+		/**
+		 * Iterate the sorted and summed up entries of partition p, this consumes the partition.
+		 */
+		RunIterator iterator(int p) throws IOException {
+			Partition partition = _partitions[p];
+			List<RunIterator> runs = new ArrayList<RunIterator>(partition._runs.size() + 1);
+			synchronized (partition) {
+				for(File run : partition._runs)
+					runs.add(new RunReader(run, _width));
+				runs.add(new SortedMapIterator(sorted(partition._map), estimateRelease(partition)));
+				partition._map = new HashMap<String, long[]>();
+				partition._runs.clear();
+			}
+			return runs.size() == 1 ? runs.get(0) : new MergeIterator(runs, _width);
+		}
+
+		private long estimateRelease(Partition partition) {
+			long bytes = partition._bytes;
+			partition._bytes = 0;
+			return bytes;
+		}
+
+	}
+
+	@SuppressWarnings("unchecked")
+	static Entry<String, long[]>[] sorted(Map<String, long[]> map) {
+		Entry<String, long[]>[] entries = map.entrySet().toArray(new Entry[map.size()]);
+		Arrays.sort(entries, (a, b) -> CODEPOINT_ORDER.compare(a.getKey(), b.getKey()));
+		return entries;
+	}
+
+	/**
+	 * Sums up values of equal keys of a single thread before they are handed over to the partitions of an aggregator.
+	 */
+	class Combiner {
+
+		final Aggregator _aggregator;
+		Map<String, long[]> _map = new HashMap<String, long[]>();
+
+		Combiner(Aggregator aggregator) {
+			_aggregator = aggregator;
+		}
+
+		long[] get(String key) {
+			long[] values = _map.get(key);
+			if(values == null)
+				_map.put(key, values = new long[_aggregator._width]);
+			return values;
+		}
+
+		void add(String key) {
+			get(key);
+		}
+
+		void add(String key, int index, long value) {
+			get(key)[index] += value;
+		}
+
+		int size() {
+			return _map.size();
+		}
+
+		void flush() throws IOException {
+			@SuppressWarnings("unchecked")
+			List<Entry<String, long[]>>[] partitioned = new List[_num_partitions];
+			for(Entry<String, long[]> entry : _map.entrySet()){
+				int p = partition(entry.getKey());
+				if(partitioned[p] == null)
+					partitioned[p] = new ArrayList<Entry<String, long[]>>();
+				partitioned[p].add(entry);
+			}
+			for(int p = 0; p < partitioned.length; p++)
+				if(partitioned[p] != null)
+					_aggregator.add(p, partitioned[p]);
+			_map = new HashMap<String, long[]>();
+		}
+
+	}
+
+	/**
+	 * Iterator over sorted entries, {@link #key()} and {@link #values()} are valid after {@link #next()} returned true.
+	 */
+	interface RunIterator extends Closeable {
+		boolean next() throws IOException;
+		String key();
+		long[] values();
+	}
+
+	class SortedMapIterator implements RunIterator {
+
+		Entry<String, long[]>[] _entries;
+		int _i = -1;
+		long _bytes;
+
+		SortedMapIterator(Entry<String, long[]>[] entries, long bytes) {
+			_entries = entries;
+			_bytes = bytes;
+		}
+
+		@Override
+		public boolean next() {
+			if(_i >= 0)
+				_entries[_i] = null; // release memory early
+			return ++_i < _entries.length;
+		}
+
+		@Override
+		public String key() {
+			return _entries[_i].getKey();
+		}
+
+		@Override
+		public long[] values() {
+			return _entries[_i].getValue();
+		}
+
+		@Override
+		public void close() {
+			_memory_used.addAndGet(-_bytes);
+			_bytes = 0;
+			_entries = null;
+		}
+
+	}
+
+	/**
+	 * Reads a run file written by an {@link ExternalSort.RunWriter} with a fixed number of values per key.
+	 */
+	static class RunReader implements RunIterator {
+
+		final ExternalSort.RunReader _run;
+		String _key;
+
+		RunReader(File f, int width) throws IOException {
+			_run = new ExternalSort.RunReader(f, width);
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			if(!_run.hasNext())
+				return false;
+			try{
+				_key = _run.next();
+			}catch(UncheckedIOException e){
+				throw e.getCause();
+			}
+			return true;
+		}
+
+		@Override
+		public String key() {
+			return _key;
+		}
+
+		@Override
+		public long[] values() {
+			return _run.values();
+		}
+
+		@Override
+		public void close() throws IOException {
+			_run.close();
+		}
+
+	}
+
+	/**
+	 * Merges sorted iterators with a {@link LoserTree}, values of equal keys are summed up.
+	 */
+	static class MergeIterator implements RunIterator {
+
+		final List<RunIterator> _runs;
+		final boolean[] _has_current;
+		final LoserTree _tree;
+		final long[] _values;
+		String _key;
+
+		MergeIterator(List<RunIterator> runs, int width) throws IOException {
+			_runs = runs;
+			_values = new long[width];
+			_has_current = new boolean[runs.size()];
+			for(int i = 0; i < runs.size(); i++)
+				_has_current[i] = runs.get(i).next();
+			_tree = new LoserTree(runs.size(), new LoserTree.Inputs() {
+				@Override
+				public boolean hasCurrent(int i) {
+					return _has_current[i];
+				}
+
+				@Override
+				public int compare(int i, int j) {
+					return CODEPOINT_ORDER.compare(_runs.get(i).key(), _runs.get(j).key());
+				}
+			});
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			int w = _tree.winner();
+			if(w < 0)
+				return false;
+			RunIterator head = _runs.get(w);
+			_key = head.key();
+			System.arraycopy(head.values(), 0, _values, 0, _values.length);
+			advance(w);
+			while((w = _tree.winner()) >= 0 && _runs.get(w).key().equals(_key)){
+				head = _runs.get(w);
+				for(int i = 0; i < _values.length; i++)
+					_values[i] += head.values()[i];
+				advance(w);
+			}
+			return true;
+		}
+
+		private void advance(int i) throws IOException {
+			_has_current[i] = _runs.get(i).next();
+			_tree.update();
+		}
+
+		@Override
+		public String key() {
+			return _key;
+		}
+
+		@Override
+		public long[] values() {
+			return _values;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException ex = null;
+			for(RunIterator run : _runs)
+				try { run.close(); } catch (IOException e) { ex = e; }
+			if(ex != null)
+				throw ex;
+		}
+
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.io.Serializable;
+
+import de.tudarmstadt.lt.lm.PseudoSymbol;
+
+/**
+ * Immutable count record of an ngram, i.e. the count c(ngram) and the
+ * N_1, N_2, N_3+ counts of N_follow, N_precede and N_follower_precede.
+ *
+ * @author Steffen Remus
+ */
+public final class NgramCounts implements Serializable {
+
+	private static final long serialVersionUID = -3527601436585713618L;
+
+	/** the order of the count columns as they are stored in the index */
+	static final String[] FIELDS = new String[]{
+		"num",
+		"nf_N1", "nf_N2", "nf_N3",
+		"np_N1", "np_N2", "np_N3",
+		"nfp_N1", "nfp_N2", "nfp_N3" };
+
+	static final int NUM = 0;
+	static final int NF = 1;
+	static final int NP = 4;
+	static final int NFP = 7;
+
+	public static final NgramCounts UNKNOWN = new NgramCounts(PseudoSymbol.UNKOWN_WORD.asString(), new long[FIELDS.length]);
+
+	private final String _ngram;
+	private final long[] _counts;
+
+	NgramCounts(String ngram, long[] counts) {
+		assert counts.length == FIELDS.length : "Number of counts must match number of count fields.";
+		_ngram = ngram;
+		_counts = counts;
+	}
+
+	public String getNgram() {
+		return _ngram;
+	}
+
+	public long getNum() {
+		return _counts[NUM];
+	}
+
+	public double[] getNumFollow() {
+		return get(NF);
+	}
+
+	public double[] getNumPrecede() {
+		return get(NP);
+	}
+
+	public double[] getNumFollowerPrecede() {
+		return get(NFP);
+	}
+
+	/**
+	 * @return {N_1+N_2+N_3, N_1, N_2, N_3}
+	 */
+	private double[] get(int offset) {
+		double[] v = new double[4];
+		for(int i = 1; i < v.length; i++)
+			v[i] = _counts[offset + i - 1];
+		v[0] = v[1] + v[2] + v[3];
+		return v;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s c=%d nf=%d np=%d nfp=%d", _ngram, getNum(), (long)getNumFollow()[0], (long)getNumPrecede()[0], (long)getNumFollowerPrecede()[0]);
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of ngram count records which is shared by all threads of a language model.
+ * The cache is split into independently locked segments, an ngram is assigned to a segment by its hash,
+ * such that concurrent lookups rarely compete for the same lock.
+ *
+ * @author Steffen Remus
+ */
+public class NgramCountsCache implements NgramCountsCacheMXBean {
+
+	// rough per entry overhead in bytes: map entry, string header and char array header, count record and count array
+	private static final long ENTRY_OVERHEAD_BYTES = 48 + 40 + 16 + 24 + 16 + 8 * NgramCounts.FIELDS.length;
+
+	private static class Segment extends LinkedHashMap<String, NgramCounts> {
+		private static final long serialVersionUID = 1L;
+		final int _capacity;
+		long _bytes = 0;
+		long _evictions = 0;
+
+		Segment(int capacity) {
+			super(16, .75f, true);
+			_capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, NgramCounts> eldest) {
+			if(size() <= _capacity)
+				return false;
+			_bytes -= bytes(eldest.getKey());
+			_evictions++;
+			return true;
+		}
+	}
+
+	private final Segment[] _segments;
+	private final int _mask;
+	private final long _capacity;
+	private final LongAdder _hits = new LongAdder();
+	private final LongAdder _misses = new LongAdder();
+
+	public NgramCountsCache(long capacity) {
+		this(capacity, Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	public NgramCountsCache(long capacity, int concurrency) {
+		int num_segments = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1; // next power of two
+		_segments = new Segment[num_segments];
+		_mask = num_segments - 1;
+		_capacity = capacity;
+		int segment_capacity = (int)Math.max(1, Math.min(Integer.MAX_VALUE, (capacity + num_segments - 1) / num_segments));
+		for(int i = 0; i < num_segments; i++)
+			_segments[i] = new Segment(segment_capacity);
+	}
+
+	static long bytes(String ngram) {
+		return ENTRY_OVERHEAD_BYTES + 2L * ngram.length();
+	}
+
+	private Segment segment(String ngram) {
+		int h = ngram.hashCode();
+		h ^= (h >>> 16); // spread higher bits, the lower bits select the segment
+		return _segments[h & _mask];
+	}
+
+	/**
+	 * @return the cached count record or null
+	 */
+	public NgramCounts get(String ngram) {
+		Segment segment = segment(ngram);
+		NgramCounts counts;
+		synchronized (segment) {
+			counts = segment.get(ngram);
+		}
+		if(counts == null)
+			_misses.increment();
+		else
+			_hits.increment();
+		return counts;
+	}
+
+	public void put(String ngram, NgramCounts counts) {
+		Segment segment = segment(ngram);
+		synchronized (segment) {
+			if(segment.put(ngram, counts) == null)
+				segment._bytes += bytes(ngram);
+		}
+	}
+
+	@Override
+	public long getHits() {
+		return _hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return _misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0d : (double)hits / total;
+	}
+
+	@Override
+	public long getEvictions() {
+		long evictions = 0;
+		for(Segment segment : _segments)
+			synchronized (segment) {
+				evictions += segment._evictions;
+			}
+		return evictions;
+	}
+
+	@Override
+	public long getSize() {
+		long size = 0;
+		for(Segment segment : _segments)
+			synchronized (segment) {
+				size += segment.size();
+			}
+		return size;
+	}
+
+	@Override
+	public long getCapacity() {
+		return _capacity;
+	}
+
+	@Override
+	public long getEstimatedMemoryBytes() {
+		long bytes = 0;
+		for(Segment segment : _segments)
+			synchronized (segment) {
+				bytes += segment._bytes;
+			}
+		return bytes;
+	}
+
+	@Override
+	public void clear() {
+		for(Segment segment : _segments)
+			synchronized (segment) {
+				segment.clear();
+				segment._bytes = 0;
+				segment._evictions = 0;
+			}
+		_hits.reset();
+		_misses.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("size=%d/%d; hits=%d; misses=%d; hit ratio=%.3f; evictions=%d; ~%.2f MB", getSize(), getCapacity(), getHits(), getMisses(), getHitRatio(), getEvictions(), getEstimatedMemoryBytes() / 1e6);
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+/**
+ *
+ * @author Steffen Remus
+ */
+public interface NgramCountsCacheMXBean {
+
+	public long getHits();
+
+	public long getMisses();
+
+	public double getHitRatio();
+
+	public long getEvictions();
+
+	public long getSize();
+
+	public long getCapacity();
+
+	public long getEstimatedMemoryBytes();
+
+	public void clear();
+
+}
@@ -18,7 +18,6 @@ package de.tudarmstadt.lt.lm.lucenebased;
 import java.io.File;
 import java.util.List;
 
-import org.apache.lucene.document.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,11 +48,11 @@ public class OneBackoffKneserNeyLM extends KneserNeyLM {
 			return punk;
 		
 
-		Document ngram, hist;
+		NgramCounts ngram, hist;
 		double pkn, p, lw, lp, nom, denom;
 
 		// start with lower order probability
-		ngram = getNgramLuceneDoc(ngram_.subList(n-_order+1, n)); // catch the case when the ngram might be longer than the lm order
+		ngram = getNgramCounts(ngram_.subList(n-_order+1, n)); // catch the case when the ngram might be longer than the lm order
 		nom = getNumPrecede(ngram)[0];
 		
 		if(nom == 0)
@@ -62,7 +61,7 @@ public class OneBackoffKneserNeyLM extends KneserNeyLM {
 		if(n == 2)
 			denom = _num_ngrams[2][0];
 		else{
-			hist = getNgramLuceneDoc(ngram_.subList(n-_order+1, n-1)); // catch the case when the ngram might be longer than the lm order
+			hist = getNgramCounts(ngram_.subList(n-_order+1, n-1)); // catch the case when the ngram might be longer than the lm order
 			denom = getNumFollowerPrecede(hist)[0];
 		}
 		pkn = nom / denom;
@@ -73,8 +72,8 @@ public class OneBackoffKneserNeyLM extends KneserNeyLM {
 		if(n < _order)
 			return pkn;
 		
-		ngram = getNgramLuceneDoc(ngram_.subList(n-_order, n)); // catch the case when the ngram might be longer than the lm order
-		hist = getNgramLuceneDoc(ngram_.subList(n-_order, n-1));
+		ngram = getNgramCounts(ngram_.subList(n-_order, n)); // catch the case when the ngram might be longer than the lm order
+		hist = getNgramCounts(ngram_.subList(n-_order, n-1));
 		nom = getQuantity(ngram);
 		denom = getQuantity(hist);
 
@@ -0,0 +1,62 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of ngram count records which lives only for the evaluation of a single sequence.
+ * Consecutive ngrams of a sequence overlap, thus histories and lower order ngrams are looked up over and over again.
+ * Instances are confined to a single thread.
+ *
+ * @author Steffen Remus
+ */
+class SequenceCache {
+
+	private final Map<String, NgramCounts> _counts;
+	int _depth = 0;
+	long _hits = 0;
+	long _misses = 0;
+
+	SequenceCache(final int capacity) {
+		_counts = new LinkedHashMap<String, NgramCounts>(Math.min(capacity, 256), .75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, NgramCounts> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	NgramCounts get(String ngram) {
+		NgramCounts c = _counts.get(ngram);
+		if(c == null)
+			_misses++;
+		else
+			_hits++;
+		return c;
+	}
+
+	void put(String ngram, NgramCounts counts) {
+		_counts.put(ngram, counts);
+	}
+
+	int size() {
+		return _counts.size();
+	}
+
+}
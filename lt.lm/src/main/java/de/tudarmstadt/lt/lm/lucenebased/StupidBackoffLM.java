@@ -19,7 +19,6 @@ import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 
-import org.apache.lucene.document.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +53,11 @@ public class StupidBackoffLM extends CountingStringLM {
 		return Math.log10(getNgramProbability(ngram));
 	}
 
+	@Override
+	public double getNgramLogProbability(int[] wordIds) {
+		return getNgramLogProbability(getNgramAsWords(wordIds));
+	}
+
 	public double getNgramProbability(List<String> ngram) {
 		// check length
 		assert ngram.size() <= _order : "Length of Ngram must be lower or equal to the order of the language model.";
@@ -80,12 +84,12 @@ public class StupidBackoffLM extends CountingStringLM {
 			return _ud;
 
 		List<String> ngram_, hist_;
-		Document ngram_d, hist_d;
+		NgramCounts ngram_d, hist_d;
 		double s, cs, ls, lw, nom, denom;
 
 		// start with unigram probability
 		ngram_ = ngram.subList(n-1, n);
-		ngram_d = getNgramLuceneDoc(ngram_);
+		ngram_d = getNgramCounts(ngram_);
 		nom = getQuantity(ngram_d);
 		denom = _num_ngrams[1][0];
 		
@@ -106,8 +110,8 @@ public class StupidBackoffLM extends CountingStringLM {
 			ls = s;
 			ngram_ = ngram.subList(n-i, n);
 			hist_ = ngram.subList(n-i, n-1);
-			ngram_d = getNgramLuceneDoc(ngram_);
-			hist_d = getNgramLuceneDoc(hist_);
+			ngram_d = getNgramCounts(ngram_);
+			hist_d = getNgramCounts(hist_);
 			nom = getQuantity(ngram_d);
 			denom = getQuantity(hist_d);
 			
@@ -130,8 +134,8 @@ public class StupidBackoffLM extends CountingStringLM {
 		ls = s;
 		ngram_ = ngram.subList(n-_order, n);
 		hist_ = ngram.subList(n-_order, n-1);
-		ngram_d = getNgramLuceneDoc(ngram_); // catch the case when the ngram might be longer than the lm order
-		hist_d = getNgramLuceneDoc(hist_);
+		ngram_d = getNgramCounts(ngram_); // catch the case when the ngram might be longer than the lm order
+		hist_d = getNgramCounts(hist_);
 		nom = getQuantity(ngram_d);
 		denom = getQuantity(hist_d);
 		LOG.trace(String.format("%50.50s c(%s)=%d / c(%s)=%d", ngram, ngram_, (long)nom, hist_, (long)denom));
@@ -16,27 +16,23 @@
 package de.tudarmstadt.lt.lm.mapbased;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.commons.collections.IteratorUtils;
 import org.apache.commons.collections.Transformer;
-import org.apache.commons.lang.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.lt.lm.AbstractLanguageModel;
 import de.tudarmstadt.lt.lm.LanguageModel;
 import de.tudarmstadt.lt.lm.service.LMProviderUtils;
-import de.tudarmstadt.lt.utilities.collections.Bag;
-import de.tudarmstadt.lt.utilities.collections.HashBag;
 
 /**
- * 
+ * In-memory maximum likelihood language model. The ngrams are counted as arrays of word ids in {@link NgramTable}s.
+ *
  * @author Steffen Remus
  */
 public class CountingLM<W> extends AbstractLanguageModel<W> implements LanguageModel<W> {
@@ -47,8 +43,8 @@ public class CountingLM<W> extends AbstractLanguageModel<W> implements LanguageM
 	protected List<W> _index;
 	protected Map<W, Integer> _inv_index;
 	protected double _sum_one_grams;
-	protected Bag<List<Integer>> _ngrams_of_order;
-	protected Bag<List<Integer>> _ngrams_of_lower_order;
+	protected NgramTable _ngrams_of_order;
+	protected NgramTable _ngrams_of_lower_order;
 	protected boolean _fixed = false;
 
 	public CountingLM() {	}
@@ -58,8 +54,8 @@ public class CountingLM<W> extends AbstractLanguageModel<W> implements LanguageM
 		_index = new ArrayList<W>();
 		_inv_index = new HashMap<W, Integer>();
 		_sum_one_grams = 0d;
-		_ngrams_of_order = new HashBag<List<Integer>>();
-		_ngrams_of_lower_order = new HashBag<List<Integer>>();
+		_ngrams_of_order = new NgramTable(order);
+		_ngrams_of_lower_order = new NgramTable(Math.max(1, order - 1));
 	}
 
 	@Override
@@ -108,27 +104,23 @@ public class CountingLM<W> extends AbstractLanguageModel<W> implements LanguageM
 	}
 
 	@Override
-	public double getNgramLogProbability(int[] wordIds) {
-		return getNgramLogProbabilityFromIds(Arrays.asList(ArrayUtils.toObject(wordIds)));
-	}
-
-	public double getNgramLogProbabilityFromIds(List<Integer> ngram) {
+	public double getNgramLogProbability(int[] ngram) {
 		// check length
-		assert ngram.size() <= _order : "Length of Ngram must be lower or equal to the order of the language model.";
-		if(ngram.size() < 1)
+		assert ngram.length <= _order : "Length of Ngram must be lower or equal to the order of the language model.";
+		if(ngram.length < 1)
 			return Double.NEGATIVE_INFINITY;
 
 		// c(w_1 ... w_n)
-		Integer nominator = _ngrams_of_order.getQuantity(ngram);
+		int nominator = _ngrams_of_order.get(ngram);
 		if (nominator == 0)
 			return Double.NEGATIVE_INFINITY;
 
 		// c(w_1) / N
-		if(ngram.size() == 1)
+		if(ngram.length == 1)
 			return Math.log10(nominator) - Math.log10(_sum_one_grams);
 
 		// c(w_1 ... w_n-1)
-		Integer denominator = _ngrams_of_lower_order.getQuantity(ngram.subList(0, ngram.size() - 1));
+		int denominator = _ngrams_of_lower_order.get(ngram, 0, ngram.length - 1);
 
 		if(denominator == 0)
 			return Double.NEGATIVE_INFINITY;
@@ -137,9 +129,16 @@ public class CountingLM<W> extends AbstractLanguageModel<W> implements LanguageM
 		return logprob;
 	}
 
+	public double getNgramLogProbabilityFromIds(List<Integer> ngram) {
+		return getNgramLogProbability(toIntArray(ngram));
+	}
+
 	@Override
 	public double getNgramLogProbability(List<W> ngram) {
-		return getNgramLogProbabilityFromIds(toIntegerList(ngram));
+		int[] ngram_ = new int[ngram.size()];
+		for (int i = 0; i < ngram_.length; i++)
+			ngram_[i] = getWordIndex(ngram.get(i));
+		return getNgramLogProbability(ngram_);
 	}
 
 
@@ -159,11 +158,14 @@ public class CountingLM<W> extends AbstractLanguageModel<W> implements LanguageM
 	@Override
 	public Iterator<List<Integer>> getNgramIdIterator() {
 		@SuppressWarnings("unchecked")
-		Iterator<List<Integer>> iter = IteratorUtils.transformedIterator(_ngrams_of_order.entrySet().iterator(), new Transformer() {
+		Iterator<List<Integer>> iter = IteratorUtils.transformedIterator(_ngrams_of_order.iterator(), new Transformer() {
 			@Override
 			public Object transform(final Object o) {
-				Entry<List<Integer>, Integer> ngram_counts = (Entry<List<Integer>, Integer>) o;
-				return ngram_counts.getKey();
+				int[] ngram = (int[]) o;
+				List<Integer> ngram_ = new ArrayList<Integer>(ngram.length);
+				for (int ngram_i : ngram)
+					ngram_.add(ngram_i);
+				return ngram_;
 			}
 		});
 		return iter;
@@ -185,28 +187,32 @@ public class CountingLM<W> extends AbstractLanguageModel<W> implements LanguageM
 	}
 
 	public int addNgram(List<W> ngram) throws IllegalAccessException {
-		for (W ngram_i : ngram)
-			getOrAddWord(ngram_i);
-		List<Integer> ngram_ = toIntegerList(ngram);
+		int[] ngram_ = new int[ngram.size()];
+		for (int i = 0; i < ngram_.length; i++)
+			ngram_[i] = getOrAddWord(ngram.get(i));
 		return addNgramAsIds(ngram_);
 	}
 
 	public int addNgramAsIds(List<Integer> ngram) throws IllegalAccessException {
+		return addNgramAsIds(toIntArray(ngram));
+	}
+
+	public int addNgramAsIds(int[] ngram) throws IllegalAccessException {
 		// check if it is fixed
 		if (_fixed)
 			throw new IllegalAccessException("LanguageModel is already fixed, which means no more values can be added.");
 		// check length
-		assert ngram.size() <= _order : "Length of ngram must be lower or equal to the order of the language model.";
-		assert ngram.size() > 0 : "Length of ngram must be larger than 0.";
-		// add to bag of lm order
-		int count = _ngrams_of_order.add(ngram);
-		// add to bag of lower order
-		if(ngram.size() == 1){
+		assert ngram.length <= _order : "Length of ngram must be lower or equal to the order of the language model.";
+		assert ngram.length > 0 : "Length of ngram must be larger than 0.";
+		// add to table of lm order
+		int count = _ngrams_of_order.add(ngram, 0, ngram.length);
+		// add to table of lower order
+		if(ngram.length == 1){
 			_sum_one_grams++;
 			return count;
 		}
-		_ngrams_of_lower_order.add(ngram.subList(0, ngram.size() - 1));
-		if(ngram.size() == 2)
+		_ngrams_of_lower_order.add(ngram, 0, ngram.length - 1);
+		if(ngram.length == 2)
 			_sum_one_grams++;
 		return count;
 	}
@@ -223,10 +229,10 @@ public class CountingLM<W> extends AbstractLanguageModel<W> implements LanguageM
 		return index;
 	}
 
-	private List<Integer> toIntegerList(List<W> ngram) {
-		List<Integer> ngram_ = new ArrayList<Integer>(ngram.size());
-		for (W ngram_i : ngram)
-			ngram_.add(getWordIndex(ngram_i));
+	private static int[] toIntArray(List<Integer> ngram) {
+		int[] ngram_ = new int[ngram.size()];
+		for (int i = 0; i < ngram_.length; i++)
+			ngram_[i] = ngram.get(i);
 		return ngram_;
 	}
 
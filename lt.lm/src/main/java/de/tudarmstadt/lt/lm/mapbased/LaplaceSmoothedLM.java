@@ -15,8 +15,6 @@
  */
 package de.tudarmstadt.lt.lm.mapbased;
 
-import java.util.List;
-
 /**
  * 
  * @author Steffen Remus
@@ -35,21 +33,21 @@ public class LaplaceSmoothedLM<W> extends CountingLM<W> {
 	}
 
 	@Override
-	public double getNgramLogProbabilityFromIds(List<Integer> ngram) {
+	public double getNgramLogProbability(int[] ngram) {
 		// check length
-		assert ngram.size() <= getOrder() : "Length of ngram must be equal to the order of the language model.";
-		if (ngram.size() < 1)
+		assert ngram.length <= getOrder() : "Length of ngram must be equal to the order of the language model.";
+		if (ngram.length < 1)
 			return Double.NEGATIVE_INFINITY;
 
 		// c(w_1 ... w_n) + 1
-		Integer nominator = _ngrams_of_order.get(ngram) + 1;
+		int nominator = _ngrams_of_order.get(ngram) + 1;
 
 		// c(w_1)+1 / N+|V|
-		if (ngram.size() == 1)
+		if (ngram.length == 1)
 			return Math.log10(nominator) - Math.log10(_sum_one_grams + _index.size());
 
 		// c(w_1 ... w_n-1) + |V|
-		Integer denominator = _ngrams_of_lower_order.get(ngram.subList(0, ngram.size() - 1)) + _index.size();
+		int denominator = _ngrams_of_lower_order.get(ngram, 0, ngram.length - 1) + _index.size();
 
 		// c(w_1 ... w_n) / c(w_1 ... w_n-1)+|V|
 		double logprob = Math.log10(nominator) - Math.log10(denominator);
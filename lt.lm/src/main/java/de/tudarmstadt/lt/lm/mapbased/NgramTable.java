@@ -0,0 +1,199 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.mapbased;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Counts of ngrams given as word ids in an open addressing hash table (linear probing). The word ids of the slots are
+ * kept in one flat int array of max_length ids per slot, the lengths and the counts in parallel primitive arrays, i.e.
+ * no objects are allocated per ngram and ngrams can be looked up by a range of an int array.
+ *
+ * Not thread safe.
+ *
+ * @author Steffen Remus
+ */
+public class NgramTable implements Iterable<int[]> {
+
+	private static final float LOAD_FACTOR = .6f;
+
+	private final int _width;
+	private int[] _keys; // _width word ids per slot
+	private byte[] _lengths; // 0 = free slot
+	private int[] _counts;
+	private int _mask;
+	private int _size;
+	private int _threshold;
+	private long _total;
+
+	public NgramTable(int max_length) {
+		this(max_length, 1 << 10);
+	}
+
+	public NgramTable(int max_length, int expected_size) {
+		if(max_length < 1 || max_length > Byte.MAX_VALUE)
+			throw new IllegalArgumentException(String.format("Maximum ngram length must be in [1,%d], but was %d.", Byte.MAX_VALUE, max_length));
+		_width = max_length;
+		int capacity = Integer.highestOneBit(Math.max(4, (int)(expected_size / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		if((long)capacity * _width > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException(String.format("Ngram table exceeds the maximum capacity (%d ngrams of length %d).", _size, _width));
+		_keys = new int[capacity * _width];
+		_lengths = new byte[capacity];
+		_counts = new int[capacity];
+		_mask = capacity - 1;
+		_threshold = (int)(capacity * LOAD_FACTOR);
+	}
+
+	static int hash(int[] ngram, int from, int to) {
+		int h = to - from;
+		for(int i = from; i < to; i++)
+			h = h * 0x9E3779B1 + ngram[i];
+		// murmur3 finalizer
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return the slot of the ngram or the bitwise complement of the free slot where it would be inserted
+	 */
+	private int find(int[] ngram, int from, int to) {
+		int length = to - from;
+		for(int slot = hash(ngram, from, to) & _mask;; slot = (slot + 1) & _mask){
+			if(_lengths[slot] == 0)
+				return ~slot;
+			if(_lengths[slot] == length && equals(slot, ngram, from, to))
+				return slot;
+		}
+	}
+
+	private boolean equals(int slot, int[] ngram, int from, int to) {
+		for(int i = from, j = slot * _width; i < to; i++, j++)
+			if(_keys[j] != ngram[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * add the ngram ngram[from,to) once and return the new quantity
+	 */
+	public int add(int[] ngram, int from, int to) {
+		return add(ngram, from, to, 1);
+	}
+
+	/**
+	 * add count to the quantity of the ngram ngram[from,to) and return the new quantity
+	 */
+	public int add(int[] ngram, int from, int to, int count) {
+		if(to - from < 1 || to - from > _width)
+			throw new IllegalArgumentException(String.format("Length of ngram must be in [1,%d], but was %d.", _width, to - from));
+		_total += count;
+		int slot = find(ngram, from, to);
+		if(slot >= 0)
+			return _counts[slot] += count;
+		slot = ~slot;
+		System.arraycopy(ngram, from, _keys, slot * _width, to - from);
+		_lengths[slot] = (byte)(to - from);
+		_counts[slot] = count;
+		if(++_size > _threshold)
+			rehash();
+		return count;
+	}
+
+	private void rehash() {
+		int[] keys = _keys;
+		byte[] lengths = _lengths;
+		int[] counts = _counts;
+		allocate(lengths.length << 1);
+		for(int old_slot = 0; old_slot < lengths.length; old_slot++){
+			if(lengths[old_slot] == 0)
+				continue;
+			int from = old_slot * _width, to = from + lengths[old_slot];
+			int slot = ~find(keys, from, to);
+			System.arraycopy(keys, from, _keys, slot * _width, to - from);
+			_lengths[slot] = lengths[old_slot];
+			_counts[slot] = counts[old_slot];
+		}
+	}
+
+	/**
+	 * @return the quantity of the ngram ngram[from,to), 0 if it does not exist
+	 */
+	public int get(int[] ngram, int from, int to) {
+		if(to - from < 1 || to - from > _width)
+			return 0;
+		int slot = find(ngram, from, to);
+		return slot >= 0 ? _counts[slot] : 0;
+	}
+
+	public int get(int[] ngram) {
+		return get(ngram, 0, ngram.length);
+	}
+
+	/**
+	 * @return the number of distinct ngrams
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return the sum of all quantities
+	 */
+	public long getTotal() {
+		return _total;
+	}
+
+	/**
+	 * @return an iterator over copies of the ngrams in no particular order
+	 */
+	@Override
+	public Iterator<int[]> iterator() {
+		return new Iterator<int[]>() {
+			int _slot = advance(0);
+
+			int advance(int slot) {
+				while(slot < _lengths.length && _lengths[slot] == 0)
+					slot++;
+				return slot;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return _slot < _lengths.length;
+			}
+
+			@Override
+			public int[] next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+				int from = _slot * _width;
+				int[] ngram = Arrays.copyOfRange(_keys, from, from + _lengths[_slot]);
+				_slot = advance(_slot + 1);
+				return ngram;
+			}
+		};
+	}
+
+}
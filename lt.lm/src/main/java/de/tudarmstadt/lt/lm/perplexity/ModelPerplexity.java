@@ -99,21 +99,53 @@ public class ModelPerplexity<W> implements Serializable{
 		return log10prob;
 	}
 
+	/**
+	 * Add the log10 probability of an ngram that was computed before, e.g. by another thread.
+	 */
+	public void addLog10Prob(double log10prob) {
+		_sum_ngrams++;
+		_sum_log10probs += log10prob;
+	}
+
+	/**
+	 * Add the log10 probabilities of all ngrams, they are computed within a single call to the provider.
+	 * 
+	 * @return the sum of the log10 probabilities
+	 */
+	@SuppressWarnings("unchecked")
+	public double addLog10Probs(List<W>[] ngrams) throws Exception {
+		if(ngrams.length == 0)
+			return 0d;
+		double[] log10probs = _lm_prvdr.getNgramLog10Probabilities((List<String>[])ngrams);
+		double sum_log10probs = 0d;
+		for(double log10prob : log10probs)
+			sum_log10probs += log10prob;
+		_sum_ngrams += log10probs.length;
+		_sum_log10probs += sum_log10probs;
+		return sum_log10probs;
+	}
+
 	public static <W> double calculatePerplexity(LanguageModel<W> lm, LMProvider<W> lmp, List<W> wordSequence, boolean skip_oov) throws Exception {
 		List<W>[] ngram_sequence = lmp.getNgramSequence(wordSequence);
 		return calculatePerplexity(lm, ngram_sequence, skip_oov);
 	}
 
 	public static <W> double calculatePerplexity(LanguageModel<W> lm, List<W>[] ngramSequence, boolean skip_oov) throws Exception {
-		double sum_log10probs = 0d;
+		// score the sequence at once, such that language models can share lookups between overlapping ngrams
+		List<W>[] ngrams = ngramSequence;
 		int n_oov = 0;
-		for (List<W> ngram : ngramSequence){
-			if(skip_oov && lm.ngramEndsWithOOV(ngram)){
-				n_oov++;
-				continue;
-			}
-			sum_log10probs += calcLog10Prob(lm, ngram);
+		if(skip_oov){
+			ngrams = Arrays.copyOf(ngramSequence, ngramSequence.length);
+			int n = 0;
+			for (List<W> ngram : ngramSequence)
+				if(!lm.ngramEndsWithOOV(ngram))
+					ngrams[n++] = ngram;
+			n_oov = ngramSequence.length - n;
+			ngrams = Arrays.copyOf(ngrams, n);
 		}
+		double sum_log10probs = 0d;
+		if(ngrams.length > 0)
+			sum_log10probs = lm.getSequenceLogProbability(ngrams);
 
 		double N = ngramSequence.length - n_oov; // + lm.getOrder() - 1;
 		if(N == 0 || !Double.isFinite(sum_log10probs))
@@ -125,20 +157,6 @@ public class ModelPerplexity<W> implements Serializable{
 	}
 
 
-	private static <W> double calcLog10Prob(LanguageModel<W> lm, List<W> ngram) throws Exception {
-		assert ngram.size() <= lm.getOrder() : "The size of the N-gram must be equal to the order of the language model.";
-		double log10probability = lm.getNgramLogProbability(ngram);
-		if(LOG.isTraceEnabled()){
-			double log2probability = log10probability / Math.log10(2);
-			LOG.trace("p({})={}, log_2={}; log_10={})",
-					ngram.toString(),
-					String.format("%g", Math.pow(2, log2probability)),
-					String.format("%g", log2probability),
-					String.format("%g", log10probability));
-		}
-		return log10probability;
-	}
-	
 	public static double calcLog10Prob(StringProviderMXBean lmprvdr, List<String> ngram) throws Exception {
 		assert ngram.size() <= lmprvdr.getLmOrder() : "The size of the N-gram must be equal to the order of the language model.";
 		double log10probability = lmprvdr.getNgramLog10Probability(ngram);
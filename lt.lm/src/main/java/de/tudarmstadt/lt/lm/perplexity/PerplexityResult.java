@@ -0,0 +1,78 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.perplexity;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * Perplexity of a single document including and excluding ngrams which end with an out of vocabulary word.
+ *
+ * @author Steffen Remus
+ */
+public class PerplexityResult implements Serializable {
+
+	private static final long serialVersionUID = -2097851330573164391L;
+
+	public static final PerplexityResult EMPTY = new PerplexityResult(0, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+	private final long _num_ngrams;
+	private final long _num_oov;
+	private final double _log10prob;
+	private final double _perplexity;
+	private final double _log10prob_without_oov;
+	private final double _perplexity_without_oov;
+
+	@ConstructorProperties({"numNgrams", "numOov", "log10Prob", "perplexity", "log10ProbWithoutOov", "perplexityWithoutOov"})
+	public PerplexityResult(long num_ngrams, long num_oov, double log10prob, double perplexity, double log10prob_without_oov, double perplexity_without_oov) {
+		_num_ngrams = num_ngrams;
+		_num_oov = num_oov;
+		_log10prob = log10prob;
+		_perplexity = perplexity;
+		_log10prob_without_oov = log10prob_without_oov;
+		_perplexity_without_oov = perplexity_without_oov;
+	}
+
+	public long getNumNgrams() {
+		return _num_ngrams;
+	}
+
+	public long getNumOov() {
+		return _num_oov;
+	}
+
+	public double getLog10Prob() {
+		return _log10prob;
+	}
+
+	public double getPerplexity() {
+		return _perplexity;
+	}
+
+	public double getLog10ProbWithoutOov() {
+		return _log10prob_without_oov;
+	}
+
+	public double getPerplexityWithoutOov() {
+		return _perplexity_without_oov;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d\t%d\t%e\t%e\t%e\t%e", _num_ngrams, _num_oov, _log10prob, _perplexity, _log10prob_without_oov, _perplexity_without_oov);
+	}
+
+}
@@ -23,7 +23,13 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +37,7 @@ import org.slf4j.LoggerFactory;
 import de.tudarmstadt.lt.lm.LanguageModel;
 import de.tudarmstadt.lt.lm.PseudoSymbol;
 import de.tudarmstadt.lt.lm.perplexity.ModelPerplexity;
+import de.tudarmstadt.lt.lm.perplexity.PerplexityResult;
 import de.tudarmstadt.lt.lm.util.Properties;
 
 /**
@@ -44,6 +51,8 @@ public abstract class AbstractStringProvider implements StringProviderMXBean {
 	@SuppressWarnings("unchecked")
 	protected final static List<String>[] EMPTY_NGRAM_LIST = new List[0];
 
+	private static ExecutorService _workers;
+
 	private LanguageModel<String> _language_model;
 	private ModelPerplexity<String> _perplexity;
 	protected String _default_language_code = Properties.defaultLanguageCode();
@@ -124,6 +133,114 @@ public abstract class AbstractStringProvider implements StringProviderMXBean {
 		return _language_model.getSequenceLogProbability(ngram_sequence);
 	}
 
+	@Override
+	public double[] getNgramLog10Probabilities(List<String>[] ngram_sequence) throws Exception{
+		if(!getModelReady())
+			throw new IllegalAccessError("Language model is not ready.");
+		return _language_model.getNgramLogProbabilities(ngram_sequence);
+	}
+
+	/**
+	 * Tokenize and score the sentences of a document within a single call. 
+	 * Sentences which do not yield at least one ngram of the order of the language model are ignored.
+	 * 
+	 * @return the perplexity of all scored ngrams or the base perplexity if no ngram was scored
+	 */
+	@Override
+	public double getPerplexityOfSentences(List<String> sentences, boolean skip_oov) throws Exception{
+		if(!getModelReady())
+			throw new IllegalAccessError("Language model is not ready.");
+		ModelPerplexity<String> perp = new ModelPerplexity<String>(this);
+		int order = getLmOrder();
+		for(String sentence : sentences){
+			List<String>[] ngrams = getNgrams(sentence);
+			if(ngrams.length < 1) // at least 1 ngrams
+				continue;
+			if(ngrams[ngrams.length-1].size() < order) // at least one ngram with cardinality of lm
+				continue;
+			if(skip_oov){
+				List<String>[] ngrams_ = Arrays.copyOf(ngrams, ngrams.length);
+				int n = 0;
+				for(List<String> ngram : ngrams)
+					if(!_language_model.ngramEndsWithOOV(ngram))
+						ngrams_[n++] = ngram;
+				ngrams = Arrays.copyOf(ngrams_, n);
+			}
+			perp.addLog10Probs(ngrams);
+		}
+		return perp.get();
+	}
+
+	/**
+	 * Compute the perplexity of each text on the shared worker pool, every text is handled as a single sentence.
+	 * 
+	 * @return the results in the order of the texts
+	 */
+	@Override
+	public PerplexityResult[] getPerplexities(List<String> texts) throws Exception{
+		if(!getModelReady())
+			throw new IllegalAccessError("Language model is not ready.");
+		final double base_perplexity = new ModelPerplexity<String>(this).get();
+		List<Callable<PerplexityResult>> tasks = new ArrayList<Callable<PerplexityResult>>(texts.size());
+		for(final String text : texts)
+			tasks.add(() -> getPerplexityResult(text, base_perplexity));
+		PerplexityResult[] results = new PerplexityResult[tasks.size()];
+		int i = 0;
+		for(Future<PerplexityResult> result : getWorkers().invokeAll(tasks))
+			results[i++] = result.get();
+		return results;
+	}
+
+	PerplexityResult getPerplexityResult(String text, double base_perplexity) throws Exception {
+		if(text.trim().isEmpty())
+			return PerplexityResult.EMPTY;
+		List<String> tokens = tokenizeSentence(text);
+		if(tokens == null || tokens.isEmpty())
+			return PerplexityResult.EMPTY;
+		List<String>[] ngrams = getNgramSequence(tokens);
+		if(ngrams == null || ngrams.length == 0)
+			return PerplexityResult.EMPTY;
+
+		int n = 0;
+		for(List<String> ngram : ngrams)
+			if(!ngram.isEmpty())
+				ngrams[n++] = ngram;
+		ngrams = Arrays.copyOf(ngrams, n);
+
+		double[] log10probs = _language_model.getNgramLogProbabilities(ngrams);
+		long n_oov = 0;
+		double sum_log10probs = 0d, sum_log10probs_oov = 0d;
+		for(int i = 0; i < ngrams.length; i++){
+			sum_log10probs += log10probs[i];
+			if(_language_model.ngramEndsWithOOV(ngrams[i]))
+				n_oov++;
+			else
+				sum_log10probs_oov += log10probs[i];
+		}
+		return new PerplexityResult(n, n_oov, 
+				sum_log10probs, perplexity(sum_log10probs, n, base_perplexity), 
+				sum_log10probs_oov, perplexity(sum_log10probs_oov, n - n_oov, base_perplexity));
+	}
+
+	private static double perplexity(double sum_log10probs, long n, double base_perplexity){
+		if(n == 0 || !Double.isFinite(sum_log10probs))
+			return base_perplexity;
+		return Math.pow(10, -(sum_log10probs / n));
+	}
+
+	protected static synchronized ExecutorService getWorkers(){
+		if(_workers == null){
+			final AtomicInteger thread_count = new AtomicInteger();
+			_workers = Executors.newFixedThreadPool(Properties.numWorkerThreads(), r -> {
+				Thread t = new Thread(r, String.format("%s-worker-%d", AbstractStringProvider.class.getSimpleName(), thread_count.incrementAndGet()));
+				t.setDaemon(true);
+				return t;
+			});
+			LOG.info("Started {} worker threads.", Properties.numWorkerThreads());
+		}
+		return _workers;
+	}
+
 	@Override
 	public double getSequenceLog10Probability(String sequence) throws Exception{
 		if(!getModelReady())
@@ -0,0 +1,445 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.lm.perplexity.PerplexityResult;
+import de.tudarmstadt.lt.lm.service.BinaryProtocol.FrameWriter;
+
+/**
+ * Asynchronous client of a {@link BinaryStringProviderServer}. Requests are pipelined over a small
+ * pool of connections, i.e. a request is written without waiting for the responses of previous requests
+ * and responses are matched to requests by their order on the connection. A new request is sent over the
+ * connection with the least outstanding requests, closed connections are reopened with the next request.
+ *
+ * Concurrent requests for the perplexity of the same sentences are coalesced into a single request.
+ * The number of outstanding requests is bounded, callers wait at most {@value #MAX_SLOT_WAIT_MILLIS} ms for a free
+ * slot and the request is rejected otherwise. Every request fails with a {@link TimeoutException} if no response
+ * arrived within the timeout, including the time spent waiting for a slot. A timed out request closes its connection,
+ * which fails the other requests that are pending on it and frees their slots, i.e. a server that hangs but keeps
+ * the connection open does not hold the slots, the connection is reopened with the next request.
+ *
+ * @author Steffen Remus
+ */
+public class AsyncStringProviderClient implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AsyncStringProviderClient.class);
+
+	static final long MAX_SLOT_WAIT_MILLIS = 100;
+
+	@FunctionalInterface
+	interface Decoder<T> {
+		T decode(ByteBuffer response) throws IOException;
+	}
+
+	private final String _host;
+	private final int _port;
+	private final long _timeout_millis;
+	private final Connection[] _connections;
+	private final Semaphore _slots;
+	private final int _max_pending;
+	private final ScheduledExecutorService _timer;
+	private final ConcurrentHashMap<String, CompletableFuture<Double>> _inflight = new ConcurrentHashMap<String, CompletableFuture<Double>>();
+	private final AtomicInteger _next = new AtomicInteger();
+	private final LongAdder _requests = new LongAdder();
+	private final LongAdder _coalesced = new LongAdder();
+	private final LongAdder _timeouts = new LongAdder();
+	private final LongAdder _rejected = new LongAdder();
+	private final LongAdder _failures = new LongAdder();
+	private volatile boolean _closed = false;
+
+	public AsyncStringProviderClient(String host, int port, int num_connections, int max_pending_requests, long timeout_millis) throws IOException {
+		_host = host;
+		_port = port;
+		_timeout_millis = timeout_millis;
+		_max_pending = Math.max(1, max_pending_requests);
+		_slots = new Semaphore(_max_pending);
+		_connections = new Connection[Math.max(1, num_connections)];
+		for(int i = 0; i < _connections.length; i++)
+			_connections[i] = new Connection(i);
+		final AtomicInteger thread_count = new AtomicInteger();
+		_timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, String.format("%s-timer-%d", getClass().getSimpleName(), thread_count.incrementAndGet()));
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Request the perplexity of sentences (see {@link StringProviderMXBean#getPerplexityOfSentences(List, boolean)}).
+	 * If the perplexity of the same sentences is currently requested by another caller, no new request is sent.
+	 */
+	public CompletableFuture<Double> getPerplexityOfSentences(final List<String> sentences, final boolean skip_oov) {
+		final String key = (skip_oov ? "1" : "0") + String.join("\n", sentences);
+		CompletableFuture<Double> future = _inflight.get(key);
+		if(future == null){
+			CompletableFuture<Double> created = new CompletableFuture<Double>();
+			future = _inflight.putIfAbsent(key, created);
+			if(future == null){
+				created.whenComplete((r, t) -> _inflight.remove(key, created));
+				submit(created, out -> out.begin(BinaryProtocol.OP_PERPLEXITY_OF_SENTENCES).putByte((byte)(skip_oov ? 1 : 0)).putStrings(sentences), response -> response.getDouble());
+				return created.thenApply(r -> r); // callers must not be able to complete the shared future
+			}
+		}
+		_coalesced.increment();
+		return future.thenApply(r -> r);
+	}
+
+	/**
+	 * Request the perplexities of multiple documents (see {@link StringProviderMXBean#getPerplexities(List)}).
+	 */
+	public CompletableFuture<PerplexityResult[]> getPerplexities(final List<String> texts) {
+		CompletableFuture<PerplexityResult[]> future = new CompletableFuture<PerplexityResult[]>();
+		submit(future, out -> out.begin(BinaryProtocol.OP_PERPLEXITIES).putStrings(texts), response -> {
+			PerplexityResult[] results = new PerplexityResult[BinaryProtocol.getVarInt(response)];
+			for(int i = 0; i < results.length; i++)
+				results[i] = new PerplexityResult(BinaryProtocol.getVarInt(response), BinaryProtocol.getVarInt(response),
+						response.getDouble(), response.getDouble(), response.getDouble(), response.getDouble());
+			return results;
+		});
+		return future;
+	}
+
+	private <T> void submit(final CompletableFuture<T> future, Consumer<FrameWriter> request, Decoder<T> decoder) {
+		_requests.increment();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_timeout_millis);
+		try {
+			if(_closed)
+				throw new IOException("Client is closed.");
+			if(!_slots.tryAcquire(Math.min(_timeout_millis, MAX_SLOT_WAIT_MILLIS), TimeUnit.MILLISECONDS)){
+				_rejected.increment();
+				future.completeExceptionally(new RejectedExecutionException(String.format("Too many pending requests (%d) to %s:%d.", _max_pending, _host, _port)));
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return;
+		} catch (IOException e) {
+			future.completeExceptionally(e);
+			return;
+		}
+
+		final Pending<T> pending = new Pending<T>(future, decoder);
+		long remaining_nanos = Math.max(0, deadline - System.nanoTime());
+		final ScheduledFuture<?> timeout = _timer.schedule(pending::timeout, remaining_nanos, TimeUnit.NANOSECONDS);
+		future.whenComplete((r, t) -> timeout.cancel(false));
+
+		// never blocks, connecting and writing happens on the writer thread of the connection
+		selectConnection().send(pending, request);
+	}
+
+	private Connection selectConnection() {
+		int start = (_next.getAndIncrement() & Integer.MAX_VALUE) % _connections.length;
+		Connection best = _connections[start];
+		for(int i = 1; i < _connections.length && best.numPending() > 0; i++){
+			Connection c = _connections[(start + i) % _connections.length];
+			if(c.numPending() < best.numPending())
+				best = c;
+		}
+		return best;
+	}
+
+	private class Pending<T> {
+
+		final CompletableFuture<T> _future;
+		final Decoder<T> _decoder;
+		volatile Connection.Channel _channel; // the channel the request was written to, null while queued
+
+		Pending(CompletableFuture<T> future, Decoder<T> decoder) {
+			_future = future;
+			_decoder = decoder;
+		}
+
+		void complete(ByteBuffer response) {
+			_slots.release();
+			if(_future.isDone()) // timed out, the response arrived too late
+				return;
+			try {
+				if(response.get() == BinaryProtocol.STATUS_ERROR)
+					throw new IOException(String.format("Server failed: %s", BinaryProtocol.getString(response)));
+				_future.complete(_decoder.decode(response));
+			} catch (Throwable t) {
+				_failures.increment();
+				_future.completeExceptionally(t);
+			}
+		}
+
+		void fail(Throwable t) {
+			_slots.release();
+			if(_future.completeExceptionally(t))
+				_failures.increment();
+		}
+
+		/**
+		 * Fail the request and close its channel, which frees the slots of all requests that are pending on the
+		 * channel. A request that is still queued frees its slot when the writer thread takes it.
+		 */
+		void timeout() {
+			_timeouts.increment(); // count before completing, callers may check the count right after the failure
+			TimeoutException e = new TimeoutException(String.format("No response from %s:%d within %d ms.", _host, _port, _timeout_millis));
+			if(!_future.completeExceptionally(e)){
+				_timeouts.decrement();
+				return;
+			}
+			Connection.Channel channel = _channel;
+			if(channel != null)
+				channel.close(new IOException(String.format("Closed connection to %s:%d after a request timed out.", _host, _port), e));
+		}
+
+	}
+
+	/**
+	 * A pipelined connection. Callers only encode their request and add it to the queue of the connection,
+	 * a single writer thread connects (with a connect timeout) and writes the requests, i.e. callers never
+	 * block on a stalled or unreachable server. Only the writer thread adds to the pending queue of a channel,
+	 * hence the order of the pending queue equals the order of the requests on the wire. A single reader
+	 * thread per channel completes the pending requests of that channel in order.
+	 * A channel is closed if one of its requests times out, a closed channel is replaced by a new one with the next request.
+	 */
+	private class Connection {
+
+		final int _id;
+		final BlockingQueue<Request> _queue = new LinkedBlockingQueue<Request>();
+		volatile Channel _channel;
+		private Thread _writer;
+
+		Connection(int id) {
+			_id = id;
+		}
+
+		int numPending() {
+			Channel channel = _channel;
+			return _queue.size() + (channel == null ? 0 : channel._num_pending.get());
+		}
+
+		<T> void send(Pending<T> pending, Consumer<FrameWriter> request) {
+			FrameWriter out = new FrameWriter(1 << 8);
+			request.accept(out);
+			_queue.add(new Request(pending, out.flip()));
+			synchronized (this) {
+				if(_writer == null && !_closed){
+					_writer = new Thread(this::write, String.format("%s-%s:%d-%d-writer", AsyncStringProviderClient.class.getSimpleName(), _host, _port, _id));
+					_writer.setDaemon(true);
+					_writer.start();
+				}
+			}
+			if(_closed)
+				failQueued(new IOException("Client is closed."));
+		}
+
+		private void write() {
+			try {
+				while(!_closed){
+					Request r = _queue.take();
+					if(r._pending._future.isDone()){ // timed out while queued
+						r._pending.fail(new IOException("Request was not sent."));
+						continue;
+					}
+					Channel channel = _channel;
+					if(channel == null || !channel._socket.isOpen()){
+						try {
+							channel = _channel = new Channel();
+						} catch (IOException e) {
+							// the server is not reachable, fail everything that was queued so far instead of connecting for every request
+							r._pending.fail(e);
+							failQueued(e);
+							continue;
+						}
+					}
+					if(!channel.add(r._pending)){
+						r._pending.fail(new IOException("Connection closed."));
+						continue;
+					}
+					if(r._pending._future.isDone()){ // timed out before the channel was known to the timeout
+						channel.close(new IOException(String.format("Closed connection to %s:%d after a request timed out.", _host, _port)));
+						continue;
+					}
+					try {
+						BinaryProtocol.write(channel._socket, r._frame);
+					} catch (IOException e) {
+						channel.close(e); // fails the pending request and all requests queued before
+					}
+				}
+			} catch (InterruptedException e) {
+				/* client is closed */
+			}
+			failQueued(new IOException("Client is closed."));
+		}
+
+		private void failQueued(IOException cause) {
+			for(Request r; (r = _queue.poll()) != null;)
+				r._pending.fail(cause);
+		}
+
+		void close() {
+			synchronized (this) {
+				if(_writer != null)
+					_writer.interrupt();
+			}
+			Channel channel = _channel;
+			if(channel != null)
+				channel.close(new IOException("Client is closed."));
+			failQueued(new IOException("Client is closed."));
+		}
+
+		private class Channel {
+
+			final SocketChannel _socket;
+			final Queue<Pending<?>> _pending = new ConcurrentLinkedQueue<Pending<?>>();
+			final AtomicInteger _num_pending = new AtomicInteger();
+
+			Channel() throws IOException {
+				if(_closed)
+					throw new IOException("Client is closed.");
+				_socket = SocketChannel.open();
+				try {
+					_socket.socket().connect(new InetSocketAddress(_host, _port), (int)Math.min(Integer.MAX_VALUE, Math.max(1, _timeout_millis)));
+				} catch (IOException e) {
+					_socket.close();
+					throw e;
+				}
+				_socket.socket().setTcpNoDelay(true);
+				Thread reader = new Thread(this::read, String.format("%s-%s:%d-%d", AsyncStringProviderClient.class.getSimpleName(), _host, _port, _id));
+				reader.setDaemon(true);
+				reader.start();
+				LOG.debug("Connected to {}:{} ({}).", _host, _port, _id);
+			}
+
+			/**
+			 * @return false if the channel is already closed
+			 */
+			synchronized boolean add(Pending<?> pending) {
+				if(!_socket.isOpen())
+					return false;
+				_num_pending.incrementAndGet();
+				_pending.add(pending);
+				pending._channel = this;
+				return true;
+			}
+
+			private void read() {
+				ByteBuffer length_buf = ByteBuffer.allocate(4);
+				try {
+					for(ByteBuffer response; (response = BinaryProtocol.read(_socket, length_buf)) != null;){
+						Pending<?> pending = _pending.poll();
+						if(pending == null)
+							throw new IOException("Received response without request.");
+						_num_pending.decrementAndGet();
+						pending.complete(response);
+					}
+					close(new IOException("Connection closed by server."));
+				} catch (IOException e) {
+					close(e);
+				}
+			}
+
+			/**
+			 * Close the socket first, such that no further requests are added, then fail all pending requests.
+			 * Closing the socket also aborts a write of the writer thread that is blocked on a stalled server.
+			 */
+			void close(IOException cause) {
+				try { _socket.close(); } catch (IOException e) { /* handle silently */ }
+				synchronized (this) {
+					if(!_pending.isEmpty() && !_closed)
+						LOG.warn("Connection {} to {}:{} closed, failing {} pending requests. {}: {}", _id, _host, _port, _num_pending.get(), cause.getClass().getSimpleName(), cause.getMessage());
+					for(Pending<?> pending; (pending = _pending.poll()) != null;){
+						_num_pending.decrementAndGet();
+						pending.fail(cause);
+					}
+				}
+			}
+
+		}
+
+	}
+
+	private static class Request {
+
+		final Pending<?> _pending;
+		final ByteBuffer _frame;
+
+		Request(Pending<?> pending, ByteBuffer frame) {
+			_pending = pending;
+			_frame = frame;
+		}
+
+	}
+
+	public long getNumRequests() {
+		return _requests.sum();
+	}
+
+	public long getNumCoalesced() {
+		return _coalesced.sum();
+	}
+
+	public long getNumTimeouts() {
+		return _timeouts.sum();
+	}
+
+	public long getNumRejected() {
+		return _rejected.sum();
+	}
+
+	public long getNumFailures() {
+		return _failures.sum();
+	}
+
+	public int getNumPending() {
+		return _max_pending - _slots.availablePermits();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s:%d [connections=%d, pending=%d/%d, requests=%d, coalesced=%d, timeouts=%d, rejected=%d, failures=%d]",
+				_host, _port, _connections.length, getNumPending(), _max_pending, getNumRequests(), getNumCoalesced(), getNumTimeouts(), getNumRejected(), getNumFailures());
+	}
+
+	@Override
+	public void close() throws IOException {
+		_closed = true;
+		for(Connection c : _connections)
+			c.close();
+		_timer.shutdownNow();
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Length prefixed binary framing of the requests and responses exchanged between
+ * {@link BinaryStringProviderClient} and {@link BinaryStringProviderServer}.
+ *
+ * A frame is a 4 byte big endian length followed by that many bytes. The first byte of a request
+ * is the operation code, the first byte of a response is the status. Counts, lengths and word ids are
+ * written as variable length integers, strings as UTF-8 bytes, probabilities as 8 byte doubles.
+ * Word ids are shifted by one, such that the id of unknown words (-1) is encoded as 0.
+ *
+ * @author Steffen Remus
+ */
+class BinaryProtocol {
+
+	static final int MAX_FRAME_LENGTH = 1 << 26; // 64 MB
+
+	static final byte OP_ORDER = 1;
+	static final byte OP_WORD_IDS = 2;
+	static final byte OP_NGRAM_LOG10PROBS = 3;
+	static final byte OP_NGRAM_LOG10PROBS_IDS = 4;
+	static final byte OP_PERPLEXITY_OF_SENTENCES = 5;
+	static final byte OP_PERPLEXITIES = 6;
+
+	static final byte STATUS_OK = 0;
+	static final byte STATUS_ERROR = 1;
+
+	/**
+	 * Growable buffer for composing a frame, the length prefix is filled in by {@link #flip()}.
+	 */
+	static class FrameWriter {
+
+		ByteBuffer _buf;
+
+		FrameWriter(int capacity) {
+			_buf = ByteBuffer.allocate(Math.max(capacity, 64));
+		}
+
+		FrameWriter begin(byte op_or_status) {
+			_buf.clear();
+			_buf.putInt(0);
+			_buf.put(op_or_status);
+			return this;
+		}
+
+		private void ensure(int n) {
+			if(_buf.remaining() >= n)
+				return;
+			ByteBuffer buf = ByteBuffer.allocate(Math.max(_buf.capacity() * 2, _buf.position() + n));
+			_buf.flip();
+			buf.put(_buf);
+			_buf = buf;
+		}
+
+		FrameWriter putByte(byte b) {
+			ensure(1);
+			_buf.put(b);
+			return this;
+		}
+
+		FrameWriter putVarInt(int v) {
+			ensure(5);
+			while((v & ~0x7F) != 0){
+				_buf.put((byte)((v & 0x7F) | 0x80));
+				v >>>= 7;
+			}
+			_buf.put((byte)v);
+			return this;
+		}
+
+		FrameWriter putDouble(double d) {
+			ensure(8);
+			_buf.putDouble(d);
+			return this;
+		}
+
+		FrameWriter putString(String s) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			putVarInt(b.length);
+			ensure(b.length);
+			_buf.put(b);
+			return this;
+		}
+
+		FrameWriter putStrings(List<String> strings) {
+			putVarInt(strings.size());
+			for(String s : strings)
+				putString(s);
+			return this;
+		}
+
+		ByteBuffer flip() {
+			_buf.putInt(0, _buf.position() - 4);
+			_buf.flip();
+			return _buf;
+		}
+
+	}
+
+	static int getVarInt(ByteBuffer buf) throws IOException {
+		int v = 0;
+		for(int shift = 0; shift < 32; shift += 7){
+			byte b = buf.get();
+			v |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return v;
+		}
+		throw new IOException("Malformed variable length integer.");
+	}
+
+	static String getString(ByteBuffer buf) throws IOException {
+		int len = getVarInt(buf);
+		String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+		buf.position(buf.position() + len);
+		return s;
+	}
+
+	static List<String> getStrings(ByteBuffer buf) throws IOException {
+		int n = getVarInt(buf);
+		List<String> strings = new ArrayList<String>(n);
+		for(int i = 0; i < n; i++)
+			strings.add(getString(buf));
+		return strings;
+	}
+
+	static long write(SocketChannel channel, ByteBuffer frame) throws IOException {
+		long n = frame.remaining();
+		while(frame.hasRemaining())
+			channel.write(frame);
+		return n;
+	}
+
+	/**
+	 * Read a complete frame, the returned buffer is positioned behind the length prefix.
+	 *
+	 * @return the frame or null if the channel reached its end before a new frame started
+	 */
+	static ByteBuffer read(SocketChannel channel, ByteBuffer length_buf) throws IOException {
+		length_buf.clear();
+		if(!readFully(channel, length_buf, true))
+			return null;
+		int len = length_buf.getInt(0);
+		if(len < 1 || len > MAX_FRAME_LENGTH)
+			throw new IOException(String.format("Illegal frame length %d.", len));
+		ByteBuffer frame = ByteBuffer.allocate(len);
+		readFully(channel, frame, false);
+		frame.flip();
+		return frame;
+	}
+
+	private static boolean readFully(SocketChannel channel, ByteBuffer buf, boolean eof_allowed) throws IOException {
+		while(buf.hasRemaining()){
+			if(channel.read(buf) < 0){
+				if(eof_allowed && buf.position() == 0)
+					return false;
+				throw new EOFException("Connection closed while reading frame.");
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.tudarmstadt.lt.lm.perplexity.PerplexityResult;
+import de.tudarmstadt.lt.lm.service.BinaryProtocol.FrameWriter;
+
+/**
+ * Client of a {@link BinaryStringProviderServer}. A client holds a single connection and
+ * is safe to use by multiple threads, requests are sent one after another.
+ *
+ * If word ids are used, ngrams are sent as word ids of the language model instead of strings.
+ * Ids of unseen words are requested from the server once and cached by the client.
+ * Words unknown to the language model are scored as the unknown word.
+ *
+ * @author Steffen Remus
+ */
+public class BinaryStringProviderClient implements Closeable {
+
+	private static final int MAX_CACHED_WORD_IDS = 1 << 20;
+
+	private final SocketChannel _channel;
+	private final FrameWriter _out = new FrameWriter(1 << 12);
+	private final ByteBuffer _length_buf = ByteBuffer.allocate(4);
+	private final boolean _use_word_ids;
+	private final Map<String, Integer> _word_ids = new HashMap<String, Integer>();
+	private long _bytes_sent = 0;
+	private long _bytes_received = 0;
+	private int _order = -1;
+
+	public BinaryStringProviderClient(String host, int port) throws IOException {
+		this(host, port, false);
+	}
+
+	public BinaryStringProviderClient(String host, int port, boolean use_word_ids) throws IOException {
+		_channel = SocketChannel.open(new InetSocketAddress(host, port));
+		_channel.socket().setTcpNoDelay(true);
+		_use_word_ids = use_word_ids;
+	}
+
+	private ByteBuffer call() throws IOException {
+		_bytes_sent += BinaryProtocol.write(_channel, _out.flip());
+		ByteBuffer response = BinaryProtocol.read(_channel, _length_buf);
+		if(response == null)
+			throw new IOException("Connection closed by server.");
+		_bytes_received += 4 + response.remaining();
+		if(response.get() == BinaryProtocol.STATUS_ERROR)
+			throw new IOException(String.format("Server failed: %s", BinaryProtocol.getString(response)));
+		return response;
+	}
+
+	public synchronized int getLmOrder() throws IOException {
+		if(_order < 0){
+			_out.begin(BinaryProtocol.OP_ORDER);
+			_order = BinaryProtocol.getVarInt(call());
+		}
+		return _order;
+	}
+
+	public synchronized double[] getNgramLog10Probabilities(List<String>[] ngrams) throws IOException {
+		if(_use_word_ids){
+			resolveWordIds(ngrams);
+			_out.begin(BinaryProtocol.OP_NGRAM_LOG10PROBS_IDS).putVarInt(ngrams.length);
+			for(List<String> ngram : ngrams){
+				_out.putVarInt(ngram.size());
+				for(String word : ngram)
+					_out.putVarInt(_word_ids.get(word) + 1);
+			}
+		}else{
+			_out.begin(BinaryProtocol.OP_NGRAM_LOG10PROBS).putVarInt(ngrams.length);
+			for(List<String> ngram : ngrams)
+				_out.putStrings(ngram);
+		}
+		ByteBuffer response = call();
+		double[] log10probs = new double[BinaryProtocol.getVarInt(response)];
+		for(int i = 0; i < log10probs.length; i++)
+			log10probs[i] = response.getDouble();
+		return log10probs;
+	}
+
+	private void resolveWordIds(List<String>[] ngrams) throws IOException {
+		Set<String> unseen = new LinkedHashSet<String>();
+		for(List<String> ngram : ngrams)
+			for(String word : ngram)
+				if(!_word_ids.containsKey(word))
+					unseen.add(word);
+		if(unseen.isEmpty())
+			return;
+		if(_word_ids.size() + unseen.size() > MAX_CACHED_WORD_IDS){
+			_word_ids.clear();
+			for(List<String> ngram : ngrams)
+				unseen.addAll(ngram);
+		}
+		List<String> words = new ArrayList<String>(unseen);
+		_out.begin(BinaryProtocol.OP_WORD_IDS).putStrings(words);
+		ByteBuffer response = call();
+		int n = BinaryProtocol.getVarInt(response);
+		for(int i = 0; i < n; i++)
+			_word_ids.put(words.get(i), BinaryProtocol.getVarInt(response) - 1);
+	}
+
+	public synchronized double getPerplexityOfSentences(List<String> sentences, boolean skip_oov) throws IOException {
+		_out.begin(BinaryProtocol.OP_PERPLEXITY_OF_SENTENCES).putByte((byte)(skip_oov ? 1 : 0)).putStrings(sentences);
+		return call().getDouble();
+	}
+
+	public synchronized PerplexityResult[] getPerplexities(List<String> texts) throws IOException {
+		_out.begin(BinaryProtocol.OP_PERPLEXITIES).putStrings(texts);
+		ByteBuffer response = call();
+		PerplexityResult[] results = new PerplexityResult[BinaryProtocol.getVarInt(response)];
+		for(int i = 0; i < results.length; i++)
+			results[i] = new PerplexityResult(BinaryProtocol.getVarInt(response), BinaryProtocol.getVarInt(response),
+					response.getDouble(), response.getDouble(), response.getDouble(), response.getDouble());
+		return results;
+	}
+
+	public synchronized long getBytesSent() {
+		return _bytes_sent;
+	}
+
+	public synchronized long getBytesReceived() {
+		return _bytes_received;
+	}
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+
+}
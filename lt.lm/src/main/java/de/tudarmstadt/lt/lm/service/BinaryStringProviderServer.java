@@ -0,0 +1,178 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.lm.LanguageModel;
+import de.tudarmstadt.lt.lm.perplexity.PerplexityResult;
+import de.tudarmstadt.lt.lm.service.BinaryProtocol.FrameWriter;
+
+/**
+ * Serves a string provider via the {@link BinaryProtocol} as an alternative to RMI.
+ * Every connection is handled by its own thread, requests of a connection are answered in order.
+ *
+ * @author Steffen Remus
+ */
+public class BinaryStringProviderServer implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BinaryStringProviderServer.class);
+
+	private final AbstractStringProvider _provider;
+	private final ServerSocketChannel _server;
+	private final ExecutorService _connections;
+	private final Set<SocketChannel> _channels = Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+
+	public BinaryStringProviderServer(AbstractStringProvider provider, String host, int port) throws IOException {
+		_provider = provider;
+		_server = ServerSocketChannel.open();
+		_server.bind(new InetSocketAddress(host, port));
+		final AtomicInteger thread_count = new AtomicInteger();
+		_connections = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, String.format("%s-%d", getClass().getSimpleName(), thread_count.incrementAndGet()));
+			t.setDaemon(true);
+			return t;
+		});
+		_connections.execute(this::accept);
+		LOG.info("Binary stringprovider service listening on {}.", _server.getLocalAddress());
+	}
+
+	public int getPort() throws IOException {
+		return ((InetSocketAddress)_server.getLocalAddress()).getPort();
+	}
+
+	private void accept() {
+		while(_server.isOpen()){
+			try {
+				final SocketChannel channel = _server.accept();
+				channel.socket().setTcpNoDelay(true);
+				_channels.add(channel);
+				_connections.execute(() -> serve(channel));
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				LOG.warn("Could not accept connection. {}: {}", e.getClass().getSimpleName(), e.getMessage());
+			}
+		}
+	}
+
+	private void serve(SocketChannel channel) {
+		ByteBuffer length_buf = ByteBuffer.allocate(4);
+		FrameWriter out = new FrameWriter(1 << 12);
+		try {
+			for(ByteBuffer request; (request = BinaryProtocol.read(channel, length_buf)) != null;){
+				try {
+					handle(request, out);
+				} catch (Throwable t) {
+					LOG.warn("Could not handle request. {}: {}", t.getClass().getSimpleName(), t.getMessage());
+					out.begin(BinaryProtocol.STATUS_ERROR).putString(String.format("%s: %s", t.getClass().getName(), t.getMessage()));
+				}
+				BinaryProtocol.write(channel, out.flip());
+			}
+		} catch (IOException e) {
+			if(_server.isOpen())
+				LOG.debug("Connection closed. {}: {}", e.getClass().getSimpleName(), e.getMessage());
+		} finally {
+			_channels.remove(channel);
+			try { channel.close(); } catch (IOException e) { /* handle silently */ }
+		}
+	}
+
+	void handle(ByteBuffer request, FrameWriter out) throws Exception {
+		if(!_provider.getModelReady())
+			throw new IllegalAccessError("Language model is not ready.");
+		LanguageModel<String> lm = _provider.getLanguageModel();
+		byte op = request.get();
+		switch (op) {
+		case BinaryProtocol.OP_ORDER:
+			out.begin(BinaryProtocol.STATUS_OK).putVarInt(lm.getOrder());
+			return;
+		case BinaryProtocol.OP_WORD_IDS: {
+			List<String> words = BinaryProtocol.getStrings(request);
+			out.begin(BinaryProtocol.STATUS_OK).putVarInt(words.size());
+			for(String word : words)
+				out.putVarInt(lm.getWordIndex(word) + 1);
+			return;
+		}
+		case BinaryProtocol.OP_NGRAM_LOG10PROBS: {
+			@SuppressWarnings("unchecked")
+			List<String>[] ngrams = new List[BinaryProtocol.getVarInt(request)];
+			for(int i = 0; i < ngrams.length; i++)
+				ngrams[i] = BinaryProtocol.getStrings(request);
+			double[] log10probs = lm.getNgramLogProbabilities(ngrams);
+			out.begin(BinaryProtocol.STATUS_OK).putVarInt(log10probs.length);
+			for(double log10prob : log10probs)
+				out.putDouble(log10prob);
+			return;
+		}
+		case BinaryProtocol.OP_NGRAM_LOG10PROBS_IDS: {
+			int n = BinaryProtocol.getVarInt(request);
+			out.begin(BinaryProtocol.STATUS_OK).putVarInt(n);
+			for(int i = 0; i < n; i++){
+				int[] ngram = new int[BinaryProtocol.getVarInt(request)];
+				for(int j = 0; j < ngram.length; j++)
+					ngram[j] = BinaryProtocol.getVarInt(request) - 1;
+				out.putDouble(lm.getNgramLogProbability(ngram));
+			}
+			return;
+		}
+		case BinaryProtocol.OP_PERPLEXITY_OF_SENTENCES: {
+			boolean skip_oov = request.get() != 0;
+			List<String> sentences = BinaryProtocol.getStrings(request);
+			out.begin(BinaryProtocol.STATUS_OK).putDouble(_provider.getPerplexityOfSentences(sentences, skip_oov));
+			return;
+		}
+		case BinaryProtocol.OP_PERPLEXITIES: {
+			List<String> texts = BinaryProtocol.getStrings(request);
+			PerplexityResult[] results = _provider.getPerplexities(texts);
+			out.begin(BinaryProtocol.STATUS_OK).putVarInt(results.length);
+			for(PerplexityResult r : results)
+				out.putVarInt((int)r.getNumNgrams()).putVarInt((int)r.getNumOov())
+				.putDouble(r.getLog10Prob()).putDouble(r.getPerplexity())
+				.putDouble(r.getLog10ProbWithoutOov()).putDouble(r.getPerplexityWithoutOov());
+			return;
+		}
+		default:
+			throw new IllegalArgumentException(String.format("Unknown operation %d.", op));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_server.close();
+		for(SocketChannel channel : _channels)
+			try { channel.close(); } catch (IOException e) { /* handle silently */ }
+		_connections.shutdownNow();
+		LOG.info("Stopped binary stringprovider service.");
+	}
+
+}
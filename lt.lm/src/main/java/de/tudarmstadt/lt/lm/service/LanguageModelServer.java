@@ -103,6 +103,13 @@ public class LanguageModelServer<W> implements LanguageModelServerMBean<W> {
 		return _lm.getSequenceLogProbability(ngram_sequence);
 	}
 
+	@Override
+	public double[] getNgramLogProbabilities(List<W>[] ngram_sequence) throws Exception {
+		if (_lm == null)
+			throw new IllegalAccessError("No language model set.");
+		return _lm.getNgramLogProbabilities(ngram_sequence);
+	}
+
 	@Override
 	public double getNgramLogProbability(int[] ngram) throws Exception {
 		if (_lm == null)
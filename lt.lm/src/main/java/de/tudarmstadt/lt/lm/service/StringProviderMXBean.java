@@ -19,6 +19,8 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
 
+import de.tudarmstadt.lt.lm.perplexity.PerplexityResult;
+
 /**
  *
  * @author Steffen Remus
@@ -51,6 +53,12 @@ public interface StringProviderMXBean extends Remote, LMProvider<String> {
 
 	public double getNgramSequenceLog10Probability(List<String>[] ngram_sequence) throws Exception;
 
+	public double[] getNgramLog10Probabilities(List<String>[] ngram_sequence) throws Exception;
+
+	public double getPerplexityOfSentences(List<String> sentences, boolean skip_oov) throws Exception;
+
+	public PerplexityResult[] getPerplexities(List<String> texts) throws Exception;
+
 	public double getSequenceLog10Probability(String ngram_sequence) throws Exception;
 
 	public String predictNextWord(String ngram_sequence) throws Exception;
@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.lt.seg.sentence.ISentenceSplitter;
 import de.tudarmstadt.lt.seg.token.ITokenizer;
+import de.tudarmstadt.lt.utilities.io.BlockGzipInputStream;
 
 public class Properties extends de.tudarmstadt.lt.utilities.properties.Properties {
 
@@ -196,6 +197,115 @@ public class Properties extends de.tudarmstadt.lt.utilities.properties.Propertie
 	}
 
 	
+	private static final String useDocValues_default = String.valueOf(true);
+	public static boolean useDocValues() {
+		String propvalue = _singleton.getProperty("lt.lm.useDocValues", useDocValues_default);
+		try {
+			return Boolean.valueOf(propvalue.trim());
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as boolean. Setting to default value (%s).", propvalue, String.valueOf(useDocValues_default)));
+			_singleton.setProperty("lt.lm.useDocValues", useDocValues_default);
+			return useDocValues();
+		}
+	}
+
+	private static final String countStore_default = "auto"; // 'lucene', 'binary' or 'auto', i.e. use the binary count store if the index directory contains one
+	public static String countStore() {
+		String propvalue = _singleton.getProperty("lt.lm.countStore", countStore_default).trim().toLowerCase();
+		if("auto".equals(propvalue) || "lucene".equals(propvalue) || "binary".equals(propvalue))
+			return propvalue;
+		LOG.warn(String.format("Could not parse '%s' as count store, expected one of 'auto', 'lucene' or 'binary'. Setting to default value (%s).", propvalue, countStore_default));
+		_singleton.setProperty("lt.lm.countStore", countStore_default);
+		return countStore();
+	}
+
+	private static final String verifySnapshot_default = String.valueOf(false); // verify the checksum of all snapshot files before a snapshot is loaded, otherwise only their sizes and modification times are compared
+	public static boolean verifySnapshot() {
+		String propvalue = _singleton.getProperty("lt.lm.verifySnapshot", verifySnapshot_default);
+		try {
+			return Boolean.valueOf(propvalue.trim());
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as boolean. Setting to default value (%s).", propvalue, String.valueOf(verifySnapshot_default)));
+			_singleton.setProperty("lt.lm.verifySnapshot", verifySnapshot_default);
+			return verifySnapshot();
+		}
+	}
+
+	private static final String oovFilterFalsePositiveRate_default = String.valueOf(.01d); // false positive rate of the bloom filter over the vocabulary that is built with the index, <= 0 = do not build or use it
+	public static double oovFilterFalsePositiveRate() {
+		String propvalue = _singleton.getProperty("lt.lm.oovFilterFalsePositiveRate", oovFilterFalsePositiveRate_default);
+		try {
+			double v = Double.parseDouble(propvalue.trim());
+			if(v >= 1)
+				throw new IllegalArgumentException();
+			return v;
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as double < 1. Setting to default value (%s).", propvalue, oovFilterFalsePositiveRate_default));
+			_singleton.setProperty("lt.lm.oovFilterFalsePositiveRate", oovFilterFalsePositiveRate_default);
+			return oovFilterFalsePositiveRate();
+		}
+	}
+
+	private static final String sequenceCacheSize_default = String.valueOf(1024); // <= 0 = disable caching of ngram counts during the evaluation of a sequence
+	public static int sequenceCacheSize() {
+		String propvalue = _singleton.getProperty("lt.lm.sequenceCacheSize", sequenceCacheSize_default);
+		try {
+			return Integer.parseInt(propvalue.trim());
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as integer. Setting to default value (%s).", propvalue, sequenceCacheSize_default));
+			_singleton.setProperty("lt.lm.sequenceCacheSize", sequenceCacheSize_default);
+			return sequenceCacheSize();
+		}
+	}
+
+	private static final String countCacheSize_default = String.valueOf(100000); // <= 0 = disable the ngram counts cache which is shared by all threads
+	public static long countCacheSize() {
+		String propvalue = _singleton.getProperty("lt.lm.countCacheSize", countCacheSize_default);
+		try {
+			return Long.parseLong(propvalue.trim());
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as long. Setting to default value (%s).", propvalue, countCacheSize_default));
+			_singleton.setProperty("lt.lm.countCacheSize", countCacheSize_default);
+			return countCacheSize();
+		}
+	}
+
+	private static final String numWorkerThreads_default = String.valueOf(Runtime.getRuntime().availableProcessors()); // number of threads for scoring batches of documents on the server
+	public static int numWorkerThreads() {
+		String propvalue = _singleton.getProperty("lt.lm.numWorkerThreads", numWorkerThreads_default);
+		try {
+			return Math.max(1, Integer.parseInt(propvalue.trim()));
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as integer. Setting to default value (%s).", propvalue, numWorkerThreads_default));
+			_singleton.setProperty("lt.lm.numWorkerThreads", numWorkerThreads_default);
+			return numWorkerThreads();
+		}
+	}
+
+	private static final String indexShards_default = String.valueOf(false); // build one ngram index shard per worker thread and merge them at the end
+	public static boolean indexShards() {
+		String propvalue = _singleton.getProperty("lt.lm.indexShards", indexShards_default);
+		try {
+			return Boolean.valueOf(propvalue.trim());
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as boolean. Setting to default value (%s).", propvalue, indexShards_default));
+			_singleton.setProperty("lt.lm.indexShards", indexShards_default);
+			return indexShards();
+		}
+	}
+
+	private static final String decompressionThreads_default = String.valueOf(BlockGzipInputStream.DEFAULT_NUM_THREADS); // number of threads for decompressing a block gzip file
+	public static int decompressionThreads() {
+		String propvalue = _singleton.getProperty("lt.lm.decompressionThreads", decompressionThreads_default);
+		try {
+			return Math.max(1, Integer.parseInt(propvalue.trim()));
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as integer. Setting to default value (%s).", propvalue, decompressionThreads_default));
+			_singleton.setProperty("lt.lm.decompressionThreads", decompressionThreads_default);
+			return decompressionThreads();
+		}
+	}
+
 	private static final String ramBufferPercentage_default = String.valueOf(.6d);
 	public static float ramBufferPercentage() {
 		String propvalue = _singleton.getProperty("lt.lm.ramBufferPercentage", ramBufferPercentage_default);
@@ -208,9 +318,16 @@ public class Properties extends de.tudarmstadt.lt.utilities.properties.Propertie
 		}
 	}
 
-//	private static final String sortTempdir_default = System.getProperty("java.io.tmpdir");
-	public static String additionalSortParam() {
-		return _singleton.getProperty("lt.lm.sortparam");
+	private static final String countingMemoryPercentage_default = String.valueOf(.3d); // fraction of the max heap used for counting ngrams in memory before spilling to disk
+	public static double countingMemoryPercentage() {
+		String propvalue = _singleton.getProperty("lt.lm.countingMemoryPercentage", countingMemoryPercentage_default);
+		try {
+			return Double.valueOf(propvalue.trim());
+		} catch (Exception e) {
+			LOG.warn(String.format("Could not parse '%s' as double. Setting to default value (%s).", propvalue, countingMemoryPercentage_default));
+			_singleton.setProperty("lt.lm.countingMemoryPercentage", countingMemoryPercentage_default);
+			return countingMemoryPercentage();
+		}
 	}
-	
+
 }
@@ -1,17 +1,30 @@
 package de.tudarmstadt.lt.lm.berkeleylm;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import de.tudarmstadt.lt.lm.LanguageModel;
 import de.tudarmstadt.lt.lm.LanguageModelHelper;
+import de.tudarmstadt.lt.lm.app.LmSnapshot;
 import de.tudarmstadt.lt.lm.service.BreakIteratorStringProvider;
 import de.tudarmstadt.lt.utilities.LogUtils;
+import edu.berkeley.nlp.lm.ConfigOptions;
+import edu.berkeley.nlp.lm.StringWordIndexer;
+import edu.berkeley.nlp.lm.io.ArpaLmReader;
+import edu.berkeley.nlp.lm.io.LmReaders;
 
 public class BerkeleyLmTest {
 	static {
@@ -42,4 +55,86 @@ public class BerkeleyLmTest {
 		}
 	}
 
+	@Test
+	public void testStreamingArpaReader() throws Exception {
+		LanguageModelHelper.createBerkelyLmFromTxtFilesInDirectory(new BreakIteratorStringProvider(), new File(_inputPath), 3, -10, -1, 1, false);
+		File arpa = new File(_inputPath, "testlm.3.arpa.gz");
+
+		StringWordIndexer indexer = new StringWordIndexer();
+		ConfigOptions opts = new ConfigOptions();
+		opts.unknownWordLogProb = -10;
+		BerkeleyLM<String> expected = new BerkeleyLM<String>(LmReaders.readArrayEncodedLmFromArpa(new ArpaLmReader<String>(arpa.getAbsolutePath(), indexer, Integer.MAX_VALUE), false, indexer, opts));
+		BerkeleyLM<String> actual = (BerkeleyLM<String>)LanguageModelHelper.readFromArpa(arpa, -10);
+
+		int num_ngrams = 0;
+		for (int i = 1; i <= expected.getOrder(); i++) {
+			for (Iterator<List<String>> iter = expected.getNgramIterator(i); iter.hasNext(); num_ngrams++) {
+				List<String> ngram = iter.next();
+				Assert.assertEquals(ngram.toString(), expected.getNgramLogProbability(ngram), actual.getNgramLogProbability(ngram), 1e-6);
+			}
+		}
+		Assert.assertTrue(num_ngrams > 0);
+	}
+
+	@Test
+	public void testStreamingArpaReaderRejectsLongNgrams() throws Exception {
+		File arpa = new File(_temp_folder, "bad.arpa");
+		FileUtils.writeStringToFile(arpa, String.format("\\data\\%nngram 1=2%nngram 2=1%n%n\\1-grams:%n-1.0\ta%n-1.0\tb%n%n\\2-grams:%n-0.5\ta b a%n%n\\end\\%n"), StandardCharsets.UTF_8);
+		try{
+			LanguageModelHelper.readFromArpa(arpa, -10);
+			Assert.fail("Expected the 2-gram line with three words to be rejected.");
+		}catch(RuntimeException e){
+			Assert.assertTrue(e.getCause() instanceof IOException);
+			Assert.assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("Bad ARPA line 10 "));
+		}
+	}
+
+	@Test
+	public void testStreamingArpaReaderEmptyBackoff() throws Exception {
+		File arpa = new File(_temp_folder, "trailingtab.arpa");
+		FileUtils.writeStringToFile(arpa, String.format("\\data\\%nngram 1=2%nngram 2=1%n%n\\1-grams:%n-1.0\ta\t%n-1.0\tb\t-0.25%n%n\\2-grams:%n-0.5\ta b\t%n%n\\end\\%n"), StandardCharsets.UTF_8);
+		BerkeleyLM<String> lm = (BerkeleyLM<String>)LanguageModelHelper.readFromArpa(arpa, -10);
+		Assert.assertEquals(-0.5, lm.getNgramLogProbability(Arrays.asList("a", "b")), 1e-6);
+	}
+
+	@Test
+	public void testParseFloat() throws Exception {
+		for (String s : new String[] { "0", "-1.5", "-0.30103", "-12.345678", "1e-3", "-2.5E+2", "-Infinity", "-99" }) {
+			byte[] b = ("\t" + s + "\t").getBytes(StandardCharsets.US_ASCII);
+			Assert.assertEquals(s, Float.parseFloat(s), StreamingArpaReader.parseFloat(b, 1, b.length - 1), 1e-6f);
+		}
+	}
+
+	static void writeArpa(File arpa, String bigram_log10prob) throws IOException {
+		try(OutputStream out = new GZIPOutputStream(new FileOutputStream(arpa))){
+			out.write(String.format("\\data\\%nngram 1=3%nngram 2=1%n%n\\1-grams:%n-1.0\t<s>\t-0.5%n-1.0\ta\t-0.5%n-1.0\tb%n%n\\2-grams:%n%s\ta b%n%n\\end\\%n", bigram_log10prob).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testSnapshotOfReplacedArpaFile() throws Exception {
+		File src_dir = new File(_temp_folder, "lm");
+		src_dir.mkdirs();
+		File arpa = new File(src_dir, "lm.2.arpa.gz");
+		List<String> ngram = Arrays.asList("a", "b");
+		writeArpa(arpa, "-0.5");
+		LmSnapshot snapshot = new LmSnapshot(src_dir, BerkeleyLM.class.getSimpleName(), 2, 1, -1);
+		LanguageModel<String> lm = LanguageModelHelper.readFromArpa(arpa, -10);
+		snapshot.write(lm);
+		Assert.assertTrue(snapshot.isValid());
+		Assert.assertEquals(lm.getNgramLogProbability(ngram), snapshot.load().getNgramLogProbability(ngram), 1e-6);
+
+		// e.g. a new model from SRILM
+		writeArpa(arpa, "-0.25");
+		Assert.assertFalse(snapshot.isValid());
+		Assert.assertNull(snapshot.load());
+
+		// rebuilt as by StartLM
+		LanguageModel<String> lm_ = LanguageModelHelper.readFromArpa(arpa, -10);
+		snapshot.write(lm_);
+		Assert.assertTrue(snapshot.isValid());
+		Assert.assertNotEquals(lm.getNgramLogProbability(ngram), lm_.getNgramLogProbability(ngram), 1e-6);
+		Assert.assertEquals(lm_.getNgramLogProbability(ngram), snapshot.load().getNgramLogProbability(ngram), 1e-6);
+	}
+
 }
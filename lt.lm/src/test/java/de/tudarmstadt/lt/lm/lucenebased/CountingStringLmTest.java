@@ -17,17 +17,30 @@ package de.tudarmstadt.lt.lm.lucenebased;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.document.Document;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import de.tudarmstadt.lt.lm.PseudoSymbol;
 import de.tudarmstadt.lt.lm.app.GenerateNgramIndex;
+import de.tudarmstadt.lt.lm.app.LmSnapshot;
 import de.tudarmstadt.lt.lm.mapbased.CountingLM;
 import de.tudarmstadt.lt.lm.service.BreakIteratorStringProvider;
 import de.tudarmstadt.lt.lm.service.LMProviderUtils;
@@ -132,6 +145,350 @@ public class CountingStringLmTest {
 	
 	}
 
+	@Test
+	public void testIdLookup() throws IllegalAccessException{
+
+		CountingStringLM lm = new CountingStringLM(3, new File(_src_dir, ".lmindex"));
+
+		Iterator<List<String>> iter = lm.getNgramIterator();
+		while (iter.hasNext()) {
+			List<String> ngram = iter.next();
+			int[] ids = lm.getNgramAsIds(ngram);
+			Assert.assertEquals(ngram, lm.getNgramAsWords(ids));
+			Assert.assertEquals(lm.getQuantity(ngram), lm.getQuantity(ids, 0, ids.length));
+			Assert.assertEquals(lm.getNgramLogProbability(ngram), lm.getNgramLogProbability(ids), 1e-10);
+		}
+		Assert.assertEquals(0L, lm.getQuantity(new int[]{-1, 0}, 0, 2));
+
+	}
+
+	@Test
+	public void testShardedIndex() throws Exception {
+		File src_dir = new File(ClassLoader.getSystemClassLoader().getResource("cat").getPath());
+		File tmp_dir = Files.createTempDirectory("shardedindex").toFile();
+		String reset_shards = Properties.get().getProperty("lt.lm.indexShards");
+		String reset_threads = Properties.get().getProperty("lt.lm.numWorkerThreads");
+		try{
+			File expected_dir = new File(tmp_dir, "expected"), actual_dir = new File(tmp_dir, "actual");
+			for(File f : src_dir.listFiles()){
+				if(f.isFile()){
+					FileUtils.copyFileToDirectory(f, expected_dir);
+					FileUtils.copyFileToDirectory(f, actual_dir);
+				}
+			}
+			Properties.get().setProperty("lt.lm.numWorkerThreads", "1");
+			File expected_index_dir = GenerateNgramIndex.generate_index(expected_dir, new LtSegProvider(), 1, 5, 1, true);
+			Properties.get().setProperty("lt.lm.indexShards", "true");
+			Properties.get().setProperty("lt.lm.numWorkerThreads", "3");
+			File index_dir = GenerateNgramIndex.generate_index(actual_dir, new LtSegProvider(), 1, 5, 1, true);
+			Assert.assertFalse(new File(index_dir, "ngram.shard0").exists());
+
+			Assert.assertEquals(FileUtils.readFileToString(new File(expected_index_dir, "__sum_ngrams__")), FileUtils.readFileToString(new File(index_dir, "__sum_ngrams__")));
+			CountingStringLM lm = new CountingStringLM(5, expected_index_dir);
+			CountingStringLM lm_ = new CountingStringLM(5, index_dir);
+			int num_ngrams = 0;
+			for(Iterator<List<String>> iter = lm.getNgramIterator(); iter.hasNext(); num_ngrams++){
+				List<String> ngram = iter.next();
+				NgramCounts c = lm.getNgramCounts(ngram);
+				NgramCounts c_ = lm_.getNgramCounts(ngram);
+				Assert.assertEquals(c.getNum(), c_.getNum());
+				Assert.assertArrayEquals(c.getNumFollow(), c_.getNumFollow(), 0d);
+				Assert.assertArrayEquals(c.getNumPrecede(), c_.getNumPrecede(), 0d);
+				Assert.assertArrayEquals(c.getNumFollowerPrecede(), c_.getNumFollowerPrecede(), 0d);
+			}
+			for(Iterator<List<String>> iter = lm_.getNgramIterator(); iter.hasNext(); iter.next())
+				num_ngrams--;
+			Assert.assertEquals(0, num_ngrams);
+		}finally{
+			if(reset_shards == null) Properties.get().remove("lt.lm.indexShards"); else Properties.get().setProperty("lt.lm.indexShards", reset_shards);
+			if(reset_threads == null) Properties.get().remove("lt.lm.numWorkerThreads"); else Properties.get().setProperty("lt.lm.numWorkerThreads", reset_threads);
+			FileUtils.deleteQuietly(tmp_dir);
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		File tmp_dir = Files.createTempDirectory("lmsnapshot").toFile();
+		try{
+			FileUtils.copyDirectory(new File(_src_dir, ".lmindex"), new File(tmp_dir, ".lmindex"));
+			LmSnapshot snapshot = new LmSnapshot(tmp_dir, KneserNeyLM.class.getSimpleName(), 3, 1, .7);
+			Assert.assertFalse(snapshot.isValid());
+			Assert.assertNull(snapshot.load());
+
+			KneserNeyLM lm = new KneserNeyLM(3, new File(tmp_dir, ".lmindex"), .7);
+			snapshot.write(lm);
+			Assert.assertTrue(snapshot.isValid());
+			Assert.assertTrue(snapshot.verify());
+			// the store belongs to the snapshot, models that are opened from the index do not use it
+			Assert.assertFalse(BinaryCountStore.exists(new File(tmp_dir, ".lmindex")));
+			Assert.assertNull(new KneserNeyLM(3, new File(tmp_dir, ".lmindex"), .7)._binary_store);
+			KneserNeyLM lm_ = (KneserNeyLM)snapshot.load();
+			Assert.assertNotNull(lm_._binary_store);
+			for(Iterator<List<String>> iter = lm.getNgramIterator(); iter.hasNext();){
+				List<String> ngram = iter.next();
+				Assert.assertEquals(lm.getNgramLogProbability(ngram), lm_.getNgramLogProbability(ngram), 1e-10);
+			}
+
+			// properties that affect scoring must match
+			Assert.assertFalse(new LmSnapshot(tmp_dir, KneserNeyLM.class.getSimpleName(), 3, 1, .5).isValid());
+			Properties.get().setProperty("lt.lm.handleBoundaries", "1");
+			try{
+				Assert.assertFalse(snapshot.isValid());
+			}finally{
+				Properties.get().setProperty("lt.lm.handleBoundaries", "0");
+			}
+			Assert.assertTrue(snapshot.isValid());
+
+			// only verify reads the snapshot files, a changed file with unchanged size and modification time is detected by the checksum
+			File sum_file = new File(new File(new File(tmp_dir, LmSnapshot.DIRECTORY), "KneserNeyLM.3.index"), "__sum_ngrams__");
+			long mtime = sum_file.lastModified();
+			String sums = FileUtils.readFileToString(sum_file, "UTF-8");
+			FileUtils.writeStringToFile(sum_file, sums.replace('1', '2'), "UTF-8");
+			Assert.assertTrue(sum_file.setLastModified(mtime));
+			Assert.assertTrue(snapshot.isValid());
+			Assert.assertFalse(snapshot.verify());
+			FileUtils.writeStringToFile(sum_file, sums, "UTF-8");
+			Assert.assertTrue(sum_file.setLastModified(mtime));
+			Assert.assertTrue(snapshot.verify());
+
+			// modified files must not be loaded
+			FileUtils.writeStringToFile(new File(new File(tmp_dir, ".lmindex"), "__sum_ngrams__"), "\n", true);
+			Assert.assertFalse(snapshot.isValid());
+		}finally{
+			FileUtils.deleteQuietly(tmp_dir);
+		}
+	}
+
+	@Test
+	public void testMappedVocabulary() throws Exception {
+
+		CountingStringLM lm = new CountingStringLM(3, new File(_src_dir, ".lmindex"));
+		Assert.assertNotNull(lm._mapped_vocabulary);
+		Assert.assertNull(lm._vocabulary);
+		Assert.assertEquals(lm._searcher_vocab.collectionStatistics("word").docCount(), lm.getVocabularySize());
+
+		Set<Integer> ids = new HashSet<Integer>();
+		for(Iterator<String> iter = lm.getVocabularyIterator(); iter.hasNext();){
+			String word = iter.next();
+			int id = lm.getWordIndex(word);
+			Assert.assertTrue(id >= 0 && id < lm.getVocabularySize());
+			Assert.assertTrue(ids.add(id));
+			Assert.assertEquals(word, lm.getWord(id));
+		}
+		Assert.assertEquals(-1, lm.getWordIndex("no-such-word"));
+		Assert.assertEquals(PseudoSymbol.UNKOWN_WORD.asString(), lm.getWord(lm.getVocabularySize()));
+
+		// the same model with the lucene document ids as word ids
+		CountingStringLM lm_ = new CountingStringLM(3, new File(_src_dir, ".lmindex"));
+		lm_._mapped_vocabulary = null;
+		lm_.loadVocabulary();
+		for(Iterator<List<String>> iter = lm.getNgramIterator(); iter.hasNext();){
+			List<String> ngram = iter.next();
+			int[] ids_ = lm.getNgramAsIds(ngram), ids__ = lm_.getNgramAsIds(ngram);
+			Assert.assertEquals(lm_.getQuantity(ids__, 0, ids__.length), lm.getQuantity(ids_, 0, ids_.length));
+			Assert.assertEquals(lm_.getNgramLogProbability(ids__), lm.getNgramLogProbability(ids_), 1e-10);
+		}
+
+	}
+
+	@Test
+	public void testOovFilter() throws Exception {
+
+		CountingStringLM lm = new CountingStringLM(3, new File(_src_dir, ".lmindex"));
+		Assert.assertNotNull(lm._oov_filter);
+		CountingStringLM lm_ = new CountingStringLM(3, new File(_src_dir, ".lmindex"));
+		lm_._oov_filter = null;
+
+		for(Iterator<String> iter = lm.getVocabularyIterator(); iter.hasNext();)
+			Assert.assertFalse(lm.isUnkownWord(iter.next()));
+		for(int i = 0; i < 100; i++)
+			Assert.assertTrue(lm.isUnkownWord("no-such-word-" + i));
+
+		for(Iterator<List<String>> iter = lm.getNgramIterator(); iter.hasNext();){
+			List<String> ngram = new ArrayList<String>(iter.next());
+			Assert.assertFalse(lm.ngramContainsOOV(ngram));
+			for(int i = 0; i < ngram.size(); i++){
+				List<String> ngram_ = new ArrayList<String>(ngram);
+				ngram_.set(i, "no-such-word");
+				Assert.assertEquals(lm_.ngramContainsOOV(ngram_), lm.ngramContainsOOV(ngram_));
+				Assert.assertEquals(lm_.ngramEndsWithOOV(ngram_), lm.ngramEndsWithOOV(ngram_));
+			}
+		}
+
+	}
+
+	@Test
+	public void testDocValuesLookup() throws IllegalAccessException{
+
+		CountingStringLM lm = new CountingStringLM(3, new File(_src_dir, ".lmindex"));
+		Assert.assertTrue(lm._ngram_lookup.usesDocValues());
+		Properties.get().setProperty("lt.lm.useDocValues", "false");
+		CountingStringLM lm_ = new CountingStringLM(3, new File(_src_dir, ".lmindex"));
+		Properties.get().setProperty("lt.lm.useDocValues", "true");
+		Assert.assertFalse(lm_._ngram_lookup.usesDocValues());
+
+		Iterator<List<String>> iter = lm.getNgramIterator();
+		while (iter.hasNext()) {
+			List<String> ngram = iter.next();
+			for(List<String> ngram_ : Arrays.asList(ngram, ngram.subList(0, 2), ngram.subList(1, 3))){
+				NgramCounts c = lm.getNgramCounts(ngram_);
+				NgramCounts c_ = lm_.getNgramCounts(ngram_);
+				Assert.assertEquals(c_.getNum(), c.getNum());
+				Assert.assertTrue(c.getNum() > 0);
+				Assert.assertArrayEquals(c_.getNumFollow(), c.getNumFollow(), 0d);
+				Assert.assertArrayEquals(c_.getNumPrecede(), c.getNumPrecede(), 0d);
+				Assert.assertArrayEquals(c_.getNumFollowerPrecede(), c.getNumFollowerPrecede(), 0d);
+			}
+		}
+		Assert.assertSame(NgramCounts.UNKNOWN, lm.getNgramCounts(Arrays.asList("no such ngram".split(" "))));
+
+	}
+
+	@Test
+	public void testCountsCache() throws Exception {
+
+		NgramCountsCache cache = new NgramCountsCache(4, 1);
+		for(int i = 0; i < 6; i++)
+			cache.put("w" + i, NgramCounts.UNKNOWN);
+		Assert.assertEquals(4, cache.getSize());
+		Assert.assertEquals(2, cache.getEvictions());
+		Assert.assertNull(cache.get("w0"));
+		Assert.assertNotNull(cache.get("w5"));
+		Assert.assertEquals(.5d, cache.getHitRatio(), 0d);
+		Assert.assertTrue(cache.getEstimatedMemoryBytes() > 0);
+		cache.clear();
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(0, cache.getEstimatedMemoryBytes());
+
+		final CountingStringLM lm = new CountingStringLM(3, new File(_src_dir, ".lmindex"));
+		Assert.assertNotNull(lm.getCountsCache());
+		final List<List<String>> ngrams = new ArrayList<List<String>>();
+		for(Iterator<List<String>> iter = lm.getNgramIterator(); iter.hasNext();)
+			ngrams.add(iter.next());
+		final long[] expected = new long[ngrams.size()];
+		for(int i = 0; i < expected.length; i++)
+			expected[i] = lm._ngram_lookup.counts(StringUtils.join(ngrams.get(i), ' ')).getNum();
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for(int t = 0; t < 8; t++)
+			results.add(executor.submit(() -> {
+				for(int i = 0; i < expected.length; i++)
+					if(lm.getNgramCounts(ngrams.get(i)).getNum() != expected[i])
+						return false;
+				return true;
+			}));
+		for(Future<Boolean> result : results)
+			Assert.assertTrue(result.get());
+		executor.shutdown();
+
+		Assert.assertEquals(ngrams.size(), lm.getCountsCache().getSize());
+		Assert.assertTrue(lm.getCountsCache().getHits() > 0);
+
+	}
+
+	@Test
+	public void testBinaryCountStore() throws Exception {
+
+		File index_dir = new File(_src_dir, ".lmindex");
+		File tmp_dir = Files.createTempDirectory("binarycountstore").toFile();
+		try{
+			BinaryCountStoreWriter.convert(index_dir, new File(tmp_dir, BinaryCountStore.DIRECTORY));
+			FileUtils.copyFileToDirectory(new File(index_dir, "__sum_ngrams__"), tmp_dir);
+			Assert.assertTrue(BinaryCountStore.exists(tmp_dir));
+			Assert.assertFalse(BinaryCountStore.exists(index_dir));
+
+			CountingStringLM lm = new CountingStringLM(3, index_dir);
+			CountingStringLM lm_ = new CountingStringLM(3, tmp_dir);
+			Assert.assertNull(lm_._ngram_lookup);
+			Assert.assertNotNull(lm_._binary_store);
+			Assert.assertEquals(lm.getVocabularySize(), lm_.getVocabularySize());
+
+			List<String> vocabulary = new ArrayList<String>();
+			for(Iterator<String> iter = lm_.getVocabularyIterator(); iter.hasNext();)
+				vocabulary.add(iter.next());
+			Assert.assertEquals(lm.getVocabularySize(), vocabulary.size());
+			for(String word : vocabulary){
+				Assert.assertEquals(word, lm_.getWord(lm_.getWordIndex(word)));
+				Assert.assertTrue(lm.getWordIndex(word) >= 0);
+			}
+			Assert.assertEquals(-1, lm_.getWordIndex("no-such-word"));
+
+			List<List<String>> ngrams = new ArrayList<List<String>>();
+			for(Iterator<List<String>> iter = lm.getNgramIterator(); iter.hasNext();)
+				ngrams.add(new ArrayList<String>(iter.next()));
+			List<List<String>> ngrams_ = new ArrayList<List<String>>();
+			for(Iterator<List<String>> iter = lm_.getNgramIterator(); iter.hasNext();)
+				ngrams_.add(new ArrayList<String>(iter.next()));
+			Assert.assertEquals(ngrams.size(), ngrams_.size());
+
+			for(List<String> ngram : ngrams){
+				for(List<String> ngram_ : Arrays.asList(ngram, ngram.subList(0, 2), ngram.subList(1, 3), ngram.subList(2, 3))){
+					NgramCounts c = lm.getNgramCounts(ngram_);
+					NgramCounts c_ = lm_.getNgramCounts(ngram_);
+					Assert.assertEquals(c.getNum(), c_.getNum());
+					Assert.assertArrayEquals(c.getNumFollow(), c_.getNumFollow(), 0d);
+					Assert.assertArrayEquals(c.getNumPrecede(), c_.getNumPrecede(), 0d);
+					Assert.assertArrayEquals(c.getNumFollowerPrecede(), c_.getNumFollowerPrecede(), 0d);
+					int[] ids = lm.getNgramAsIds(ngram_), ids_ = lm_.getNgramAsIds(ngram_);
+					Assert.assertEquals(lm.getQuantity(ids, 0, ids.length), lm_.getQuantity(ids_, 0, ids_.length));
+					Document d = lm.getNgramLuceneDoc(ngram_), d_ = lm_.getNgramLuceneDoc(ngram_);
+					for(String field : new String[]{ "ngram", "cardinality", "num", "nf_N1", "np_N2", "nfp_N3" })
+						Assert.assertEquals(field, d.getField(field).stringValue(), d_.getField(field).stringValue());
+				}
+			}
+			Assert.assertSame(NgramCounts.UNKNOWN, lm_.getNgramCounts(Arrays.asList("no such ngram".split(" "))));
+			Assert.assertEquals(vocabulary.get(0), lm_.getWordLuceneDoc(vocabulary.get(0)).get("word"));
+			Assert.assertEquals(PseudoSymbol.UNKOWN_WORD.asString(), lm_.getNgramLuceneDoc("no such ngram").get("ngram"));
+			Assert.assertEquals(lm_.getWordIndex(vocabulary.get(0)), lm_.getOrAddWord(vocabulary.get(0)).intValue());
+			try{
+				lm_.addNgram(ngrams.get(0));
+				Assert.fail("Expected the index based language model to be read-only.");
+			}catch(IllegalAccessException e){
+				// expected
+			}
+
+			KneserNeyLM kn = new KneserNeyLM(3, index_dir, .7);
+			KneserNeyLM kn_ = new KneserNeyLM(3, tmp_dir, .7);
+			StupidBackoffLM sb = new StupidBackoffLM(3, index_dir);
+			StupidBackoffLM sb_ = new StupidBackoffLM(3, tmp_dir);
+			List<String> unseen = Arrays.asList("the", "no-such-word", "fox");
+			ngrams.add(unseen);
+			for(List<String> ngram : ngrams){
+				Assert.assertEquals(kn.getNgramLogProbability(ngram), kn_.getNgramLogProbability(ngram), 1e-9);
+				Assert.assertEquals(sb.getNgramLogProbability(ngram), sb_.getNgramLogProbability(ngram), 1e-9);
+			}
+		}finally{
+			FileUtils.deleteQuietly(tmp_dir);
+		}
+
+		// packed arrays of every bit width
+		File tmp = File.createTempFile("packedarray", ".bin");
+		try{
+			for(int bits = 0; bits <= BinaryCountStore.PackedArray.MAX_BITS; bits++){
+				long mask = bits == 0 ? 0L : -1L >>> (64 - bits);
+				Random r = new Random(bits);
+				long[] values = new long[1000];
+				for(int i = 0; i < values.length; i++)
+					values[i] = r.nextLong() & mask;
+				Arrays.sort(values);
+				try(BinaryCountStore.PackedArrayWriter w = new BinaryCountStore.PackedArrayWriter(tmp, values.length, bits)){
+					for(long v : values)
+						w.add(v);
+				}
+				BinaryCountStore.PackedArray a = new BinaryCountStore.PackedArray(tmp);
+				Assert.assertEquals(values.length, a.size());
+				for(int i = 0; i < values.length; i++)
+					Assert.assertEquals(values[i], a.get(i));
+				if(bits > 0)
+					Assert.assertEquals(values[500], a.get(a.binarySearch(0, values.length, values[500])));
+			}
+		}finally{
+			FileUtils.deleteQuietly(tmp);
+		}
+
+	}
+
 	@Test
 	@Ignore
 	public void testPredict() throws IOException, IllegalAccessException {
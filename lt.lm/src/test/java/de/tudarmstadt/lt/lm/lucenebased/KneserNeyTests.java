@@ -29,6 +29,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import de.tudarmstadt.lt.lm.LanguageModel;
+import de.tudarmstadt.lt.lm.LanguageModelHelper;
 import de.tudarmstadt.lt.lm.app.GenerateNgramIndex;
 import de.tudarmstadt.lt.lm.perplexity.ModelPerplexity;
 import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
@@ -119,6 +120,37 @@ public class KneserNeyTests {
 	}
 	
 	
+	@Test
+	public void testSequenceCache() throws Exception{
+		KneserNeyLM lm = new KneserNeyLM(_max_ngram_order, new File(_src_dir, ".lmindex"), 0.7);
+		List<String>[] ngrams = LMProviderUtils.getNgramSequence(Arrays.asList("<s> the quick brown fox jumps over the lazy dog </s>".split(" ")), lm.getOrder());
+		double expected = 0d;
+		for(List<String> ngram : ngrams)
+			expected += lm.getNgramLogProbability(ngram);
+		Assert.assertEquals(0L, lm.getSequenceCacheHits() + lm.getSequenceCacheMisses());
+		double v = lm.getSequenceLogProbability(ngrams);
+		Assert.assertEquals(expected, v, 1e-10);
+		Assert.assertTrue(lm.getSequenceCacheHits() > 0);
+		Assert.assertTrue(lm.getSequenceCacheMisses() > 0);
+	}
+	
+	@Test
+	public void testArpaTable() throws Exception{
+		KneserNeyLM lm = new KneserNeyLM(_max_ngram_order, new File(_src_dir, ".lmindex"), 0.7);
+		File arpa = File.createTempFile("knlm", ".arpa.gz");
+		arpa.deleteOnExit();
+		KneserNeyArpaWriter.write(lm, arpa);
+		LanguageModel<String> arpa_lm = LanguageModelHelper.readFromArpa(arpa, (float)Math.log10(lm._ud));
+
+		// the table reproduces the model for every ngram that was seen
+		for(Iterator<List<String>> iter = lm.getNgramIterator(); iter.hasNext();){
+			List<String> ngram = iter.next();
+			Assert.assertEquals(ngram.toString(), lm.getNgramLogProbability(ngram), arpa_lm.getNgramLogProbability(ngram), 1e-4);
+		}
+		double logprob = arpa_lm.getNgramLogProbability(Arrays.asList("the quick brown fox jumps".split(" ")));
+		Assert.assertTrue(logprob < 0 && !Double.isInfinite(logprob) && !Double.isNaN(logprob));
+	}
+
 	void runTests(LanguageModel<String> lm) throws Exception{
 		testProbabilities(lm);
 		testPredict(lm);
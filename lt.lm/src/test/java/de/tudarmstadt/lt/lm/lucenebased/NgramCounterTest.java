@@ -0,0 +1,138 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.lucenebased;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tudarmstadt.lt.lm.app.Ngrams;
+
+/**
+ *
+ * @author Steffen Remus
+ */
+public class NgramCounterTest {
+
+	static List<String> ngrams(String sentence, int order) {
+		List<String> tokens = Arrays.asList(sentence.split(" "));
+		List<String> ngrams = new ArrayList<String>();
+		for(int i = 0; i < tokens.size(); i++)
+			for(int n = 1; n <= order && i + n <= tokens.size(); n++)
+				ngrams.add(String.join(" ", tokens.subList(i, i + n)));
+		return ngrams;
+	}
+
+	static List<String> readGzipLines(File f) throws IOException {
+		try(GZIPInputStream in = new GZIPInputStream(new FileInputStream(f))){
+			return IOUtils.readLines(in, StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	public void testCount() throws IOException {
+		File dir = Files.createTempDirectory("ngramcountertest").toFile();
+		try{
+			List<String> raw = new ArrayList<String>();
+			raw.addAll(ngrams("<s> the quick brown fox", 5));
+			raw.add("   ");
+			raw.addAll(ngrams("<s> the quick brown cat", 5));
+			raw.add("brown cat  "); // trailing whitespace is ignored
+			File raw_file = new File(dir, "ngram.raw.txt");
+			FileUtils.writeLines(raw_file, "UTF-8", raw);
+
+			for(int memory_budget : new int[]{ 1 << 26, 1 }){ // in memory, spill every partition
+				File counts = new File(dir, "counts.gz"), vocab = new File(dir, "vocab.gz"), joined = new File(dir, "joined.gz");
+				new NgramCounter(1, 3, memory_budget).count(raw_file, counts, vocab, joined);
+
+				Assert.assertEquals(Arrays.asList("<s>", "brown", "cat", "fox", "quick", "the"), readGzipLines(vocab));
+				List<String> joined_lines = readGzipLines(joined);
+				Assert.assertEquals(20, joined_lines.size());
+				Assert.assertEquals(20, readGzipLines(counts).size());
+				Assert.assertEquals("<s>\t2\tn_f:2,0,1,0", joined_lines.get(0));
+				Assert.assertEquals("<s> the quick brown cat\t1", joined_lines.get(4));
+				Assert.assertEquals("brown\t2\tn_p:2,0,1,0\tn_f:3,1,1,0\tn_fp:2,2,0,0", joined_lines.get(6));
+				Assert.assertEquals("brown cat\t2\tn_p:1,1,0,0", joined_lines.get(7));
+				Assert.assertEquals("quick brown\t2\tn_p:2,0,1,0\tn_f:2,2,0,0\tn_fp:2,2,0,0", joined_lines.get(12));
+			}
+
+			File counts = new File(dir, "counts.gz"), vocab = new File(dir, "vocab.gz"), joined = new File(dir, "joined.gz");
+			new NgramCounter(2, 2, 1 << 26).count(raw_file, counts, vocab, joined);
+			Assert.assertEquals(Arrays.asList("<s>\t2", "<s> the\t2", "<s> the quick\t2", "<s> the quick brown\t2", "brown\t2", "brown cat\t2", "quick\t2", "quick brown\t2", "the\t2", "the quick\t2", "the quick brown\t2"), readGzipLines(counts));
+			Assert.assertEquals("quick brown\t2\tn_p:2,0,1,0", readGzipLines(joined).get(7));
+		}finally{
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	@Test
+	public void testCountShards() throws IOException {
+		File dir = Files.createTempDirectory("ngramcountertest").toFile();
+		try{
+			String src = ClassLoader.getSystemClassLoader().getResource("testlm").getPath();
+			File raw_file = new File(dir, "ngram.raw.txt.gz");
+			new Ngrams(new String[]{ "-p", "BreakIteratorStringProvider", "-f", src, "-o", raw_file.getPath(), "-n", "1-3" }).run();
+			new Ngrams(new String[]{ "-p", "BreakIteratorStringProvider", "-f", src, "-o", raw_file.getPath(), "-n", "1-3", "-t", "3", "-s", "3" }).run();
+			File[] shards = Ngrams.getShardFiles(raw_file.getPath(), 3);
+			Assert.assertEquals(new File(dir, "ngram.raw.shard-002.txt.gz"), shards[2]);
+
+			List<String> shard_ngrams = new ArrayList<String>();
+			for(int s = 0; s < shards.length; s++)
+				for(String ngram : readGzipLines(shards[s])){
+					Assert.assertEquals(s, NgramCounter.shard(ngram, shards.length));
+					shard_ngrams.add(ngram);
+				}
+			List<String> ngrams = readGzipLines(raw_file);
+			Collections.sort(ngrams);
+			Collections.sort(shard_ngrams);
+			Assert.assertFalse(ngrams.isEmpty());
+			Assert.assertEquals(ngrams, shard_ngrams);
+
+			File counts = new File(dir, "counts.gz"), vocab = new File(dir, "vocab.gz"), joined = new File(dir, "joined.gz");
+			File shard_counts = new File(dir, "shard_counts.gz"), shard_vocab = new File(dir, "shard_vocab.gz"), shard_joined = new File(dir, "shard_joined.gz");
+			new NgramCounter(1, 2, 1 << 26).count(raw_file, counts, vocab, joined);
+			new NgramCounter(1, 2, 1 << 26).count(Arrays.asList(shards), shard_counts, shard_vocab, shard_joined);
+			Assert.assertEquals(readGzipLines(counts), readGzipLines(shard_counts));
+			Assert.assertEquals(readGzipLines(vocab), readGzipLines(shard_vocab));
+			Assert.assertEquals(readGzipLines(joined), readGzipLines(shard_joined));
+		}finally{
+			FileUtils.deleteQuietly(dir);
+		}
+	}
+
+	@Test
+	public void testCodepointOrder() {
+		// same order as the UTF-8 bytes, i.e. LC_ALL=C sort
+		List<String> expected = Arrays.asList("", "a", "a b", "ab", "z", "\u00e4", "\uFFFD", new String(Character.toChars(0x1F600)));
+		List<String> sorted = new ArrayList<String>(expected);
+		Collections.reverse(sorted);
+		sorted.sort(NgramCounter.CODEPOINT_ORDER);
+		Assert.assertEquals(expected, sorted);
+	}
+
+}
@@ -17,9 +17,11 @@ package de.tudarmstadt.lt.lm.mapbased;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -28,6 +30,7 @@ import de.tudarmstadt.lt.lm.LanguageModelHelper;
 import de.tudarmstadt.lt.lm.service.BreakIteratorStringProvider;
 import de.tudarmstadt.lt.lm.service.LMProviderUtils;
 import de.tudarmstadt.lt.utilities.LogUtils;
+import de.tudarmstadt.lt.utilities.collections.HashBag;
 
 /**
  * 
@@ -72,8 +75,36 @@ public class CountingLmTest {
 		}
 	}
 
-
-
-
+	@Test
+	public void testNgramTable() {
+		Random r = new Random(42);
+		NgramTable table = new NgramTable(3, 4);
+		HashBag<List<Integer>> reference = new HashBag<List<Integer>>();
+		int[] ngram = new int[5];
+		for(int i = 0; i < 100000; i++){
+			int length = 1 + r.nextInt(3);
+			int from = r.nextInt(2);
+			for(int j = 0; j < length; j++)
+				ngram[from + j] = r.nextInt(30);
+			List<Integer> ngram_ = new ArrayList<Integer>();
+			for(int j = from; j < from + length; j++)
+				ngram_.add(ngram[j]);
+			Assert.assertEquals(reference.add(ngram_).intValue(), table.add(ngram, from, from + length));
+		}
+		Assert.assertEquals(reference.keySet().size(), table.size());
+		Assert.assertEquals(reference.size(), table.getTotal());
+		int n = 0;
+		for(int[] ngram_ : table){
+			List<Integer> ngram__ = new ArrayList<Integer>();
+			for(int id : ngram_)
+				ngram__.add(id);
+			Assert.assertEquals(reference.get(ngram__).intValue(), table.get(ngram_));
+			n++;
+		}
+		Assert.assertEquals(table.size(), n);
+		Assert.assertEquals(0, table.get(new int[]{ 30 }));
+		Assert.assertEquals(0, table.get(new int[]{ 1, 2, 3, 4 }));
+		Assert.assertEquals(0, table.get(new int[]{ -1 }));
+	}
 
 }
@@ -0,0 +1,169 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.service;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.tudarmstadt.lt.lm.LanguageModel;
+import de.tudarmstadt.lt.lm.LanguageModelHelper;
+import de.tudarmstadt.lt.lm.mapbased.CountingLM;
+import de.tudarmstadt.lt.lm.mapbased.LaplaceSmoothedLM;
+import de.tudarmstadt.lt.utilities.LogUtils;
+
+/**
+ * Compares bytes on the wire and throughput of the RMI and the binary protocol for scoring ngrams.
+ * Bytes are counted on the server side socket for RMI and by the client for the binary protocol.
+ *
+ * @author Steffen Remus
+ **/
+public class BinaryProtocolBenchmark {
+
+	static {
+		LogUtils.setLogLevel("de.tudarmstadt.lt.lm", "warn");
+	}
+
+	static File _src_dir = new File(ClassLoader.getSystemClassLoader().getResource("testlm").getPath());
+	static int _rmiport = 10990;
+	static int _lm_order = 3;
+	static int _repetitions = 2000;
+	static String _text = "The quick brown fox jumps over the lazy dog. The lazy brown dog sleeps in the sun all day long.";
+
+	static Registry _registry;
+	static AbstractStringProvider _provider;
+	static BinaryStringProviderServer _server;
+	static final AtomicLong _rmi_bytes = new AtomicLong();
+
+	static class CountingServerSocketFactory implements RMIServerSocketFactory {
+		@Override
+		public ServerSocket createServerSocket(int port) throws IOException {
+			return new ServerSocket(port){
+				@Override
+				public Socket accept() throws IOException {
+					Socket s = new Socket(){
+						@Override
+						public InputStream getInputStream() throws IOException {
+							return new FilterInputStream(super.getInputStream()){
+								@Override
+								public int read() throws IOException { int b = super.read(); if(b >= 0) _rmi_bytes.incrementAndGet(); return b; }
+								@Override
+								public int read(byte[] b, int off, int len) throws IOException { int n = super.read(b, off, len); if(n > 0) _rmi_bytes.addAndGet(n); return n; }
+							};
+						}
+						@Override
+						public OutputStream getOutputStream() throws IOException {
+							return new FilterOutputStream(super.getOutputStream()){
+								@Override
+								public void write(int b) throws IOException { _rmi_bytes.incrementAndGet(); out.write(b); }
+								@Override
+								public void write(byte[] b, int off, int len) throws IOException { _rmi_bytes.addAndGet(len); out.write(b, off, len); }
+							};
+						}
+					};
+					implAccept(s);
+					return s;
+				}
+			};
+		}
+	}
+
+	static class PlainClientSocketFactory implements RMIClientSocketFactory, java.io.Serializable {
+		private static final long serialVersionUID = 1L;
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return new Socket(host, port);
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		_provider = new BreakIteratorStringProvider();
+		LanguageModel<String> lm = new LaplaceSmoothedLM<String>((CountingLM<String>)LanguageModelHelper.createCountingLmTxtFilesInDirectory(new BreakIteratorStringProvider(), _src_dir, _lm_order));
+		_provider.setLanguageModel(lm);
+		_registry = LocateRegistry.createRegistry(_rmiport);
+		_registry.bind("benchmark", UnicastRemoteObject.exportObject(_provider, 0, new PlainClientSocketFactory(), new CountingServerSocketFactory()));
+		_server = new BinaryStringProviderServer(_provider, "localhost", 0);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		_server.close();
+		_registry.unbind("benchmark");
+		UnicastRemoteObject.unexportObject(_provider, true);
+		UnicastRemoteObject.unexportObject(_registry, true);
+	}
+
+	@Test
+	public void benchmark() throws Exception {
+		List<String>[] ngrams = _provider.getNgrams(_text);
+		StringProviderMXBean rmi = AbstractStringProvider.connectToServer("localhost", _rmiport, "benchmark");
+
+		// warm up
+		for(int i = 0; i < 100; i++){
+			for(List<String> ngram : ngrams)
+				rmi.getNgramLog10Probability(ngram);
+			rmi.getNgramLog10Probabilities(ngrams);
+		}
+
+		_rmi_bytes.set(0);
+		long t = System.nanoTime();
+		for(int i = 0; i < _repetitions; i++)
+			for(List<String> ngram : ngrams)
+				rmi.getNgramLog10Probability(ngram);
+		report("rmi, one call per ngram", _rmi_bytes.get(), System.nanoTime() - t, ngrams.length);
+
+		_rmi_bytes.set(0);
+		t = System.nanoTime();
+		for(int i = 0; i < _repetitions; i++)
+			rmi.getNgramLog10Probabilities(ngrams);
+		report("rmi, batch", _rmi_bytes.get(), System.nanoTime() - t, ngrams.length);
+
+		for(boolean use_word_ids : new boolean[]{false, true}){
+			try(BinaryStringProviderClient client = new BinaryStringProviderClient("localhost", _server.getPort(), use_word_ids)){
+				for(int i = 0; i < 100; i++)
+					client.getNgramLog10Probabilities(ngrams);
+				long bytes = client.getBytesSent() + client.getBytesReceived();
+				t = System.nanoTime();
+				for(int i = 0; i < _repetitions; i++)
+					client.getNgramLog10Probabilities(ngrams);
+				report(use_word_ids ? "binary, batch, word ids" : "binary, batch", client.getBytesSent() + client.getBytesReceived() - bytes, System.nanoTime() - t, ngrams.length);
+			}
+		}
+	}
+
+	static void report(String name, long bytes, long nanos, int ngrams_per_request) {
+		double seconds = nanos / 1e9;
+		System.out.format("%-30s %10.1f bytes/ngram %12.0f ngrams/s%n", name, (double)bytes / (_repetitions * ngrams_per_request), _repetitions * ngrams_per_request / seconds);
+	}
+
+}
@@ -0,0 +1,212 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.lm.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.tudarmstadt.lt.lm.LanguageModel;
+import de.tudarmstadt.lt.lm.LanguageModelHelper;
+import de.tudarmstadt.lt.lm.mapbased.CountingLM;
+import de.tudarmstadt.lt.lm.mapbased.LaplaceSmoothedLM;
+import de.tudarmstadt.lt.lm.perplexity.PerplexityResult;
+
+/**
+ *
+ * @author Steffen Remus
+ **/
+public class BinaryStringProviderTest {
+
+	static File _src_dir = new File(ClassLoader.getSystemClassLoader().getResource("testlm").getPath());
+	static int _lm_order = 3;
+	static AbstractStringProvider _provider;
+	static BinaryStringProviderServer _server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		_provider = new BreakIteratorStringProvider();
+		LanguageModel<String> lm = new LaplaceSmoothedLM<String>((CountingLM<String>)LanguageModelHelper.createCountingLmTxtFilesInDirectory(new BreakIteratorStringProvider(), _src_dir, _lm_order));
+		_provider.setLanguageModel(lm);
+		_server = new BinaryStringProviderServer(_provider, "localhost", 0);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		_server.close();
+	}
+
+	@Test
+	public void testNgramLog10Probabilities() throws Exception {
+		List<String>[] ngrams = _provider.getNgrams("The quick brown fox jumps over the lazy dög. Schöne neue Wörld.");
+		double[] expected = _provider.getNgramLog10Probabilities(ngrams);
+		for(boolean use_word_ids : new boolean[]{false, true}){
+			try(BinaryStringProviderClient client = new BinaryStringProviderClient("localhost", _server.getPort(), use_word_ids)){
+				Assert.assertEquals(_lm_order, client.getLmOrder());
+				Assert.assertArrayEquals(expected, client.getNgramLog10Probabilities(ngrams), 1e-10);
+				Assert.assertArrayEquals(expected, client.getNgramLog10Probabilities(ngrams), 1e-10); // word ids cached
+				System.out.format("word ids=%b sent=%d received=%d%n", use_word_ids, client.getBytesSent(), client.getBytesReceived());
+			}
+		}
+	}
+
+	@Test
+	public void testPerplexities() throws Exception {
+		List<String> texts = Arrays.asList("The quick brown fox.", "", "The lazy brown dog jumps.");
+		try(BinaryStringProviderClient client = new BinaryStringProviderClient("localhost", _server.getPort())){
+			Assert.assertEquals(_provider.getPerplexityOfSentences(texts, false), client.getPerplexityOfSentences(texts, false), 1e-10);
+			PerplexityResult[] expected = _provider.getPerplexities(texts);
+			PerplexityResult[] results = client.getPerplexities(texts);
+			Assert.assertEquals(expected.length, results.length);
+			for(int i = 0; i < expected.length; i++)
+				Assert.assertEquals(expected[i].toString(), results[i].toString());
+		}
+	}
+
+	@Test
+	public void testServerError() throws Exception {
+		try(BinaryStringProviderClient client = new BinaryStringProviderClient("localhost", _server.getPort())){
+			@SuppressWarnings("unchecked")
+			List<String>[] too_long = new List[]{ Arrays.asList("a b c d e f g".split(" ")) };
+			try{
+				client.getNgramLog10Probabilities(too_long);
+				Assert.fail("Expected the server to reject an ngram that is longer than the order of the model.");
+			}catch(IOException e){
+				Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Server failed: "));
+			}
+			// connection is still usable after a failed request
+			Assert.assertEquals(_lm_order, client.getLmOrder());
+		}
+	}
+
+	@Test
+	public void testAsyncClient() throws Exception {
+		List<String> sentences = Arrays.asList("The quick brown fox.", "The lazy brown dog jumps.");
+		double expected = _provider.getPerplexityOfSentences(sentences, false);
+		try(AsyncStringProviderClient client = new AsyncStringProviderClient("localhost", _server.getPort(), 2, 16, 10000)){
+			List<CompletableFuture<Double>> futures = new ArrayList<CompletableFuture<Double>>();
+			for(int i = 0; i < 100; i++)
+				futures.add(client.getPerplexityOfSentences(i % 2 == 0 ? sentences : sentences.subList(0, 1), false));
+			for(int i = 0; i < futures.size(); i += 2)
+				Assert.assertEquals(expected, futures.get(i).get(), 1e-10);
+			PerplexityResult[] results = client.getPerplexities(sentences).get();
+			Assert.assertEquals(_provider.getPerplexities(sentences)[1].toString(), results[1].toString());
+			Assert.assertEquals(0, client.getNumPending());
+			Assert.assertEquals(0, client.getNumTimeouts() + client.getNumRejected() + client.getNumFailures());
+		}
+	}
+
+	@Test
+	public void testAsyncClientTimeout() throws Exception {
+		// accepts connections but never responds
+		try(ServerSocketChannel stalled = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+				AsyncStringProviderClient client = new AsyncStringProviderClient("localhost", ((InetSocketAddress)stalled.getLocalAddress()).getPort(), 1, 2, 200)){
+			CompletableFuture<Double> f1 = client.getPerplexityOfSentences(Arrays.asList("a"), false);
+			CompletableFuture<Double> f2 = client.getPerplexityOfSentences(Arrays.asList("b"), false);
+			CompletableFuture<Double> f3 = client.getPerplexityOfSentences(Arrays.asList("c"), false); // no slot is freed within the maximum wait
+			try{
+				f1.get();
+				Assert.fail("Expected timeout.");
+			}catch(ExecutionException e){
+				Assert.assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			// times out as well or fails because the timeout of f1 closed the connection
+			assertFailed(f2, 2000);
+			try{
+				f3.get();
+				Assert.fail("Expected rejection.");
+			}catch(ExecutionException e){
+				Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			Assert.assertTrue(client.getNumTimeouts() >= 1);
+			Assert.assertEquals(1, client.getNumRejected());
+		}
+	}
+
+	@Test
+	public void testAsyncClientDoesNotBlockCaller() throws Exception {
+		// accepts connections but never reads, i.e. writing a large request blocks once the socket buffers are full
+		try(ServerSocketChannel stalled = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+				AsyncStringProviderClient client = new AsyncStringProviderClient("localhost", ((InetSocketAddress)stalled.getLocalAddress()).getPort(), 1, 4, 500)){
+			String large = StringUtils.repeat("x", 1 << 23);
+			long begin = System.currentTimeMillis();
+			List<CompletableFuture<Double>> futures = new ArrayList<CompletableFuture<Double>>();
+			for(int i = 0; i < 3; i++)
+				futures.add(client.getPerplexityOfSentences(Arrays.asList(large + i), false));
+			// a caller that writes itself would block until the client is closed
+			Assert.assertTrue(System.currentTimeMillis() - begin < 3000);
+			for(CompletableFuture<Double> f : futures)
+				assertFailed(f, 2000);
+		}
+	}
+
+	@Test
+	public void testAsyncClientReleasesSlotsOnTimeout() throws Exception {
+		// accepts connections but never responds
+		try(ServerSocketChannel stalled = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+				AsyncStringProviderClient client = new AsyncStringProviderClient("localhost", ((InetSocketAddress)stalled.getLocalAddress()).getPort(), 1, 2, 1000)){
+			CompletableFuture<Double> f1 = client.getPerplexityOfSentences(Arrays.asList("a"), false);
+			CompletableFuture<Double> f2 = client.getPerplexityOfSentences(Arrays.asList("b"), false);
+			// all slots are taken, the caller is rejected without waiting for the timeout
+			long begin = System.currentTimeMillis();
+			CompletableFuture<Double> f3 = client.getPerplexityOfSentences(Arrays.asList("c"), false);
+			Assert.assertTrue(System.currentTimeMillis() - begin < 500);
+			Assert.assertTrue(f3.isCompletedExceptionally());
+			assertFailed(f1, 3000);
+			assertFailed(f2, 3000);
+			// the timeout closed the connection and freed all slots, although the server keeps the connection open
+			for(long deadline = System.currentTimeMillis() + 1000; client.getNumPending() > 0 && System.currentTimeMillis() < deadline;)
+				Thread.sleep(10);
+			Assert.assertEquals(0, client.getNumPending());
+			CompletableFuture<Double> f4 = client.getPerplexityOfSentences(Arrays.asList("d"), false);
+			try{
+				f4.get(3, TimeUnit.SECONDS);
+				Assert.fail("Expected timeout.");
+			}catch(ExecutionException e){
+				Assert.assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			Assert.assertEquals(1, client.getNumRejected());
+		}
+	}
+
+	/**
+	 * assert that the future fails within max_millis because of a timeout or because the connection was closed after a timeout
+	 */
+	static void assertFailed(CompletableFuture<?> f, long max_millis) throws Exception {
+		try{
+			f.get(max_millis, TimeUnit.MILLISECONDS);
+			Assert.fail("Expected failure.");
+		}catch(ExecutionException e){
+			Assert.assertTrue(e.getCause().toString(), e.getCause() instanceof TimeoutException || e.getCause() instanceof IOException);
+		}
+	}
+
+}
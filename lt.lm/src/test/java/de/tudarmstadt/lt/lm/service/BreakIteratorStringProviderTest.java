@@ -16,12 +16,16 @@
 package de.tudarmstadt.lt.lm.service;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -32,6 +36,8 @@ import de.tudarmstadt.lt.lm.LanguageModelHelper;
 import de.tudarmstadt.lt.lm.PseudoSymbol;
 import de.tudarmstadt.lt.lm.mapbased.CountingLM;
 import de.tudarmstadt.lt.lm.mapbased.LaplaceSmoothedLM;
+import de.tudarmstadt.lt.lm.perplexity.ModelPerplexity;
+import de.tudarmstadt.lt.lm.perplexity.PerplexityResult;
 import de.tudarmstadt.lt.lm.perplexity.ProbDistPerplexity;
 import de.tudarmstadt.lt.utilities.LogUtils;
 import de.tudarmstadt.lt.utilities.properties.Properties;
@@ -84,6 +90,62 @@ public class BreakIteratorStringProviderTest {
 		System.out.println(Arrays.toString(strprovider.getNgrams("M")));
 	}
 
+	@Test
+	public void testBatchScoring() throws Exception {
+		StringProviderMXBean strprovider = AbstractStringProvider.connectToServer(_host, _rmiport, _lm_id);
+		List<String> sentences = Arrays.asList("The quick brown fox.", "M", "The lazy brown dog jumps.");
+
+		ModelPerplexity<String> perp = new ModelPerplexity<String>(strprovider);
+		for(String sentence : sentences){
+			List<String>[] ngrams = strprovider.getNgrams(sentence);
+			if(ngrams.length < 1 || ngrams[ngrams.length-1].size() < strprovider.getLmOrder())
+				continue;
+			double[] log10probs = strprovider.getNgramLog10Probabilities(ngrams);
+			Assert.assertEquals(ngrams.length, log10probs.length);
+			for(int i = 0; i < ngrams.length; i++)
+				Assert.assertEquals(strprovider.getNgramLog10Probability(ngrams[i]), log10probs[i], 1e-10);
+			for(List<String> ngram : ngrams)
+				perp.addLog10Prob(ngram);
+		}
+		Assert.assertEquals(perp.get(), strprovider.getPerplexityOfSentences(sentences, false), 1e-10);
+		Assert.assertEquals(new ModelPerplexity<String>(strprovider).get(), strprovider.getPerplexityOfSentences(Arrays.<String>asList(), false), 1e-10);
+	}
+
+	@Test
+	public void testBatchPerplexities() throws Exception {
+		StringProviderMXBean strprovider = AbstractStringProvider.connectToServer(_host, _rmiport, _lm_id);
+		List<String> lines = Arrays.asList("The quick brown fox.", "", "Schöne neue Wörld.", "The lazy brown dog jumps.");
+		PerplexityResult[] results = strprovider.getPerplexities(lines);
+		Assert.assertEquals(lines.size(), results.length);
+		for(int i = 0; i < lines.size(); i++){
+			List<String> tokens = strprovider.tokenizeSentence(lines.get(i));
+			if(tokens.isEmpty()){
+				Assert.assertEquals(0, results[i].getNumNgrams());
+				continue;
+			}
+			ModelPerplexity<String> perp = new ModelPerplexity<String>(strprovider);
+			ModelPerplexity<String> perp_oov = new ModelPerplexity<String>(strprovider);
+			for(List<String> ngram : strprovider.getNgramSequence(tokens)){
+				perp_oov.addLog10Prob(ngram);
+				if(!strprovider.ngramEndsWithOOV(ngram))
+					perp.addLog10Prob(ngram);
+			}
+			System.out.format("%s\t%s%n", lines.get(i), results[i]);
+			Assert.assertEquals(perp_oov.getN(), results[i].getNumNgrams());
+			Assert.assertEquals(perp_oov.getN() - perp.getN(), results[i].getNumOov());
+			Assert.assertEquals(perp_oov.get(), results[i].getPerplexity(), 1e-10);
+			Assert.assertEquals(perp.get(), results[i].getPerplexityWithoutOov(), 1e-10);
+		}
+	}
+
+	@Test
+	public void testMXBeanRegistration() throws Exception {
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("de.tudarmstadt.lt.lm:type=ProviderServiceTest");
+		mbs.registerMBean(new BreakIteratorStringProvider(), name);
+		mbs.unregisterMBean(name);
+	}
+
 	@Test
 	public void testFiltering() throws Exception {
 		StringProviderMXBean strprovider = AbstractStringProvider.connectToServer(_host, _rmiport, _lm_id);
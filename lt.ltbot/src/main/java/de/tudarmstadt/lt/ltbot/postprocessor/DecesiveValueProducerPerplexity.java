@@ -18,11 +18,15 @@ package de.tudarmstadt.lt.ltbot.postprocessor;
 import static de.tudarmstadt.lt.ltbot.postprocessor.SharedConstants.EXTRA_INFO_PERPLEXITY;
 import static de.tudarmstadt.lt.ltbot.postprocessor.SharedConstants.EXTRA_INFO_PLAINTEXT_ABBREVIATED;
 
+import java.io.File;
+import java.io.IOException;
 import java.rmi.registry.Registry;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,8 +38,11 @@ import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import de.tudarmstadt.lt.lm.LanguageModel;
+import de.tudarmstadt.lt.lm.app.StartLM;
 import de.tudarmstadt.lt.lm.perplexity.ModelPerplexity;
 import de.tudarmstadt.lt.lm.service.AbstractStringProvider;
+import de.tudarmstadt.lt.lm.service.AsyncStringProviderClient;
 import de.tudarmstadt.lt.lm.service.StringProviderMXBean;
 import de.tudarmstadt.lt.ltbot.text.JSoupTextExtractor;
 import de.tudarmstadt.lt.ltbot.text.TextExtractor;
@@ -58,6 +65,9 @@ public class DecesiveValueProducerPerplexity extends Processor {
 	protected SentenceMaker _sentenceMakerInstance;
 
 	protected ThreadLocal<StringProviderMXBean> _lmprvdr = null;
+	protected volatile AsyncStringProviderClient _asyncclient = null;
+	/** embedded language models, shared by all processors in this JVM, key is the configuration (see {@link #getEmbeddedStringProvider()}) */
+	protected static final Map<String, AbstractStringProvider> _embedded_providers = new ConcurrentHashMap<String, AbstractStringProvider>();
 	protected Object _lck = new Object();
 
 	protected boolean _paused_due_to_error = false;
@@ -72,11 +82,22 @@ public class DecesiveValueProducerPerplexity extends Processor {
 	protected double _perplexity_avg = 0d;
 	protected double _num_values = 0d;
 	protected AtomicLong _num_inf_values = new AtomicLong();
+	protected AtomicLong _num_fallback_values = new AtomicLong();
 
 	public DecesiveValueProducerPerplexity() {
 		setServiceID("defaultlm");
 		setRmihost("localhost");
 		setRmiport(Registry.REGISTRY_PORT);
+		setBatchScoring(true);
+		setBinaryport(-1);
+		setBinaryConnections(4);
+		setMaxPendingRequests(64);
+		setTimeoutMillis(10000L);
+		setFallbackPerplexity(5e4);
+		setEmbeddedLmDir("");
+		setEmbeddedLmType("BerkeleyLM");
+		setEmbeddedProviderType("LtSegProvider");
+		setEmbeddedLmOrder(5);
 
 		TextExtractor extractor = new TextExtractor();
 		extractor.setUtf8Cleaner(new UTF8CleanerMin());
@@ -127,6 +148,132 @@ public class DecesiveValueProducerPerplexity extends Processor {
 		getKeyedProperties().put("rmiport", rmiport);
 	}
 
+	public int getBinaryport() {
+		return (Integer) getKeyedProperties().get("binaryport");
+	}
+
+	/**
+	 * Port of the compact binary protocol of the language model server (see StartLM --binaryport). 
+	 * If set to a positive value, perplexities are computed via the binary protocol instead of RMI, 
+	 * the host is the same as the rmi host but no rmi connection is made. Requests of all toe threads 
+	 * are pipelined over a small pool of connections (see binaryConnections) and a slow or unreachable 
+	 * server results in the fallback perplexity instead of pausing the crawl. Without the binary 
+	 * protocol any error of the rmi service pauses the crawl.
+	 */
+	public void setBinaryport(int binaryport) {
+		getKeyedProperties().put("binaryport", binaryport);
+	}
+
+	public int getBinaryConnections() {
+		return (Integer) getKeyedProperties().get("binaryConnections");
+	}
+
+	/**
+	 * Number of connections to the binary service shared by all toe threads.
+	 */
+	public void setBinaryConnections(int binary_connections) {
+		getKeyedProperties().put("binaryConnections", binary_connections);
+	}
+
+	public int getMaxPendingRequests() {
+		return (Integer) getKeyedProperties().get("maxPendingRequests");
+	}
+
+	/**
+	 * Maximum number of requests sent to the binary service which are not yet answered. 
+	 * Further requests wait shortly for a free slot (at most 100 ms) and are then assigned the fallback perplexity.
+	 */
+	public void setMaxPendingRequests(int max_pending_requests) {
+		getKeyedProperties().put("maxPendingRequests", max_pending_requests);
+	}
+
+	public long getTimeoutMillis() {
+		return (Long) getKeyedProperties().get("timeoutMillis");
+	}
+
+	/**
+	 * Time in milliseconds after which a request to the binary service is given up and the fallback perplexity is assigned.
+	 */
+	public void setTimeoutMillis(long timeout_millis) {
+		getKeyedProperties().put("timeoutMillis", timeout_millis);
+	}
+
+	public double getFallbackPerplexity() {
+		return (Double) getKeyedProperties().get("fallbackPerplexity");
+	}
+
+	/**
+	 * Perplexity assigned if the binary service did not answer in time, is overloaded or unreachable. 
+	 * Only used with the binary protocol (see binaryport), errors of the rmi service pause the crawl.
+	 * The default (5e4) is mapped to NORMAL priority by the default boundaries of the DecesiveValuePrioritizer, 
+	 * a value <= 1 removes such URIs from the frontier.
+	 */
+	public void setFallbackPerplexity(double fallback_perplexity) {
+		getKeyedProperties().put("fallbackPerplexity", fallback_perplexity);
+	}
+
+	public String getEmbeddedLmDir() {
+		return (String) getKeyedProperties().get("embeddedLmDir");
+	}
+
+	/**
+	 * Directory of the language model to load into the crawler JVM (the same as StartLM --dir). 
+	 * If set, perplexities are computed in-process by a language model which is shared by all toe threads 
+	 * and the rmi and binary service settings are ignored. Leave empty (default) to use the remote service.
+	 */
+	public void setEmbeddedLmDir(String embedded_lm_dir) {
+		getKeyedProperties().put("embeddedLmDir", embedded_lm_dir);
+	}
+
+	public String getEmbeddedLmType() {
+		return (String) getKeyedProperties().get("embeddedLmType");
+	}
+
+	/**
+	 * Type of the embedded language model, see StartLM --lmtype (default: BerkeleyLM).
+	 */
+	public void setEmbeddedLmType(String embedded_lm_type) {
+		getKeyedProperties().put("embeddedLmType", embedded_lm_type);
+	}
+
+	public String getEmbeddedProviderType() {
+		return (String) getKeyedProperties().get("embeddedProviderType");
+	}
+
+	/**
+	 * Type of the string provider of the embedded language model, see StartLM --ptype (default: LtSegProvider).
+	 */
+	public void setEmbeddedProviderType(String embedded_provider_type) {
+		getKeyedProperties().put("embeddedProviderType", embedded_provider_type);
+	}
+
+	public int getEmbeddedLmOrder() {
+		return (Integer) getKeyedProperties().get("embeddedLmOrder");
+	}
+
+	/**
+	 * Order of the embedded language model, see StartLM --order (default: 5).
+	 */
+	public void setEmbeddedLmOrder(int embedded_lm_order) {
+		getKeyedProperties().put("embeddedLmOrder", embedded_lm_order);
+	}
+
+	boolean isEmbedded() {
+		return getEmbeddedLmDir() != null && !getEmbeddedLmDir().trim().isEmpty();
+	}
+
+	public boolean getBatchScoring() {
+		return (Boolean) getKeyedProperties().get("batchScoring");
+	}
+
+	/**
+	 * Score all sentences of a document within a single call to the StringProvider (default), 
+	 * instead of one call per ngram. Disable for language model servers which do not provide batch scoring.
+	 */
+	public void setBatchScoring(boolean batch_scoring) {
+		getKeyedProperties().put("batchScoring", batch_scoring);
+	}
+
 	public TextExtractor getTextExtractor() {
 		return _textExtractorInstance;
 	}
@@ -152,6 +299,11 @@ public class DecesiveValueProducerPerplexity extends Processor {
 	}
 
 	public double computePerplexity(String text) throws Exception{
+		AsyncStringProviderClient asyncclient = _asyncclient;
+		if(asyncclient != null)
+			return asyncclient.getPerplexityOfSentences(_sentenceMakerInstance.getSentences(text), false).get();
+		if(getBatchScoring())
+			return _lmprvdr.get().getPerplexityOfSentences(_sentenceMakerInstance.getSentences(text), false);
 		ModelPerplexity<String> perp = new ModelPerplexity<String>(_lmprvdr.get());
 		for(String sentence : _sentenceMakerInstance.getSentences(text)){
 			List<String>[] ngrams = _lmprvdr.get().getNgrams(sentence);
@@ -183,7 +335,7 @@ public class DecesiveValueProducerPerplexity extends Processor {
 			LOG.severe("No TextExtractor specified.");
 		if (fail |= getCrawlController() == null)
 			LOG.severe("No CrawlController specified.");
-		if (fail |= _lmprvdr == null)
+		if (fail |= _lmprvdr == null && _asyncclient == null)
 			LOG.severe("No StringProvider connected.");
 		if (fail)
 			throw new RuntimeException(String.format("%s cancelled start due to errors. See log for more details.", getClass().getSimpleName()));
@@ -214,10 +366,17 @@ public class DecesiveValueProducerPerplexity extends Processor {
 	}
 
 	private void disconnectService() {
-		/* is there something to do? */
+		AsyncStringProviderClient asyncclient = _asyncclient;
+		_asyncclient = null;
+		if(asyncclient != null)
+			try { asyncclient.close(); } catch (IOException e) { /* handle silently */ }
 	}
 
 	private boolean connectStringProviderService() {
+		if(isEmbedded())
+			return connectEmbeddedStringProvider();
+		if(getBinaryport() > 0)
+			return connectBinaryService();
 		LOG.info(String.format("Connecting to service rmi://%s:%d/%s.", getRmihost(), getRmiport(), getServiceID()));
 		if(_lmprvdr == null){
 			_lmprvdr = new ThreadLocal<StringProviderMXBean>(){
@@ -238,6 +397,54 @@ public class DecesiveValueProducerPerplexity extends Processor {
 		return true;
 	}
 
+	private boolean connectEmbeddedStringProvider() {
+		disconnectService();
+		final AbstractStringProvider provider;
+		try {
+			provider = getEmbeddedStringProvider();
+		} catch (Exception e) {
+			LOG.log(Level.SEVERE, String.format("Could not load embedded language model from '%s'.", getEmbeddedLmDir()), e);
+			return false;
+		}
+		_lmprvdr = ThreadLocal.withInitial(() -> provider); // one instance shared by all toe threads
+		return true;
+	}
+
+	/**
+	 * Load the embedded language model once per JVM and configuration, processors of multiple jobs with 
+	 * the same configuration share the model. The model is only read after loading and is safe to be used 
+	 * by multiple threads, just like a model served by StartLM.
+	 */
+	AbstractStringProvider getEmbeddedStringProvider() throws Exception {
+		File lmdir = new File(getEmbeddedLmDir().trim());
+		String key = String.format("%s|%s|%s|%d", lmdir.getAbsolutePath(), getEmbeddedLmType(), getEmbeddedProviderType(), getEmbeddedLmOrder());
+		synchronized (_embedded_providers) {
+			AbstractStringProvider provider = _embedded_providers.get(key);
+			if(provider != null)
+				return provider;
+			LOG.info(String.format("Loading embedded '%s' language model from '%s'.", getEmbeddedLmType(), lmdir.getAbsolutePath()));
+			long begin = System.currentTimeMillis();
+			provider = StartLM.getStringProviderInstance(getEmbeddedProviderType());
+			LanguageModel<String> lm = StartLM.getLanguageModelInstance(getEmbeddedLmType(), provider, lmdir, getEmbeddedLmOrder(), 1, -1, false);
+			provider.setLanguageModel(lm);
+			_embedded_providers.put(key, provider);
+			LOG.info(String.format("Loaded embedded language model from '%s'. Took %d ms.", lmdir.getAbsolutePath(), System.currentTimeMillis() - begin));
+			return provider;
+		}
+	}
+
+	private boolean connectBinaryService() {
+		disconnectService();
+		try {
+			_asyncclient = new AsyncStringProviderClient(getRmihost(), getBinaryport(), getBinaryConnections(), getMaxPendingRequests(), getTimeoutMillis());
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, String.format("Could not connect to binary service %s:%d.", getRmihost(), getBinaryport()), e);
+			return false;
+		}
+		LOG.info(String.format("Connected to binary service %s:%d.", getRmihost(), getBinaryport()));
+		return true;
+	}
+
 	@Override
 	protected boolean shouldProcess(CrawlURI uri) {
 		return uri.hasBeenLinkExtracted() && uri.getContentLength() > 0 && uri.getFetchStatus() >= 200 && uri.getFetchStatus() <= 207;
@@ -297,7 +504,7 @@ public class DecesiveValueProducerPerplexity extends Processor {
 	}
 
 	double getPerplexity(CrawlURI uri) {
-		assert _lmprvdr != null : "String provider service must not be null here. This should have been checked before.";
+		assert _lmprvdr != null || _asyncclient != null : "String provider service must not be null here. This should have been checked before.";
 
 		String cleaned_plaintext = _textExtractorInstance.getCleanedUtf8PlainText(uri).trim();
 		String cleaned_plaintext_abbr = MULTIPLE_SPACES_PATTERN.matcher(StringUtils.abbreviate(cleaned_plaintext, 50)).replaceAll(" ");
@@ -315,6 +522,11 @@ public class DecesiveValueProducerPerplexity extends Processor {
 			//				perplexity = perplexity_new;
 			//			}
 			LOG.finest(String.format("[%s, '%s'] perplexity: %g.", uri.toString(), cleaned_plaintext_abbr, perplexity));
+		} catch (ExecutionException e) {
+			// binary service timed out, is overloaded or the connection was lost; a timed out connection is closed and reopened with the next request
+			_num_fallback_values.incrementAndGet();
+			LOG.log(Level.WARNING, String.format("Could not compute perplexity for URI '%s', assigning fallback perplexity %g. (%s:%s)", uri.toString(), getFallbackPerplexity(), e.getCause().getClass().getSimpleName(), e.getCause().getMessage()));
+			return getFallbackPerplexity();
 		} catch (Throwable t) {
 			for (int i = 1; t != null && i < 10; i++) {
 				LOG.log(Level.SEVERE,
@@ -348,6 +560,9 @@ public class DecesiveValueProducerPerplexity extends Processor {
 			sb.append(String.format("Processor: %s %n", getClass().getName()));
 			sb.append(String.format("  Number of processed URIs: %d %n", (long)( _num_values + _num_inf_values.get())));
 			sb.append(String.format("  Number of URIs with infinite perplexity: %d %n", (long) _num_inf_values.get()));
+			sb.append(String.format("  Number of URIs with fallback perplexity: %d %n", (long) _num_fallback_values.get()));
+			if(_asyncclient != null)
+				sb.append(String.format("  Binary service: %s %n", _asyncclient));
 			sb.append(String.format("  Currently processing: %s %n", _currently_processed_uris.toString()));
 			sb.append(String.format("  Last processed URI: %s (Perplexity: %g) %n", _last_processed_uri == null ? "no-uri" : _last_processed_uri.toString(), _last_assigned_perplexity));
 			sb.append(String.format("  Perplexity values total: %n"));
@@ -23,7 +23,6 @@ import java.io.PrintStream;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.lang.StringUtils;
 import org.archive.io.RecordingInputStream;
@@ -35,6 +34,7 @@ import org.archive.util.FileUtils;
 import de.tudarmstadt.lt.ltbot.postprocessor.SharedConstants;
 import de.tudarmstadt.lt.ltbot.text.TextExtractor;
 import de.tudarmstadt.lt.utilities.TimeUtils;
+import de.tudarmstadt.lt.utilities.io.BlockGzipOutputStream;
 
 
 /**
@@ -288,7 +288,8 @@ public class SentenceWriter extends Processor{
 	protected PrintStream openPrintToFileStream(File outputfile) throws IOException {
 		OutputStream os = new FileOutputStream(outputfile, true);
 		if (getFilenameFormat().endsWith(".gz")){
-			os = new GZIPOutputStream(os); //{{ def.setLevel(Deflater.BEST_COMPRESSION); }};
+			// splittable, i.e. the output can be decompressed in parallel (see BlockGzipInputStream)
+			os = new BlockGzipOutputStream(os);
 		}
 		PrintStream p = new PrintStream(os);
 		p.flush();
@@ -16,8 +16,10 @@
 package de.tudarmstadt.lt.seg.app;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
@@ -25,10 +27,17 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Spliterator;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -45,6 +54,7 @@ import de.tudarmstadt.lt.seg.token.ITokenizer;
 import de.tudarmstadt.lt.seg.token.RuleTokenizer;
 import de.tudarmstadt.lt.utilities.cli.CliUtils;
 import de.tudarmstadt.lt.utilities.cli.ExtendedGnuParser;
+import de.tudarmstadt.lt.utilities.io.ParallelLineEngine;
 
 /**
  * @author Steffen Remus
@@ -57,6 +67,11 @@ public class Segmenter implements Runnable{
 
 	private static boolean DEBUG = false;
 
+	static final int BUFFER_SIZE = 1 << 20;
+
+	/** chunks are cut at a line boundary once they reach this multiple of the chunk size without an empty line */
+	static final int MAX_CHUNK_SIZE_FACTOR = 16;
+
 	public static void main(String[] args) throws ClassNotFoundException {
 		new Segmenter(args).run();
 	}
@@ -83,7 +98,8 @@ public class Segmenter implements Runnable{
 		opts.addOption(OptionBuilder.withLongOpt("source-separator").withArgName("separator").hasArg().withDescription("Specify the separator for the source description. (default: '\\t').").create("sepd"));
 		opts.addOption(OptionBuilder.withLongOpt("sentencesplitter").withArgName("class").hasArg().withDescription("Specify the class of the sentence splitter that you want to use: {BreakSplitter, LineSplitter, RuleSplitter, NullSplitter} (default: RuleSplitter)").create("s"));
 		opts.addOption(OptionBuilder.withLongOpt("tokenizer").withArgName("class").hasArg().withDescription("Specify the class of the word tokinzer that you want to use: {BreakTokenizer, DiffTokenizer, EmptySpaceTokenizer, NullTokenizer} (default: DiffTokenizer)").create("t"));
-		opts.addOption(OptionBuilder.withLongOpt("parallel").withArgName("num").hasArg().withDescription("Specify the number of parallel threads. (Note: output might be genereated in a different order than provided by input, specify 1 if you need to keep the order. Parallel mode requires one document per line [ -l ] (default: 1).").create());
+		opts.addOption(OptionBuilder.withLongOpt("parallel").withArgName("num").hasArg().withDescription("Specify the number of parallel threads. Output is generated in the order of the input. Without [ -l ] the input is split into chunks at empty lines, i.e. at paragraph boundaries (default: 1).").create());
+		opts.addOption(OptionBuilder.withLongOpt("chunksize").withArgName("num").hasArg().withDescription(String.format("Specify the minimum number of characters of a chunk that is processed by a single thread in parallel mode without [ -l ]. Chunks without an empty line are cut at a line break after %d times that size, sentences spanning that line break are split (default: 65536).", MAX_CHUNK_SIZE_FACTOR)).create());
 		opts.addOption(OptionBuilder.withLongOpt("normalize").withDescription("Specify the degree of token normalization [0...4] (default: 0).").hasArg().withArgName("level").create("nl"));
 		opts.addOption(OptionBuilder.withLongOpt("filter").withDescription("Specify the degree of token filtering [0...5] (default: 2).").hasArg().withArgName("level").create("fl"));
 		opts.addOption(OptionBuilder.withLongOpt("merge").withDescription("Specify the degree of merging conscutive items {0,1,2} (default: 0).").hasOptionalArg().withArgName("level").create("ml"));
@@ -118,6 +134,7 @@ public class Segmenter implements Runnable{
 			_merge_types = level_merge >= 1;
 
 			_parallelism = 				Integer.parseInt(cmd.getOptionValue("parallel", "1" ));//Runtime.getRuntime().availableProcessors()
+			_chunk_size =				Integer.parseInt(cmd.getOptionValue("chunksize", String.valueOf(1 << 16)));
 			_one_doc_per_line =			cmd.hasOption("l");
 			_ruleset_sentence =			cmd.getOptionValue("sentence-ruleset");
 			_ruleset_token =			cmd.getOptionValue("token-ruleset");
@@ -138,6 +155,7 @@ public class Segmenter implements Runnable{
 	int 	_level_normalize;
 	int 	_level_filter;
 	int 	_parallelism;
+	int 	_chunk_size = 1 << 16;
 	String 	_filename_in;
 	String 	_filename_out;
 	String	_tokenizer_type;
@@ -159,9 +177,9 @@ public class Segmenter implements Runnable{
 		System.err.println("Setting parallelism to " + _parallelism);
 		System.err.format("Using '%s' and '%s'.%n", _tokenizer_type, _sentence_splitter_type);
 		try{
-			if(_parallelism > 1 && _one_doc_per_line)
+			if(_parallelism > 1)
 				run_parallel();
-			else if(_parallelism <= 1 && _one_doc_per_line)
+			else if(_one_doc_per_line)
 				run_sequential_line();
 			else
 				run_sequential_stream();
@@ -236,36 +254,13 @@ public class Segmenter implements Runnable{
 		}
 	}
 
+	/**
+	 * Segments documents (lines with [ -l ], chunks of paragraphs otherwise) with <code>_parallelism</code> threads, each
+	 * with its own sentence splitter and tokenizer, and writes the results in input order.
+	 */
 	private void run_parallel() throws Exception{
-
-
-		//		long start = System.currentTimeMillis();
-		//		IntStream s = IntStream.range(0, 20);
-		////System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "20");
-		//		s.parallel().forEach(i -> {
-		//			try { Thread.sleep(100); } catch (Exception ignore) {}
-		//			System.out.print((System.currentTimeMillis() - start) + " ");
-		//		});
-		//		val forkJoinPool:ForkJoinPool = new ForkJoinPool(num_threads);
-		//    forkJoinPool.submit(new Runnable() { 
-		//      def run() = lines.parallel()
-		//        .map[String](parsefun)
-		//        .forEach(writefun)
-		//    }).get
-
-
-		// TODO: replace executorservice by the above stream provided parallelism stuff
-		//		ExecutorService t = new ThreadPoolExecutor(_parallelism, _parallelism, 20L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-
-		InputStream in = System.in;
-		if(!"-".equals(_filename_in))
-			in = new FileInputStream(_filename_in);
-		Stream<String> liter = new BufferedReader(new InputStreamReader(in, Charset.defaultCharset())).lines();
-
-		OutputStream out = System.out;
-		if(!"-".equals(_filename_out))
-			out = new FileOutputStream(_filename_out);
-		PrintWriter w = new PrintWriter(new OutputStreamWriter(out, Charset.defaultCharset()));
+		BufferedReader r = newReader();
+		PrintWriter w = new PrintWriter(newWriter());
 
 		ThreadLocal<ISentenceSplitter> sentenceSplitter = ThreadLocal.withInitial(() -> {
 			try {
@@ -282,30 +277,80 @@ public class Segmenter implements Runnable{
 			}
 		});
 
-		AtomicLong lc = new AtomicLong(0);
-		ForkJoinPool forkJoinPool = new ForkJoinPool(_parallelism);
-		forkJoinPool.submit(() -> 
-			liter.parallel().forEach((line) -> {
-				final long docid = lc.incrementAndGet();
-				if(docid % 1000 == 0)
-					System.err.format("Processing line %d ('%s')%n", docid, _filename_in);
-	
-				String l = line.replace("\\t", "\t").replace("\\n", "\n");
-				split_and_tokenize(
-						new StringReader(l),
-						String.format("%s:%d", _filename_in, docid),
-						sentenceSplitter.get(), 
-						tokenizer.get(), 
-						_level_filter,
-						_level_normalize,
-						_merge_types,
-						_merge_tokens,
-						_separator_sentence,
-						_separator_token,
-						_separator_desc,
-						w);
-		})).get();
+		ParallelLineEngine<String> engine = new ParallelLineEngine<String>(_parallelism, _one_doc_per_line ? ParallelLineEngine.DEFAULT_BATCH_SIZE : 1, 4 * _parallelism, true);
+		ParallelLineEngine.LineFunction<String> segment = (doc, docnum) -> {
+			if(_one_doc_per_line && docnum % 1000 == 0)
+				System.err.format("Processing line %d ('%s')%n", docnum, _filename_in);
+			StringWriter sw = new StringWriter();
+			split_and_tokenize(
+					new StringReader(_one_doc_per_line ? doc.replace("\\t", "\t").replace("\\n", "\n") : doc),
+					_one_doc_per_line ? String.format("%s:%d", _filename_in, docnum) : _filename_in,
+					sentenceSplitter.get(), 
+					tokenizer.get(), 
+					_level_filter,
+					_level_normalize,
+					_merge_types,
+					_merge_tokens,
+					_separator_sentence,
+					_separator_token,
+					_separator_desc,
+					new PrintWriter(sw));
+			return sw.getBuffer().length() == 0 ? null : sw.toString();
+		};
+
+		try{
+			engine.process(_one_doc_per_line ? r::readLine : paragraphChunks(r, _chunk_size, (int)Math.min(Integer.MAX_VALUE, (long)MAX_CHUNK_SIZE_FACTOR * _chunk_size)), segment, w::print);
+		}finally{
+			r.close();
+			w.flush();
+			if(!"-".equals(_filename_out))
+				w.close();
+			else
+				System.out.flush();
+		}
+	}
 
+	/**
+	 * @return chunks of consecutive lines with at least <code>chunk_size</code> characters (except for the last one) that end with an empty line, 
+	 * i.e. a sentence boundary ('\n\n') which makes the chunks independent of each other. If there is no empty line, a chunk ends at the first 
+	 * line break after <code>max_chunk_size</code> characters, a sentence that spans this line break is split into two sentences.
+	 */
+	static ParallelLineEngine.RecordSource paragraphChunks(BufferedReader r, int chunk_size, int max_chunk_size) {
+		StringBuilder chunk = new StringBuilder();
+		boolean[] warned = new boolean[]{ false };
+		return () -> {
+			chunk.setLength(0);
+			for(String line; (line = r.readLine()) != null;){
+				chunk.append(line).append('\n');
+				if(line.isEmpty() && chunk.length() >= chunk_size)
+					break;
+				if(chunk.length() >= max_chunk_size){
+					if(!warned[0])
+						System.err.format("No empty line within %d characters, cutting chunks at line breaks. Sentences spanning these line breaks are split, specify [ -l ] if there is one document per line.%n", max_chunk_size);
+					warned[0] = true;
+					break;
+				}
+			}
+			return chunk.length() == 0 ? null : chunk.toString();
+		};
+	}
+
+	/**
+	 * @return a reader of the input file (or stdin) that reads from a channel with a large buffer
+	 */
+	BufferedReader newReader() throws IOException {
+		ReadableByteChannel in = "-".equals(_filename_in) ? Channels.newChannel(System.in) : FileChannel.open(Paths.get(_filename_in), StandardOpenOption.READ);
+		Reader r = Channels.newReader(in, Charset.defaultCharset().newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), BUFFER_SIZE);
+		return new BufferedReader(r, BUFFER_SIZE);
+	}
+
+	/**
+	 * @return a writer to the output file (or stdout) that writes to a channel with a large buffer
+	 */
+	Writer newWriter() throws IOException {
+		WritableByteChannel out = "-".equals(_filename_out) ? Channels.newChannel(System.out) : FileChannel.open(Paths.get(_filename_out), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		Writer w = Channels.newWriter(out, Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), BUFFER_SIZE);
+		return new BufferedWriter(w, BUFFER_SIZE);
 	}
 
 	public static void split_and_tokenize(Reader reader, String docid, ISentenceSplitter sentenceSplitter, ITokenizer tokenizer, int level_filter, int level_normalize, boolean merge_types, boolean merge_tokens, String separator_sentence, String separator_token, String separator_desc, PrintWriter writer){
@@ -0,0 +1,87 @@
+/*
+ *   Copyright 2015
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.seg.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tudarmstadt.lt.seg.token.TokenizerTest;
+import de.tudarmstadt.lt.utilities.io.ParallelLineEngine;
+
+/**
+ * @author Steffen Remus
+ *
+ */
+public class SegmenterTest {
+
+	static String segment(File in, String... args) throws IOException {
+		File out = File.createTempFile("segmenter", ".txt");
+		out.deleteOnExit();
+		String[] all_args = new String[args.length + 4];
+		System.arraycopy(new String[]{ "-f", in.getAbsolutePath(), "-o", out.getAbsolutePath() }, 0, all_args, 0, 4);
+		System.arraycopy(args, 0, all_args, 4, args.length);
+		new Segmenter(all_args).run();
+		return FileUtils.readFileToString(out, Charset.defaultCharset());
+	}
+
+	@Test
+	public void testParallelKeepsOrder() throws IOException {
+		File in = File.createTempFile("segmenter", ".txt");
+		in.deleteOnExit();
+		StringBuilder b = new StringBuilder();
+		for(int i = 0; i < 200; i++)
+			b.append(String.format("Paragraph %d. %s%n%s%n%n", i, TokenizerTest.TEST_TEXT.replace("\n", " "), "Another line of the same paragraph."));
+		FileUtils.writeStringToFile(in, b.toString(), Charset.defaultCharset());
+
+		String expected = segment(in);
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected, segment(in, "--parallel", "4", "--chunksize", "500"));
+
+		expected = segment(in, "-l");
+		Assert.assertEquals(expected, segment(in, "-l", "--parallel", "4"));
+	}
+
+	@Test
+	public void testChunksWithoutEmptyLines() throws IOException {
+		StringBuilder b = new StringBuilder();
+		for(int i = 0; i < 2000; i++)
+			b.append(String.format("Sentence number %d is on a line of its own.%n", i));
+
+		int num_chunks = 0;
+		ParallelLineEngine.RecordSource chunks = Segmenter.paragraphChunks(new BufferedReader(new StringReader(b.toString())), 100, 1000);
+		StringBuilder concatenated = new StringBuilder();
+		for(String chunk; (chunk = chunks.next()) != null; num_chunks++){
+			Assert.assertTrue(chunk.length() < 1000 + 100);
+			concatenated.append(chunk);
+		}
+		Assert.assertTrue(num_chunks > 10);
+		Assert.assertEquals(b.toString().replace(System.lineSeparator(), "\n"), concatenated.toString());
+
+		File in = File.createTempFile("segmenter", ".txt");
+		in.deleteOnExit();
+		FileUtils.writeStringToFile(in, b.toString(), Charset.defaultCharset());
+		// lines end with a sentence, i.e. cutting at line breaks does not change the result here
+		Assert.assertEquals(segment(in), segment(in, "--parallel", "4", "--chunksize", "100"));
+	}
+
+}
@@ -16,10 +16,12 @@
 package de.tudarmstadt.lt.utilities;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.charset.Charset;
 
@@ -73,6 +75,33 @@ public class IOUtils {
 		return new String(bytes, charset);
 	}
 
+	/**
+	 * Write a non negative long with 7 bits per byte, the highest bit marks that more bytes follow.
+	 */
+	public static void writeVarLong(OutputStream out, long v) throws IOException {
+		while((v & ~0x7FL) != 0){
+			out.write((int)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int)v);
+	}
+
+	/**
+	 * @throws EOFException if the stream ends before the first byte
+	 */
+	public static long readVarLong(InputStream in) throws IOException {
+		long v = 0;
+		for(int shift = 0; shift < 64; shift += 7){
+			int b = in.read();
+			if(b < 0)
+				throw new EOFException();
+			v |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return v;
+		}
+		throw new IOException("Malformed variable length long.");
+	}
+
 	public static class CountingLineIterator extends LineIterator {
 
 		public CountingLineIterator(Reader reader) throws IllegalArgumentException {
@@ -0,0 +1,129 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.collections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import de.tudarmstadt.lt.utilities.hashing.MurmurHash3;
+
+/**
+ * Bloom filter over strings. {@link #mightContain(CharSequence)} never returns false for an added string and returns true
+ * for a string that was not added with about the false positive rate the filter was sized for.
+ * The k bit positions are derived from two murmur3 hashes of the UTF-8 bytes (h1 + i * h2), no bytes are encoded or allocated.
+ *
+ * Adding is not thread safe, querying a filter that is not modified anymore is.
+ *
+ * @author Steffen Remus
+ */
+public class BloomFilter {
+
+	private static final int MAGIC = 0x424C4F4D; // BLOM
+	private static final int SEED1 = 0x9747B28C;
+	private static final int SEED2 = 0x5BD1E995;
+
+	private final long _num_bits;
+	private final int _num_hashes;
+	private final long[] _bits;
+
+	/**
+	 * @param expected_insertions the number of strings that will be added
+	 * @param false_positive_rate the desired false positive rate in (0,1)
+	 */
+	public BloomFilter(long expected_insertions, double false_positive_rate) {
+		if(false_positive_rate <= 0 || false_positive_rate >= 1)
+			throw new IllegalArgumentException(String.format("False positive rate must be in (0,1), but was %g.", false_positive_rate));
+		long n = Math.max(1, expected_insertions);
+		long m = Math.max(64, (long)Math.ceil(-n * Math.log(false_positive_rate) / (Math.log(2) * Math.log(2))));
+		if(m > (1L << 32))
+			throw new IllegalArgumentException(String.format("Bloom filter for %d strings with a false positive rate of %g exceeds 2^32 bits.", n, false_positive_rate));
+		_num_bits = (m + 63) & ~63L;
+		_num_hashes = Math.max(1, (int)Math.round((double)_num_bits / n * Math.log(2)));
+		_bits = new long[(int)(_num_bits >>> 6)];
+	}
+
+	private BloomFilter(long num_bits, int num_hashes, long[] bits) {
+		_num_bits = num_bits;
+		_num_hashes = num_hashes;
+		_bits = bits;
+	}
+
+	public void add(CharSequence s) {
+		long h1 = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), SEED1) & 0xFFFFFFFFL;
+		long h2 = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), SEED2) & 0xFFFFFFFFL;
+		for(int i = 0; i < _num_hashes; i++){
+			long bit = (h1 + i * h2) % _num_bits;
+			_bits[(int)(bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @return false if s was definitely not added, true if it might have been added
+	 */
+	public boolean mightContain(CharSequence s) {
+		long h1 = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), SEED1) & 0xFFFFFFFFL;
+		long h2 = MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), SEED2) & 0xFFFFFFFFL;
+		for(int i = 0; i < _num_hashes; i++){
+			long bit = (h1 + i * h2) % _num_bits;
+			if((_bits[(int)(bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	public long getNumBits() {
+		return _num_bits;
+	}
+
+	public int getNumHashes() {
+		return _num_hashes;
+	}
+
+	public void write(File f) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16))){
+			out.writeInt(MAGIC);
+			out.writeLong(_num_bits);
+			out.writeInt(_num_hashes);
+			for(long word : _bits)
+				out.writeLong(word);
+		}
+	}
+
+	public static BloomFilter read(File f) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16))){
+			if(in.readInt() != MAGIC)
+				throw new IOException(String.format("'%s' is not a bloom filter file.", f));
+			long num_bits = in.readLong();
+			int num_hashes = in.readInt();
+			long[] bits = new long[(int)(num_bits >>> 6)];
+			for(int i = 0; i < bits.length; i++)
+				bits[i] = in.readLong();
+			return new BloomFilter(num_bits, num_hashes, bits);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[bits=%d, hashes=%d]", getClass().getSimpleName(), _num_bits, _num_hashes);
+	}
+
+}
@@ -0,0 +1,234 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.collections;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bag of primitive long elements with primitive int quantities, see {@link ObjectIntBag}. Adding an element never allocates
+ * apart from growing the table, e.g. for counting hashes or packed ids.
+ *
+ * Not thread safe, count on one bag per thread and {@link #merge(List)} the bags afterwards.
+ *
+ * @author Steffen Remus
+ */
+public class LongIntBag {
+
+	@FunctionalInterface
+	public interface LongIntConsumer {
+		void accept(long e, int count);
+	}
+
+	private static final float LOAD_FACTOR = .6f;
+
+	private long[] _keys;
+	private int[] _counts; // 0 = free slot
+	private int _mask;
+	private int _size;
+	private int _threshold;
+	private long _total;
+
+	public LongIntBag() {
+		this(16);
+	}
+
+	public LongIntBag(int expected_size) {
+		allocate(Integer.highestOneBit(Math.max(4, (int)(expected_size / LOAD_FACTOR)) - 1) << 1);
+	}
+
+	private void allocate(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalStateException(String.format("Bag exceeds the maximum capacity (%d elements).", _size));
+		_keys = new long[capacity];
+		_counts = new int[capacity];
+		_mask = capacity - 1;
+		_threshold = (int)(capacity * LOAD_FACTOR);
+	}
+
+	private static int hash(long e) {
+		// murmur3 64 bit finalizer
+		e ^= e >>> 33;
+		e *= 0xFF51AFD7ED558CCDL;
+		e ^= e >>> 33;
+		e *= 0xC4CEB9FE1A85EC53L;
+		return (int)(e ^ (e >>> 33));
+	}
+
+	/**
+	 * @return the slot of e or the bitwise complement of the free slot where it would be inserted
+	 */
+	private int find(long e) {
+		for(int slot = hash(e) & _mask;; slot = (slot + 1) & _mask){
+			if(_counts[slot] == 0)
+				return ~slot;
+			if(_keys[slot] == e)
+				return slot;
+		}
+	}
+
+	/**
+	 * add element and return the new quantity
+	 */
+	public int add(long e) {
+		return addTo(e, 1);
+	}
+
+	/**
+	 * add count to the quantity of element e and return the new quantity
+	 */
+	public int addTo(long e, int count) {
+		int slot = find(e);
+		_total += count;
+		if(slot >= 0){
+			int quantity = _counts[slot] += count;
+			if(quantity == 0)
+				removeSlot(slot);
+			return quantity;
+		}
+		if(count == 0)
+			return 0;
+		slot = ~slot;
+		_keys[slot] = e;
+		_counts[slot] = count;
+		if(++_size > _threshold)
+			rehash();
+		return count;
+	}
+
+	/**
+	 * @return the quantity of element e, 0 if it is not contained
+	 */
+	public int getQuantity(long e) {
+		int slot = find(e);
+		return slot >= 0 ? _counts[slot] : 0;
+	}
+
+	public boolean contains(long e) {
+		return find(e) >= 0;
+	}
+
+	/**
+	 * remove element and return the new quantity
+	 */
+	public int removeOne(long e) {
+		return contains(e) ? addTo(e, -1) : 0;
+	}
+
+	/**
+	 * remove all elements quantity and return old quantity
+	 */
+	public int removeAll(long e) {
+		int slot = find(e);
+		if(slot < 0)
+			return 0;
+		int quantity = _counts[slot];
+		_total -= quantity;
+		removeSlot(slot);
+		return quantity;
+	}
+
+	private void removeSlot(int gap) {
+		for(int slot = (gap + 1) & _mask; _counts[slot] != 0; slot = (slot + 1) & _mask){
+			int ideal = hash(_keys[slot]) & _mask;
+			if(((slot - ideal) & _mask) >= ((slot - gap) & _mask)){
+				_keys[gap] = _keys[slot];
+				_counts[gap] = _counts[slot];
+				gap = slot;
+			}
+		}
+		_counts[gap] = 0;
+		_size--;
+	}
+
+	private void rehash() {
+		long[] keys = _keys;
+		int[] counts = _counts;
+		allocate(keys.length << 1);
+		for(int i = 0; i < keys.length; i++){
+			if(counts[i] == 0)
+				continue;
+			int slot = ~find(keys[i]);
+			_keys[slot] = keys[i];
+			_counts[slot] = counts[i];
+		}
+	}
+
+	/**
+	 * add the quantities of all elements of other to this bag
+	 */
+	public void addAll(LongIntBag other) {
+		other.forEach((e, count) -> addTo(e, count));
+	}
+
+	/**
+	 * Merge bags, e.g. the bags that were counted on different threads. The bags are added to the largest bag, which is
+	 * returned, i.e. the given bags must not be used afterwards.
+	 */
+	public static LongIntBag merge(List<LongIntBag> bags) {
+		if(bags.isEmpty())
+			return new LongIntBag();
+		LongIntBag largest = bags.get(0);
+		for(LongIntBag bag : bags)
+			if(bag.size() > largest.size())
+				largest = bag;
+		for(LongIntBag bag : bags)
+			if(bag != largest)
+				largest.addAll(bag);
+		return largest;
+	}
+
+	/**
+	 * call consumer for every element and its quantity, in no particular order
+	 */
+	public void forEach(LongIntConsumer consumer) {
+		for(int i = 0; i < _keys.length; i++)
+			if(_counts[i] != 0)
+				consumer.accept(_keys[i], _counts[i]);
+	}
+
+	/**
+	 * @return the number of distinct elements
+	 */
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * @return the sum of all quantities
+	 */
+	public long getTotal() {
+		return _total;
+	}
+
+	public void clear() {
+		Arrays.fill(_counts, 0);
+		_size = 0;
+		_total = 0;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder b = new StringBuilder("{");
+		forEach((e, count) -> b.append(b.length() > 1 ? ", " : "").append(e).append('=').append(count));
+		return b.append('}').toString();
+	}
+
+}
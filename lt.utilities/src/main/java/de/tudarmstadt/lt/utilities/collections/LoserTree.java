@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.collections;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Tournament tree for k-way merging of sorted inputs. The inner nodes store the loser of a match, the overall
+ * winner is replayed against log2(k) losers after it was advanced, i.e. one comparison per level
+ * compared to about two per level for sifting down a binary heap.
+ *
+ * Inputs are referenced by index, the caller holds the current elements and advances the winner, e.g.
+ * <pre>
+ * for(int w; (w = tree.winner()) >= 0; tree.update()){
+ *   consume(current[w]);
+ *   advance(w);
+ * }
+ * </pre>
+ * Equal elements are won by the input with the lower index, i.e. merging is stable.
+ *
+ * @author Steffen Remus
+ */
+public class LoserTree {
+
+	public interface Inputs {
+
+		/**
+		 * @return true if input i has a current element
+		 */
+		boolean hasCurrent(int i);
+
+		/**
+		 * Compare the current elements of inputs i and j.
+		 */
+		int compare(int i, int j);
+
+	}
+
+	private final int _k;
+	private final Inputs _inputs;
+	/** _tree[0] is the winner, _tree[1.._k-1] are the losers of the inner nodes, inputs are the virtual leaves _k.._2k-1 */
+	private final int[] _tree;
+
+	public LoserTree(int k, Inputs inputs) {
+		_k = k;
+		_inputs = inputs;
+		_tree = new int[Math.max(1, k)];
+		if(k > 0)
+			_tree[0] = build(1);
+	}
+
+	private int build(int node) {
+		if(node >= _k)
+			return node - _k;
+		int left = build(2 * node);
+		int right = build(2 * node + 1);
+		if(beats(left, right)){
+			_tree[node] = right;
+			return left;
+		}
+		_tree[node] = left;
+		return right;
+	}
+
+	private boolean beats(int a, int b) {
+		if(!_inputs.hasCurrent(a))
+			return false;
+		if(!_inputs.hasCurrent(b))
+			return true;
+		int c = _inputs.compare(a, b);
+		return c < 0 || (c == 0 && a < b);
+	}
+
+	/**
+	 * @return the index of the input with the smallest current element or -1 if all inputs are exhausted
+	 */
+	public int winner() {
+		if(_k == 0 || !_inputs.hasCurrent(_tree[0]))
+			return -1;
+		return _tree[0];
+	}
+
+	/**
+	 * Replay the matches of the winner, call after the winner was advanced.
+	 */
+	public void update() {
+		if(_k == 0)
+			return;
+		int winner = _tree[0];
+		for(int node = (winner + _k) >> 1; node > 0; node >>= 1){
+			if(beats(_tree[node], winner)){
+				int loser = winner;
+				winner = _tree[node];
+				_tree[node] = loser;
+			}
+		}
+		_tree[0] = winner;
+	}
+
+	/**
+	 * @return an iterator over the merged elements of the sorted iterators
+	 */
+	public static <T> Iterator<T> merge(List<? extends Iterator<? extends T>> iterators, Comparator<? super T> comparator) {
+		final List<Iterator<? extends T>> its = new ArrayList<Iterator<? extends T>>(iterators);
+		final List<T> current = new ArrayList<T>(its.size());
+		final boolean[] has_current = new boolean[its.size()];
+		for(int i = 0; i < its.size(); i++){
+			has_current[i] = its.get(i).hasNext();
+			current.add(has_current[i] ? its.get(i).next() : null);
+		}
+		final LoserTree tree = new LoserTree(its.size(), new Inputs() {
+			@Override
+			public boolean hasCurrent(int i) {
+				return has_current[i];
+			}
+
+			@Override
+			public int compare(int i, int j) {
+				return comparator.compare(current.get(i), current.get(j));
+			}
+		});
+
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return tree.winner() >= 0;
+			}
+
+			@Override
+			public T next() {
+				int w = tree.winner();
+				if(w < 0)
+					throw new NoSuchElementException();
+				T result = current.get(w);
+				has_current[w] = its.get(w).hasNext();
+				current.set(w, has_current[w] ? its.get(w).next() : null);
+				tree.update();
+				return result;
+			}
+		};
+	}
+
+}
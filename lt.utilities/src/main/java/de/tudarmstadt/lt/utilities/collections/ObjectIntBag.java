@@ -0,0 +1,232 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.collections;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Bag with primitive int quantities in an open addressing hash table (linear probing, backward shift deletion).
+ * Unlike {@link HashBag} adding an element is a single probe and allocates nothing once the element is present.
+ * Elements with quantity 0 are removed, null elements are not allowed.
+ *
+ * Not thread safe, count on one bag per thread and {@link #merge(List)} the bags afterwards.
+ *
+ * @author Steffen Remus
+ *
+ * @param <E>
+ */
+public class ObjectIntBag<E> {
+
+	private static final float LOAD_FACTOR = .6f;
+
+	private Object[] _keys;
+	private int[] _counts; // 0 = free slot
+	private int _mask;
+	private int _size;
+	private int _threshold;
+	private long _total;
+
+	public ObjectIntBag() {
+		this(16);
+	}
+
+	public ObjectIntBag(int expected_size) {
+		allocate(Integer.highestOneBit(Math.max(4, (int)(expected_size / LOAD_FACTOR)) - 1) << 1);
+	}
+
+	private void allocate(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalStateException(String.format("Bag exceeds the maximum capacity (%d elements).", _size));
+		_keys = new Object[capacity];
+		_counts = new int[capacity];
+		_mask = capacity - 1;
+		_threshold = (int)(capacity * LOAD_FACTOR);
+	}
+
+	private static int hash(Object e) {
+		int h = e.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return the slot of e or the bitwise complement of the free slot where it would be inserted
+	 */
+	private int find(Object e) {
+		for(int slot = hash(e) & _mask;; slot = (slot + 1) & _mask){
+			if(_counts[slot] == 0)
+				return ~slot;
+			if(e.equals(_keys[slot]))
+				return slot;
+		}
+	}
+
+	/**
+	 * add element and return the new quantity
+	 */
+	public int add(E e) {
+		return addTo(e, 1);
+	}
+
+	/**
+	 * add count to the quantity of element e and return the new quantity
+	 */
+	public int addTo(E e, int count) {
+		int slot = find(e);
+		_total += count;
+		if(slot >= 0){
+			int quantity = _counts[slot] += count;
+			if(quantity == 0)
+				removeSlot(slot);
+			return quantity;
+		}
+		if(count == 0)
+			return 0;
+		slot = ~slot;
+		_keys[slot] = e;
+		_counts[slot] = count;
+		if(++_size > _threshold)
+			rehash();
+		return count;
+	}
+
+	/**
+	 * @return the quantity of element e, 0 if it is not contained
+	 */
+	public int getQuantity(Object e) {
+		int slot = find(e);
+		return slot >= 0 ? _counts[slot] : 0;
+	}
+
+	public boolean contains(Object e) {
+		return find(e) >= 0;
+	}
+
+	/**
+	 * remove element and return the new quantity
+	 */
+	public int removeOne(E e) {
+		return contains(e) ? addTo(e, -1) : 0;
+	}
+
+	/**
+	 * remove all elements quantity and return old quantity
+	 */
+	public int removeAll(Object e) {
+		int slot = find(e);
+		if(slot < 0)
+			return 0;
+		int quantity = _counts[slot];
+		_total -= quantity;
+		removeSlot(slot);
+		return quantity;
+	}
+
+	private void removeSlot(int gap) {
+		for(int slot = (gap + 1) & _mask; _counts[slot] != 0; slot = (slot + 1) & _mask){
+			int ideal = hash(_keys[slot]) & _mask;
+			if(((slot - ideal) & _mask) >= ((slot - gap) & _mask)){
+				_keys[gap] = _keys[slot];
+				_counts[gap] = _counts[slot];
+				gap = slot;
+			}
+		}
+		_keys[gap] = null;
+		_counts[gap] = 0;
+		_size--;
+	}
+
+	private void rehash() {
+		Object[] keys = _keys;
+		int[] counts = _counts;
+		allocate(keys.length << 1);
+		for(int i = 0; i < keys.length; i++){
+			if(counts[i] == 0)
+				continue;
+			int slot = ~find(keys[i]);
+			_keys[slot] = keys[i];
+			_counts[slot] = counts[i];
+		}
+	}
+
+	/**
+	 * add the quantities of all elements of other to this bag
+	 */
+	public void addAll(ObjectIntBag<? extends E> other) {
+		other.forEach((e, count) -> addTo(e, count));
+	}
+
+	/**
+	 * Merge bags, e.g. the bags that were counted on different threads. The bags are added to the largest bag, which is
+	 * returned, i.e. the given bags must not be used afterwards.
+	 */
+	public static <E> ObjectIntBag<E> merge(List<ObjectIntBag<E>> bags) {
+		if(bags.isEmpty())
+			return new ObjectIntBag<E>();
+		ObjectIntBag<E> largest = bags.get(0);
+		for(ObjectIntBag<E> bag : bags)
+			if(bag.size() > largest.size())
+				largest = bag;
+		for(ObjectIntBag<E> bag : bags)
+			if(bag != largest)
+				largest.addAll(bag);
+		return largest;
+	}
+
+	/**
+	 * call consumer for every element and its quantity, in no particular order
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(ObjIntConsumer<? super E> consumer) {
+		for(int i = 0; i < _keys.length; i++)
+			if(_counts[i] != 0)
+				consumer.accept((E)_keys[i], _counts[i]);
+	}
+
+	/**
+	 * @return the number of distinct elements
+	 */
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * @return the sum of all quantities
+	 */
+	public long getTotal() {
+		return _total;
+	}
+
+	public void clear() {
+		Arrays.fill(_keys, null);
+		Arrays.fill(_counts, 0);
+		_size = 0;
+		_total = 0;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder b = new StringBuilder("{");
+		forEach((e, count) -> b.append(b.length() > 1 ? ", " : "").append(e).append('=').append(count));
+		return b.append('}').toString();
+	}
+
+}
@@ -0,0 +1,295 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a block gzip file written by {@link BlockGzipOutputStream}. The calling thread reads the compressed members,
+ * which are decompressed by a pool of threads, and the decompressed bytes are returned in the original order.
+ * Since every member starts at a line, a reader can also start at any offset of {@link #getBlockOffsets(File)}.
+ *
+ * Use {@link #open(File, int)} for files that may be block gzip, ordinary gzip or uncompressed files.
+ *
+ * All streams share one pool of daemon threads, which grows to the largest number of threads requested by a stream,
+ * such that many streams that are open at the same time do not create a pool each.
+ *
+ * @author Steffen Remus
+ */
+public class BlockGzipInputStream extends InputStream {
+
+	private static final byte[] EMPTY = new byte[0];
+
+	/**
+	 * The default number of decompressing threads, half the number of available processors unless
+	 * the system property 'lt.utilities.decompressionThreads' is set.
+	 */
+	public static final int DEFAULT_NUM_THREADS = Math.max(1, Integer.getInteger("lt.utilities.decompressionThreads", Runtime.getRuntime().availableProcessors() / 2));
+
+	private static ThreadPoolExecutor _shared_executor;
+
+	static final int PLAIN = 0;
+	static final int GZIP = 1;
+	static final int BLOCK_GZIP = 2;
+
+	private final InputStream _in;
+	private final ExecutorService _executor;
+	private final int _max_pending;
+	private final Deque<Future<byte[]>> _pending = new ArrayDeque<Future<byte[]>>();
+	private byte[] _block = EMPTY;
+	private int _pos;
+	private boolean _eof;
+
+	/**
+	 * @param in the compressed stream positioned at the beginning of a block
+	 * @param num_threads the number of threads that decompress blocks of this stream, blocks are decompressed by the calling thread if num_threads &lt; 2
+	 */
+	public BlockGzipInputStream(InputStream in, int num_threads) {
+		_in = in;
+		_max_pending = 2 * Math.max(1, num_threads);
+		_executor = num_threads < 2 ? null : sharedExecutor(num_threads);
+	}
+
+	/**
+	 * @return the executor that is shared by all streams, with at least num_threads threads
+	 */
+	static synchronized ExecutorService sharedExecutor(int num_threads) {
+		if(_shared_executor == null){
+			_shared_executor = new ThreadPoolExecutor(num_threads, num_threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+				Thread t = new Thread(r, BlockGzipInputStream.class.getSimpleName());
+				t.setDaemon(true);
+				return t;
+			});
+			_shared_executor.allowCoreThreadTimeOut(true);
+		}else if(_shared_executor.getMaximumPoolSize() < num_threads){
+			_shared_executor.setMaximumPoolSize(num_threads);
+			_shared_executor.setCorePoolSize(num_threads);
+		}
+		return _shared_executor;
+	}
+
+	/**
+	 * @return a stream of the decompressed content of f, which may be a block gzip file (decompressed in parallel), an ordinary gzip file or an uncompressed file
+	 */
+	public static InputStream open(File f, int num_threads) throws IOException {
+		int type = getType(f);
+		InputStream in = new BufferedInputStream(new FileInputStream(f), 1 << 16);
+		if(type == BLOCK_GZIP)
+			return new BlockGzipInputStream(in, num_threads);
+		if(type == GZIP)
+			return new GZIPInputStream(in, 1 << 16);
+		return in;
+	}
+
+	static int getType(File f) throws IOException {
+		byte[] header = new byte[BlockGzipOutputStream.HEADER_SIZE];
+		try(InputStream in = new FileInputStream(f)){
+			int n = 0;
+			for(int r; n < header.length && (r = in.read(header, n, header.length - n)) > 0; n += r);
+			if(n < 2 || header[0] != 0x1f || header[1] != (byte)0x8b)
+				return PLAIN;
+			return n == header.length && getMemberSize(header) > 0 ? BLOCK_GZIP : GZIP;
+		}
+	}
+
+	public static boolean isBlockGzip(File f) throws IOException {
+		return getType(f) == BLOCK_GZIP;
+	}
+
+	/**
+	 * @return the size of the member or -1 if the header is not a block gzip header
+	 */
+	static int getMemberSize(byte[] header) {
+		if(header[0] != 0x1f || header[1] != (byte)0x8b || header[2] != 8 || (header[3] & 4) == 0)
+			return -1;
+		if(getShort(header, 10) != 8 || header[12] != BlockGzipOutputStream.SI1 || header[13] != BlockGzipOutputStream.SI2 || getShort(header, 14) != 4)
+			return -1;
+		return getInt(header, 16);
+	}
+
+	static int getShort(byte[] b, int off) {
+		return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+	}
+
+	static int getInt(byte[] b, int off) {
+		return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+	}
+
+	/**
+	 * @return the byte offsets of the blocks of a block gzip file, found by skipping from header to header
+	 */
+	public static List<Long> getBlockOffsets(File f) throws IOException {
+		List<Long> offsets = new ArrayList<Long>();
+		byte[] header = new byte[BlockGzipOutputStream.HEADER_SIZE];
+		try(RandomAccessFile raf = new RandomAccessFile(f, "r")){
+			for(long offset = 0, length = raf.length(); offset < length;){
+				raf.seek(offset);
+				raf.readFully(header);
+				int member_size = getMemberSize(header);
+				if(member_size <= 0)
+					throw new IOException(String.format("No block gzip header at offset %d of '%s'.", offset, f.getAbsolutePath()));
+				offsets.add(offset);
+				offset += member_size;
+			}
+		}
+		return offsets;
+	}
+
+	/**
+	 * @return the next compressed member without its header or null at the end of the stream
+	 */
+	private byte[] readMember() throws IOException {
+		byte[] header = new byte[BlockGzipOutputStream.HEADER_SIZE];
+		int n = readFully(header);
+		if(n == 0)
+			return null;
+		if(n < header.length)
+			throw new EOFException("Unexpected end of block gzip stream.");
+		int member_size = getMemberSize(header);
+		if(member_size < BlockGzipOutputStream.HEADER_SIZE + BlockGzipOutputStream.TRAILER_SIZE)
+			throw new IOException("Not a block gzip stream, missing block size in gzip header.");
+		byte[] member = new byte[member_size - BlockGzipOutputStream.HEADER_SIZE];
+		if(readFully(member) < member.length)
+			throw new EOFException("Unexpected end of block gzip stream.");
+		return member;
+	}
+
+	private int readFully(byte[] b) throws IOException {
+		int n = 0;
+		for(int r; n < b.length && (r = _in.read(b, n, b.length - n)) > 0; n += r);
+		return n;
+	}
+
+	static byte[] inflate(byte[] member) throws IOException {
+		int clen = member.length - BlockGzipOutputStream.TRAILER_SIZE;
+		byte[] block = new byte[getInt(member, clen + 4)];
+		Inflater inflater = new Inflater(true);
+		try{
+			inflater.setInput(member, 0, clen);
+			int n = 0;
+			while(n < block.length){
+				int r = inflater.inflate(block, n, block.length - n);
+				if(r == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+				n += r;
+			}
+			if(n < block.length)
+				throw new IOException(String.format("Corrupt block gzip block, expected %d bytes but got %d.", block.length, n));
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(block, 0, block.length);
+		if((int)crc.getValue() != getInt(member, clen))
+			throw new IOException("Corrupt block gzip block, CRC mismatch.");
+		return block;
+	}
+
+	private void fill() throws IOException {
+		while(!_eof && _pending.size() < _max_pending){
+			byte[] member = readMember();
+			if(member == null){
+				_eof = true;
+				break;
+			}
+			if(_executor == null){
+				_pending.add(CompletableFuture.completedFuture(inflate(member)));
+				break;
+			}
+			_pending.add(_executor.submit(() -> inflate(member)));
+		}
+	}
+
+	/**
+	 * @return false if there are no more blocks
+	 */
+	private boolean nextBlock() throws IOException {
+		while(_pos >= _block.length){
+			fill();
+			Future<byte[]> f = _pending.poll();
+			if(f == null)
+				return false;
+			try {
+				_block = f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if(e.getCause() instanceof IOException)
+					throw (IOException)e.getCause();
+				throw new IOException(e.getCause());
+			}
+			_pos = 0;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!nextBlock())
+			return -1;
+		return _block[_pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0)
+			return 0;
+		if(!nextBlock())
+			return -1;
+		int n = Math.min(len, _block.length - _pos);
+		System.arraycopy(_block, _pos, b, off, n);
+		_pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return _block.length - _pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for(Future<byte[]> f : _pending)
+			f.cancel(false);
+		_pending.clear();
+		_in.close();
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a splittable block gzip file, i.e. a multi-member gzip file where every member holds complete lines of about
+ * {@link #DEFAULT_BLOCK_SIZE} uncompressed bytes and stores its compressed size in the gzip extra field (like BGZF).
+ * Members can thus be located without decompressing the preceding ones and decompressed independently
+ * (see {@link BlockGzipInputStream}), every gzip reader (gunzip, zcat, {@link java.util.zip.GZIPInputStream}) reads
+ * the file as usual.
+ *
+ * Header of a member: 1f 8b 08 04 (FEXTRA) 00000000 (mtime) 00 ff, XLEN=8, subfield 'L' 'T' with length 4 and the
+ * member size in bytes (little endian).
+ *
+ * @author Steffen Remus
+ */
+public class BlockGzipOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	static final int HEADER_SIZE = 20;
+	static final int TRAILER_SIZE = 8;
+	static final byte SI1 = 'L';
+	static final byte SI2 = 'T';
+
+	private final OutputStream _out;
+	private final Deflater _deflater;
+	private final CRC32 _crc = new CRC32();
+	private final byte[] _buf;
+	private int _len;
+	private byte[] _compressed;
+	private long _num_blocks;
+	private boolean _closed;
+
+	public BlockGzipOutputStream(OutputStream out) {
+		this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param block_size the maximum number of uncompressed bytes of a block, blocks end at the last newline within that size unless a line is longer
+	 */
+	public BlockGzipOutputStream(OutputStream out, int block_size, int level) {
+		if(block_size < 1)
+			throw new IllegalArgumentException(String.format("Block size must be positive, but was %d.", block_size));
+		_out = out;
+		_buf = new byte[block_size];
+		_compressed = new byte[block_size + (block_size >> 3) + 64];
+		_deflater = new Deflater(level, true);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if(_len == _buf.length)
+			writeBlock();
+		_buf[_len++] = (byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0){
+			if(_len == _buf.length)
+				writeBlock();
+			int n = Math.min(len, _buf.length - _len);
+			System.arraycopy(b, off, _buf, _len, n);
+			_len += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * write the buffered bytes up to and including the last newline as a block, or all of them if there is no newline
+	 */
+	private void writeBlock() throws IOException {
+		int end = lineEnd();
+		writeBuffered(end == 0 ? _len : end);
+	}
+
+	/**
+	 * @return the number of buffered bytes up to and including the last newline
+	 */
+	private int lineEnd() {
+		int end = _len;
+		while(end > 0 && _buf[end - 1] != '\n')
+			end--;
+		return end;
+	}
+
+	private void writeBuffered(int end) throws IOException {
+		writeBlock(_buf, end);
+		System.arraycopy(_buf, end, _buf, 0, _len - end);
+		_len -= end;
+	}
+
+	private void writeBlock(byte[] data, int len) throws IOException {
+		_crc.reset();
+		_crc.update(data, 0, len);
+		_deflater.reset();
+		_deflater.setInput(data, 0, len);
+		_deflater.finish();
+		int clen = 0;
+		while(!_deflater.finished()){
+			if(clen == _compressed.length)
+				_compressed = Arrays.copyOf(_compressed, _compressed.length * 2);
+			clen += _deflater.deflate(_compressed, clen, _compressed.length - clen);
+		}
+		int member_size = HEADER_SIZE + clen + TRAILER_SIZE;
+		byte[] header = new byte[]{ 0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)0xff, 8, 0, SI1, SI2, 4, 0, 0, 0, 0, 0 };
+		putInt(header, 16, member_size);
+		_out.write(header);
+		_out.write(_compressed, 0, clen);
+		byte[] trailer = new byte[TRAILER_SIZE];
+		putInt(trailer, 0, (int)_crc.getValue());
+		putInt(trailer, 4, len);
+		_out.write(trailer);
+		_num_blocks++;
+	}
+
+	static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte)v;
+		b[off + 1] = (byte)(v >>> 8);
+		b[off + 2] = (byte)(v >>> 16);
+		b[off + 3] = (byte)(v >>> 24);
+	}
+
+	/**
+	 * Flushes the underlying stream only, like {@link java.util.zip.GZIPOutputStream}, i.e. buffered lines are not
+	 * written, otherwise frequent flushes (e.g. per line) would result in tiny blocks. See {@link #endBlock()}.
+	 */
+	@Override
+	public void flush() throws IOException {
+		_out.flush();
+	}
+
+	/**
+	 * Ends the current block at the last newline and flushes the underlying stream, i.e. everything up to the last
+	 * complete line is written (like BGZF, but blocks still start at lines). Frequent calls result in small blocks.
+	 */
+	public void endBlock() throws IOException {
+		int end = lineEnd();
+		if(end > 0)
+			writeBuffered(end);
+		_out.flush();
+	}
+
+	/**
+	 * @return the number of blocks written so far
+	 */
+	public long getNumBlocks() {
+		return _num_blocks;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(_closed)
+			return;
+		_closed = true;
+		try{
+			// an empty stream is an empty block, an empty file is not a valid gzip file
+			while(_len > 0 || _num_blocks == 0)
+				writeBlock();
+			_out.flush();
+		}finally{
+			_deflater.end();
+			_out.close();
+		}
+	}
+
+}
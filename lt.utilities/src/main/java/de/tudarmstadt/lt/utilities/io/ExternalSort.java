@@ -0,0 +1,469 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.lt.utilities.IOUtils;
+import de.tudarmstadt.lt.utilities.collections.LoserTree;
+
+/**
+ * Sorts text records, e.g. tab separated ngram count lines, with bounded memory.
+ *
+ * Records are collected until the memory budget of a chunk is exhausted, chunks are sorted and written to run files
+ * by multiple threads in parallel. Runs are stored front coded, i.e. as the number of bytes shared with the previous
+ * record followed by the remaining UTF-8 bytes, which is compact for sorted ngrams. Runs are merged with a
+ * {@link LoserTree}, if there are more runs than the fan in, groups of runs are merged to intermediate runs first.
+ * Input that fits into a single chunk is sorted in memory. {@link RunWriter} and {@link RunReader} may also be used
+ * directly, e.g. for sorted runs of keys with a fixed number of numeric values.
+ *
+ * Records with equal keys, i.e. equal prefixes up to the first tab, can be combined, e.g. by {@link #SUM_VALUES}.
+ * Records with equal keys have to be adjacent in the sort order, which is the case for {@link #CODEPOINT_ORDER}.
+ *
+ * @author Steffen Remus
+ */
+public class ExternalSort {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ExternalSort.class);
+
+	/**
+	 * Order of the UTF-8 bytes, i.e. the same order as <code>LC_ALL=C sort</code>.
+	 */
+	public static final Comparator<String> CODEPOINT_ORDER = (a, b) -> {
+		int n = Math.min(a.length(), b.length());
+		for(int i = 0; i < n; i++){
+			char ca = a.charAt(i);
+			char cb = b.charAt(i);
+			if(ca != cb){
+				// surrogates encode code points above the BMP and thus come after all other chars in UTF-8
+				if(Character.isSurrogate(ca) != Character.isSurrogate(cb))
+					return Character.isSurrogate(ca) ? 1 : -1;
+				return ca - cb;
+			}
+		}
+		return a.length() - b.length();
+	};
+
+	/**
+	 * Combines two records with equal keys.
+	 */
+	@FunctionalInterface
+	public interface Combiner {
+		String combine(String a, String b);
+	}
+
+	/**
+	 * Sums up the tab separated numeric values of two records, e.g. 'ngram\t2\t1' and 'ngram\t3' yields 'ngram\t5\t1'.
+	 */
+	public static final Combiner SUM_VALUES = (a, b) -> {
+		String[] va = a.split("\t", -1);
+		String[] vb = b.split("\t", -1);
+		StringBuilder sb = new StringBuilder(va[0]);
+		for(int i = 1; i < Math.max(va.length, vb.length); i++)
+			sb.append('\t').append((i < va.length ? Long.parseLong(va[i]) : 0L) + (i < vb.length ? Long.parseLong(vb[i]) : 0L));
+		return sb.toString();
+	};
+
+	static final int DEFAULT_FAN_IN = 128;
+	static final long RECORD_OVERHEAD_BYTES = 64; // string object, char array and list reference
+
+	private final Comparator<String> _comparator;
+	private final Combiner _combiner;
+	private final long _chunk_budget;
+	private final int _num_threads;
+	private final File _tmp_parent_dir;
+	int _fan_in = DEFAULT_FAN_IN;
+
+	public ExternalSort(long memory_budget_bytes, int num_threads) {
+		this(CODEPOINT_ORDER, null, memory_budget_bytes, num_threads, null);
+	}
+
+	/**
+	 * @param combiner may be null
+	 * @param tmp_parent_dir the directory for temporary run files, may be null for the system's temporary directory
+	 */
+	public ExternalSort(Comparator<String> comparator, Combiner combiner, long memory_budget_bytes, int num_threads, File tmp_parent_dir) {
+		_comparator = comparator;
+		_combiner = combiner;
+		_num_threads = Math.max(1, num_threads);
+		// one chunk is filled while the others are sorted
+		_chunk_budget = Math.max(1 << 16, memory_budget_bytes / (_num_threads + 1));
+		_tmp_parent_dir = tmp_parent_dir;
+	}
+
+	public static String key(String record) {
+		int i = record.indexOf('\t');
+		return i < 0 ? record : record.substring(0, i);
+	}
+
+	static long estimateBytes(String record) {
+		return RECORD_OVERHEAD_BYTES + 2L * record.length();
+	}
+
+	/**
+	 * Sort the lines of in and write them to out, both are gzipped if their names end with '.gz'.
+	 * @return the number of written records
+	 */
+	public long sort(File in, File out) throws IOException {
+		InputStream is = new FileInputStream(in);
+		if(in.getName().endsWith(".gz"))
+			is = new GZIPInputStream(is, 1 << 16);
+		OutputStream os = new FileOutputStream(out);
+		if(out.getName().endsWith(".gz"))
+			os = new GZIPOutputStream(os, 1 << 16);
+		try(BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16);
+			Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16)){
+			LineIterator lines = new LineIterator(r);
+			return sort(lines, w);
+		}
+	}
+
+	/**
+	 * Sort the records and write them line by line to out.
+	 * @return the number of written records
+	 */
+	public long sort(Iterator<String> records, Writer out) throws IOException {
+		File tmp_dir = _tmp_parent_dir == null ? Files.createTempDirectory("externalsort").toFile() : Files.createTempDirectory(_tmp_parent_dir.toPath(), "externalsort").toFile();
+		ExecutorService executor = Executors.newFixedThreadPool(_num_threads);
+		try {
+			Sink sink = new Sink(out);
+			List<File> runs = createRuns(records, tmp_dir, executor, sink);
+			if(runs != null){
+				runs = mergeRuns(runs, tmp_dir, executor);
+				merge(runs, sink);
+			}
+			sink.flush();
+			return sink._num_records;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			executor.shutdownNow();
+			FileUtils.deleteQuietly(tmp_dir);
+		}
+	}
+
+	/**
+	 * @return the run files or null if all records fit into memory and were written to the sink
+	 */
+	private List<File> createRuns(Iterator<String> records, File tmp_dir, ExecutorService executor, Sink sink) throws IOException, InterruptedException, ExecutionException {
+		final Semaphore chunks = new Semaphore(_num_threads);
+		final AtomicInteger run_count = new AtomicInteger();
+		List<Future<File>> futures = new ArrayList<Future<File>>();
+		List<String> chunk = new ArrayList<String>();
+		long bytes = 0;
+		while(records.hasNext()){
+			String record = records.next();
+			chunk.add(record);
+			bytes += estimateBytes(record);
+			if(bytes >= _chunk_budget && records.hasNext()){
+				final List<String> c = chunk;
+				chunks.acquire();
+				futures.add(executor.submit(() -> {
+					try{
+						return writeRun(c, new File(tmp_dir, String.format("run-%d", run_count.getAndIncrement())));
+					}finally{
+						chunks.release();
+					}
+				}));
+				chunk = new ArrayList<String>();
+				bytes = 0;
+			}
+		}
+		if(futures.isEmpty()){
+			chunk.sort(_comparator);
+			for(String record : chunk)
+				sink.accept(record);
+			return null;
+		}
+		final List<String> last = chunk;
+		futures.add(executor.submit(() -> writeRun(last, new File(tmp_dir, String.format("run-%d", run_count.getAndIncrement())))));
+		List<File> runs = new ArrayList<File>(futures.size());
+		for(Future<File> f : futures)
+			runs.add(f.get());
+		LOG.debug("Created {} runs.", runs.size());
+		return runs;
+	}
+
+	private File writeRun(List<String> chunk, File run) throws IOException {
+		chunk.sort(_comparator);
+		try(RunWriter w = new RunWriter(run)){
+			Sink sink = new Sink(null){
+				@Override
+				void write(String record) throws IOException {
+					w.write(record);
+				}
+			};
+			for(String record : chunk)
+				sink.accept(record);
+			sink.flush();
+		}
+		return run;
+	}
+
+	/**
+	 * Merge groups of runs until at most fan in runs are left.
+	 */
+	private List<File> mergeRuns(List<File> runs, File tmp_dir, ExecutorService executor) throws InterruptedException, ExecutionException {
+		for(int pass = 0; runs.size() > _fan_in; pass++){
+			List<Future<File>> merged = new ArrayList<Future<File>>();
+			for(int i = 0; i < runs.size(); i += _fan_in){
+				final List<File> group = runs.subList(i, Math.min(runs.size(), i + _fan_in));
+				final File run = new File(tmp_dir, String.format("merged-%d-%d", pass, i / _fan_in));
+				merged.add(executor.submit(() -> {
+					try(RunWriter w = new RunWriter(run)){
+						merge(group, new Sink(null){
+							@Override
+							void write(String record) throws IOException {
+								w.write(record);
+							}
+						});
+					}
+					for(File f : group)
+						f.delete();
+					return run;
+				}));
+			}
+			List<File> next = new ArrayList<File>(merged.size());
+			for(Future<File> f : merged)
+				next.add(f.get());
+			LOG.debug("Merged {} runs into {} runs.", runs.size(), next.size());
+			runs = next;
+		}
+		return runs;
+	}
+
+	private void merge(List<File> runs, Sink sink) throws IOException {
+		List<RunReader> readers = new ArrayList<RunReader>(runs.size());
+		try{
+			for(File run : runs)
+				readers.add(new RunReader(run));
+			for(Iterator<String> merged = LoserTree.merge(readers, _comparator); merged.hasNext();)
+				sink.accept(merged.next());
+			sink.flush();
+		}finally{
+			for(RunReader r : readers)
+				r.close();
+		}
+	}
+
+	/**
+	 * Combines adjacent records with equal keys and writes them.
+	 */
+	class Sink {
+
+		final Writer _out;
+		String _previous;
+		long _num_records;
+
+		Sink(Writer out) {
+			_out = out;
+		}
+
+		void accept(String record) throws IOException {
+			if(_previous != null && _combiner != null && key(_previous).equals(key(record))){
+				_previous = _combiner.combine(_previous, record);
+				return;
+			}
+			if(_previous != null)
+				write(_previous);
+			_previous = record;
+		}
+
+		void flush() throws IOException {
+			if(_previous != null)
+				write(_previous);
+			_previous = null;
+		}
+
+		void write(String record) throws IOException {
+			_out.write(record);
+			_out.write('\n');
+			_num_records++;
+		}
+
+	}
+
+	/**
+	 * Writes a run, i.e. records in sort order. Per record the number of UTF-8 bytes shared with the previous record,
+	 * the number of remaining bytes, the remaining bytes and a fixed number of values are written, numbers as variable length longs.
+	 */
+	public static class RunWriter implements Closeable {
+
+		final DataOutputStream _out;
+		final int _width;
+		byte[] _previous = new byte[0];
+
+		public RunWriter(File f) throws IOException {
+			this(f, 0);
+		}
+
+		/**
+		 * @param width the number of values per record
+		 */
+		public RunWriter(File f, int width) throws IOException {
+			_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+			_width = width;
+		}
+
+		public void write(String record) throws IOException {
+			write(record, null);
+		}
+
+		public void write(String record, long[] values) throws IOException {
+			assert (values == null ? 0 : values.length) >= _width : "Number of values must match the width of the run.";
+			byte[] b = record.getBytes(StandardCharsets.UTF_8);
+			int shared = 0;
+			for(int n = Math.min(b.length, _previous.length); shared < n && b[shared] == _previous[shared];)
+				shared++;
+			IOUtils.writeVarLong(_out, shared);
+			IOUtils.writeVarLong(_out, b.length - shared);
+			_out.write(b, shared, b.length - shared);
+			for(int i = 0; i < _width; i++)
+				IOUtils.writeVarLong(_out, values[i]);
+			_previous = b;
+		}
+
+		@Override
+		public void close() throws IOException {
+			_out.close();
+		}
+
+	}
+
+	/**
+	 * Reads a run written by {@link RunWriter}, read errors are thrown as {@link UncheckedIOException} by {@link #next()}.
+	 */
+	public static class RunReader implements Iterator<String>, Closeable {
+
+		final DataInputStream _in;
+		byte[] _buf = new byte[256];
+		String _next;
+		long[] _values;
+		long[] _next_values;
+
+		public RunReader(File f) throws IOException {
+			this(f, 0);
+		}
+
+		/**
+		 * @param width the number of values per record
+		 */
+		public RunReader(File f, int width) throws IOException {
+			_in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+			_values = new long[width];
+			_next_values = new long[width];
+			_next = read();
+		}
+
+		private String read() throws IOException {
+			int shared;
+			try{
+				shared = (int)IOUtils.readVarLong(_in);
+			}catch(EOFException e){
+				return null;
+			}
+			int len = (int)IOUtils.readVarLong(_in);
+			if(_buf.length < shared + len){
+				byte[] buf = new byte[Math.max(shared + len, 2 * _buf.length)];
+				System.arraycopy(_buf, 0, buf, 0, shared);
+				_buf = buf;
+			}
+			_in.readFully(_buf, shared, len);
+			for(int i = 0; i < _next_values.length; i++)
+				_next_values[i] = IOUtils.readVarLong(_in);
+			return new String(_buf, 0, shared + len, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return _next != null;
+		}
+
+		@Override
+		public String next() {
+			if(_next == null)
+				throw new NoSuchElementException();
+			String result = _next;
+			long[] values = _values;
+			_values = _next_values;
+			_next_values = values;
+			try{
+				_next = read();
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+			return result;
+		}
+
+		/**
+		 * @return the values of the record that was returned by the last call of {@link #next()}, the array is reused
+		 */
+		public long[] values() {
+			return _values;
+		}
+
+		@Override
+		public void close() throws IOException {
+			_in.close();
+		}
+
+	}
+
+}
@@ -17,19 +17,23 @@ package de.tudarmstadt.lt.utilities.io;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.Reader;
 
-import org.apache.commons.io.LineIterator;
-import org.apache.commons.lang.NotImplementedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Base class of line oriented tools. Lines are processed by a staged pipeline (see {@link ParallelLineEngine}):
+ * the reader reads batches of <code>_batch_size</code> lines, <code>_num_threads</code> workers call {@link #processLine(String)},
+ * and a single writer prints the results, in input order if <code>_ordered</code> is set. At most <code>_queue_capacity</code>
+ * batches are in the pipeline at any time. Throughput and queue depth are logged every <code>_progress_interval</code> lines
+ * and are available from {@link #getEngine()}.
+ *
  * @author Steffen Remus
  *
  */
@@ -37,10 +41,17 @@ public abstract class LineProcessor implements Runnable {
 	
 	private final static Logger LOG = LoggerFactory.getLogger(LineProcessor.class);
 	
-	boolean _parallel;
-	String _file;
-	String _out;
-	PrintStream _pout;
+	protected String _file;
+	protected String _out;
+	protected PrintStream _pout;
+	protected int _decompression_threads = BlockGzipInputStream.DEFAULT_NUM_THREADS;
+	protected int _num_threads = 1;
+	protected int _batch_size = ParallelLineEngine.DEFAULT_BATCH_SIZE;
+	/** the maximum number of batches in the pipeline, 0 means four per thread */
+	protected int _queue_capacity = 0;
+	protected boolean _ordered = true;
+	protected long _progress_interval = 5000;
+	private volatile ParallelLineEngine<String> _engine;
 	
 	/* (non-Javadoc)
 	 * @see java.lang.Runnable#run()
@@ -69,54 +80,47 @@ public abstract class LineProcessor implements Runnable {
 
 			if(f_or_d.isFile()){
 				LOG.info("Processing file '{}'.", f_or_d.getAbsolutePath());
-				try{run(new InputStreamReader(new FileInputStream(f_or_d), "UTF-8"));}catch(Exception e){LOG.error("Could not process file '{}'.", f_or_d.getAbsolutePath(), e);}
+				try{run(new InputStreamReader(BlockGzipInputStream.open(f_or_d, _decompression_threads), "UTF-8"));}catch(Exception e){LOG.error("Could not process file '{}'.", f_or_d.getAbsolutePath(), e);}
 			}
 
 			if(f_or_d.isDirectory()){
 				File[] txt_files = f_or_d.listFiles(new FileFilter(){
 					@Override
 					public boolean accept(File f) {
-						return f.isFile() && f.getName().endsWith(".txt");
+						return f.isFile() && (f.getName().endsWith(".txt") || f.getName().endsWith(".txt.gz"));
 					}});
 
 				for(int i = 0; i < txt_files.length; i++){
 					File f = txt_files[i];
 					LOG.info("Processing file '{}' ({}/{}).", f.getAbsolutePath(), i + 1, txt_files.length);
 
-					try{ run(new InputStreamReader(new FileInputStream(f), "UTF-8")); }catch(Exception e){LOG.error("Could not process file '{}'.", f.getAbsolutePath(), e);}
+					try{ run(new InputStreamReader(BlockGzipInputStream.open(f, _decompression_threads), "UTF-8")); }catch(Exception e){LOG.error("Could not process file '{}'.", f.getAbsolutePath(), e);}
 
 				}
 			}
 		}
 	}
 	
-	void run(Reader r) {
-		if(_parallel)
-			runParallel(r);
-		else
-			runSequential(r);
-	}
-	
-	void runParallel(Reader r) {
-		throw new NotImplementedException("This functionality is not implemented here");
-		// TODO: once java8 is activated uncomment the following lines 
-//		BufferedReader br = new BufferedReader(r);
-//		br.lines().parallel().forEach(line -> processLine(line));
+	void run(Reader r) throws IOException {
+		ParallelLineEngine<String> engine = new ParallelLineEngine<String>(_num_threads, _batch_size, _queue_capacity > 0 ? _queue_capacity : 4 * Math.max(1, _num_threads), _ordered);
+		engine.setProgressInterval(_progress_interval);
+		_engine = engine;
+		engine.process(r, (line, l) -> processLine(line), this::println);
 	}
-	
-	void runSequential(Reader r) {
-		
-		long l = 0;
-		for(LineIterator liter = new LineIterator(r); liter.hasNext(); ){
-			if(++l % 5000 == 0)
-				LOG.info("processing line {}.", l);
-			String line = liter.next();
-			processLine(line);
-		}
-		
+
+	/**
+	 * @return the engine that processes the current or last file, e.g. to query its metrics, or null if nothing was processed yet
+	 */
+	public ParallelLineEngine<String> getEngine() {
+		return _engine;
 	}
 
-	abstract void processLine(String line);
+	/**
+	 * Called by the worker threads, implementations must be thread-safe if <code>_num_threads</code> &gt; 1.
+	 *
+	 * @return the output for the line, which is printed by the writer thread, or null if there is none
+	 */
+	protected abstract String processLine(String line) throws Exception;
 	
 	public synchronized void println(String toPrint){
 		_pout.println(toPrint);
@@ -0,0 +1,357 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes the lines of a reader with a pool of worker threads and hands the results to a single writer thread.
+ * The calling thread reads the lines in batches, at most <code>queue_capacity</code> batches are read but not yet written.
+ * In ordered mode the sink receives the results in input order, otherwise in the order in which batches are finished.
+ *
+ * The sink is only called by the writer thread, i.e. it may aggregate statistics and write output without synchronization,
+ * everything it did is visible to the calling thread when {@link #process(Reader, LineFunction, Sink)} returns.
+ *
+ * The stages are: reader (calling thread, batches lines) &rarr; workers &rarr; reorder buffer &rarr; writer. The metrics
+ * getters (throughput, queue depth, reorder buffer size) may be called from any thread while lines are processed and
+ * refer to the current or last call of {@link #process(Reader, LineFunction, Sink)}; an engine processes one reader at a time.
+ *
+ * @author Steffen Remus
+ */
+public class ParallelLineEngine<R> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ParallelLineEngine.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	public interface LineFunction<R> {
+		/**
+		 * @param line_number the number of the line within the reader, starting at 1
+		 * @return the result for the line or null if there is none, exceptions are logged and the line is skipped
+		 */
+		R apply(String line, long line_number) throws Exception;
+	}
+
+	public interface Sink<R> {
+		void accept(R result) throws Exception;
+	}
+
+	/**
+	 * A source of records other than single lines, e.g. chunks of several lines that can be processed independently.
+	 */
+	public interface RecordSource {
+		/**
+		 * @return the next record or null at the end
+		 */
+		String next() throws IOException;
+	}
+
+	private static class Batch {
+		final long _seq;
+		final long _first_line;
+		final List<String> _lines;
+		final Object[] _results;
+		Batch(long seq, long first_line, List<String> lines) {
+			_seq = seq;
+			_first_line = first_line;
+			_lines = lines;
+			_results = new Object[lines.size()];
+		}
+	}
+
+	private static final Batch END = new Batch(-1, 0, new ArrayList<String>(0));
+
+	private final int _num_threads;
+	private final int _batch_size;
+	private final int _queue_capacity;
+	private final boolean _ordered;
+	private long _progress_interval = 0;
+
+	private volatile Semaphore _in_flight;
+	private final AtomicLong _lines_read = new AtomicLong();
+	private final AtomicLong _lines_written = new AtomicLong();
+	private final AtomicLong _batches_written = new AtomicLong();
+	private volatile int _max_queue_depth;
+	private volatile int _reorder_size;
+	private volatile int _max_reorder_size;
+	private volatile long _start_nanos;
+	private volatile long _end_nanos;
+
+	public ParallelLineEngine(int num_threads, boolean ordered) {
+		this(num_threads, DEFAULT_BATCH_SIZE, 4 * Math.max(1, num_threads), ordered);
+	}
+
+	/**
+	 * @param num_threads the number of worker threads
+	 * @param batch_size the number of lines that are processed by one worker at once
+	 * @param queue_capacity the maximum number of batches that are read but not yet written
+	 * @param ordered pass the results to the sink in input order
+	 */
+	public ParallelLineEngine(int num_threads, int batch_size, int queue_capacity, boolean ordered) {
+		_num_threads = Math.max(1, num_threads);
+		_batch_size = Math.max(1, batch_size);
+		_queue_capacity = Math.max(1, queue_capacity);
+		_ordered = ordered;
+	}
+
+	public int getNumThreads() {
+		return _num_threads;
+	}
+
+	public boolean isOrdered() {
+		return _ordered;
+	}
+
+	public int getBatchSize() {
+		return _batch_size;
+	}
+
+	public int getQueueCapacity() {
+		return _queue_capacity;
+	}
+
+	/**
+	 * @param progress_interval log the metrics every time about this many lines were written, 0 disables logging
+	 */
+	public ParallelLineEngine<R> setProgressInterval(long progress_interval) {
+		_progress_interval = progress_interval;
+		return this;
+	}
+
+	public long getNumLinesRead() {
+		return _lines_read.get();
+	}
+
+	/**
+	 * @return the number of lines whose results were passed to the sink (lines without result included)
+	 */
+	public long getNumLinesWritten() {
+		return _lines_written.get();
+	}
+
+	public long getNumBatchesWritten() {
+		return _batches_written.get();
+	}
+
+	/**
+	 * @return the number of batches that are read but not yet written
+	 */
+	public int getQueueDepth() {
+		Semaphore in_flight = _in_flight;
+		return in_flight == null ? 0 : _queue_capacity - in_flight.availablePermits();
+	}
+
+	public int getMaxQueueDepth() {
+		return _max_queue_depth;
+	}
+
+	/**
+	 * @return the number of finished batches that wait for a preceding batch, always 0 in unordered mode
+	 */
+	public int getReorderBufferSize() {
+		return _reorder_size;
+	}
+
+	public int getMaxReorderBufferSize() {
+		return _max_reorder_size;
+	}
+
+	public double getElapsedSeconds() {
+		long start = _start_nanos;
+		if(start == 0)
+			return 0d;
+		long end = _end_nanos;
+		return ((end == 0 ? System.nanoTime() : end) - start) / 1e9;
+	}
+
+	/**
+	 * @return the number of written lines per second
+	 */
+	public double getThroughput() {
+		double seconds = getElapsedSeconds();
+		return seconds > 0 ? getNumLinesWritten() / seconds : 0d;
+	}
+
+	public String getMetrics() {
+		return String.format("lines read: %d, lines written: %d, lines/s: %.1f, queue depth: %d/%d (max %d), reorder buffer: %d (max %d)",
+				getNumLinesRead(), getNumLinesWritten(), getThroughput(), getQueueDepth(), _queue_capacity, getMaxQueueDepth(), getReorderBufferSize(), getMaxReorderBufferSize());
+	}
+
+	private void resetMetrics(Semaphore in_flight) {
+		_lines_read.set(0);
+		_lines_written.set(0);
+		_batches_written.set(0);
+		_max_queue_depth = 0;
+		_reorder_size = 0;
+		_max_reorder_size = 0;
+		_end_nanos = 0;
+		_start_nanos = System.nanoTime();
+		_in_flight = in_flight;
+	}
+
+	/**
+	 * @return the number of read lines
+	 * @throws IOException if the lines could not be read or the sink failed, the remaining lines are not passed to the sink then
+	 */
+	public long process(Reader r, final LineFunction<R> function, final Sink<R> sink) throws IOException {
+		BufferedReader br = r instanceof BufferedReader ? (BufferedReader)r : new BufferedReader(r, 1 << 16);
+		return process(br::readLine, function, sink);
+	}
+
+	/**
+	 * Same as {@link #process(Reader, LineFunction, Sink)} but for arbitrary records, lines in terms of the metrics and the line function.
+	 *
+	 * @return the number of read records
+	 */
+	public long process(RecordSource source, final LineFunction<R> function, final Sink<R> sink) throws IOException {
+		final Semaphore in_flight = new Semaphore(_queue_capacity);
+		final BlockingQueue<Batch> finished = new LinkedBlockingQueue<Batch>();
+		final AtomicReference<Throwable> sink_error = new AtomicReference<Throwable>();
+		resetMetrics(in_flight);
+		Thread writer = new Thread(() -> write(finished, in_flight, sink, sink_error), getClass().getSimpleName() + "-writer");
+		writer.start();
+
+		ExecutorService workers = Executors.newFixedThreadPool(_num_threads);
+		final AtomicReference<Throwable> worker_error = new AtomicReference<Throwable>();
+		long num_lines = 0;
+		try{
+			long seq = 0;
+			List<String> lines = new ArrayList<String>(_batch_size);
+			for(String line; (line = source.next()) != null || !lines.isEmpty();){
+				if(line != null){
+					lines.add(line);
+					num_lines++;
+					_lines_read.incrementAndGet();
+					if(lines.size() < _batch_size)
+						continue;
+				}
+				in_flight.acquire();
+				if(sink_error.get() != null || worker_error.get() != null){
+					in_flight.release();
+					break;
+				}
+				_max_queue_depth = Math.max(_max_queue_depth, getQueueDepth());
+				final Batch batch = new Batch(seq++, num_lines - lines.size() + 1, lines);
+				workers.execute(() -> {
+					try{
+						apply(batch, function);
+					}catch(Throwable t){
+						worker_error.compareAndSet(null, t);
+					}finally{
+						finished.add(batch);
+					}
+				});
+				lines = new ArrayList<String>(_batch_size);
+			}
+			// the writer releases a permit for every batch, i.e. all permits are available once every batch is done
+			in_flight.acquire(_queue_capacity);
+			in_flight.release(_queue_capacity);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} finally {
+			workers.shutdownNow();
+			finished.add(END);
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			_end_nanos = System.nanoTime();
+		}
+		if(_progress_interval > 0)
+			LOG.info("Finished: {}.", getMetrics());
+		Throwable t = worker_error.get();
+		if(t == null)
+			t = sink_error.get();
+		if(t != null)
+			throw t instanceof IOException ? (IOException)t : new IOException(t);
+		return num_lines;
+	}
+
+	private void apply(Batch batch, LineFunction<R> function) {
+		for(int i = 0; i < batch._results.length; i++){
+			long line_number = batch._first_line + i;
+			try{
+				batch._results[i] = function.apply(batch._lines.get(i), line_number);
+			}catch(Exception e){
+				LOG.error("Could not process line {}: '{}'.", line_number, StringUtils.abbreviate(batch._lines.get(i), 100), e);
+			}
+		}
+	}
+
+	private void write(BlockingQueue<Batch> finished, Semaphore in_flight, Sink<R> sink, AtomicReference<Throwable> sink_error) {
+		Map<Long, Batch> pending = new HashMap<Long, Batch>();
+		long next = 0;
+		try{
+			for(Batch batch; (batch = finished.take()) != END;){
+				if(!_ordered){
+					write(batch, sink, sink_error);
+					in_flight.release();
+					continue;
+				}
+				pending.put(batch._seq, batch);
+				for(Batch b; (b = pending.remove(next)) != null; next++){
+					write(b, sink, sink_error);
+					in_flight.release();
+				}
+				_reorder_size = pending.size();
+				_max_reorder_size = Math.max(_max_reorder_size, _reorder_size);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void write(Batch batch, Sink<R> sink, AtomicReference<Throwable> sink_error) {
+		if(sink_error.get() != null)
+			return; // skip the remaining batches, the reader stops as soon as it sees the error
+		for(Object result : batch._results){
+			if(result == null)
+				continue;
+			try{
+				sink.accept((R)result);
+			}catch(Throwable t){
+				LOG.error("Could not write result.", t);
+				sink_error.set(t);
+				return;
+			}
+		}
+		long before = _lines_written.getAndAdd(batch._results.length);
+		_batches_written.incrementAndGet();
+		if(_progress_interval > 0 && before / _progress_interval != (before + batch._results.length) / _progress_interval)
+			LOG.info("Processing: {}.", getMetrics());
+	}
+
+}
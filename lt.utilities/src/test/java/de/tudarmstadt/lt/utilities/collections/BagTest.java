@@ -15,6 +15,15 @@
  */
 package de.tudarmstadt.lt.utilities.collections;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -48,4 +57,81 @@ public class BagTest {
 		
 	}
 
+	@Test
+	public void testObjectIntBag() {
+		Random r = new Random(42);
+		ObjectIntBag<String> b = new ObjectIntBag<String>(2);
+		HashBag<String> reference = new HashBag<String>();
+		for(int i = 0; i < 50000; i++){
+			String e = "w" + r.nextInt(500);
+			switch(r.nextInt(4)){
+			case 0:
+				if(!reference.containsKey(e)){ // HashBag stores negative quantities
+					Assert.assertEquals(0, b.removeOne(e));
+					break;
+				}
+				Assert.assertEquals(reference.removeOne(e).intValue(), b.removeOne(e));
+				break;
+			case 1:
+				if(r.nextInt(20) == 0){
+					Assert.assertEquals(reference.get(e).intValue(), b.removeAll(e));
+					reference.removeAll(e);
+					break;
+				}
+			default:
+				Assert.assertEquals(reference.add(e).intValue(), b.add(e));
+			}
+		}
+		Assert.assertEquals(reference.keySet().size(), b.size());
+		Assert.assertEquals(reference.size(), b.getTotal());
+		final int[] n = new int[1];
+		b.forEach((e, count) -> {
+			Assert.assertEquals(reference.get(e).intValue(), count);
+			n[0]++;
+		});
+		Assert.assertEquals(b.size(), n[0]);
+		for(String e : reference.keySet())
+			Assert.assertEquals(reference.get(e).intValue(), b.getQuantity(e));
+		Assert.assertEquals(0, b.getQuantity("no such element"));
+		b.clear();
+		Assert.assertTrue(b.isEmpty());
+		Assert.assertEquals(0, b.getQuantity("w1"));
+	}
+
+	@Test
+	public void testLongIntBagMerge() throws Exception {
+		final int num_threads = 4;
+		ExecutorService executor = Executors.newFixedThreadPool(num_threads);
+		List<Future<LongIntBag>> futures = new ArrayList<Future<LongIntBag>>();
+		for(int t = 0; t < num_threads; t++){
+			final long seed = t;
+			futures.add(executor.submit(() -> {
+				Random r = new Random(seed);
+				LongIntBag b = new LongIntBag();
+				for(int i = 0; i < 20000; i++)
+					b.add(r.nextInt(1000) * 0x100000001L);
+				return b;
+			}));
+		}
+		List<LongIntBag> bags = new ArrayList<LongIntBag>();
+		for(Future<LongIntBag> f : futures)
+			bags.add(f.get());
+		executor.shutdown();
+
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		for(int t = 0; t < num_threads; t++){
+			Random r = new Random(t);
+			for(int i = 0; i < 20000; i++)
+				expected.merge(r.nextInt(1000) * 0x100000001L, 1, Integer::sum);
+		}
+		LongIntBag merged = LongIntBag.merge(bags);
+		Assert.assertEquals(expected.size(), merged.size());
+		Assert.assertEquals(num_threads * 20000L, merged.getTotal());
+		merged.forEach((e, count) -> Assert.assertEquals(expected.get(e).intValue(), count));
+		Assert.assertEquals(0, merged.getQuantity(-1L));
+		Assert.assertEquals(-2, merged.addTo(-1L, -2));
+		Assert.assertEquals(0, merged.addTo(-1L, 2));
+		Assert.assertFalse(merged.contains(-1L));
+	}
+
 }
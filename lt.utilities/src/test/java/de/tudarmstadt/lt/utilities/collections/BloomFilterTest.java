@@ -0,0 +1,54 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.collections;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Steffen Remus
+ */
+public class BloomFilterTest {
+
+	@Test
+	public void testFalsePositiveRate() throws Exception {
+		double expected_fpp = .01;
+		BloomFilter filter = new BloomFilter(10000, expected_fpp);
+		for(int i = 0; i < 10000; i++)
+			filter.add("w" + i);
+		File f = File.createTempFile("bloomfilter", ".bin");
+		try{
+			filter.write(f);
+			filter = BloomFilter.read(f);
+		}finally{
+			f.delete();
+		}
+		// no false negatives
+		for(int i = 0; i < 10000; i++)
+			Assert.assertTrue(filter.mightContain("w" + i));
+		int num_queries = 100000;
+		int false_positives = 0;
+		for(int i = 0; i < num_queries; i++)
+			if(filter.mightContain("x" + i))
+				false_positives++;
+		double fpp = (double)false_positives / num_queries;
+		Assert.assertTrue(String.format("false positive rate %g exceeds twice the expected rate %g", fpp, expected_fpp), fpp < 2 * expected_fpp);
+	}
+
+}
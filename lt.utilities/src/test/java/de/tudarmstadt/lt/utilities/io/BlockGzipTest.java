@@ -0,0 +1,179 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Steffen Remus
+ */
+public class BlockGzipTest {
+
+	static String randomText(int num_lines) {
+		StringBuilder b = new StringBuilder();
+		for(String record : ExternalSortTest.randomRecords(num_lines, 42))
+			b.append(record).append('\n');
+		return b.toString();
+	}
+
+	static File write(String text, int block_size) throws IOException {
+		File f = File.createTempFile("blockgzip", ".txt.gz");
+		f.deleteOnExit();
+		try(OutputStream out = new BlockGzipOutputStream(new FileOutputStream(f), block_size, 6)){
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+		return f;
+	}
+
+	@Test
+	public void testParallelRead() throws IOException {
+		String text = randomText(20000);
+		File f = write(text, 4096);
+		Assert.assertTrue(BlockGzipInputStream.isBlockGzip(f));
+		Assert.assertTrue(BlockGzipInputStream.getBlockOffsets(f).size() > 10);
+		for(int num_threads : new int[]{ 1, 4 }){
+			try(InputStream in = BlockGzipInputStream.open(f, num_threads)){
+				Assert.assertEquals(text, IOUtils.toString(in, StandardCharsets.UTF_8));
+			}
+		}
+		// ordinary gzip readers read all members
+		try(InputStream in = new GZIPInputStream(new FileInputStream(f))){
+			Assert.assertEquals(text, IOUtils.toString(in, StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testSplit() throws IOException {
+		String text = randomText(5000);
+		File f = write(text, 1000);
+		List<Long> offsets = BlockGzipInputStream.getBlockOffsets(f);
+		Assert.assertEquals(0L, (long)offsets.get(0));
+		StringBuilder b = new StringBuilder();
+		for(int i = offsets.size() - 1; i >= 0; i--){
+			// every block starts at a line and can be decompressed on its own
+			byte[] member = new byte[(int)((i + 1 < offsets.size() ? offsets.get(i + 1) : f.length()) - offsets.get(i))];
+			try(RandomAccessFile raf = new RandomAccessFile(f, "r")){
+				raf.seek(offsets.get(i));
+				raf.readFully(member);
+			}
+			String block = IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(member)), StandardCharsets.UTF_8);
+			Assert.assertTrue(block.endsWith("\n"));
+			b.insert(0, block);
+		}
+		Assert.assertEquals(text, b.toString());
+	}
+
+	@Test
+	public void testLongLinesAndEmpty() throws IOException {
+		String text = StringUtils.repeat("x", 10000) + "\nshort\n" + StringUtils.repeat("y", 3000);
+		File f = write(text, 1024);
+		try(InputStream in = BlockGzipInputStream.open(f, 3)){
+			Assert.assertEquals(text, IOUtils.toString(in, StandardCharsets.UTF_8));
+		}
+		File empty = write("", 1024);
+		Assert.assertTrue(BlockGzipInputStream.isBlockGzip(empty));
+		try(InputStream in = BlockGzipInputStream.open(empty, 3)){
+			Assert.assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void testOpenOtherFormats() throws IOException {
+		String text = randomText(100);
+		File plain = File.createTempFile("blockgzip", ".txt");
+		File gz = File.createTempFile("blockgzip", ".txt.gz");
+		try{
+			FileUtils.writeStringToFile(plain, text, StandardCharsets.UTF_8);
+			try(OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))){
+				out.write(text.getBytes(StandardCharsets.UTF_8));
+			}
+			Assert.assertFalse(BlockGzipInputStream.isBlockGzip(plain));
+			Assert.assertFalse(BlockGzipInputStream.isBlockGzip(gz));
+			for(File f : new File[]{ plain, gz })
+				try(InputStream in = BlockGzipInputStream.open(f, 2)){
+					Assert.assertEquals(text, IOUtils.toString(in, StandardCharsets.UTF_8));
+				}
+		}finally{
+			plain.delete();
+			gz.delete();
+		}
+	}
+
+	@Test
+	public void testEndBlock() throws IOException {
+		File f = File.createTempFile("blockgzip", ".txt.gz");
+		f.deleteOnExit();
+		try(BlockGzipOutputStream out = new BlockGzipOutputStream(new FileOutputStream(f))){
+			out.write("first line\nsecond ".getBytes(StandardCharsets.UTF_8));
+			out.endBlock();
+			// the complete line is on disk before the stream is closed, the incomplete line is still buffered
+			try(InputStream in = new GZIPInputStream(new FileInputStream(f))){
+				Assert.assertEquals("first line\n", IOUtils.toString(in, StandardCharsets.UTF_8));
+			}
+			out.write("line\n".getBytes(StandardCharsets.UTF_8));
+		}
+		Assert.assertEquals(2, BlockGzipInputStream.getBlockOffsets(f).size());
+		try(InputStream in = BlockGzipInputStream.open(f, 2)){
+			Assert.assertEquals("first line\nsecond line\n", IOUtils.toString(in, StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testFlushPerLine() throws IOException {
+		File f = File.createTempFile("blockgzip", ".txt.gz");
+		f.deleteOnExit();
+		StringBuilder expected = new StringBuilder();
+		try(PrintStream out = new PrintStream(new BlockGzipOutputStream(new FileOutputStream(f), 1 << 16, Deflater.DEFAULT_COMPRESSION), false, "UTF-8")){
+			for(String record : ExternalSortTest.randomRecords(20000, 5)){
+				out.println(record);
+				out.flush();
+				expected.append(record).append('\n');
+			}
+		}
+		// flushes do not end blocks, i.e. the blocks are as large as without flushes
+		int max_blocks = expected.toString().getBytes(StandardCharsets.UTF_8).length / (1 << 15) + 1;
+		Assert.assertTrue(BlockGzipInputStream.getBlockOffsets(f).size() <= max_blocks);
+		try(InputStream in = BlockGzipInputStream.open(f, 2)){
+			Assert.assertEquals(expected.toString(), IOUtils.toString(in, StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testSharedExecutor() {
+		Assert.assertSame(BlockGzipInputStream.sharedExecutor(2), BlockGzipInputStream.sharedExecutor(4));
+	}
+
+}
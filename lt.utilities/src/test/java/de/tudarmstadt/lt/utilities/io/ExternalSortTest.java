@@ -0,0 +1,169 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.tudarmstadt.lt.utilities.collections.LoserTree;
+
+/**
+ *
+ * @author Steffen Remus
+ */
+public class ExternalSortTest {
+
+	static List<String> randomRecords(int n, long seed) {
+		Random r = new Random(seed);
+		String[] words = { "the", "quick", "brown", "fox", "ärger", "z", new String(Character.toChars(0x1F600)) };
+		List<String> records = new ArrayList<String>(n);
+		for(int i = 0; i < n; i++){
+			StringBuilder sb = new StringBuilder(words[r.nextInt(words.length)]);
+			for(int j = r.nextInt(3); j > 0; j--)
+				sb.append(' ').append(words[r.nextInt(words.length)]);
+			records.add(sb.append('\t').append(1 + r.nextInt(5)).toString());
+		}
+		return records;
+	}
+
+	static List<String> lines(StringWriter w) {
+		return w.toString().isEmpty() ? Collections.<String>emptyList() : Arrays.asList(w.toString().split("\n"));
+	}
+
+	@Test
+	public void testLoserTree() {
+		for(int k = 0; k < 10; k++){
+			List<Iterator<Integer>> its = new ArrayList<Iterator<Integer>>();
+			List<Integer> expected = new ArrayList<Integer>();
+			Random r = new Random(k);
+			for(int i = 0; i < k; i++){
+				List<Integer> l = new ArrayList<Integer>();
+				for(int j = r.nextInt(20); j > 0; j--)
+					l.add(r.nextInt(50));
+				Collections.sort(l);
+				expected.addAll(l);
+				its.add(l.iterator());
+			}
+			Collections.sort(expected);
+			List<Integer> merged = new ArrayList<Integer>();
+			for(Iterator<Integer> it = LoserTree.merge(its, Integer::compare); it.hasNext();)
+				merged.add(it.next());
+			Assert.assertEquals(expected, merged);
+		}
+	}
+
+	@Test
+	public void testSort() throws IOException {
+		List<String> records = randomRecords(20000, 42);
+		List<String> expected = new ArrayList<String>(records);
+		expected.sort(ExternalSort.CODEPOINT_ORDER);
+
+		// in memory, spilled runs, spilled runs with intermediate merges
+		for(long memory_budget : new long[]{ 1 << 26, 1 << 18 }){
+			for(int fan_in : new int[]{ ExternalSort.DEFAULT_FAN_IN, 2 }){
+				ExternalSort sort = new ExternalSort(memory_budget, 3);
+				sort._fan_in = fan_in;
+				StringWriter w = new StringWriter();
+				Assert.assertEquals(records.size(), sort.sort(records.iterator(), w));
+				Assert.assertEquals(expected, lines(w));
+			}
+		}
+
+		StringWriter w = new StringWriter();
+		Assert.assertEquals(0, new ExternalSort(1 << 20, 2).sort(Collections.<String>emptyIterator(), w));
+		Assert.assertEquals("", w.toString());
+	}
+
+	@Test
+	public void testCombine() throws IOException {
+		List<String> records = randomRecords(20000, 7);
+		Map<String, Long> counts = new TreeMap<String, Long>(ExternalSort.CODEPOINT_ORDER);
+		for(String record : records){
+			String[] kv = record.split("\t");
+			counts.merge(kv[0], Long.parseLong(kv[1]), Long::sum);
+		}
+		List<String> expected = new ArrayList<String>();
+		for(Map.Entry<String, Long> e : counts.entrySet())
+			expected.add(e.getKey() + "\t" + e.getValue());
+
+		File dir = Files.createTempDirectory("externalsorttest").toFile();
+		try{
+			File in = new File(dir, "in.txt"), out = new File(dir, "out.txt.gz");
+			FileUtils.writeLines(in, "UTF-8", records);
+			Assert.assertEquals(expected.size(), new ExternalSort(ExternalSort.CODEPOINT_ORDER, ExternalSort.SUM_VALUES, 1 << 18, 2, dir).sort(in, out));
+			try(InputStream gz = new GZIPInputStream(new FileInputStream(out))){
+				Assert.assertEquals(expected, IOUtils.readLines(gz, StandardCharsets.UTF_8));
+			}
+			Assert.assertEquals(2, dir.list().length); // temporary run files are deleted
+		}finally{
+			FileUtils.deleteQuietly(dir);
+		}
+
+		for(long memory_budget : new long[]{ 1 << 26, 1 << 18 }){
+			ExternalSort sort = new ExternalSort(ExternalSort.CODEPOINT_ORDER, ExternalSort.SUM_VALUES, memory_budget, 2, null);
+			sort._fan_in = 2;
+			StringWriter w = new StringWriter();
+			Assert.assertEquals(expected.size(), sort.sort(records.iterator(), w));
+			Assert.assertEquals(expected, lines(w));
+		}
+
+		Assert.assertEquals("a b\t5\t1", ExternalSort.SUM_VALUES.combine("a b\t2\t1", "a b\t3"));
+	}
+
+	@Test
+	public void testRunWithValues() throws IOException {
+		List<String> keys = new ArrayList<String>();
+		for(String record : randomRecords(1000, 3))
+			keys.add(ExternalSort.key(record));
+		keys.sort(ExternalSort.CODEPOINT_ORDER);
+		File run = File.createTempFile("externalsorttest", ".run");
+		try{
+			try(ExternalSort.RunWriter w = new ExternalSort.RunWriter(run, 2)){
+				for(int i = 0; i < keys.size(); i++)
+					w.write(keys.get(i), new long[]{ i, Long.MAX_VALUE - i });
+			}
+			try(ExternalSort.RunReader r = new ExternalSort.RunReader(run, 2)){
+				for(int i = 0; i < keys.size(); i++){
+					Assert.assertEquals(keys.get(i), r.next());
+					Assert.assertArrayEquals(new long[]{ i, Long.MAX_VALUE - i }, r.values());
+				}
+				Assert.assertFalse(r.hasNext());
+			}
+		}finally{
+			FileUtils.deleteQuietly(run);
+		}
+	}
+
+}
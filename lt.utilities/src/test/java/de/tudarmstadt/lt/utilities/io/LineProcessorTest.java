@@ -0,0 +1,67 @@
+/*
+ *   Copyright 2015
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Steffen Remus
+ */
+public class LineProcessorTest {
+
+	static class UpperCase extends LineProcessor {
+		@Override
+		protected String processLine(String line) {
+			return line.isEmpty() ? null : line.toUpperCase();
+		}
+	}
+
+	@Test
+	public void testOrderedPipeline() throws IOException {
+		StringBuilder in = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < 5000; i++){
+			in.append("line ").append(i).append('\n');
+			expected.append("LINE ").append(i).append(System.lineSeparator());
+			if(i % 100 == 0)
+				in.append('\n');
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		UpperCase p = new UpperCase();
+		p._pout = new PrintStream(out, true, "UTF-8");
+		p._num_threads = 4;
+		p._batch_size = 7;
+		p._queue_capacity = 3;
+		p._progress_interval = 0;
+		p.run(new StringReader(in.toString()));
+
+		Assert.assertEquals(expected.toString(), out.toString("UTF-8"));
+		ParallelLineEngine<String> engine = p.getEngine();
+		Assert.assertEquals(5050, engine.getNumLinesRead());
+		Assert.assertEquals(5050, engine.getNumLinesWritten());
+		Assert.assertEquals(0, engine.getQueueDepth());
+		Assert.assertTrue(engine.getMaxQueueDepth() <= 3);
+		Assert.assertTrue(engine.getThroughput() > 0);
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ *   Copyright 2014
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.tudarmstadt.lt.utilities.io;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Steffen Remus
+ */
+public class ParallelLineEngineTest {
+
+	static String lines(int num_lines) {
+		StringBuilder b = new StringBuilder();
+		for(int i = 1; i <= num_lines; i++)
+			b.append(i).append('\n');
+		return b.toString();
+	}
+
+	@Test
+	public void testOrdered() throws IOException {
+		List<Long> results = new ArrayList<Long>();
+		long n = new ParallelLineEngine<Long>(4, 7, 3, true).process(new StringReader(lines(1000)), (line, l) -> {
+			Assert.assertEquals(l, Long.parseLong(line));
+			if(l % 3 == 0)
+				Thread.sleep(0, 1000);
+			return l % 10 == 0 ? null : l; // null results are not passed to the sink
+		}, results::add);
+		Assert.assertEquals(1000, n);
+		Assert.assertEquals(900, results.size());
+		for(int i = 1; i < results.size(); i++)
+			Assert.assertTrue(results.get(i - 1) < results.get(i));
+	}
+
+	@Test
+	public void testUnordered() throws IOException {
+		List<Long> results = new ArrayList<Long>();
+		new ParallelLineEngine<Long>(4, 5, 2, false).process(new StringReader(lines(1000)), (line, l) -> {
+			if(l == 500)
+				throw new IllegalArgumentException("skip me");
+			return l;
+		}, results::add);
+		Assert.assertEquals(999, results.size());
+		Collections.sort(results);
+		Assert.assertEquals(499L, (long)results.get(498));
+		Assert.assertEquals(501L, (long)results.get(499));
+	}
+
+	@Test
+	public void testSinkError() {
+		try{
+			new ParallelLineEngine<Long>(2, 10, 2, true).process(new StringReader(lines(10000)), (line, l) -> l, r -> {
+				if(r == 42)
+					throw new IOException("sink failed");
+			});
+			Assert.fail("expected an IOException");
+		}catch(IOException e){
+			Assert.assertEquals("sink failed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testWorkerError() {
+		try{
+			new ParallelLineEngine<Long>(3, 10, 4, true).process(new StringReader(lines(10000)), (line, l) -> {
+				if(l == 4242)
+					throw new AssertionError("worker failed");
+				return l;
+			}, r -> {});
+			Assert.fail("expected an IOException");
+		}catch(IOException e){
+			Assert.assertTrue(e.getCause() instanceof AssertionError);
+		}
+	}
+
+}